@@ -39,6 +39,8 @@ import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -64,7 +66,10 @@ import guidance.files.ImputationFiles;
 import guidance.files.MergeFiles;
 import guidance.files.PhenomeAnalysisFiles;
 import guidance.files.ResultsFiles;
+import guidance.plots.PvalueSketch;
+import guidance.processes.ConstraintModel;
 import guidance.processes.ProcessUtils;
+import guidance.processes.TelemetryLog;
 import guidance.utils.ChromoInfo;
 import guidance.utils.ParseCmdLine;
 import guidance.utils.GeneralUtils;
@@ -142,7 +147,12 @@ public class Guidance {
     private static final String SEX2 = GuidanceImpl.getSex2();
     private static final String NO_SEX = GuidanceImpl.getNoSex();
 
+    private static final String TELEMETRY_EXTENSION = ".telemetry.jsonl";
+
     private static File listOfStages;
+    private static ConstraintModel constraintModel;
+    private static long cohortSamples = -2;
+    private static HashSet<String> reportedCores = new HashSet<>();
     private static ArrayList<String> listOfCommands = new ArrayList<>();
 
     private static InetAddress ipInfo;
@@ -192,8 +202,16 @@ public class Guidance {
         if (DEBUG) {
             GeneralUtils.printEnVariables(LOGGER);
         }
+        // The tasks run in this node, without the COMPSs runtime, when the local executor is requested
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (arguments.remove(LocalExecutor.LOCAL_EXECUTOR_FLAG)) {
+            LocalExecutor localExecutor = LocalExecutor.start();
+            LOGGER.info("[Guidance] Tasks run by the local executor with " + localExecutor.getTotalCores()
+                    + " computing units and " + localExecutor.getTotalMemoryGb() + " GB");
+        }
+
         // Get the input arguments
-        ParseCmdLine parsingArgs = new ParseCmdLine(args);
+        ParseCmdLine parsingArgs = new ParseCmdLine(arguments.toArray(new String[0]));
 
         // Verify and print the status of each stage
         GeneralUtils.printStagesStatus(LOGGER, parsingArgs);
@@ -206,6 +224,23 @@ public class Guidance {
         // Verify whether the file exists or not.
         listOfStages = GeneralUtils.createListOfStages(LOGGER, listOfStagesFileName);
 
+        // The telemetry of the external commands is written to the file of the telemetryFile environment
+        // variable, that the workers also get. The tasks of the local executor run in this JVM, so by default
+        // they write it next to the list of stages
+        if (TelemetryLog.getFile() == null && LocalExecutor.getInstance() != null) {
+            System.setProperty(TelemetryLog.TELEMETRY_FILE_PROPERTY, listOfStagesFileName + TELEMETRY_EXTENSION);
+        }
+        if (TelemetryLog.getFile() == null) {
+            LOGGER.warn("[Guidance] No telemetry of the commands: " + TelemetryLog.TELEMETRY_FILE_ENV
+                    + " is not defined");
+        } else {
+            LOGGER.info("[Guidance] Telemetry of the commands: " + TelemetryLog.getFile());
+        }
+
+        // The memory of the imputation tasks is learned from the telemetry of the previous runs
+        constraintModel = ConstraintModel.load(TelemetryLog.getFile());
+        LOGGER.info("[Guidance] Constraint model learned from " + constraintModel.size() + " measured tasks");
+
         DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
         Date date = new Date();
         String datestring = dateFormat.format(date);
@@ -302,7 +337,7 @@ public class Guidance {
         LOGGER.info("[Guidance] Directory structures and file names have been created...");
 
         if (BARRIERS) {
-            COMPSs.barrier();
+            barrier(false);
         }
 
         String phasingTool = parsingArgs.getPhasingTool();
@@ -553,7 +588,7 @@ public class Guidance {
         GeneralUtils.flushCommands(listOfStages, listOfCommands, FLUSH);
 
         if (BARRIERS) {
-            COMPSs.barrier();
+            barrier(false);
         }
 
         // The number of Chromos to process is endChr - startChr + 1;
@@ -584,7 +619,7 @@ public class Guidance {
             } // End for panel types
 
             if (BARRIERS) {
-                COMPSs.barrier();
+                barrier(false);
             }
 
         } // End for chromosomes
@@ -644,7 +679,7 @@ public class Guidance {
         } // End for tests
 
         if (BARRIERS) {
-            COMPSs.barrier();
+            barrier(false);
         }
 
         for (int test = 0; test < numberOfTestTypes; test++) {
@@ -710,7 +745,7 @@ public class Guidance {
         } // End for test types
 
         if (BARRIERS) {
-            COMPSs.barrier();
+            barrier(false);
         }
 
         // GeneralUtils.flushCommands(listOfStages, listOfCommands, true);
@@ -724,7 +759,7 @@ public class Guidance {
 
         LOGGER.info("\n[Guidance] All tasks are in execution, please wait...");
 
-        COMPSs.barrier(true);
+        barrier(true);
 
         long endTime = System.currentTimeMillis();
 
@@ -1540,21 +1575,19 @@ public class Guidance {
                     }
 
                     if (processedChunks == 2 * numberOfChunks - 4) {
-                        doMergeTwoChunksUnconditional(parsingArgs, reducedA, reducedB, filteredByAllFile);
+                        doMergeTwoFilteredByAllChunks(parsingArgs, reducedA, reducedB, filteredByAllFile);
                         indexC++;
                     } else {
                         reducedC = mergeFilesInfo.getReducedFilteredMalesFile(ttIndex, rpanelIndex, indexC);
-                        doMergeTwoChunksUnconditional(parsingArgs, reducedA, reducedB, reducedC);
+                        doMergeTwoFilteredByAllChunks(parsingArgs, reducedA, reducedB, reducedC);
                         indexC++;
                     }
                     if (eraseA && ERASE_FILES) {
-                        File f = new File(reducedA);
-                        f.delete();
+                        deleteFiles(reducedA, PvalueSketch.getSketchFile(reducedA));
 
                     }
                     if (eraseB && ERASE_FILES) {
-                        File f = new File(reducedB);
-                        f.delete();
+                        deleteFiles(reducedB, PvalueSketch.getSketchFile(reducedB));
 
                     }
 
@@ -1614,21 +1647,19 @@ public class Guidance {
                     }
 
                     if (processedChunks == 2 * numberOfChunks - 4) {
-                        doMergeTwoChunksUnconditional(parsingArgs, reducedA, reducedB, filteredByAllFile);
+                        doMergeTwoFilteredByAllChunks(parsingArgs, reducedA, reducedB, filteredByAllFile);
                         indexC++;
                     } else {
                         reducedC = mergeFilesInfo.getReducedFilteredFemalesFile(ttIndex, rpanelIndex, indexC);
-                        doMergeTwoChunksUnconditional(parsingArgs, reducedA, reducedB, reducedC);
+                        doMergeTwoFilteredByAllChunks(parsingArgs, reducedA, reducedB, reducedC);
                         indexC++;
                     }
                     if (eraseA && ERASE_FILES) {
-                        File f = new File(reducedA);
-                        f.delete();
+                        deleteFiles(reducedA, PvalueSketch.getSketchFile(reducedA));
 
                     }
                     if (eraseB && ERASE_FILES) {
-                        File f = new File(reducedB);
-                        f.delete();
+                        deleteFiles(reducedB, PvalueSketch.getSketchFile(reducedB));
 
                     }
 
@@ -1721,21 +1752,19 @@ public class Guidance {
                 }
 
                 if (processedChunks == 2 * numberOfChunks - 4) {
-                    doMergeTwoChunksUnconditional(parsingArgs, reducedA, reducedB, filteredByAllFile);
+                    doMergeTwoFilteredByAllChunks(parsingArgs, reducedA, reducedB, filteredByAllFile);
                     indexC++;
                 } else {
                     reducedC = mergeFilesInfo.getReducedFilteredFile(ttIndex, rpanelIndex, chr, indexC);
-                    doMergeTwoChunksUnconditional(parsingArgs, reducedA, reducedB, reducedC);
+                    doMergeTwoFilteredByAllChunks(parsingArgs, reducedA, reducedB, reducedC);
                     indexC++;
                 }
                 if (eraseA && ERASE_FILES) {
-                    File f = new File(reducedA);
-                    f.delete();
+                    deleteFiles(reducedA, PvalueSketch.getSketchFile(reducedA));
 
                 }
                 if (eraseB && ERASE_FILES) {
-                    File f = new File(reducedB);
-                    f.delete();
+                    deleteFiles(reducedB, PvalueSketch.getSketchFile(reducedB));
 
                 }
 
@@ -1854,13 +1883,11 @@ public class Guidance {
                     indexC++;
                 }
                 if (eraseA && ERASE_FILES) {
-                    File f = new File(reducedA);
-                    f.delete();
+                    deleteFiles(reducedA);
 
                 }
                 if (eraseB && ERASE_FILES) {
-                    File f = new File(reducedB);
-                    f.delete();
+                    deleteFiles(reducedB);
                 }
 
             } // End for Chunks
@@ -1981,12 +2008,10 @@ public class Guidance {
                     indexC++;
                 }
                 if (eraseA && ERASE_FILES) {
-                    File f = new File(reducedA);
-                    f.delete();
+                    deleteFiles(reducedA);
                 }
                 if (eraseB && ERASE_FILES) {
-                    File f = new File(reducedB);
-                    f.delete();
+                    deleteFiles(reducedB);
                 }
             } // End for Chunks
 
@@ -2030,12 +2055,10 @@ public class Guidance {
                     indexC++;
                 }
                 if (eraseA && ERASE_FILES) {
-                    File f = new File(reducedA);
-                    f.delete();
+                    deleteFiles(reducedA);
                 }
                 if (eraseB && ERASE_FILES) {
-                    File f = new File(reducedB);
-                    f.delete();
+                    deleteFiles(reducedB);
                 }
 
             } // End for Chunks
@@ -2265,146 +2288,24 @@ public class Guidance {
 
                     GeneralUtils.flushCommands(listOfStages, listOfCommands, FLUSH);
 
-                    // Combine all the filtered panels 2 by 2 until there are no remaining panels
+                    // Combine all the filtered panels until there are no remaining panels
                     if (chr == 23) {
                         String destFilteredPanelMales = assocFilesInfo.getCombinedFilteredMalesFile(ttIndex, 0, lim1,
                                 lim2, chunkSize);
-                        String baseFilteredPanelMales = destFilteredPanelMales.substring(0,
-                                destFilteredPanelMales.length() - 7);
-                        int counter = 0;
-                        int mergedPanels = 0;
-                        ArrayList<String> panelsToErase = new ArrayList<String>();
-                        while (filteredPanelsToCombineMales.size() > 1) {
-                            ++counter;
-                            String filteredPanelC;
-                            if (filteredPanelsToCombineMales.size() == 2) {
-                                filteredPanelC = destFilteredPanelMales;
-                            } else {
-                                filteredPanelC = baseFilteredPanelMales + "_reduce_" + Integer.toString(counter)
-                                        + ".txt.tgz";
-                                panelsToErase.add(filteredPanelC);
-                            }
-
-                            String filteredPanelA = filteredPanelsToCombineMales.poll();
-                            String filteredPanelB = filteredPanelsToCombineMales.poll();
-                            // Filtered part: combines A and B into A
-                            if (DEBUG) {
-                                LOGGER.debug("[Guidance] Combining " + filteredPanelA + " and " + filteredPanelB
-                                        + " to " + filteredPanelC);
-                            }
-                            doCombinePanelsComplex(parsingArgs, filteredPanelA, filteredPanelB, filteredPanelC, lim1,
-                                    lim2);
-                            filteredPanelsToCombineMales.add(filteredPanelC);
-                        }
-                        if (ERASE_FILES) {
-                            for (String reduceFile : panelsToErase) {
-                                File f = new File(reduceFile);
-                                f.delete();
-                            }
-                        }
+                        doCombineAllPanels(parsingArgs, filteredPanelsToCombineMales, destFilteredPanelMales, lim1, lim2);
 
                         String destFilteredPanelFemales = assocFilesInfo.getCombinedFilteredFemalesFile(ttIndex, 0,
                                 lim1, lim2, chunkSize);
-                        String baseFilteredPanelFemales = destFilteredPanelFemales.substring(0,
-                                destFilteredPanelFemales.length() - 7);
-                        panelsToErase = new ArrayList<String>();
-                        while (filteredPanelsToCombineFemales.size() > 1) {
-                            ++counter;
-                            String filteredPanelC;
-
-                            if (filteredPanelsToCombineFemales.size() == 2) {
-                                filteredPanelC = destFilteredPanelFemales;
-                            } else {
-                                filteredPanelC = baseFilteredPanelFemales + "_reduce_" + Integer.toString(counter)
-                                        + ".txt.tgz";
-                                panelsToErase.add(filteredPanelC);
-                            }
-                            String filteredPanelA = filteredPanelsToCombineFemales.poll();
-                            String filteredPanelB = filteredPanelsToCombineFemales.poll();
-                            // Filtered part: combines A and B into A
-                            if (DEBUG) {
-                                LOGGER.debug("[Guidance] Combining " + filteredPanelA + " and " + filteredPanelB
-                                        + " to " + filteredPanelC);
-                            }
-                            doCombinePanelsComplex(parsingArgs, filteredPanelA, filteredPanelB, filteredPanelC, lim1,
-                                    lim2);
-                            filteredPanelsToCombineFemales.add(filteredPanelC);
-                        }
-                        if (ERASE_FILES) {
-                            for (String reduceFile : panelsToErase) {
-                                File f = new File(reduceFile);
-                                f.delete();
-                            }
-                        }
+                        doCombineAllPanels(parsingArgs, filteredPanelsToCombineFemales, destFilteredPanelFemales, lim1,
+                                lim2);
 
                         String destFilteredPanelX = assocFilesInfo.getCombinedFilteredFile(ttIndex, 0, chr, lim1, lim2,
                                 chunkSize);
-                        String baseFilteredPanelX = destFilteredPanelX.substring(0, destFilteredPanelX.length() - 7);
-                        counter = 0;
-                        panelsToErase = new ArrayList<String>();
-                        while (filteredPanelsToCombineX.size() > 1) {
-                            ++counter;
-                            String filteredPanelC;
-
-                            if (filteredPanelsToCombineX.size() == 2) {
-                                filteredPanelC = destFilteredPanelX;
-                            } else {
-                                filteredPanelC = baseFilteredPanelX + "_reduce_" + Integer.toString(counter)
-                                        + ".txt.tgz";
-                                panelsToErase.add(filteredPanelC);
-                            }
-                            String filteredPanelA = filteredPanelsToCombineX.poll();
-                            String filteredPanelB = filteredPanelsToCombineX.poll();
-                            // Filtered part: combines A and B into A
-                            if (DEBUG) {
-                                LOGGER.debug("[Guidance] Combining " + filteredPanelA + " and " + filteredPanelB
-                                        + " to " + filteredPanelC);
-                            }
-                            doCombinePanelsComplex(parsingArgs, filteredPanelA, filteredPanelB, filteredPanelC, lim1,
-                                    lim2);
-                            filteredPanelsToCombineX.add(filteredPanelC);
-                        }
-                        if (ERASE_FILES) {
-                            for (String reduceFile : panelsToErase) {
-                                File f = new File(reduceFile);
-                                f.delete();
-                            }
-                        }
+                        doCombineAllPanels(parsingArgs, filteredPanelsToCombineX, destFilteredPanelX, lim1, lim2);
                     } else {
                         String destFilteredPanel = assocFilesInfo.getCombinedFilteredFile(ttIndex, 0, chr, lim1, lim2,
                                 chunkSize);
-                        String baseFilteredPanel = destFilteredPanel.substring(0, destFilteredPanel.length() - 7);
-                        ArrayList<String> panelsToErase = new ArrayList<String>();
-                        int counter = 0;
-                        while (filteredPanelsToCombine.size() > 1) {
-                            ++counter;
-                            String filteredPanelC;
-                            if (filteredPanelsToCombine.size() == 2) {
-                                filteredPanelC = destFilteredPanel;
-                            } else {
-                                filteredPanelC = baseFilteredPanel + "_reduce_" + Integer.toString(counter)
-                                        + ".txt.tgz";
-                                panelsToErase.add(filteredPanelC);
-                            }
-
-                            String filteredPanelA = filteredPanelsToCombine.poll();
-                            String filteredPanelB = filteredPanelsToCombine.poll();
-
-                            // Filtered part: combines A and B into A
-                            if (DEBUG) {
-                                LOGGER.debug("[Guidance] Combining " + filteredPanelA + " and " + filteredPanelB
-                                        + " to " + filteredPanelC);
-                            }
-                            doCombinePanelsComplex(parsingArgs, filteredPanelA, filteredPanelB, filteredPanelC, lim1,
-                                    lim2);
-                            filteredPanelsToCombine.add(filteredPanelC);
-                        }
-                        if (ERASE_FILES) {
-                            for (String reduceFile : panelsToErase) {
-                                File f = new File(reduceFile);
-                                f.delete();
-                            }
-                        }
+                        doCombineAllPanels(parsingArgs, filteredPanelsToCombine, destFilteredPanel, lim1, lim2);
                     }
 
                     GeneralUtils.flushCommands(listOfStages, listOfCommands, FLUSH);
@@ -2471,8 +2372,7 @@ public class Guidance {
             }
             if (ERASE_FILES) {
                 for (String reduceFile : panelsToErase) {
-                    File f = new File(reduceFile);
-                    f.delete();
+                    deleteFiles(reduceFile);
                 }
             }
 
@@ -2518,18 +2418,18 @@ public class Guidance {
         String pvaThreshold = Double.toString(parsingArgs.getPvaThreshold());
         String models = String.join(",", parsingArgs.getManhattanOptions());
 
-        String rScriptPath = R_SCRIPT_DIR + "/condensed_tophits_crossmodel.R ";
-        // rScriptPath = "/gpfs/scratch/pr1ejj00/pr1ejj08/GUIDANCE/GERA/condensed_tophits_crossmodel_new_2.R ";
+        String condensedSketchFile = PvalueSketch.getSketchFile(condensedFile);
 
-        String cmdToStore = R_SCRIPT_BIN_DIR + "/Rscript " + rScriptPath + filteredFile + " " + filteredMalesFile + " "
-                + filteredFemalesFile + " " + filteredAllXFile + " " + condensedFile + " " + topHitsFile + " "
-                + crossRanges + " " + pvaThreshold + " " + models;
+        String cmdToStore = JAVA_HOME + "/java generateCondensedAndTopHitsFile " + filteredFile + " " + filteredMalesFile + " "
+                + filteredFemalesFile + " " + filteredAllXFile + " " + condensedFile + " " + condensedSketchFile + " "
+                + topHitsFile + " " + crossRanges + " " + pvaThreshold + " " + models;
 
         listOfCommands.add(cmdToStore);
 
         try {
             GuidanceImpl.generateCondensedAndTopHitsFile(filteredFile, filteredMalesFile, filteredFemalesFile,
-                    filteredAllXFile, condensedFile, topHitsFile, crossRanges, pvaThreshold, models, condensedFile + ".out", condensedFile + ".err", cmdToStore);
+                    filteredAllXFile, condensedFile, condensedSketchFile, topHitsFile, crossRanges, pvaThreshold, models,
+                    condensedFile + ".out", condensedFile + ".err", cmdToStore);
         } catch (GuidanceTaskException gte) {
             LOGGER.error("[Guidance] Exception trying the execution of generateCondensedFile task", gte);
         }
@@ -2661,19 +2561,18 @@ public class Guidance {
         String crossPhenoRanges = phenomeAnalysisFilesInfo.getCrossPhenoRanges();
         String crossPhenoTopVariants = phenomeAnalysisFilesInfo.getCrossPhenoAssocTop();
 
-        String rScriptPath = R_SCRIPT_DIR + "/crossphenotype_crossmodel.R ";
-        // rScriptPath = "/gpfs/projects/bsc05/martagm/GWImp_COMPSs/R_SCRIPTS/crossphenotype_crossmodel_new_2.R ";
-
-        cmdToStore = R_SCRIPT_BIN_DIR + "Rscript " + rScriptPath + mergedTopHitsString + " " + crossPhenoAll + " "
+        cmdToStore = JAVA_HOME + "/java computeCrossPheno " + mergedTopHitsString + " " + crossPhenoAll + " "
                 + pvaThreshold + " " + models;
         listOfCommands.add(cmdToStore);
 
         GeneralUtils.flushCommands(listOfStages, listOfCommands, FLUSH);
 
-        COMPSs.barrier(true);
-
-        GuidanceImpl.computeCrossPheno(controlString, mergedTopHitsString, crossPhenoAll, pvaThreshold, models,
-                hostname, ip);
+        try {
+            GuidanceImpl.computeCrossPheno(controlString, mergedTopHitsString, crossPhenoAll, pvaThreshold, models,
+                    hostname, ip);
+        } catch (GuidanceTaskException gte) {
+            LOGGER.error("[Guidance] Exception trying the execution of computeCrossPheno task", gte);
+        }
 
     }
 
@@ -2964,20 +2863,21 @@ public class Guidance {
             infoThresholdS = Double.toString(parsingArgs.getMinimacThreshold());
         }
 
-        String panelMemory = parsingArgs.getRpanelMemory(refpanel);
+        String panel = parsingArgs.getRpanelType(refpanel);
+        String panelMemory = selectPanelMemory(parsingArgs, refpanel, "imputeWithImpute", theChromo, lim1S, lim2S);
         if (panelMemory.equals("HIGH")) {
             GuidanceImpl.imputeWithImputeAndFilterByInfoHigh(gmapFile, knownHapFile, legendFile, phasingHapsFile,
-                    phasingSampleFile, lim1S, lim2S, pairsFile, infoThresholdS, mafThresholdS, theChromo, sex,
+                    phasingSampleFile, lim1S, lim2S, pairsFile, infoThresholdS, mafThresholdS, theChromo, sex, panel,
                     imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, filteredRsIdFile, filteredFile,
                     filteredLogFile);
         } else if (panelMemory.equals("MEDIUM")) {
             GuidanceImpl.imputeWithImputeAndFilterByInfoMedium(gmapFile, knownHapFile, legendFile, phasingHapsFile,
-                    phasingSampleFile, lim1S, lim2S, pairsFile, infoThresholdS, mafThresholdS, theChromo, sex,
+                    phasingSampleFile, lim1S, lim2S, pairsFile, infoThresholdS, mafThresholdS, theChromo, sex, panel,
                     imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, filteredRsIdFile, filteredFile,
                     filteredLogFile);
         } else if (panelMemory.equals("LOW")) {
             GuidanceImpl.imputeWithImputeAndFilterByInfoLow(gmapFile, knownHapFile, legendFile, phasingHapsFile,
-                    phasingSampleFile, lim1S, lim2S, pairsFile, infoThresholdS, mafThresholdS, theChromo, sex,
+                    phasingSampleFile, lim1S, lim2S, pairsFile, infoThresholdS, mafThresholdS, theChromo, sex, panel,
                     imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, filteredRsIdFile, filteredFile,
                     filteredLogFile);
         } else {
@@ -2986,6 +2886,66 @@ public class Guidance {
 
     }
 
+    /**
+     * Returns the memory class (LOW, MEDIUM or HIGH) of an imputation task. It is predicted by the constraint model from
+     * the variants of the chunk and the samples of the cohort when there are measures of the task type and panel, and
+     * it is the memory of the panel otherwise. The cores used by the measured tasks are logged once per task type and
+     * panel when they differ from the computing units of the task
+     * 
+     * @param parsingArgs
+     * @param refpanel
+     * @param taskType
+     * @param chrS
+     * @param lim1S
+     * @param lim2S
+     * @return
+     */
+    private static String selectPanelMemory(ParseCmdLine parsingArgs, int refpanel, String taskType, String chrS,
+            String lim1S, String lim2S) {
+
+        String panelMemory = parsingArgs.getRpanelMemory(refpanel);
+        String panel = parsingArgs.getRpanelType(refpanel);
+        if (constraintModel == null || !constraintModel.hasHistory(taskType, panel)) {
+            return panelMemory;
+        }
+
+        if (reportedCores.add(taskType + "\t" + panel)) {
+            int cores = constraintModel.predictCores(taskType, panel);
+            int computingUnits = FileUtils.getComputingUnits(taskType + "CU");
+            if (cores > 0 && cores != computingUnits) {
+                LOGGER.info("[Guidance] " + taskType + " of panel " + panel + " used up to " + cores
+                        + " cores per task, its computing units are " + computingUnits);
+            }
+        }
+
+        if (cohortSamples == -2) {
+            if (parsingArgs.getInputFormat().equals("BED")) {
+                cohortSamples = ConstraintModel
+                        .countSamples(parsingArgs.getBedDir() + File.separator + parsingArgs.getFamFileName(), 0);
+            } else {
+                cohortSamples = ConstraintModel
+                        .countSamples(parsingArgs.getSampleDir() + File.separator + parsingArgs.getSampleFileName(), 2);
+            }
+        }
+
+        String chunk = lim1S + "-" + lim2S;
+        long variants = -1;
+        try {
+            variants = constraintModel.estimateVariants(taskType, chrS, chunk, panel, Integer.parseInt(lim1S),
+                    Integer.parseInt(lim2S));
+        } catch (NumberFormatException nfe) {
+            // No limits of the chunk
+        }
+        double memoryGb = constraintModel.predictMemoryGb(taskType, chrS, chunk, panel, variants, cohortSamples);
+        String memoryClass = ConstraintModel.selectMemoryClass(taskType, memoryGb, panelMemory);
+
+        if (!memoryClass.equals(panelMemory)) {
+            LOGGER.info("[Guidance] " + taskType + " of chr " + chrS + " chunk " + chunk + " predicted to use "
+                    + String.format("%.2f", memoryGb) + " GB: " + memoryClass + " instead of " + panelMemory);
+        }
+        return memoryClass;
+    }
+
     /**
      * Method that wraps the execution of impute task and store the command in the listOfCommands
      * 
@@ -3055,19 +3015,20 @@ public class Guidance {
             listOfCommands.add(secondCmdToStore);
 
             try {
-                String panelMemory = parsingArgs.getRpanelMemory(refpanel);
+                String panel = parsingArgs.getRpanelType(refpanel);
+                String panelMemory = selectPanelMemory(parsingArgs, refpanel, "imputeWithImpute", chrS, lim1S, lim2S);
                 if (panelMemory.equals("HIGH")) {
                     GuidanceImpl.imputeWithImputeHigh(gmapFile, knownHapFile, legendFile, phasingHapsFile,
                             phasingSampleFile, lim1S, lim2S, pairsFile, imputeFile, imputeFileInfo, imputeFileSummary,
-                            imputeFileWarnings, chrS, sex, cmdToStore);
+                            imputeFileWarnings, chrS, sex, panel, cmdToStore);
                 } else if (panelMemory.equals("MEDIUM")) {
                     GuidanceImpl.imputeWithImputeMedium(gmapFile, knownHapFile, legendFile, phasingHapsFile,
                             phasingSampleFile, lim1S, lim2S, pairsFile, imputeFile, imputeFileInfo, imputeFileSummary,
-                            imputeFileWarnings, chrS, sex, cmdToStore);
+                            imputeFileWarnings, chrS, sex, panel, cmdToStore);
                 } else if (panelMemory.equals("LOW")) {
                     GuidanceImpl.imputeWithImputeLow(gmapFile, knownHapFile, legendFile, phasingHapsFile,
                             phasingSampleFile, lim1S, lim2S, pairsFile, imputeFile, imputeFileInfo, imputeFileSummary,
-                            imputeFileWarnings, chrS, sex, cmdToStore);
+                            imputeFileWarnings, chrS, sex, panel, cmdToStore);
                 } else {
                     throw new GuidanceTaskException("Incorrect panel memory " + panelMemory);
                 }
@@ -3138,19 +3099,20 @@ public class Guidance {
             }
 
             try {
-                String panelMemory = parsingArgs.getRpanelMemory(refpanel);
+                String panel = parsingArgs.getRpanelType(refpanel);
+                String panelMemory = selectPanelMemory(parsingArgs, refpanel, "imputeWithMinimac", chrS, lim1S, lim2S);
                 if (panelMemory.equals("HIGH")) {
                     GuidanceImpl.imputeWithMinimacHigh(refVcfFile, filteredHaplotypesVcfFileBgzip, imputeFileBgzip,
-                            imputeFileInfo, imputeFileErate, imputeFileRec, imputeFileM3vcf, imputeFileLog, chrS, lim1S,
-                            lim2S, myPrefix, sex, cmdToStore);
+                            imputeFileTbi, imputeFileInfo, imputeFileErate, imputeFileRec, imputeFileM3vcf,
+                            imputeFileLog, chrS, lim1S, lim2S, myPrefix, sex, panel, cmdToStore);
                 } else if (panelMemory.equals("MEDIUM")) {
                     GuidanceImpl.imputeWithMinimacMedium(refVcfFile, filteredHaplotypesVcfFileBgzip, imputeFileBgzip,
-                            imputeFileInfo, imputeFileErate, imputeFileRec, imputeFileM3vcf, imputeFileLog, chrS, lim1S,
-                            lim2S, myPrefix, sex, cmdToStore);
+                            imputeFileTbi, imputeFileInfo, imputeFileErate, imputeFileRec, imputeFileM3vcf,
+                            imputeFileLog, chrS, lim1S, lim2S, myPrefix, sex, panel, cmdToStore);
                 } else if (panelMemory.equals("LOW")) {
                     GuidanceImpl.imputeWithMinimacLow(refVcfFile, filteredHaplotypesVcfFileBgzip, imputeFileBgzip,
-                            imputeFileInfo, imputeFileErate, imputeFileRec, imputeFileM3vcf, imputeFileLog, chrS, lim1S,
-                            lim2S, myPrefix, sex, cmdToStore);
+                            imputeFileTbi, imputeFileInfo, imputeFileErate, imputeFileRec, imputeFileM3vcf,
+                            imputeFileLog, chrS, lim1S, lim2S, myPrefix, sex, panel, cmdToStore);
                 } else {
                     System.err.println("Incorrect panel memory " + panelMemory);
                     throw new GuidanceTaskException("Incorrect panel memory " + panelMemory);
@@ -3170,20 +3132,6 @@ public class Guidance {
              * error("[Guidance] Exception trying the execution of samtoolsBgzip task"); }
              * 
              */
-
-            cmdToStore = SAMTOOLSBINARY + "/tabix -p vcf --force " + imputeFileBgzip + " " + imputeFileTbi;
-
-            listOfCommands.add(cmdToStore);
-            try {
-                GeneralUtils.flushCommands(listOfStages, listOfCommands, FLUSH);
-            } catch (IOException e) {
-                LOGGER.error("[Guidance] Exception writing to list of commands file " + e);
-            }
-            try {
-                GuidanceImpl.samtoolsTabix(imputeFileBgzip, imputeFileTbi, cmdToStore);
-            } catch (Exception e) {
-                LOGGER.error("[Guidance] Exception trying the execution of samtoolsTabix task");
-            }
         }
     }
 
@@ -3284,7 +3232,7 @@ public class Guidance {
             GuidanceImpl.snptestAndFilterByAll(mergedGenFile, mergedSampleFile, responseVar, covariables, modelString,
                     theChromo, imputationTool, imputeFileInfo, mafThresholdS, hweCohortThresholdS, hweCasesThresholdS,
                     hweControlsThresholdS, infoThresholdS, sex, rpanelName, snptestOutFile, snptestOutLogFile,
-                    summaryFile, assocFilteredByAll);
+                    summaryFile, assocFilteredByAll, PvalueSketch.getSketchFile(assocFilteredByAll));
         } catch (GuidanceTaskException gte) {
             LOGGER.error("[Guidance] Exception trying the execution of snptest task", gte);
         }
@@ -3444,8 +3392,12 @@ public class Guidance {
             String filteredByAllB, String filteredByAllC, String rpanelName, String rpanelFlag) {
 
         if (parsingArgs.getStageStatus("jointFilteredByAllFiles") == 1) {
+            String sketchA = PvalueSketch.getSketchFile(filteredByAllA);
+            String sketchB = PvalueSketch.getSketchFile(filteredByAllB);
+            String sketchC = PvalueSketch.getSketchFile(filteredByAllC);
             String cmdToStore = JAVA_HOME + "/java jointFilteredByAllFiles " + filteredByAllA + " " + filteredByAllB
-                    + " " + filteredByAllC + " " + rpanelName + " " + rpanelFlag;
+                    + " " + filteredByAllC + " " + sketchA + " " + sketchB + " " + sketchC + " " + rpanelName + " "
+                    + rpanelFlag;
             listOfCommands.add(cmdToStore);
             try {
                 GeneralUtils.flushCommands(listOfStages, listOfCommands, FLUSH);
@@ -3453,8 +3405,8 @@ public class Guidance {
                 LOGGER.error("[Guidance] Exception writing to list of commands file " + e);
             }
             try {
-                GuidanceImpl.jointFilteredByAllFiles(filteredByAllA, filteredByAllB, filteredByAllC, rpanelName,
-                        rpanelFlag, cmdToStore);
+                GuidanceImpl.jointFilteredByAllFiles(filteredByAllA, filteredByAllB, filteredByAllC, sketchA, sketchB,
+                        sketchC, rpanelName, rpanelFlag, cmdToStore);
             } catch (GuidanceTaskException gte) {
                 LOGGER.error("[Guidance] Exception trying the execution of getBestSnps task", gte);
             }
@@ -3478,6 +3430,7 @@ public class Guidance {
 
         String[] manhattans = parsingArgs.getManhattanOptions();
         String thresh = String.valueOf(parsingArgs.getPvaThreshold());
+        String condensedSketchFile = PvalueSketch.getSketchFile(condensedFile);
         String columnName = null;
         String manpdf = null;
         String mantiff = null;
@@ -3491,17 +3444,13 @@ public class Guidance {
             qqtiff = fileToInheritance(qqPlotTiffFile, 5, option);
             columnName = "frequentist_" + option + "_pvalue";
 
-            String rScriptPath = R_SCRIPT_DIR + "/qqplot_manhattan_all_models.R ";
-            // rScriptPath =
-            // "/gpfs/projects/bsc05/martagm/GWImp_COMPSs/R_SCRIPTS/qqplot_manhattan_all_models.R
-            // ";
-            String cmdToStore = R_SCRIPT_BIN_DIR + "/Rscript " + rScriptPath + condensedFile + " " + qqpdf + " "
-                    + manpdf + " " + qqtiff + " " + mantiff + " " + columnName + " " + thresh;
+            String cmdToStore = JAVA_HOME + "/java generateQQManhattanPlots " + condensedFile + " " + condensedSketchFile
+                    + " " + qqpdf + " " + manpdf + " " + qqtiff + " " + mantiff + " " + columnName + " " + thresh;
             listOfCommands.add(cmdToStore);
 
             try {
-                GuidanceImpl.generateQQManhattanPlots(condensedFile, qqpdf, manpdf, qqtiff, mantiff, columnName, thresh,
-                        cmdToStore);
+                GuidanceImpl.generateQQManhattanPlots(condensedFile, condensedSketchFile, qqpdf, manpdf, qqtiff, mantiff,
+                        columnName, thresh, cmdToStore);
             } catch (GuidanceTaskException gte) {
                 LOGGER.error("[Guidance] Exception trying the execution of generateQQManhattanPlots task", gte);
             }
@@ -3541,6 +3490,111 @@ public class Guidance {
 
     }
 
+    /**
+     * Method that combines all the panels of a chunk into the destination file. Up to four panels are combined by a
+     * single task, so the _reduce_ intermediate files are only needed when there are more than four panels
+     *
+     * @param parsingArgs
+     * @param panelsToCombine
+     * @param destFilteredPanel
+     * @param lim1
+     * @param lim2
+     */
+    private static void doCombineAllPanels(ParseCmdLine parsingArgs, LinkedList<String> panelsToCombine,
+            String destFilteredPanel, int lim1, int lim2) {
+
+        String baseFilteredPanel = destFilteredPanel.substring(0, destFilteredPanel.length() - 7);
+        ArrayList<String> panelsToErase = new ArrayList<String>();
+        int counter = 0;
+        while (panelsToCombine.size() > 1) {
+            ++counter;
+            String filteredPanelC;
+            if (panelsToCombine.size() <= 4) {
+                filteredPanelC = destFilteredPanel;
+            } else {
+                filteredPanelC = baseFilteredPanel + "_reduce_" + Integer.toString(counter) + ".txt.tgz";
+                panelsToErase.add(filteredPanelC);
+            }
+
+            if (DEBUG) {
+                LOGGER.debug("[Guidance] Combining " + panelsToCombine.subList(0, Math.min(4, panelsToCombine.size()))
+                        + " to " + filteredPanelC);
+            }
+            if (panelsToCombine.size() >= 4) {
+                doCombineFourPanelsComplex(parsingArgs, panelsToCombine.poll(), panelsToCombine.poll(),
+                        panelsToCombine.poll(), panelsToCombine.poll(), filteredPanelC, lim1, lim2);
+            } else if (panelsToCombine.size() == 3) {
+                doCombineThreePanelsComplex(parsingArgs, panelsToCombine.poll(), panelsToCombine.poll(),
+                        panelsToCombine.poll(), filteredPanelC, lim1, lim2);
+            } else {
+                doCombinePanelsComplex(parsingArgs, panelsToCombine.poll(), panelsToCombine.poll(), filteredPanelC,
+                        lim1, lim2);
+            }
+            panelsToCombine.add(filteredPanelC);
+        }
+        if (ERASE_FILES) {
+            for (String reduceFile : panelsToErase) {
+                deleteFiles(reduceFile);
+            }
+        }
+    }
+
+    /**
+     * Method that wraps the combineThreePanelsComplex task and store the command in the listOfCommands
+     *
+     * @param parsingArgs
+     * @param resultsPanelA
+     * @param resultsPanelB
+     * @param resultsPanelC
+     * @param resultsCombined
+     * @param lim1
+     * @param lim2
+     */
+    private static void doCombineThreePanelsComplex(ParseCmdLine parsingArgs, String resultsPanelA,
+            String resultsPanelB, String resultsPanelC, String resultsCombined, int lim1, int lim2) {
+
+        String cmdToStore = JAVA_HOME + "/java combineThreePanelsComplex " + resultsPanelA + " " + resultsPanelB + " "
+                + resultsPanelC + " " + resultsCombined + " " + lim1 + " " + lim2;
+        listOfCommands.add(cmdToStore);
+
+        try {
+            GuidanceImpl.combineThreePanelsComplex(resultsPanelA, resultsPanelB, resultsPanelC, resultsCombined, lim1,
+                    lim2, cmdToStore);
+        } catch (GuidanceTaskException gte) {
+            LOGGER.error("[Guidance] Exception trying the execution of combineThreePanelsComplex task", gte);
+        }
+
+    }
+
+    /**
+     * Method that wraps the combineFourPanelsComplex task and store the command in the listOfCommands
+     *
+     * @param parsingArgs
+     * @param resultsPanelA
+     * @param resultsPanelB
+     * @param resultsPanelC
+     * @param resultsPanelD
+     * @param resultsCombined
+     * @param lim1
+     * @param lim2
+     */
+    private static void doCombineFourPanelsComplex(ParseCmdLine parsingArgs, String resultsPanelA,
+            String resultsPanelB, String resultsPanelC, String resultsPanelD, String resultsCombined, int lim1,
+            int lim2) {
+
+        String cmdToStore = JAVA_HOME + "/java combineFourPanelsComplex " + resultsPanelA + " " + resultsPanelB + " "
+                + resultsPanelC + " " + resultsPanelD + " " + resultsCombined + " " + lim1 + " " + lim2;
+        listOfCommands.add(cmdToStore);
+
+        try {
+            GuidanceImpl.combineFourPanelsComplex(resultsPanelA, resultsPanelB, resultsPanelC, resultsPanelD,
+                    resultsCombined, lim1, lim2, cmdToStore);
+        } catch (GuidanceTaskException gte) {
+            LOGGER.error("[Guidance] Exception trying the execution of combineFourPanelsComplex task", gte);
+        }
+
+    }
+
     /**
      * Method that wraps the mergeTwoChunks task and store the command in the listOfCommands
      * 
@@ -3593,6 +3647,36 @@ public class Guidance {
 
     }
 
+    /**
+     * Method that wraps the mergeTwoFilteredByAllChunks task and store the command in the listOfCommands
+     * 
+     * @param parsingArgs
+     * @param reduceA
+     * @param reduceB
+     * @param reduceC
+     */
+    private static void doMergeTwoFilteredByAllChunks(ParseCmdLine parsingArgs, String reduceA, String reduceB,
+            String reduceC) {
+
+        String sketchA = PvalueSketch.getSketchFile(reduceA);
+        String sketchB = PvalueSketch.getSketchFile(reduceB);
+        String sketchC = PvalueSketch.getSketchFile(reduceC);
+        String cmdToStore = JAVA_HOME + "/java mergeTwoFilteredByAllChunks " + reduceA + " " + reduceB + " " + reduceC
+                + " " + sketchA + " " + sketchB + " " + sketchC;
+        listOfCommands.add(cmdToStore);
+        try {
+            GeneralUtils.flushCommands(listOfStages, listOfCommands, FLUSH);
+        } catch (IOException e) {
+            LOGGER.error("[Guidance] Exception writing to list of commands file " + e);
+        }
+        try {
+            GuidanceImpl.mergeTwoFilteredByAllChunks(reduceA, reduceB, reduceC, sketchA, sketchB, sketchC, cmdToStore);
+        } catch (GuidanceTaskException gte) {
+            LOGGER.error("[Guidance] Exception trying the execution of mergeTwoFilteredByAllChunks task", gte);
+        }
+
+    }
+
     /**
      * Method that wraps the filterByAll task and store the command in the listOfCommands
      * 
@@ -3632,8 +3716,9 @@ public class Guidance {
                 infoThreshold = parsingArgs.getMinimacThreshold();
             }
 
+            String outputSketchFile = PvalueSketch.getSketchFile(outputFile);
             String cmdToStore = JAVA_HOME + "/java filterByAll " + imputationTool + " " + inputFile + " " + outputFile
-                    + " " + mafThresholdS + " " + infoThresholdS + " " + hweCohortThresholdS + " " + hweCasesThresholdS
+                    + " " + outputSketchFile + " " + mafThresholdS + " " + infoThresholdS + " " + hweCohortThresholdS + " " + hweCasesThresholdS
                     + " " + hweControlsThresholdS + " " + sex + " " + rpanelName;
 
             listOfCommands.add(cmdToStore);
@@ -3644,8 +3729,9 @@ public class Guidance {
             }
 
             try {
-                GuidanceImpl.filterByAll(imputationTool, inputFile, outputFile, mafThresholdS, infoThresholdS,
-                        hweCohortThresholdS, hweCasesThresholdS, hweControlsThresholdS, sex, rpanelName, cmdToStore);
+                GuidanceImpl.filterByAll(imputationTool, inputFile, outputFile, outputSketchFile, mafThresholdS,
+                        infoThresholdS, hweCohortThresholdS, hweCasesThresholdS, hweControlsThresholdS, sex, rpanelName,
+                        cmdToStore);
             } catch (Exception e) {
                 System.err.println("[Guidance] Exception trying the execution of filterByAll task");
                 System.err.println(e.getMessage());
@@ -3663,6 +3749,40 @@ public class Guidance {
         GuidanceImpl.copyFile(originPath, destinationPath);
     }
 
+    /**
+     * Waits for the submitted tasks, in the local executor when it runs them or in the COMPSs runtime otherwise
+     *
+     * @param noMoreTasks
+     * @throws GuidanceTaskException
+     */
+    private static void barrier(boolean noMoreTasks) throws GuidanceTaskException {
+        LocalExecutor localExecutor = LocalExecutor.getInstance();
+        if (localExecutor == null) {
+            COMPSs.barrier(noMoreTasks);
+        } else if (noMoreTasks) {
+            localExecutor.shutdown();
+        } else {
+            localExecutor.barrier();
+        }
+    }
+
+    /**
+     * Deletes intermediate files. The local executor deletes them once the tasks submitted before that use them have
+     * finished
+     *
+     * @param files
+     */
+    private static void deleteFiles(String... files) {
+        LocalExecutor localExecutor = LocalExecutor.getInstance();
+        if (localExecutor == null) {
+            for (String file : files) {
+                new File(file).delete();
+            }
+        } else {
+            localExecutor.deleteFiles(files);
+        }
+    }
+
     /**
      * Method to verify that all the environment variables have been well defined
      * 
@@ -32,9 +32,31 @@
 package guidance;
 
 import guidance.exceptions.GuidanceTaskException;
+import guidance.files.BgzfOutputStream;
+import guidance.files.ChunkMerger;
+import guidance.files.ColumnarTableReader;
+import guidance.files.ColumnarTableWriter;
+import guidance.files.CompressedFileWriter;
+import guidance.files.CondensedTopHitsWriter;
+import guidance.files.CrossPhenoMerger;
 import guidance.files.FileUtils;
+import guidance.files.ImputeOutputRewriter;
+import guidance.files.PanelResultsReader;
+import guidance.files.RegionQuery;
+import guidance.files.TabixIndex;
+import guidance.files.TopHitsCollector;
+import guidance.plots.PvalueDistribution;
+import guidance.plots.PvalueSketch;
+import guidance.plots.QQManhattanPlotter;
+import guidance.processes.ConstraintModel;
+import guidance.processes.CoreAllocator;
 import guidance.processes.ProcessUtils;
+import guidance.processes.TelemetryLog;
+import guidance.utils.ColumnProjection;
 import guidance.utils.Headers;
+import guidance.utils.LineTokenizer;
+import guidance.utils.MappedLineReader;
+import guidance.utils.TableRow;
 
 import java.io.File;
 import java.io.BufferedReader;
@@ -42,20 +64,30 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.FileReader;
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
 import java.net.InetAddress;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.TreeMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.zip.GZIPInputStream;
 
 import es.bsc.compss.types.annotations.Parameter;
@@ -85,8 +117,20 @@ public class GuidanceImpl {
 	private static final String RSCRIPTDIR = "RSCRIPTDIR";
 	private static final String SNPTESTBINARY = "SNPTESTBINARY";
 	private static final String BCFTOOLSBINARY = "BCFTOOLSBINARY";
-	private static final String TABIXBINARY = "TABIXBINARY";
-	private static final String BGZIPBINARY = "BGZIPBINARY";
+
+	// Computing units of the tasks, the same environment variables of their
+	// constraints
+	private static final String GENERATE_CONDENSED_CU = "generateCondensedTopHitsCU";
+	private static final String PHASING_BED_CU = "phasingBedCU";
+	private static final String IMPUTE_WITH_MINIMAC_CU = "imputeWithMinimacCU";
+
+	// Threads of the tools, that override the computing units of their tasks
+	private static final String SHAPEIT_THREADS = "shapeitThreads";
+	private static final String EAGLE_THREADS = "eagleThreads";
+	private static final String MINIMAC_THREADS = "minimacThreads";
+
+	// Pin the minimac commands to their own cores of the node (YES or NO)
+	private static final String MINIMAC_TASKSET = "minimacTaskset";
 
 	// Method headers
 	private static final String HEADER_CONVERT_FROM_BED_TO_BED = "[convertFromBedToBed]";
@@ -99,12 +143,12 @@ public class GuidanceImpl {
 	private static final String HEADER_PHASING = "[phasing]";
 	private static final String HEADER_SAMTOOLS = "[samtoolsBgzip]";
 	private static final String HEADER_TABIX = "[tabix]";
-	private static final String HEADER_BGZIP = "[bgzip]";
 
 	private static final String HEADER_FILTER_HAPLOTYPES = "[filterHaplotypes]";
 	private static final String HEADER_IMPUTE = "[impute]";
 	private static final String HEADER_MINIMAC = "[minimac]";
 	private static final String HEADER_GENERATE_QQ_MANHATTAN_PLOTS = "[generateQQManhattanPlots]";
+	private static final String HEADER_GENERATE_CONDENSED = "[generateCondensedAndTopHitsFile]";
 	private static final String HEADER_SNPTEST = "[snptest]";
 	private static final String HEADER_PHENO = "[phenoAnalysis]";
 
@@ -176,6 +220,9 @@ public class GuidanceImpl {
 	 */
 	public static void createSplitedFiles(String gmapFile, String gmapFileChr, String chromo, String cmdToStore)
 			throws IOException, InterruptedException, Exception {
+		if (LocalExecutor.submit("createSplitedFiles", gmapFile, gmapFileChr, chromo, cmdToStore)) {
+			return;
+		}
 
 		// String gmapFileChrGz = gmapFileChr + ".gz";
 
@@ -260,6 +307,10 @@ public class GuidanceImpl {
 	public static void convertFromBedToBed(String bedFile, String bimFile, String famFile, String newBedFile,
 			String newBimFile, String newFamFile, String logFile, String chromo, String cmdToStore)
 			throws GuidanceTaskException {
+		if (LocalExecutor.submit("convertFromBedToBed", bedFile, bimFile, famFile, newBedFile, newBimFile, newFamFile,
+				logFile, chromo, cmdToStore)) {
+			return;
+		}
 
 		String plinkBinary = loadFromEnvironment(PLINKBINARY, HEADER_CONVERT_FROM_BED_TO_BED);
 
@@ -345,6 +396,10 @@ public class GuidanceImpl {
 	public static void splitChr23(String bedFile, String bimFile, String famFile, String bedChr23File,
 			String bimChr23File, String famChr23File, String logFile, String sex, String theChromo, String cmdToStore)
 			throws IOException, InterruptedException, Exception {
+		if (LocalExecutor.submit("splitChr23", bedFile, bimFile, famFile, bedChr23File, bimChr23File, famChr23File,
+				logFile, sex, theChromo, cmdToStore)) {
+			return;
+		}
 
 		String myPrefix = bedChr23File.substring(0, bedChr23File.length() - 4);
 
@@ -684,6 +739,9 @@ public class GuidanceImpl {
 	 */
 	public static void createRsIdList(String genOrBimFile, String exclCgatFlag, String pairsFile, String inputFormat,
 			String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("createRsIdList", genOrBimFile, exclCgatFlag, pairsFile, inputFormat, cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running :q with parameters:");
@@ -714,7 +772,7 @@ public class GuidanceImpl {
 		if (thisIsGz) {
 			//System.out.println(HEADER_CREATE_RSID_LIST + "It seems the file " + genOrBimFile + " is a gzip file");
 
-			try (GZIPInputStream inputGz = new GZIPInputStream(new FileInputStream(genOrBimFile));
+			try (InputStream inputGz = FileUtils.openGzipInputStream(genOrBimFile);
 					InputStreamReader decoder = new InputStreamReader(inputGz);
 					BufferedReader br = new BufferedReader(decoder)) {
 
@@ -746,35 +804,29 @@ public class GuidanceImpl {
 
 		try (BufferedWriter writerPairs = new BufferedWriter(new FileWriter(outPairsFile))) {
 			if (inputFormat.equals("BED")) {
-				String line = null;
-				while ((line = br.readLine()) != null) {
-					String[] splittedLine = line.split(SPACE);// delimiter I assume single space.
-					String allele = splittedLine[4] + splittedLine[5]; // store Allele (AC,GC,AG, GT,..., etc.)
-
+				LineTokenizer tokenizer = new LineTokenizer(br, LineTokenizer.WHITESPACE);
+				while (tokenizer.next()) {
 					// Store rsID of the SNP which its allele is AT or TA or GC or CG into the
 					// .pairs file
 					if (exclCgatFlag.equals("YES")) {
 						// Then we have to see if allele is AT TA GC CG to put the rsID into the .pairs
 						// file.
-						if (allele.equals("AT") || allele.equals("TA") || allele.equals("GC") || allele.equals("CG")) {
-							writerPairs.write(splittedLine[1]);
+						if (isCgatAllele(tokenizer, 4, 5)) {
+							tokenizer.write(1, writerPairs);
 							writerPairs.newLine();
 						}
 					}
 				}
 			} else if (inputFormat.equals("GEN")) {
-				String line = null;
-				while ((line = br.readLine()) != null) {
-					String[] splittedLine = line.split(" ");// delimiter I assume single space.
-					String allele = splittedLine[3] + splittedLine[4]; // store Allele (AC,GC,AG, GT,..., etc.)
-
+				LineTokenizer tokenizer = new LineTokenizer(br, ' ');
+				while (tokenizer.next()) {
 					// Store rsID of the SNP which its allele is AT or TA or GC or CG into the
 					// .pairs file
 					if (exclCgatFlag.equals("YES")) {
 						// Then we have to see if allele is AT TA GC CG to put the rsID into the .pairs
 						// file.
-						if (allele.equals("AT") || allele.equals("TA") || allele.equals("GC") || allele.equals("CG")) {
-							writerPairs.write(splittedLine[1]);
+						if (isCgatAllele(tokenizer, 3, 4)) {
+							tokenizer.write(1, writerPairs);
 							writerPairs.newLine();
 						}
 					}
@@ -790,6 +842,29 @@ public class GuidanceImpl {
 		}
 	}
 
+	/**
+	 * Returns true if the allele formed by the fields indexA and indexB of the
+	 * current line is AT, TA, GC or CG
+	 * 
+	 * @param tokenizer
+	 * @param indexA
+	 * @param indexB
+	 * @return
+	 */
+	private static boolean isCgatAllele(LineTokenizer tokenizer, int indexA, int indexB) {
+		// store Allele (AC,GC,AG, GT,..., etc.)
+		int lengthA = tokenizer.length(indexA);
+		int lengthB = tokenizer.length(indexB);
+		if (lengthA + lengthB != 2) {
+			return false;
+		}
+		char first = (lengthA > 0) ? tokenizer.charAt(indexA, 0) : tokenizer.charAt(indexB, 0);
+		char second = (lengthB > 0) ? tokenizer.charAt(indexB, lengthB - 1) : tokenizer.charAt(indexA, 1);
+
+		return (first == 'A' && second == 'T') || (first == 'T' && second == 'A') || (first == 'G' && second == 'C')
+				|| (first == 'C' && second == 'G');
+	}
+
 	/**
 	 * Method to execute gtool with option -S
 	 * 
@@ -875,6 +950,10 @@ public class GuidanceImpl {
 	 */
 	public static void qctoolS(String imputationTool, String imputeFile, String inclusionRsIdFile, String mafThresholdS,
 			String filteredFile, String filteredLogFile, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("qctoolS", imputationTool, imputeFile, inclusionRsIdFile, mafThresholdS, filteredFile,
+				filteredLogFile, cmdToStore)) {
+			return;
+		}
 
 		String qctoolBinary = null;
 		if (imputationTool.equals("impute")) {
@@ -953,7 +1032,12 @@ public class GuidanceImpl {
 				// exitValue = ProcessUtils.execute(cmd, outputBase + STDOUT_EXTENSION,
 				// outputBase + STDERR_EXTENSION,
 				// "LD_LIBRARY_PATH");
-				exitValue = ProcessUtils.execute(cmd, outputBase + STDOUT_EXTENSION, outputBase + STDERR_EXTENSION);
+				TelemetryLog.Task telemetry = TelemetryLog.forTask("qctoolS", "", "", "");
+				try {
+					exitValue = ProcessUtils.execute(cmd, outputBase + STDOUT_EXTENSION, outputBase + STDERR_EXTENSION);
+				} finally {
+					telemetry.close();
+				}
 			} catch (IOException ioe) {
 				throw new GuidanceTaskException(ioe);
 			}
@@ -1009,6 +1093,10 @@ public class GuidanceImpl {
 	 */
 	public static void createListOfExcludedSnps(String phasingHapsFile, String excludedSnpsFile, String exclCgatFlag,
 			String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("createListOfExcludedSnps", phasingHapsFile, excludedSnpsFile, exclCgatFlag,
+				cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running createListOfExcludedSnps method:");
@@ -1052,7 +1140,7 @@ public class GuidanceImpl {
 		ArrayList<String> excludeList = new ArrayList<>();
 
 		// Then, we read the gz File line by line
-		try (GZIPInputStream inputGz = new GZIPInputStream(new FileInputStream(phasingHapsFileGz));
+		try (InputStream inputGz = FileUtils.openGzipInputStream(phasingHapsFileGz);
 				InputStreamReader decoder = new InputStreamReader(inputGz);
 				BufferedReader br = new BufferedReader(decoder)) {
 
@@ -1126,6 +1214,10 @@ public class GuidanceImpl {
 	public static void phasingBed(String chromo, String bedFile, String bimFile, String famFile, String gmapFile,
 			String phasingHapsFile, String phasingSampleFile, String phasingLogFile, String sex, String phasingTool,
 			String cmdToStore) throws GuidanceTaskException, IOException {
+		if (LocalExecutor.submit("phasingBed", chromo, bedFile, bimFile, famFile, gmapFile, phasingHapsFile,
+				phasingSampleFile, phasingLogFile, sex, phasingTool, cmdToStore)) {
+			return;
+		}
 
 		String phasingBinary = "";
 
@@ -1164,11 +1256,13 @@ public class GuidanceImpl {
 			if (chromo.equals("23")) {
 				cmd = phasingBinary + " --input-bed " + bedFile + " " + bimFile + " " + famFile + " --input-map "
 						+ gmapFile + " --chrX --output-max " + phasingHapsFile + " " + phasingSampleFile
-						+ " --thread 47 --effective-size 20000 --output-log " + phasingLogFile;
+						+ " --thread " + getToolThreads(SHAPEIT_THREADS, PHASING_BED_CU)
+						+ " --effective-size 20000 --output-log " + phasingLogFile;
 			} else {
 				cmd = phasingBinary + " --input-bed " + bedFile + " " + bimFile + " " + famFile + " --input-map "
 						+ gmapFile + " --output-max " + phasingHapsFile + " " + phasingSampleFile
-						+ " --thread 47 --effective-size 20000 --output-log " + phasingLogFile;
+						+ " --thread " + getToolThreads(SHAPEIT_THREADS, PHASING_BED_CU)
+						+ " --effective-size 20000 --output-log " + phasingLogFile;
 			}
 		} else if (phasingTool.equals("eagle")) {
 
@@ -1236,12 +1330,14 @@ public class GuidanceImpl {
 				 * } // else if (sex.equals(SEX2)) {
 				 */
 				cmd = phasingBinary + " --bed " + bedFile + " --bim " + bimFile + " --fam " + famFile + " --chrom "
-						+ chromo + " --geneticMapFile " + gmapFile + " --numThreads 47 --outPrefix " + myPrefix;
+						+ chromo + " --geneticMapFile " + gmapFile + " --numThreads "
+						+ getToolThreads(EAGLE_THREADS, PHASING_BED_CU) + " --outPrefix " + myPrefix;
 				// }
 
 			} else {
 				cmd = phasingBinary + " --bed " + bedFile + " --bim " + bimFile + " --fam " + famFile + " --chrom "
-						+ chromo + " --geneticMapFile " + gmapFile + " --numThreads 47 --outPrefix " + myPrefix;
+						+ chromo + " --geneticMapFile " + gmapFile + " --numThreads "
+						+ getToolThreads(EAGLE_THREADS, PHASING_BED_CU) + " --outPrefix " + myPrefix;
 			}
 		}
 
@@ -1256,10 +1352,13 @@ public class GuidanceImpl {
 		// not stderr
 		if (execute) {
 			int exitValue = -1;
+			TelemetryLog.Task telemetry = TelemetryLog.forTask("phasingBed", chromo, "", "");
 			try {
 				exitValue = ProcessUtils.execute(cmd, myPrefix + STDOUT_EXTENSION, myPrefix + STDERR_EXTENSION);
 			} catch (IOException ioe) {
 				throw new GuidanceTaskException(ioe);
+			} finally {
+				telemetry.close();
 			}
 
 			// Check process exit value
@@ -1404,6 +1503,10 @@ public class GuidanceImpl {
 	 */
 	public static void newSample(String sampleFile, String phasingSampleFile, String phasingNewSampleFile,
 			String responseVar, String covariables, String cmdToStore) throws IOException {
+		if (LocalExecutor.submit("newSample", sampleFile, phasingSampleFile, phasingNewSampleFile, responseVar,
+				covariables, cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running newSample with parameters:");
@@ -1418,120 +1521,71 @@ public class GuidanceImpl {
 
 		long startTime = System.currentTimeMillis();
 
-		Hashtable<String, ArrayList<String>> loadSampleFile = new Hashtable<String, ArrayList<String>>();
-		ArrayList<Integer> columnsHeaderResponse = new ArrayList<Integer>();
-		ArrayList<Integer> columnsHeaderCovar = new ArrayList<Integer>();
-
-		ArrayList<String> valuesJoined = new ArrayList<String>();
-
-		// Read File SampleFile
-		BufferedReader br = new BufferedReader(new FileReader(sampleFile));
-		String line = br.readLine(); // reading the header
-
-		String[] splitHeaderSF = line.split(SPACE);
-		//String[] namesHeaderCovar = covariables.split(","); // Get the pheno columns
-		//String[] namesHeaderResponse = responseVar.split(","); // Get the pheno columns
-
-		//for (int i = 0; i < splitHeaderSF.length; i++) {
-
-			//for (int j = 0; j < namesHeaderCovar.length; j++) {
-				//if (splitHeaderSF[i].equals(namesHeaderCovar[j])) {
-					// System.out.println("Adding column " + i + " corresponding to " +
-					// splitHeaderSF[i] + " to covars");
-					//columnsHeaderCovar.add(i);
-				//}
-			//}
-
-			//for (int j = 0; j < namesHeaderResponse.length; j++) {
-				//if (splitHeaderSF[i].equals(namesHeaderResponse[j])) {
-					// System.out.println("Adding column " + i + " corresponding to " +
-					// splitHeaderSF[i] + " to reponse");
-					//columnsHeaderResponse.add(i);
-				//}
-			//}
-
-		//}
-
-		while ((line = br.readLine()) != null) {
-
-			String[] lineSplited = line.split(SPACE);
-			String key = lineSplited[1];
-
-			//String valueCovar = lineSplited[columnsHeaderCovar.get(0)];
-
-			//for (int i = 1; i < columnsHeaderCovar.size(); i++) {
-				//valueCovar += SPACE_WRITE + lineSplited[columnsHeaderCovar.get(i)];
-			//}
-
-			//String valueResponse = lineSplited[columnsHeaderResponse.get(0)];
+		// Covariables of each sample, by sample id
+		HashMap<String, String> loadSampleFile = new HashMap<>();
+		StringBuilder valueCovar = new StringBuilder();
+
+		try (FileWriter fw = new FileWriter(phasingNewSampleFile);
+				BufferedWriter writerInfo = new BufferedWriter(fw)) {
+			// Read File SampleFile
+			try (MappedLineReader sampleReader = new MappedLineReader(sampleFile)) {
+				LineTokenizer tokenizer = new LineTokenizer(sampleReader, LineTokenizer.WHITESPACE);
+
+				// reading the header. The header of the output file is the header of the
+				// sampleFile
+				tokenizer.next();
+				for (int i = 0; i < 3; i++) {
+					tokenizer.write(i, writerInfo);
+					writerInfo.write(SPACE_WRITE);
+				}
+				tokenizer.write(3, writerInfo);
+				for (int i = 4; i < tokenizer.size(); i++) {
+					writerInfo.write(SPACE_WRITE);
+					tokenizer.write(i, writerInfo);
+				}
+				writerInfo.write("\n");
+
+				while (tokenizer.next()) {
+					// The covariables are all the columns from the fourth one
+					valueCovar.setLength(0);
+					tokenizer.appendTo(3, valueCovar);
+					for (int i = 4; i < tokenizer.size(); ++i) {
+						valueCovar.append(SPACE_WRITE);
+						tokenizer.appendTo(i, valueCovar);
+					}
 
-			//for (int i = 1; i < columnsHeaderResponse.size(); i++) {
-				//valueResponse += SPACE_WRITE + lineSplited[columnsHeaderResponse.get(i)];
-			//}
-			
-			String valueCovar = lineSplited[3];
-			
-			for (int i = 4; i < lineSplited.length; ++i) {
-				valueCovar += SPACE_WRITE + lineSplited[i];
+					loadSampleFile.put(tokenizer.get(1), valueCovar.toString());
+				}
 			}
 
-			valuesJoined = new ArrayList<String>();
-			valuesJoined.add(valueCovar); // Pos 1
-			//valuesJoined.add(valueResponse); // Pos 2
-
-			loadSampleFile.put(key, valuesJoined);
-		}
-		br.close();
-
-		// Prepearing header output file
-		String outputFile = "";
-		for (int i = 0; i < 3; i++) {
-			outputFile += splitHeaderSF[i] + SPACE_WRITE;
-		}
-
-		//outputFile += splitHeaderSF[columnsHeaderCovar.get(0)];
-		outputFile += splitHeaderSF[3];
-		for (int i = 4; i < splitHeaderSF.length; i++) {
-			outputFile += SPACE_WRITE + splitHeaderSF[i];
-		}
-		/*
-		outputFile += SPACE_WRITE + splitHeaderSF[columnsHeaderResponse.get(0)];
-		for (int i = 1; i < columnsHeaderResponse.size(); i++) {
-			outputFile += SPACE_WRITE + splitHeaderSF[columnsHeaderResponse.get(i)];
-		}
-		*/
-
-		outputFile += "\n";
-
-		// Read File phasingSampleFil
-		br = new BufferedReader(new FileReader(phasingSampleFile));
-		line = br.readLine(); // reading the header
-
-		while ((line = br.readLine()) != null) {
-
-			String[] lineSplited = line.split(SPACE);
-			String key = lineSplited[1];
-
-			valuesJoined = new ArrayList<String>();
-			valuesJoined = loadSampleFile.get(key);
-
-			// Add "key" Pos0 Pos1, Pos2
-			outputFile += lineSplited[0] + SPACE_WRITE + lineSplited[1] + SPACE_WRITE + lineSplited[2];
-
-			// Add the Covar and Response columns
-			for (int i = 0; i < valuesJoined.size(); i++) {
+			// Read File phasingSampleFile
+			try (MappedLineReader sampleReader = new MappedLineReader(phasingSampleFile)) {
+				LineTokenizer tokenizer = new LineTokenizer(sampleReader, LineTokenizer.WHITESPACE);
+
+				// reading the header
+				tokenizer.next();
+				while (tokenizer.next()) {
+					String key = tokenizer.get(1);
+					String values = loadSampleFile.get(key);
+					if (values == null) {
+						throw new IOException("[newSample] Error, the sample " + key + " is not in the file " + sampleFile);
+					}
 
-				String values = valuesJoined.get(i);
-				outputFile += SPACE_WRITE + values;
+					// Add "key" Pos0 Pos1, Pos2
+					tokenizer.write(0, writerInfo);
+					writerInfo.write(SPACE_WRITE);
+					tokenizer.write(1, writerInfo);
+					writerInfo.write(SPACE_WRITE);
+					tokenizer.write(2, writerInfo);
+
+					// Add the Covar columns
+					writerInfo.write(SPACE_WRITE);
+					writerInfo.write(values);
+					writerInfo.write("\n");
+				}
 			}
-			outputFile += "\n";
 		}
-		br.close();
 
-		FileWriter fw = new FileWriter(phasingNewSampleFile);
-		BufferedWriter writerInfo = new BufferedWriter(fw);
-		writerInfo.write(outputFile);
-		writerInfo.close();
 		long stopTime = System.currentTimeMillis();
 		long elapsedTime = (stopTime - startTime) / 1000;
 		if (DEBUG) {
@@ -1562,6 +1616,10 @@ public class GuidanceImpl {
 	public static void filterHaplotypes(String phasingHapsFile, String phasingSampleFile, String excludedSnpsFile,
 			String filteredLogFile, String filteredHaplotypesVcfFileBgzip, String cmdToStore)
 			throws GuidanceTaskException {
+		if (LocalExecutor.submit("filterHaplotypes", phasingHapsFile, phasingSampleFile, excludedSnpsFile,
+				filteredLogFile, filteredHaplotypesVcfFileBgzip, cmdToStore)) {
+			return;
+		}
 
 		String shapeitBinary = loadFromEnvironment(SHAPEITBINARY, HEADER_FILTER_HAPLOTYPES);
 
@@ -1592,11 +1650,14 @@ public class GuidanceImpl {
 		}
 
 		int exitValue = -1;
+		TelemetryLog.Task telemetry = TelemetryLog.forTask("filterHaplotypes", "", "", "");
 		try {
 			exitValue = ProcessUtils.execute(cmd, filteredLogFile + STDOUT_EXTENSION,
 					filteredLogFile + STDERR_EXTENSION);
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
+		} finally {
+			telemetry.close();
 		}
 
 		// Check process exit value
@@ -1606,52 +1667,28 @@ public class GuidanceImpl {
 			System.err.println(HEADER_FILTER_HAPLOTYPES + "                         (This warning is not fatal).");
 		}
 
-		try {
-			File tempFile = new File(filteredHapsVcfFile + ".tmp");
-			FileWriter fw = new FileWriter(tempFile);
-			BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile));
-
-			FileReader fr = new FileReader(filteredHapsVcfFile);
-			BufferedReader br = new BufferedReader(fr);
-
-			String output = "";
-			String line = "";
+		// Rename the chromosome 23 to X while compressing to BGZF
+		try (BufferedReader br = new BufferedReader(new FileReader(filteredHapsVcfFile));
+				BgzfOutputStream bgzf = FileUtils.createBgzfOutputStream(filteredHaplotypesVcfFileBgzip);
+				BufferedWriter writer = new BufferedWriter(
+						new OutputStreamWriter(bgzf, StandardCharsets.ISO_8859_1))) {
 
-			while (br.ready()) {
-				line = br.readLine();
-				// String kk = aux.replaceAll("^23", "X");
-				output = line.replaceAll("^23", "X");
-				writer.write(output + "\n");
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("23")) {
+					writer.write("X");
+					writer.write(line, 2, line.length() - 2);
+				} else {
+					writer.write(line);
+				}
+				writer.write(NEW_LINE);
 			}
-
-			br.close();
-			fr.close();
-			fw.close();
-			writer.close();
-		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
-		}
-
-		// Finally replace the original file.
-		FileUtils.move(filteredHapsVcfFile + ".tmp", filteredHapsVcfFile);
-
-		String bgzipBinary = loadFromEnvironment(BGZIPBINARY, HEADER_BGZIP);
-		cmd = bgzipBinary + " -f " + filteredHapsVcfFile;
-
-		exitValue = -1;
-		try {
-			exitValue = ProcessUtils.execute(cmd, filteredHapsVcfFile + STDOUT_EXTENSION,
-					filteredHapsVcfFile + STDERR_EXTENSION);
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
 		}
 
-		FileUtils.move(filteredHapsVcfFile + ".gz", filteredHaplotypesVcfFileBgzip);
-
-		if (exitValue != 0) {
-			System.err.println("[phasing] Warning executing samtoolsBgzip job, exit value is: " + exitValue);
-			System.err.println("[phasing]                         (This warning is not fatal).");
-		}
+		// As bgzip does, remove the uncompressed file
+		FileUtils.delete(filteredHapsVcfFile);
 
 		long stopTime = System.currentTimeMillis();
 		long elapsedTime = (stopTime - startTime) / 1_000;
@@ -1724,56 +1761,25 @@ public class GuidanceImpl {
 	// }
 
 	public static void samtoolsTabix(String inputGz, String outputTbi, String cmdToStore)
-			throws IOException, InterruptedException, Exception {
-
-		String tabixBinary = loadFromEnvironment(TABIXBINARY, HEADER_TABIX);
+			throws GuidanceTaskException {
+		if (LocalExecutor.submit("samtoolsTabix", inputGz, outputTbi, cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running samtoolsTabix with parameters:");
-			System.out.println("[DEBUG] \t- samtoolsBinary                                : " + tabixBinary);
-			System.out.println(
-					"[DEBUG] \t- Input                                                                         : "
-							+ inputGz);
-			System.out.println(
-					"[DEBUG] \t- Output                                                                            : "
-							+ outputTbi);
-			System.out.println("\n");
+			System.out.println("[DEBUG] \t- Input                      : " + inputGz);
+			System.out.println("[DEBUG] \t- Output                     : " + outputTbi);
+			System.out.println(NEW_LINE);
 			System.out.println("[DEBUG] \t- Command: " + cmdToStore);
 		}
 		long startTime = System.currentTimeMillis();
 
-		// String filteredHaplotypesVcfFileBgzipIndexed = filteredHaplotypesVcfFileBgzip
-		// + ".tbi";
-
-		String cmd = null;
-
-		cmd = tabixBinary + " -p vcf --force " + inputGz;
-
-		if (DEBUG) {
-			System.out.println("\n[DEBUG] Command: " + cmd);
-			System.out.println(" ");
-		}
-
-		int exitValue = -1;
+		// The index of "tabix -p vcf", built in the JVM
 		try {
-			exitValue = ProcessUtils.execute(cmd, outputTbi + STDOUT_EXTENSION, outputTbi + STDERR_EXTENSION);
+			TabixIndex.build(inputGz, outputTbi);
 		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
-		}
-
-		if (exitValue != 0) {
-			System.err.println("[phasing] Warning executing phasingProc job, exit value is: " + exitValue);
-			System.err.println("[phasing]                         (This warning is not fatal).");
-		}
-
-		String output = inputGz + ".tbi";
-		File tmpOutput = new File(output);
-		if (tmpOutput.exists()) {
-			boolean success = FileUtils.move(inputGz + ".tbi", outputTbi);
-			// boolean success = tmpOutput.renameTo(new File(outputTbi));
-			if (!success) {
-				throw new Exception("[samtoolsTabix] Error, the file " + outputTbi + " was not succesfully renamed");
-			}
+			throw new GuidanceTaskException(HEADER_TABIX + " Error, cannot index " + inputGz, ioe);
 		}
 
 		long stopTime = System.currentTimeMillis();
@@ -1789,37 +1795,62 @@ public class GuidanceImpl {
 	public static void imputeWithImputeLow(String gmapFile, String knownHapFile, String legendFile,
 			String phasingHapsFile, String phasingSampleFile, String lim1S, String lim2S, String pairsFile,
 			String imputeFile, String imputeFileInfo, String imputeFileSummary, String imputeFileWarnings,
-			String theChromo, String sex, String cmdToStore) throws GuidanceTaskException {
+			String theChromo, String sex, String panel, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("imputeWithImputeLow", gmapFile, knownHapFile, legendFile, phasingHapsFile,
+				phasingSampleFile, lim1S, lim2S, pairsFile, imputeFile, imputeFileInfo, imputeFileSummary,
+				imputeFileWarnings, theChromo, sex, panel, cmdToStore)) {
+			return;
+		}
+
 		imputeWithImpute(gmapFile, knownHapFile, legendFile, phasingHapsFile, phasingSampleFile, lim1S, lim2S,
-				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex,
+				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex, panel,
 				cmdToStore);
 	}
 
 	public static void imputeWithImputeMedium(String gmapFile, String knownHapFile, String legendFile,
 			String phasingHapsFile, String phasingSampleFile, String lim1S, String lim2S, String pairsFile,
 			String imputeFile, String imputeFileInfo, String imputeFileSummary, String imputeFileWarnings,
-			String theChromo, String sex, String cmdToStore) throws GuidanceTaskException {
+			String theChromo, String sex, String panel, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("imputeWithImputeMedium", gmapFile, knownHapFile, legendFile, phasingHapsFile,
+				phasingSampleFile, lim1S, lim2S, pairsFile, imputeFile, imputeFileInfo, imputeFileSummary,
+				imputeFileWarnings, theChromo, sex, panel, cmdToStore)) {
+			return;
+		}
+
 		imputeWithImpute(gmapFile, knownHapFile, legendFile, phasingHapsFile, phasingSampleFile, lim1S, lim2S,
-				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex,
+				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex, panel,
 				cmdToStore);
 	}
 
 	public static void imputeWithImputeHigh(String gmapFile, String knownHapFile, String legendFile,
 			String phasingHapsFile, String phasingSampleFile, String lim1S, String lim2S, String pairsFile,
 			String imputeFile, String imputeFileInfo, String imputeFileSummary, String imputeFileWarnings,
-			String theChromo, String sex, String cmdToStore) throws GuidanceTaskException {
+			String theChromo, String sex, String panel, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("imputeWithImputeHigh", gmapFile, knownHapFile, legendFile, phasingHapsFile,
+				phasingSampleFile, lim1S, lim2S, pairsFile, imputeFile, imputeFileInfo, imputeFileSummary,
+				imputeFileWarnings, theChromo, sex, panel, cmdToStore)) {
+			return;
+		}
+
 		imputeWithImpute(gmapFile, knownHapFile, legendFile, phasingHapsFile, phasingSampleFile, lim1S, lim2S,
-				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex,
+				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex, panel,
 				cmdToStore);
 	}
 
 	public static void imputeWithImputeAndFilterByInfoHigh(String gmapFile, String knownHapFile, String legendFile,
 			String phasingHapsFile, String phasingSampleFile, String lim1S, String lim2S, String pairsFile,
-			String infoThresholdS, String mafThresholdS, String theChromo, String sex, String imputeFile,
+			String infoThresholdS, String mafThresholdS, String theChromo, String sex, String panel, String imputeFile,
 			String imputeFileInfo, String imputeFileSummary, String imputeFileWarnings, String filteredRsIdFile, String filteredFile, String filteredLogFile) throws GuidanceTaskException {
+		if (LocalExecutor.submit("imputeWithImputeAndFilterByInfoHigh", gmapFile, knownHapFile, legendFile,
+				phasingHapsFile, phasingSampleFile, lim1S, lim2S, pairsFile, infoThresholdS, mafThresholdS, theChromo,
+				sex, panel, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, filteredRsIdFile,
+				filteredFile, filteredLogFile)) {
+			return;
+		}
 
 		imputeWithImpute(gmapFile, knownHapFile, legendFile, phasingHapsFile, phasingSampleFile, lim1S, lim2S,
-				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex, "");
+				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex, panel,
+				"");
 
 		filterByInfo("impute", imputeFileInfo, filteredRsIdFile, infoThresholdS, mafThresholdS, "");
 
@@ -1829,11 +1860,18 @@ public class GuidanceImpl {
 
 	public static void imputeWithImputeAndFilterByInfoMedium(String gmapFile, String knownHapFile, String legendFile,
 			String phasingHapsFile, String phasingSampleFile, String lim1S, String lim2S, String pairsFile,
-			String infoThresholdS, String mafThresholdS, String theChromo, String sex, String imputeFile,
+			String infoThresholdS, String mafThresholdS, String theChromo, String sex, String panel, String imputeFile,
 			String imputeFileInfo, String imputeFileSummary, String imputeFileWarnings, String filteredRsIdFile, String filteredFile, String filteredLogFile) throws GuidanceTaskException {
+		if (LocalExecutor.submit("imputeWithImputeAndFilterByInfoMedium", gmapFile, knownHapFile, legendFile,
+				phasingHapsFile, phasingSampleFile, lim1S, lim2S, pairsFile, infoThresholdS, mafThresholdS, theChromo,
+				sex, panel, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, filteredRsIdFile,
+				filteredFile, filteredLogFile)) {
+			return;
+		}
 
 		imputeWithImpute(gmapFile, knownHapFile, legendFile, phasingHapsFile, phasingSampleFile, lim1S, lim2S,
-				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex, "");
+				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex, panel,
+				"");
 
 		filterByInfo("impute", imputeFileInfo, filteredRsIdFile, infoThresholdS, mafThresholdS, "");
 
@@ -1843,11 +1881,18 @@ public class GuidanceImpl {
 
 	public static void imputeWithImputeAndFilterByInfoLow(String gmapFile, String knownHapFile, String legendFile,
 			String phasingHapsFile, String phasingSampleFile, String lim1S, String lim2S, String pairsFile,
-			String infoThresholdS, String mafThresholdS, String theChromo, String sex, String imputeFile,
+			String infoThresholdS, String mafThresholdS, String theChromo, String sex, String panel, String imputeFile,
 			String imputeFileInfo, String imputeFileSummary, String imputeFileWarnings, String filteredRsIdFile, String filteredFile, String filteredLogFile) throws GuidanceTaskException {
+		if (LocalExecutor.submit("imputeWithImputeAndFilterByInfoLow", gmapFile, knownHapFile, legendFile,
+				phasingHapsFile, phasingSampleFile, lim1S, lim2S, pairsFile, infoThresholdS, mafThresholdS, theChromo,
+				sex, panel, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, filteredRsIdFile,
+				filteredFile, filteredLogFile)) {
+			return;
+		}
 
 		imputeWithImpute(gmapFile, knownHapFile, legendFile, phasingHapsFile, phasingSampleFile, lim1S, lim2S,
-				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex, "");
+				pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex, panel,
+				"");
 
 		filterByInfo("impute", imputeFileInfo, filteredRsIdFile, infoThresholdS, mafThresholdS, "");
 
@@ -1879,7 +1924,7 @@ public class GuidanceImpl {
 	public static void imputeWithImpute(String gmapFile, String knownHapFile, String legendFile, String phasingHapsFile,
 			String phasingSampleFile, String lim1S, String lim2S, String pairsFile, String imputeFile,
 			String imputeFileInfo, String imputeFileSummary, String imputeFileWarnings, String theChromo, String sex,
-			String cmdToStore) throws GuidanceTaskException {
+			String panel, String cmdToStore) throws GuidanceTaskException {
 
 		String impute2Binary = loadFromEnvironment(IMPUTE2BINARY, HEADER_IMPUTE);
 
@@ -1899,6 +1944,7 @@ public class GuidanceImpl {
 			System.out.println("[DEBUG] \t- Output imputeFileSummary  : " + imputeFileSummary);
 			System.out.println("[DEBUG] \t- Output imputeFileWarnings : " + imputeFileWarnings);
 			System.out.println("[DEBUG] \t- Input  theChromo          : " + theChromo);
+			System.out.println("[DEBUG] \t- Input  panel              : " + panel);
 			System.out.println(NEW_LINE);
 			System.out.println("[DEBUG] \t- Command: " + cmdToStore);
 			System.out.println("--------------------------------------");
@@ -1906,6 +1952,10 @@ public class GuidanceImpl {
 
 		long startTime = System.currentTimeMillis();
 
+		// The telemetry is keyed as the master predicts the memory of the chunk (see
+		// Guidance.selectPanelMemory), with the chromosome before it is renamed to X
+		String telemetryChromo = theChromo;
+
 		// We have to make sure whether we are using renamed files of the original gz
 		// files.
 		// We detect this situation by scanning the last three characters:
@@ -1922,6 +1972,13 @@ public class GuidanceImpl {
 		// We erase the extension .gz
 		imputeFile = imputeFile.substring(0, imputeFile.length() - 3);
 
+		// The gen output of impute2 is written to a named pipe and rewritten and
+		// compressed while impute2 runs. Without named pipes impute2 compresses it and
+		// it is rewritten at the end
+		String imputeGZFile = imputeFile + ".gz";
+		boolean streamed = FileUtils.createFifo(imputeFile);
+		String outputOptions = streamed ? " -no_sample_qc_info" : " -no_sample_qc_info -o_gz";
+
 		String cmd = null;
 		if (theChromo.equals(CHR_23)) {
 
@@ -1930,7 +1987,7 @@ public class GuidanceImpl {
 					+ " -known_haps_g " + phasingHapsFileGz + " -sample_g " + phasingSampleFile + " -int " + lim1S + " "
 					+ lim2S + "  -chrX -exclude_snps_g " + pairsFile + " -impute_excluded -Ne 20000 -o " + imputeFile
 					+ " -i " + imputeFileInfo + " -r " + imputeFileSummary + " -w " + imputeFileWarnings
-					+ " -no_sample_qc_info -o_gz";
+					+ outputOptions;
 			// } else if (sex.equals(SEX2)) {
 			// } else {
 			// cmd = impute2Binary + " -use_prephased_g -m " + gmapFile + " -h " +
@@ -1949,21 +2006,73 @@ public class GuidanceImpl {
 			cmd = impute2Binary + " -use_prephased_g -m " + gmapFile + " -h " + knownHapFile + " -l " + legendFile
 					+ " -known_haps_g " + phasingHapsFileGz + " -int " + lim1S + " " + lim2S + " -exclude_snps_g "
 					+ pairsFile + " -impute_excluded -Ne 20000 -o " + imputeFile + " -i " + imputeFileInfo + " -r "
-					+ imputeFileSummary + " -w " + imputeFileWarnings + " -no_sample_qc_info -o_gz";
+					+ imputeFileSummary + " -w " + imputeFileWarnings + outputOptions;
 		}
 
 		if (DEBUG) {
 			System.out.println(HEADER_IMPUTE + MSG_CMD + cmd);
+			System.out.println("\n[DEBUG] imputeWithImpute streaming the gen output: " + streamed);
+		}
+
+		// The reader of the named pipe is started before impute2 opens it
+		final String fifoFile = imputeFile;
+		final String chrName = theChromo;
+		ExecutorService rewriter = null;
+		Future<Long> rewrittenLines = null;
+		if (streamed) {
+			rewriter = Executors.newSingleThreadExecutor();
+			rewrittenLines = rewriter.submit(() -> {
+				try (InputStream in = new FileInputStream(fifoFile)) {
+					return ImputeOutputRewriter.rewriteToBgzf(in, imputeGZFile, chrName);
+				}
+			});
 		}
 
 		// Execute the command retrieving its exitValue, output and error
 		int exitValue = -1;
-		try {
+		try (TelemetryLog.Task telemetry = TelemetryLog.forTask("imputeWithImpute", telemetryChromo,
+				lim1S + "-" + lim2S, panel)) {
 			exitValue = ProcessUtils.execute(cmd, imputeFile + STDOUT_EXTENSION, imputeFile + STDERR_EXTENSION);
+			if (exitValue == 0) {
+				// The info file has a line per variant of the chunk after its header
+				telemetry.appendFeatures(ConstraintModel.countLines(imputeFileInfo, 1),
+						ConstraintModel.countSamples(phasingSampleFile, 2));
+			}
 		} catch (IOException ioe) {
+			if (streamed) {
+				releaseFifo(fifoFile);
+				rewriter.shutdownNow();
+			}
 			throw new GuidanceTaskException(ioe);
 		}
 
+		if (streamed) {
+			try {
+				// Opening the pipe for writing releases the reader if impute2 has not opened
+				// it. It is repeated in case the reader had not started to open it yet
+				while (!rewrittenLines.isDone()) {
+					releaseFifo(fifoFile);
+					try {
+						rewrittenLines.get(1, TimeUnit.SECONDS);
+					} catch (TimeoutException te) {
+						// The reader is still rewriting the output
+					}
+				}
+				long lines = rewrittenLines.get();
+				if (DEBUG) {
+					System.out.println("\n[DEBUG] imputeWithImpute rewritten gen lines: " + lines);
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new GuidanceTaskException(ie);
+			} catch (ExecutionException ee) {
+				throw new GuidanceTaskException(ee);
+			} finally {
+				rewriter.shutdown();
+				new File(fifoFile).delete();
+			}
+		}
+
 		// Check process exit value
 		if (exitValue != 0) {
 			System.err.println(HEADER_IMPUTE + " Warning executing imputeProc job, exit value is: " + exitValue);
@@ -1973,8 +2082,9 @@ public class GuidanceImpl {
 		// With the -o_gz option in the command, the outputs are imputeFile.gz
 		// If there is not output in the impute process. Then we have to create some
 		// empty outputs
-		String imputeGZFile = imputeFile + ".gz";
-		if (!(new File(imputeGZFile).exists())) {
+		if (streamed) {
+			// The gen output has already been rewritten
+		} else if (!(new File(imputeGZFile).exists())) {
 			System.err.println(HEADER_IMPUTE + " Creating imputeGZFile");
 			try {
 				if (!FileUtils.createEmptyFile(imputeFile, HEADER_IMPUTE)) {
@@ -1985,16 +2095,14 @@ public class GuidanceImpl {
 			}
 			FileUtils.gzipFile(imputeFile, imputeGZFile);
 		} else {
-			String imputeFileColumnTransformation = "zcat " + imputeGZFile + " | awk -v chr=" + theChromo
-					+ " '{out=$1 \" \" chr \":\" $3 \"_\" $4 \"_\" $5 ; for(i=3;i<=NF;i++){out=out\" \"$i}; print out}' | gzip > "
-					+ imputeGZFile + "_tmp; mv " + imputeGZFile + "_tmp " + imputeGZFile;
-			//imputeFileColumnTransformation = "/gpfs/projects/pr1ejj00/binaries/convertSecondColumn.sh " + imputeGZFile + " " + theChromo;
-			try {
-				ProcessUtils.executeWithoutOutputs(imputeFileColumnTransformation);
+			try (InputStream in = FileUtils.openGzipInputStream(imputeGZFile)) {
+				long lines = ImputeOutputRewriter.rewriteToBgzf(in, imputeGZFile, theChromo);
+				if (DEBUG) {
+					System.out.println("\n[DEBUG] imputeWithImpute rewritten gen lines: " + lines);
+				}
 			} catch (IOException ioe) {
 				throw new GuidanceTaskException(ioe);
 			}
-			System.out.println(imputeFileColumnTransformation);
 		}
 
 		// The result has the gz extension
@@ -2017,17 +2125,15 @@ public class GuidanceImpl {
 			throw new GuidanceTaskException(ioe);
 		}
 
-		String imputeInfoFileColumnTransformation = "head -n1 " + imputeFileInfo + " > " + imputeFileInfo
-				+ "_tmp;tail -n +2 " + imputeFileInfo + " | awk -v chr=" + theChromo
-				+ " '{out=$1 \" \" chr \":\" $3 \"_\" $4 \"_\" $5 ; for(i=3;i<=NF;i++){out=out\" \"$i}; print out}' >> "
-				+ imputeFileInfo + "_tmp; mv " + imputeFileInfo + "_tmp " + imputeFileInfo;
-		
+		// The info file has a header line
 		try {
-			ProcessUtils.executeWithoutOutputs(imputeInfoFileColumnTransformation);
+			long lines = ImputeOutputRewriter.rewriteFile(imputeFileInfo, theChromo, 1);
+			if (DEBUG) {
+				System.out.println("\n[DEBUG] imputeWithImpute rewritten info lines: " + lines);
+			}
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
 		}
-		System.out.println(imputeInfoFileColumnTransformation);
 
 		long stopTime = System.currentTimeMillis();
 		long elapsedTime = (stopTime - startTime) / 1_000;
@@ -2094,30 +2200,45 @@ public class GuidanceImpl {
 	 */
 
 	public static void imputeWithMinimacLow(String vcfFile, String filteredHapsVcfFileBgzip, String imputeFile,
-			String imputeFileInfo, String imputeFileErate, String imputeFileRec, String imputeFileM3vcf,
-			String imputeFileLog, String chrS, String lim1S, String lim2S, String myPrefix, String sex,
-			String cmdToStore) throws GuidanceTaskException {
+			String imputeFileTbi, String imputeFileInfo, String imputeFileErate, String imputeFileRec,
+			String imputeFileM3vcf, String imputeFileLog, String chrS, String lim1S, String lim2S, String myPrefix,
+			String sex, String panel, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("imputeWithMinimacLow", vcfFile, filteredHapsVcfFileBgzip, imputeFile, imputeFileTbi,
+				imputeFileInfo, imputeFileErate, imputeFileRec, imputeFileM3vcf, imputeFileLog, chrS, lim1S, lim2S,
+				myPrefix, sex, panel, cmdToStore)) {
+			return;
+		}
 
-		imputeWithMinimac(vcfFile, filteredHapsVcfFileBgzip, imputeFile, imputeFileInfo, imputeFileErate, imputeFileRec,
-				imputeFileM3vcf, imputeFileLog, chrS, lim1S, lim2S, myPrefix, sex, cmdToStore);
+		imputeWithMinimac(vcfFile, filteredHapsVcfFileBgzip, imputeFile, imputeFileTbi, imputeFileInfo, imputeFileErate,
+				imputeFileRec, imputeFileM3vcf, imputeFileLog, chrS, lim1S, lim2S, myPrefix, sex, panel, cmdToStore);
 	}
 
 	public static void imputeWithMinimacMedium(String vcfFile, String filteredHapsVcfFileBgzip, String imputeFile,
-			String imputeFileInfo, String imputeFileErate, String imputeFileRec, String imputeFileM3vcf,
-			String imputeFileLog, String chrS, String lim1S, String lim2S, String myPrefix, String sex,
-			String cmdToStore) throws GuidanceTaskException {
+			String imputeFileTbi, String imputeFileInfo, String imputeFileErate, String imputeFileRec,
+			String imputeFileM3vcf, String imputeFileLog, String chrS, String lim1S, String lim2S, String myPrefix,
+			String sex, String panel, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("imputeWithMinimacMedium", vcfFile, filteredHapsVcfFileBgzip, imputeFile,
+				imputeFileTbi, imputeFileInfo, imputeFileErate, imputeFileRec, imputeFileM3vcf, imputeFileLog, chrS,
+				lim1S, lim2S, myPrefix, sex, panel, cmdToStore)) {
+			return;
+		}
 
-		imputeWithMinimac(vcfFile, filteredHapsVcfFileBgzip, imputeFile, imputeFileInfo, imputeFileErate, imputeFileRec,
-				imputeFileM3vcf, imputeFileLog, chrS, lim1S, lim2S, myPrefix, sex, cmdToStore);
+		imputeWithMinimac(vcfFile, filteredHapsVcfFileBgzip, imputeFile, imputeFileTbi, imputeFileInfo, imputeFileErate,
+				imputeFileRec, imputeFileM3vcf, imputeFileLog, chrS, lim1S, lim2S, myPrefix, sex, panel, cmdToStore);
 	}
 
 	public static void imputeWithMinimacHigh(String vcfFile, String filteredHapsVcfFileBgzip, String imputeFile,
-			String imputeFileInfo, String imputeFileErate, String imputeFileRec, String imputeFileM3vcf,
-			String imputeFileLog, String chrS, String lim1S, String lim2S, String myPrefix, String sex,
-			String cmdToStore) throws GuidanceTaskException {
+			String imputeFileTbi, String imputeFileInfo, String imputeFileErate, String imputeFileRec,
+			String imputeFileM3vcf, String imputeFileLog, String chrS, String lim1S, String lim2S, String myPrefix,
+			String sex, String panel, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("imputeWithMinimacHigh", vcfFile, filteredHapsVcfFileBgzip, imputeFile, imputeFileTbi,
+				imputeFileInfo, imputeFileErate, imputeFileRec, imputeFileM3vcf, imputeFileLog, chrS, lim1S, lim2S,
+				myPrefix, sex, panel, cmdToStore)) {
+			return;
+		}
 
-		imputeWithMinimac(vcfFile, filteredHapsVcfFileBgzip, imputeFile, imputeFileInfo, imputeFileErate, imputeFileRec,
-				imputeFileM3vcf, imputeFileLog, chrS, lim1S, lim2S, myPrefix, sex, cmdToStore);
+		imputeWithMinimac(vcfFile, filteredHapsVcfFileBgzip, imputeFile, imputeFileTbi, imputeFileInfo, imputeFileErate,
+				imputeFileRec, imputeFileM3vcf, imputeFileLog, chrS, lim1S, lim2S, myPrefix, sex, panel, cmdToStore);
 	}
 
 	/**
@@ -2142,9 +2263,9 @@ public class GuidanceImpl {
 	 * @throws Exception
 	 */
 	private static void imputeWithMinimac(String vcfFile, String filteredHapsVcfFileBgzip, String imputeFile,
-			String imputeFileInfo, String imputeFileErate, String imputeFileRec, String imputeFileM3vcf,
-			String imputeFileLog, String chrS, String lim1S, String lim2S, String myPrefix, String sex,
-			String cmdToStore) throws GuidanceTaskException {
+			String imputeFileTbi, String imputeFileInfo, String imputeFileErate, String imputeFileRec,
+			String imputeFileM3vcf, String imputeFileLog, String chrS, String lim1S, String lim2S, String myPrefix,
+			String sex, String panel, String cmdToStore) throws GuidanceTaskException {
 
 		String minimac4Binary = loadFromEnvironment(MINIMAC4BINARY, HEADER_MINIMAC);
 		String realPrefix = imputeFileErate.substring(0, imputeFileErate.length() - 6);
@@ -2158,12 +2279,14 @@ public class GuidanceImpl {
 			System.out.println("[DEBUG] \t- Output imputeMMErateFile          : " + imputeFileErate);
 			System.out.println("[DEBUG] \t- Output imputeMMRecFile            : " + imputeFileRec);
 			System.out.println("[DEBUG] \t- Output imputeMMDoseVCFFile        : " + imputeFile);
+			System.out.println("[DEBUG] \t- Output imputeMMDoseVCFFileTbi     : " + imputeFileTbi);
 			System.out.println("[DEBUG] \t- Output imputeMMM3VCFFile          : " + imputeFileM3vcf);
 			System.out.println("[DEBUG] \t- Output imputeMMLogFile            : " + imputeFileLog);
 			System.out.println("[DEBUG] \t- Input chrS                        : " + chrS);
 			System.out.println("[DEBUG] \t- Input lim1S                       : " + lim1S);
 			System.out.println("[DEBUG] \t- Input lim2S                       : " + lim2S);
 			System.out.println("[DEBUG] \t- Input myPrefix                    : " + myPrefix);
+			System.out.println("[DEBUG] \t- Input panel                       : " + panel);
 			System.out.println("\n");
 			System.out.println("[DEBUG] \t- Command                           : " + cmdToStore);
 		}
@@ -2171,11 +2294,12 @@ public class GuidanceImpl {
 		long startTime = System.currentTimeMillis();
 
 		String cmd = null;
+		int threads = getToolThreads(MINIMAC_THREADS, IMPUTE_WITH_MINIMAC_CU);
 		// Submitting the impute task per chunk
 		if (chrS.equals("23")) {
 			// if (sex.equals(SEX1)) {
 			cmd = minimac4Binary + " --refHaps " + vcfFile + " --haps " + filteredHapsVcfFileBgzip + " --start " + lim1S
-					+ " --end " + lim2S + " --chr X --cpus 4 --window 500000 --prefix " + realPrefix
+					+ " --end " + lim2S + " --chr X --cpus " + threads + " --window 500000 --prefix " + realPrefix
 					+ " --log --allTypedSites --noPhoneHome --format GT,DS,GP --nobgzip";
 			// } else if (sex.equals(SEX2)) {
 			// } else {
@@ -2187,7 +2311,8 @@ public class GuidanceImpl {
 			// }
 		} else {
 			cmd = minimac4Binary + " --refHaps " + vcfFile + " --haps " + filteredHapsVcfFileBgzip + " --start " + lim1S
-					+ " --end " + lim2S + " --chr " + chrS + " --cpus 8 --window 500000 --prefix " + realPrefix
+					+ " --end " + lim2S + " --chr " + chrS + " --cpus " + threads + " --window 500000 --prefix "
+					+ realPrefix
 					+ " --log --allTypedSites --noPhoneHome --format GT,DS,GP --nobgzip";
 		}
 
@@ -2195,12 +2320,31 @@ public class GuidanceImpl {
 			System.out.println(HEADER_MINIMAC + " " + MSG_CMD + " " + cmd);
 		}
 
-		// Execute the command retrieving its exitValue, output and error
+		// Execute the command retrieving its exitValue, output and error. When the
+		// commands are pinned, several chunks run in the node, each on its own cores
 		int exitValue = -1;
-		try {
+		boolean pinned = "YES".equals(System.getenv(MINIMAC_TASKSET));
+		try (TelemetryLog.Task telemetry = TelemetryLog.forTask("imputeWithMinimac", chrS, lim1S + "-" + lim2S,
+				panel);
+				CoreAllocator.Cores cores = pinned ? CoreAllocator.getInstance().acquire(threads) : null) {
+
+			if (cores != null) {
+				cmd = "taskset -c " + cores.getCpuList() + " " + cmd;
+				if (DEBUG) {
+					System.out.println(HEADER_MINIMAC + " Pinned to the cores " + cores.getCpuList());
+				}
+			}
 			exitValue = ProcessUtils.executeWithoutOutputs(cmd);
+			if (exitValue == 0) {
+				// The info file has a line per variant of the chunk after its header
+				telemetry.appendFeatures(ConstraintModel.countLines(realPrefix + ".info", 1),
+						ConstraintModel.countVcfSamples(filteredHapsVcfFileBgzip));
+			}
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new GuidanceTaskException(ie);
 		}
 
 		// Check process exit value
@@ -2247,8 +2391,6 @@ public class GuidanceImpl {
 			}
 			FileUtils.move(realPrefix + ".m3vcf", imputeFileM3vcf);
 
-			FileUtils.move(realPrefix + ".dose.vcf", imputeFile);
-
 			FileUtils.move(realPrefix + ".rec", imputeFileRec);
 
 			FileUtils.move(realPrefix + ".erate", imputeFileErate);
@@ -2271,10 +2413,11 @@ public class GuidanceImpl {
 			 * } catch (IOException ioe) { throw new GuidanceTaskException(ioe); }
 			 */
 		}
-		FileUtils.bgzipFile(realPrefix + ".dose.vcf", imputeFile);
+		// The dose VCF is compressed to BGZF and indexed while it is written
+		FileUtils.bgzipFile(realPrefix + ".dose.vcf", imputeFile, imputeFileTbi);
 		FileUtils.gzipFile(realPrefix + ".m3vcf", imputeFileM3vcf);
 
-		// FileUtils.delete(realPrefix + ".dose.vcf");
+		FileUtils.delete(realPrefix + ".dose.vcf");
 		// FileUtils.delete(realPrefix + ".m3vcf");
 
 		long stopTime = System.currentTimeMillis();
@@ -2293,6 +2436,11 @@ public class GuidanceImpl {
 	// topHitsAllPheno -> FILE_OUT
 	public static void generateTopHitsAllPhenos(LinkedList<String> controlInteger, String combinedTopHitsString, String topHitsAllPheno, String hostname, String ip)
 			throws GuidanceTaskException, IOException {
+		if (LocalExecutor.submit("generateTopHitsAllPhenos", controlInteger, combinedTopHitsString, topHitsAllPheno,
+				hostname, ip)) {
+			return;
+		}
+
 		
 		LinkedList<String> combinedTopHits = new LinkedList<String>(Arrays.asList(combinedTopHitsString.split(",")));
 		
@@ -2349,6 +2497,10 @@ public class GuidanceImpl {
 
 	public static void generateMergedPhenoTopHits(String topHitsAllPheno, String condensedFile, String mergedPhenoFile,
 			String pheno) throws GuidanceTaskException {
+		if (LocalExecutor.submit("generateMergedPhenoTopHits", topHitsAllPheno, condensedFile, mergedPhenoFile,
+				pheno)) {
+			return;
+		}
 
 		String rScriptBinDir = loadFromEnvironment(RSCRIPTBINDIR, HEADER_PHENO);
 		String rScriptDir = loadFromEnvironment(RSCRIPTDIR, HEADER_PHENO);
@@ -2382,59 +2534,29 @@ public class GuidanceImpl {
 		}
 	}
 
-	// This is not a task!! Calling it will imply a sincronization!!!
-	// If someday this can be a task, phenoMergedTopHits -> FILE_IN_ARRAY
-	// crossPhenoAll -> FILE_OUT
-	// crossPhenoRanges -> FILE_OUT
-	// crossPhenoTopVariants -> FILE_OUT
-	// pvaThreshold -> STRING_IN
-	public static void computeCrossPheno(LinkedList<String> controlString, String phenoMergedTopHitsString, String crossPhenoAll, String pvaThreshold, String models, String hostname, String ip) throws GuidanceTaskException, IOException {
-
-		String rScriptBinDir = loadFromEnvironment(RSCRIPTBINDIR, HEADER_PHENO);
-		String rScriptDir = loadFromEnvironment(RSCRIPTDIR, HEADER_PHENO);
-		
-		LinkedList<String> phenoMergedTopHits = new LinkedList<String>(Arrays.asList(phenoMergedTopHitsString.split(",")));
-		
-		String sandboxPath = String.join("/",Arrays.copyOf(crossPhenoAll.split("/"), crossPhenoAll.split("/").length - 1)) + "/";
-
-		String fileInSandboxPath = sandboxPath + phenoMergedTopHits.get(0).split("/")[phenoMergedTopHits.get(0).split("/").length - 1];
-		
-		//GuidanceImpl.copyFileLocalToRuntime(phenoMergedTopHits.get(0), fileInSandboxPath, hostname, ip);
-		
-		//System.out.println(sandboxPath);
-		//System.out.println(phenoMergedTopHits.get(0) + " " + fileInSandboxPath);
-		String localPhenoMergedTopHitsString = fileInSandboxPath;
-		/*
-		for (int i = 1; i < phenoMergedTopHits.size(); ++i) {
-			fileInSandboxPath = sandboxPath + phenoMergedTopHits.get(i).split("/")[phenoMergedTopHits.get(i).split("/").length - 1];
-			GuidanceImpl.copyFileLocalToRuntime(phenoMergedTopHits.get(i), fileInSandboxPath, hostname, ip);
-			System.out.println(phenoMergedTopHits.get(i) + " " + fileInSandboxPath);
-			localPhenoMergedTopHitsString += ("," + fileInSandboxPath);
-			//FileUtils.copy(combinedTopHits.get(i), fileInSandboxPath);
-			//combinedTopHitsString += ("," + fileInSandboxPath);
-			//combinedTopHitsString += ("," + combinedTopHits.get(i));
-		}*/
-		
-		String mergedTopHitsString = phenoMergedTopHits.get(0);
-		for (int i = 1; i < phenoMergedTopHits.size(); ++i) {
-			mergedTopHitsString += ("," + phenoMergedTopHits.get(i));
+	public static void computeCrossPheno(LinkedList<String> controlString, String phenoMergedTopHitsString,
+			String crossPhenoAll, String pvaThreshold, String models, String hostname, String ip)
+			throws GuidanceTaskException {
+		if (LocalExecutor.submit("computeCrossPheno", controlString, phenoMergedTopHitsString, crossPhenoAll,
+				pvaThreshold, models, hostname, ip)) {
+			return;
 		}
 
-		String rScriptPath = rScriptDir + "/crossphenotype_crossmodel.R ";
-		
-		localPhenoMergedTopHitsString = phenoMergedTopHitsString;
-		
-		String command = rScriptBinDir + "Rscript --verbose " + rScriptPath + localPhenoMergedTopHitsString
-				+ " " + crossPhenoAll + " " + pvaThreshold + " " + models;
+		List<String> phenoMergedTopHits = Arrays.asList(phenoMergedTopHitsString.split(","));
 
-		long startTime = 0;
 		if (DEBUG) {
-			startTime = System.currentTimeMillis();
-			System.out.println("\n[DEBUG] [pheno] Launched command:                 : " + command);
+			System.out.println("\n[DEBUG] Running computeCrossPheno with parameters:");
+			System.out.println("[DEBUG] \t- Input phenoMergedTopHits : " + phenoMergedTopHitsString);
+			System.out.println("[DEBUG] \t- Output crossPhenoAll     : " + crossPhenoAll);
+			System.out.println("[DEBUG] \t- pvaThreshold             : " + pvaThreshold);
+			System.out.println("[DEBUG] \t- models                   : " + models);
+			System.out.println("--------------------------------------");
 		}
+		long startTime = System.currentTimeMillis();
 
+		CrossPhenoMerger merger = new CrossPhenoMerger(Double.parseDouble(pvaThreshold), models.split(","));
 		try {
-			ProcessUtils.executeWithoutOutputs(command);
+			merger.merge(phenoMergedTopHits, crossPhenoAll);
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
 		}
@@ -2442,6 +2564,8 @@ public class GuidanceImpl {
 		if (DEBUG) {
 			long stopTime = System.currentTimeMillis();
 			long elapsedTime = (stopTime - startTime) / 1_000;
+			System.out.println("\n[DEBUG] [pheno] computeCrossPheno merged rows  : " + merger.getNumberOfRows());
+			System.out.println("\n[DEBUG] [pheno] computeCrossPheno associations : " + merger.getNumberOfAssociations());
 			System.out.println("\n[DEBUG] [pheno] computeCrossPheno startTime   : " + startTime);
 			System.out.println("\n[DEBUG] [pheno] computeCrossPheno endTime     : " + stopTime);
 			System.out.println("\n[DEBUG] [pheno] computeCrossPheno elapsedTime : " + elapsedTime + " seconds");
@@ -2450,59 +2574,60 @@ public class GuidanceImpl {
 	}
 
 	public static void generateCondensedAndTopHitsFile(String filteredFile, String filteredMalesFile,
-			String filteredFemalesFile, String filteredAllXFile, String condensedFile, String topHitsFile,
-			String crossRangesFile, String pvaThresholdStr, String models, String outFile, String errFile, String cmdToStore)
-			throws GuidanceTaskException, InterruptedException {
-
-		String command = null;
-		long startTime = System.currentTimeMillis();
-		String condensedPlain = condensedFile.substring(0, condensedFile.length() - 3);
-		String topHitsPlain = topHitsFile.substring(0, topHitsFile.length() - 3);
-		String crossRangesPlain = crossRangesFile.substring(0, crossRangesFile.length() - 3);
-
-		String rScriptBinDir = loadFromEnvironment(RSCRIPTBINDIR, HEADER_GENERATE_QQ_MANHATTAN_PLOTS);
-		String rScriptDir = loadFromEnvironment(RSCRIPTDIR, HEADER_GENERATE_QQ_MANHATTAN_PLOTS);
-
-		String rScriptPath = rScriptDir + "/condensed_tophits_crossmodel.R ";
-		//rScriptPath = "/gpfs/scratch/pr1ejj00/pr1ejj08/GUIDANCE/GERA/condensed_tophits_crossmodel.R ";
-		
-		command = rScriptBinDir + "/Rscript --verbose " + rScriptPath + filteredFile + " " + filteredMalesFile + " "
-				+ filteredFemalesFile + " " + filteredAllXFile + " " + condensedPlain + " " + topHitsPlain + " "
-				+ crossRangesPlain + " " + pvaThresholdStr + " " + models;
-		
-		//String[] splittedFilename = condensedFile.split("/");
-		//String fileName = splittedFilename[splittedFilename.length - 1];
-		//String outFile = "/gpfs/scratch/pr1ejj00/pr1ejj08/GUIDANCE/GERA_ALL/log_files/" + fileName + ".out";
-		//String errFile = "/gpfs/scratch/pr1ejj00/pr1ejj08/GUIDANCE/GERA_ALL/log_files/" + fileName + ".err";
+			String filteredFemalesFile, String filteredAllXFile, String condensedFile, String condensedSketchFile,
+			String topHitsFile, String crossRangesFile, String pvaThresholdStr, String models, String outFile,
+			String errFile, String cmdToStore) throws GuidanceTaskException, InterruptedException {
+		if (LocalExecutor.submit("generateCondensedAndTopHitsFile", filteredFile, filteredMalesFile,
+				filteredFemalesFile, filteredAllXFile, condensedFile, condensedSketchFile, topHitsFile,
+				crossRangesFile, pvaThresholdStr, models, outFile, errFile, cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
-			System.out.println("\n[DEBUG] Launched command:                 : " + command);
+			System.out.println("\n[DEBUG] Running generateCondensedAndTopHitsFile with parameters:");
+			System.out.println("[DEBUG] \t- Input filteredFile         : " + filteredFile);
+			System.out.println("[DEBUG] \t- Input filteredMalesFile    : " + filteredMalesFile);
+			System.out.println("[DEBUG] \t- Input filteredFemalesFile  : " + filteredFemalesFile);
+			System.out.println("[DEBUG] \t- Input filteredAllXFile     : " + filteredAllXFile);
+			System.out.println("[DEBUG] \t- Output condensedFile       : " + condensedFile);
+			System.out.println("[DEBUG] \t- Output condensedSketchFile : " + condensedSketchFile);
+			System.out.println("[DEBUG] \t- Output topHitsFile         : " + topHitsFile);
+			System.out.println("[DEBUG] \t- Output crossRangesFile     : " + crossRangesFile);
+			System.out.println("[DEBUG] \t- pvaThreshold               : " + pvaThresholdStr);
+			System.out.println("[DEBUG] \t- models                     : " + models);
+			System.out.println(NEW_LINE);
+			System.out.println("[DEBUG] \t- Command: " + cmdToStore);
+			System.out.println("--------------------------------------");
 		}
-		
-		System.out.println("Previous files");
-		
-		FileUtils.recursiveSearch(filteredFile);
+		long startTime = System.currentTimeMillis();
 
+		double pvaThreshold = Double.parseDouble(pvaThresholdStr);
+		CondensedTopHitsWriter condensedWriter = new CondensedTopHitsWriter(pvaThreshold, models.split(","));
+		condensedWriter.setCompressionThreads(FileUtils.getComputingUnits(GENERATE_CONDENSED_CU));
 		try {
-			//ProcessUtils.executeWithoutOutputs(command);
-			//System.out.println("OUT FILE:");
-			//String[] outFileVector = topHitsPlain.split("/");
-			//String outFileName = outFileVector[outFileVector.length - 1];
-			//System.out.println("/home/computational.genomics.bsc/" + outFileName + ".out");
-			ProcessUtils.executeWithOutputs(command, outFile, errFile);
+			condensedWriter.generate(filteredFile, filteredMalesFile, filteredFemalesFile, filteredAllXFile,
+					condensedFile, topHitsFile, crossRangesFile);
+			condensedWriter.getSketch().write(condensedSketchFile);
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
 		}
-		
-		System.out.println("Post execution");
-		
-		FileUtils.recursiveSearch(condensedPlain);
 
-		FileUtils.gzipFile(condensedPlain, condensedFile);
-		FileUtils.gzipFile(topHitsPlain, topHitsFile);
-		FileUtils.gzipFile(crossRangesPlain, crossRangesFile);
-		
-		FileUtils.recursiveSearch(condensedFile);
+		// The task declares the out and err files of the former R script. The lambda of
+		// each model is reported there, before the plots are drawn
+		PvalueSketch sketch = condensedWriter.getSketch();
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(outFile))) {
+			writer.write("Top hits: " + condensedWriter.getNumberOfTopHits());
+			writer.newLine();
+			for (String model : sketch.getModels()) {
+				writer.write("Lambda (" + model + "): " + sketch.getLambda(model));
+				writer.newLine();
+			}
+			writer.write("Elapsed time: " + (System.currentTimeMillis() - startTime) + " ms");
+			writer.newLine();
+			FileUtils.createEmptyFile(errFile, HEADER_GENERATE_CONDENSED);
+		} catch (IOException ioe) {
+			throw new GuidanceTaskException(ioe);
+		}
 
 		long stopTime = System.currentTimeMillis();
 		long elapsedTime = (stopTime - startTime) / 1_000;
@@ -2510,6 +2635,10 @@ public class GuidanceImpl {
 			System.out.println("\n[DEBUG] generateCondensedFile startTime   : " + startTime);
 			System.out.println("\n[DEBUG] generateCondensedFile endTime     : " + stopTime);
 			System.out.println("\n[DEBUG] generateCondensedFile elapsedTime : " + elapsedTime + " seconds");
+			if (condensedWriter.getCondensedIndexError() != null) {
+				System.out.println("\n[DEBUG] generateCondensedFile condensed without index : "
+						+ condensedWriter.getCondensedIndexError());
+			}
 			System.out.println("\n[DEBUG] Finished execution of generateCondensedFile.");
 		}
 	}
@@ -2527,6 +2656,10 @@ public class GuidanceImpl {
 	 */
 	public static void filterByInfo(String imputationTool, String imputeFileInfo, String inclusionRsIdFile,
 			String infoThresholdS, String mafThresholdS, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("filterByInfo", imputationTool, imputeFileInfo, inclusionRsIdFile, infoThresholdS,
+				mafThresholdS, cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running filterByInfo with parameters:");
@@ -2574,40 +2707,38 @@ public class GuidanceImpl {
 		// Print information about the existence of the file
 		System.out.println("\n[DEBUG] \t- Output file " + inclusionRsIdFile + " was succesfuly created? " + bool);
 
-		try (FileReader fr = new FileReader(imputeFileInfo);
-				BufferedReader br = new BufferedReader(fr);
+		try (MappedLineReader infoReader = new MappedLineReader(imputeFileInfo);
 				BufferedWriter writerFiltered = new BufferedWriter(new FileWriter(outInclusionRsIdFile))) {
 
 			// We read each line of the imputeFileInfo and put them into string.
+			// Only the columns we need are split
+			LineTokenizer tokenizer = new LineTokenizer(infoReader, LineTokenizer.WHITESPACE);
+			tokenizer.setMaxFields(Math.max(Math.max(infoIndex, rsIdIndex), Math.max(mafIndex, typeIndex)) + 1);
 			// I read the header
-			String line = br.readLine();
-			while ((line = br.readLine()) != null) {
-				String[] splittedLine = line.split(SPACE);
+			tokenizer.next();
+			while (tokenizer.next()) {
 				if (imputationTool.equals("minimac")) {
-					String type = splittedLine[typeIndex];
-
-					if (type.equals("Typed_Only") || (type.equals("Genotyped")
-							&& (Double.parseDouble(splittedLine[mafIndex]) > thresholdMafDouble))) {
+					if (tokenizer.equals(typeIndex, "Typed_Only") || (tokenizer.equals(typeIndex, "Genotyped")
+							&& (tokenizer.getDouble(mafIndex) > thresholdMafDouble))) {
 
-						writerFiltered.write(splittedLine[rsIdIndex]);
+						tokenizer.write(rsIdIndex, writerFiltered);
 						writerFiltered.newLine();
 					} else {
-						double info = Double.parseDouble(splittedLine[infoIndex]); // store info value in Double format
+						double info = tokenizer.getDouble(infoIndex); // store info value in Double format
 
 						// int retval = Double.compare(info, thresholdDouble);
 
-						if ((info >= thresholdInfoDouble)
-								&& (Double.parseDouble(splittedLine[mafIndex]) > thresholdMafDouble)) {
+						if ((info >= thresholdInfoDouble) && (tokenizer.getDouble(mafIndex) > thresholdMafDouble)) {
 							// The info value is greater or equal to the threshold, then store the rsID into
 							// the output file.
-							writerFiltered.write(splittedLine[rsIdIndex]);
+							tokenizer.write(rsIdIndex, writerFiltered);
 							writerFiltered.newLine();
 						}
 					}
 
 				} else {
 
-					double info = Double.parseDouble(splittedLine[infoIndex]); // store info value in Double format
+					double info = tokenizer.getDouble(infoIndex); // store info value in Double format
 
 					// Store rsID into filteredFile if info >= threshold
 					// int retval = Double.compare(info, thresholdDouble);
@@ -2615,7 +2746,7 @@ public class GuidanceImpl {
 					if (info >= thresholdInfoDouble) {
 						// The info value is greater or equal to the threshold, then store the rsID into
 						// the output file.
-						writerFiltered.write(splittedLine[rsIdIndex]);
+						tokenizer.write(rsIdIndex, writerFiltered);
 						writerFiltered.newLine();
 					}
 				}
@@ -2641,7 +2772,13 @@ public class GuidanceImpl {
 			String covariables, String models, String theChromo, String imputationTool, String imputeFileInfo,
 			String mafThresholdS, String hweCohortThresholdS, String hweCasesThresholdS, String hweControlsThresholdS,
 			String infoThresholdS, String sex, String rpanelName, String snptestOutFile, String snptestLogFile, String summaryFile,
-			String assocFilterByAll) throws GuidanceTaskException {
+			String assocFilterByAll, String assocFilterByAllSketch) throws GuidanceTaskException {
+		if (LocalExecutor.submit("snptestAndFilterByAll", mergedGenFile, mergedSampleFile, responseVar, covariables,
+				models, theChromo, imputationTool, imputeFileInfo, mafThresholdS, hweCohortThresholdS,
+				hweCasesThresholdS, hweControlsThresholdS, infoThresholdS, sex, rpanelName, snptestOutFile,
+				snptestLogFile, summaryFile, assocFilterByAll, assocFilterByAllSketch)) {
+			return;
+		}
 
 		snptest(mergedGenFile, mergedSampleFile, snptestOutFile, snptestLogFile, responseVar, covariables, models,
 				theChromo, "");
@@ -2649,8 +2786,8 @@ public class GuidanceImpl {
 		collectSummary(theChromo, imputationTool, imputeFileInfo, snptestOutFile, summaryFile, mafThresholdS,
 				hweCohortThresholdS, hweCasesThresholdS, hweControlsThresholdS, sex, "");
 
-		filterByAll(imputationTool, summaryFile, assocFilterByAll, mafThresholdS, infoThresholdS, hweCohortThresholdS,
-				hweCasesThresholdS, hweControlsThresholdS, sex, rpanelName, "");
+		filterByAll(imputationTool, summaryFile, assocFilterByAll, assocFilterByAllSketch, mafThresholdS, infoThresholdS,
+				hweCohortThresholdS, hweCasesThresholdS, hweControlsThresholdS, sex, rpanelName, "");
 
 	}
 
@@ -2659,7 +2796,7 @@ public class GuidanceImpl {
 	 * 
 	 * @param inputFile
 	 * @param outputFile
-	 * @param outputCondensedFile
+	 * @param outputSketchFile
 	 * @param mafThresholdS
 	 * @param infoThresholdS
 	 * @param hweCohortThresholdS
@@ -2670,15 +2807,22 @@ public class GuidanceImpl {
 	 * @throws InterruptedException
 	 * @throws Exception
 	 */
-	public static void filterByAll(String imputationTool, String inputFile, String outputFile, String mafThresholdS,
-			String infoThresholdS, String hweCohortThresholdS, String hweCasesThresholdS, String hweControlsThresholdS,
-			String sex, String rpanelName, String cmdToStore) throws GuidanceTaskException {
+	public static void filterByAll(String imputationTool, String inputFile, String outputFile, String outputSketchFile,
+			String mafThresholdS, String infoThresholdS, String hweCohortThresholdS, String hweCasesThresholdS,
+			String hweControlsThresholdS, String sex, String rpanelName, String cmdToStore)
+			throws GuidanceTaskException {
+		if (LocalExecutor.submit("filterByAll", imputationTool, inputFile, outputFile, outputSketchFile, mafThresholdS,
+				infoThresholdS, hweCohortThresholdS, hweCasesThresholdS, hweControlsThresholdS, sex, rpanelName,
+				cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running filterByAll with parameters:");
 			System.out.println("[DEBUG] \t- Input imputationTool          : " + imputationTool);
 			System.out.println("[DEBUG] \t- Input summaryFile             : " + inputFile);
 			System.out.println("[DEBUG] \t- Output outputFile             : " + outputFile);
+			System.out.println("[DEBUG] \t- Output outputSketchFile       : " + outputSketchFile);
 			System.out.println("[DEBUG] \t- Input maf threshold           : " + mafThresholdS);
 			System.out.println("[DEBUG] \t- Input info threshold          : " + infoThresholdS);
 			System.out.println("[DEBUG] \t- Input hwe cohort threshold    : " + hweCohortThresholdS);
@@ -2692,9 +2836,6 @@ public class GuidanceImpl {
 		}
 		long startTime = System.currentTimeMillis();
 
-		// The output will be first generated in plain format, then compressed
-		String plainOutputFile = outputFile.substring(0, outputFile.length() - 3);
-
 		// Convert threshold string into thresholdDouble
 		Double mafThreshold = Double.parseDouble(mafThresholdS);
 		Double infoThreshold = Double.parseDouble(infoThresholdS);
@@ -2702,39 +2843,76 @@ public class GuidanceImpl {
 		Double hweCasesThreshold = Double.parseDouble(hweCasesThresholdS);
 		Double hweControlsThreshold = Double.parseDouble(hweControlsThresholdS);
 
-		HashMap<String, Integer> inputFileHashTableIndex = new HashMap<>();
+		// P-values of the written rows, to know lambda and the QQ plot without reading
+		// the filtered files again
+		PvalueSketch sketch = new PvalueSketch();
 
-		try (GZIPInputStream inputGz = new GZIPInputStream(new FileInputStream(inputFile));
-				InputStreamReader decoder = new InputStreamReader(inputGz);
-				BufferedReader br = new BufferedReader(decoder);
-				BufferedWriter writerFiltered = new BufferedWriter(new FileWriter(plainOutputFile));) {
+		// The summary is a columnar table, or a gzipped text one if it comes from a
+		// previous version
+		boolean isColumnar = false;
+		try {
+			isColumnar = ColumnarTableReader.isColumnar(inputFile);
+		} catch (IOException ioe) {
+			throw new GuidanceTaskException(ioe);
+		}
+
+		try (ColumnarTableReader columnarReader = isColumnar ? new ColumnarTableReader(inputFile) : null;
+				BufferedReader br = isColumnar ? null
+						: new BufferedReader(new InputStreamReader(FileUtils.openGzipInputStream(inputFile)));
+				CompressedFileWriter writerFiltered = CompressedFileWriter.bgzf(outputFile)) {
 
 			// I read the header
-			String line = br.readLine();
+			String line = isColumnar ? columnarReader.getHeader() : br.readLine();
 			// Put the header in the output file.
 			if (!line.toLowerCase().contains("frequentist_add_pvalue")) {
 				line = line.replaceAll("frequentist_add_lrt_pvalue", "frequentist_add_pvalue");
 			}
 			writerFiltered.write(line + "\trefpanel");
 			writerFiltered.newLine();
+			writerFiltered.endHeader();
+
+			// Only the columns used by the filter are split, the lines are written as they
+			// are
+			List<String> columns = new ArrayList<>(Arrays.asList("chr", "info_all", "cohort_1_hwe", "cases_hwe",
+					"controls_hwe", "cases_maf", "controls_maf", "all_maf", "frequentist_add_pvalue"));
+			for (String model : PvalueSketch.MODELS) {
+				columns.add(PvalueSketch.getPvalueColumn(model));
+			}
+			ColumnProjection projection = new ColumnProjection(line, TAB, columns.toArray(new String[columns.size()]));
+			Integer chrIdx = projection.getIndex("chr");
+			Integer infoIdx = projection.getIndex("info_all");
+			Integer hweCohortIdx = projection.getIndex("cohort_1_hwe");
+			Integer hweCasesIdx = projection.getIndex("cases_hwe");
+			Integer hweControlsIdx = projection.getIndex("controls_hwe");
+			Integer casesMafIdx = projection.getIndex("cases_maf");
+			Integer controlsMafIdx = projection.getIndex("controls_maf");
+			Integer allMafIdx = projection.getIndex("all_maf");
+			Integer pvaIdx = projection.getIndex("frequentist_add_pvalue");
+			Integer[] modelPvaIdx = new Integer[PvalueSketch.MODELS.length];
+			for (int m = 0; m < PvalueSketch.MODELS.length; ++m) {
+				modelPvaIdx[m] = projection.getIndex(PvalueSketch.getPvalueColumn(PvalueSketch.MODELS[m]));
+			}
 
-			inputFileHashTableIndex = Headers.createHashWithHeader(line, TAB);
-			while ((line = br.readLine()) != null) {
-				String[] splittedLine = line.split(TAB);// delimiter I assume single space.
-
-				String chromo = splittedLine[inputFileHashTableIndex.get("chr")];
-				String infoS = null;
-				infoS = splittedLine[inputFileHashTableIndex.get("info_all")];
-				// if (imputationTool.equals("impute") || sex.equals(SEX1) || sex.equals(SEX2))
-				// {
-				// if (imputationTool.equals("impute")) {
-				// infoS = splittedLine[inputFileHashTableIndex.get("info_all")];
-				// } else if (imputationTool.equals("minimac")) {
-				// infoS = splittedLine[inputFileHashTableIndex.get("info_all")];
-				// }
+			// The blocks of the columnar summary whose info or MAF cannot pass the filter,
+			// or whose p-values are all NA, are skipped. The HWE is not checked by blocks
+			// because it is not filtered in the chromosome 23
+			if (isColumnar) {
+				if (imputationTool.equals("impute") || imputationTool.equals("minimac")) {
+					columnarReader.require(infoIdx, infoThreshold, Double.POSITIVE_INFINITY);
+				}
+				if (casesMafIdx != null && controlsMafIdx != null) {
+					columnarReader.require(casesMafIdx, mafThreshold, Double.POSITIVE_INFINITY);
+					columnarReader.require(controlsMafIdx, mafThreshold, Double.POSITIVE_INFINITY);
+				} else {
+					columnarReader.require(allMafIdx, mafThreshold, Double.POSITIVE_INFINITY);
+				}
+				columnarReader.requireValues(pvaIdx);
+			}
 
-				// String alleleA = splittedLine[inputFileHashTableIndex.get("alleleA")];
-				// String alleleB = splittedLine[inputFileHashTableIndex.get("alleleB")];
+			TableRow tokenizer = isColumnar ? columnarReader : projection.createTokenizer(br, '\t');
+			while (tokenizer.next()) {
+				boolean isChr23 = tokenizer.equals(chrIdx, CHR_23);
+				int infoField = infoIdx;
 
 				// We start with these values for hwe values just to allows the X chromosome to
 				// pass the if statement of
@@ -2742,112 +2920,147 @@ public class GuidanceImpl {
 				// next lines
 				// Just remember that hwe filtering when chromo X is being processed does not
 				// make sense.
-				String hwe_cohortS = "1.0";
-				String hwe_casesS = "1.0";
-				String hwe_controlsS = "1.0";
-				String cases_mafS = "1.0";
-				String controls_mafS = "1.0";
-
-				if (!chromo.equals(CHR_23)) {
-					hwe_cohortS = splittedLine[inputFileHashTableIndex.get("cohort_1_hwe")];
-					try {
-						hwe_casesS = splittedLine[inputFileHashTableIndex.get("cases_hwe")];
-						hwe_controlsS = splittedLine[inputFileHashTableIndex.get("controls_hwe")];
-					} catch (Exception e) {
-						if (DEBUG) {
-							System.out.println("There are not the columns cases_hwe and controls_hew in this case");
+				// A field equal to -1 means a value of 1.0
+				int hweCohortField = -1;
+				int hweCasesField = -1;
+				int hweControlsField = -1;
+				int casesMafField = -1;
+				int controlsMafField = -1;
+
+				if (!isChr23) {
+					hweCohortField = hweCohortIdx;
+					if (hweCasesIdx != null && hweCasesIdx < tokenizer.size()) {
+						hweCasesField = hweCasesIdx;
+						if (hweControlsIdx != null && hweControlsIdx < tokenizer.size()) {
+							hweControlsField = hweControlsIdx;
 						}
+					} else if (DEBUG) {
+						System.out.println("There are not the columns cases_hwe and controls_hew in this case");
 					}
 				}
 
-				try {
-					cases_mafS = splittedLine[inputFileHashTableIndex.get("cases_maf")];
-					controls_mafS = splittedLine[inputFileHashTableIndex.get("controls_maf")];
-				} catch (Exception e) {
+				if (casesMafIdx != null && casesMafIdx < tokenizer.size() && controlsMafIdx != null
+						&& controlsMafIdx < tokenizer.size()) {
+					casesMafField = casesMafIdx;
+					controlsMafField = controlsMafIdx;
+				} else {
 					if (DEBUG) {
 						System.out.println("There are not the columns cases_maf and controls_maf in this case");
 					}
-					cases_mafS = splittedLine[inputFileHashTableIndex.get("all_maf")];
-					controls_mafS = splittedLine[inputFileHashTableIndex.get("all_maf")];
+					casesMafField = allMafIdx;
+					controlsMafField = allMafIdx;
 				}
-				// String position = splittedLine[inputFileHashTableIndex.get("position")];
-				String pva = splittedLine[inputFileHashTableIndex.get("frequentist_add_pvalue")];
-
-				if (!cases_mafS.equals("NA") && !controls_mafS.equals("NA") && !infoS.equals("NA")
-						&& !hwe_cohortS.equals("NA") && !hwe_casesS.equals("NA") && !hwe_controlsS.equals("NA")
-						&& !pva.equals("NA")) {
-
-					Double cases_maf = Double.parseDouble(cases_mafS);
-					Double controls_maf = Double.parseDouble(controls_mafS);
-
-					Double infoD = 0.0;
-					String infoStr = " ";
-					Double hweCohort = 1.0;
-					Double hweCases = 1.0;
-					Double hweControls = 1.0;
-
-					if (!chromo.equals(CHR_23)) {
-						hweCohort = Double.parseDouble(hwe_cohortS);
-						hweCases = Double.parseDouble(hwe_casesS);
-						hweControls = Double.parseDouble(hwe_controlsS);
+				int pvaField = pvaIdx;
+
+				if (!isNA(tokenizer, casesMafField) && !isNA(tokenizer, controlsMafField) && !isNA(tokenizer, infoField)
+						&& !isNA(tokenizer, hweCohortField) && !isNA(tokenizer, hweCasesField)
+						&& !isNA(tokenizer, hweControlsField) && !isNA(tokenizer, pvaField)) {
+
+					double cases_maf = tokenizer.getDouble(casesMafField);
+					double controls_maf = tokenizer.getDouble(controlsMafField);
+
+					double infoD = 0.0;
+					double hweCohort = 1.0;
+					double hweCases = 1.0;
+					double hweControls = 1.0;
+
+					if (!isChr23) {
+						hweCohort = getDoubleOrOne(tokenizer, hweCohortField);
+						hweCases = getDoubleOrOne(tokenizer, hweCasesField);
+						hweControls = getDoubleOrOne(tokenizer, hweControlsField);
 					}
 
 					if (imputationTool.equals("impute")) {
-						infoD = Double.parseDouble(infoS);
+						infoD = tokenizer.getDouble(infoField);
 					} else if (imputationTool.equals("minimac")) {
-						if (!infoS.equals("-")) {
-							infoD = Double.parseDouble(infoS);
+						if (!tokenizer.equals(infoField, "-")) {
+							infoD = tokenizer.getDouble(infoField);
 						} else {
 							infoD = 1.0;
 						}
 					}
 
-					if (infoD >= infoThreshold || infoStr.equals("-")) {
+					if (infoD >= infoThreshold) {
 						if (cases_maf >= mafThreshold && controls_maf >= mafThreshold && // VERIFICAR LA CONDICION
 								hweCohort >= hweCohortThreshold && hweCases >= hweCasesThreshold
 								&& hweControls >= hweControlsThreshold) {
 
-							writerFiltered.write(line + TAB + rpanelName);
+							tokenizer.writeLine(writerFiltered);
+							writerFiltered.write(TAB + rpanelName);
 							writerFiltered.newLine();
+
+							sketch.addRow();
+							for (int m = 0; m < PvalueSketch.MODELS.length; ++m) {
+								Integer idx = modelPvaIdx[m];
+								if (idx != null && idx < tokenizer.size() && !isNA(tokenizer, idx)) {
+									try {
+										sketch.add(PvalueSketch.MODELS[m], tokenizer.getDouble(idx));
+									} catch (NumberFormatException nfe) {
+										// Not a p-value, it is not added to the sketch
+									}
+								}
+							}
 						}
 					}
 				}
 			}
 
-			writerFiltered.flush();
-		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
-		}
+			if (DEBUG && isColumnar) {
+				System.out.println("\n[DEBUG] filterByAll skipped blocks: " + columnarReader.getSkippedBlocks());
+			}
 
-		// Should never be empty since we always write the header but lets create the
-		// file if empty
-		try {
-			FileUtils.createEmptyFile(plainOutputFile, "[filterByAll]");
+			// The output is compressed while written, and renamed when complete
+			writerFiltered.commit();
+			sketch.write(outputSketchFile);
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
 		}
 
-		// Then, we compress the output files and clean them
-		FileUtils.gzipFile(plainOutputFile, outputFile);
-		FileUtils.delete(plainOutputFile);
-
 		long stopTime = System.currentTimeMillis();
 		long elapsedTime = (stopTime - startTime) / 1_000;
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] filterByAll startTime: " + startTime);
 			System.out.println("\n[DEBUG] filterByAll endTime: " + stopTime);
 			System.out.println("\n[DEBUG] filterByAll elapsedTime: " + elapsedTime + " seconds");
+			System.out.println("\n[DEBUG] filterByAll lambda (add): " + sketch.getLambda("add"));
 			System.out.println("\n[DEBUG] Finished execution of filterByAll");
 		}
 
 	}
 
+	/**
+	 * Returns true if the given field of the current line is NA. A field equal to
+	 * -1 means a constant 1.0 value
+	 * 
+	 * @param tokenizer
+	 * @param field
+	 * @return
+	 */
+	private static boolean isNA(TableRow tokenizer, int field) {
+		return field >= 0 && tokenizer.equals(field, "NA");
+	}
+
+	/**
+	 * Returns the double value of the given field of the current line. A field
+	 * equal to -1 means a constant 1.0 value
+	 * 
+	 * @param tokenizer
+	 * @param field
+	 * @return
+	 */
+	private static double getDoubleOrOne(TableRow tokenizer, int field) {
+		return (field >= 0) ? tokenizer.getDouble(field) : 1.0;
+	}
+
 	/**
 	 * Method to joint filtered by all files
 	 * 
 	 * @param filteredByAllA
 	 * @param filteredByAllB
 	 * @param filteredByAllC
+	 * @param sketchA
+	 * @param sketchB
+	 * @param sketchC
 	 * @param rpanelName
 	 * @param rpanelFlag
 	 * @param cmdToStore
@@ -2856,13 +3069,21 @@ public class GuidanceImpl {
 	 * @throws Exception
 	 */
 	public static void jointFilteredByAllFiles(String filteredByAllA, String filteredByAllB, String filteredByAllC,
-			String rpanelName, String rpanelFlag, String cmdToStore) throws GuidanceTaskException {
+			String sketchA, String sketchB, String sketchC, String rpanelName, String rpanelFlag, String cmdToStore)
+			throws GuidanceTaskException {
+		if (LocalExecutor.submit("jointFilteredByAllFiles", filteredByAllA, filteredByAllB, filteredByAllC, sketchA,
+				sketchB, sketchC, rpanelName, rpanelFlag, cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running jointFilteredByAllFiles with parameters:");
 			System.out.println("[DEBUG] \t- Input filteredByAllA          : " + filteredByAllA);
 			System.out.println("[DEBUG] \t- Input filteredByAllB          : " + filteredByAllB);
 			System.out.println("[DEBUG] \t- Output filteredByAllC         : " + filteredByAllC);
+			System.out.println("[DEBUG] \t- Input sketchA                 : " + sketchA);
+			System.out.println("[DEBUG] \t- Input sketchB                 : " + sketchB);
+			System.out.println("[DEBUG] \t- Output sketchC                : " + sketchC);
 			System.out.println(NEW_LINE);
 			System.out.println("[DEBUG] \t- Command: " + cmdToStore);
 			System.out.println("--------------------------------------");
@@ -2870,83 +3091,105 @@ public class GuidanceImpl {
 
 		long startTime = System.currentTimeMillis();
 
-		// First we generate the plain file, then we will compress it
-		String plainFilteredByAll = filteredByAllC.substring(0, filteredByAllC.length() - 3);
-		try (BufferedWriter writerFiltered = new BufferedWriter(new FileWriter(plainFilteredByAll))) {
-			try (GZIPInputStream filteredByAllGz = new GZIPInputStream(new FileInputStream(filteredByAllA));
-					InputStreamReader decoder = new InputStreamReader(filteredByAllGz);
-					BufferedReader br = new BufferedReader(decoder)) {
+		// When both files already have the refpanel column the lines are not
+		// rewritten, and the chunks are concatenated without decompressing them
+		boolean withRefpanel = false;
+		if (!filteredByAllA.equals(filteredByAllB)) {
+			try {
+				withRefpanel = endsWithRefpanel(ChunkMerger.readHeader(filteredByAllA))
+						&& endsWithRefpanel(ChunkMerger.readHeader(filteredByAllB));
+			} catch (IOException ioe) {
+				throw new GuidanceTaskException(ioe);
+			}
+		}
 
-				boolean putRefpanel = false;
-
-				// I read the header
-				String line = br.readLine();
-				// I put the refpanel column in the header:
-				String[] splittedHeader = line.split(TAB);
-				if (!splittedHeader[splittedHeader.length - 1].equals("refpanel")) {
-					line = line + "\trefpanel";
-					putRefpanel = true;
-				}
-
-				// Put the header in the output file.
-				writerFiltered.write(line);
-				writerFiltered.newLine();
-
-				while ((line = br.readLine()) != null) {
-					if (putRefpanel) {
-						line = line + TAB + rpanelName;
-					}
-					writerFiltered.write(line);
-					writerFiltered.newLine();
-				}
+		// The output is indexed by position (see queryRegion). When it is not sorted
+		// it is written without index
+		String indexError = null;
+		if (withRefpanel) {
+			try {
+				indexError = ChunkMerger.mergeIndexed(filteredByAllA, filteredByAllB, filteredByAllC);
+			} catch (IOException ioe) {
+				throw new GuidanceTaskException(ioe);
 			}
-
-			// Do the same with the filteredByAllB file if this is different to the
-			// filteredByAllA file
-			// OK, I explain now: The only way filteredByAllB = filteredByAllA is when there
-			// is only one chromosome to
-			// process.
-			// In that case, in the main program, we put the same file as filteredByAllA and
-			// filteredByAllB.
-			if (!filteredByAllA.equals(filteredByAllB)) {
-				try (GZIPInputStream filteredByAllGz = new GZIPInputStream(new FileInputStream(filteredByAllB));
+		} else {
+			// The output is compressed while written, and renamed when complete
+			try (CompressedFileWriter writerFiltered = CompressedFileWriter.bgzf(filteredByAllC)) {
+				try (InputStream filteredByAllGz = FileUtils.openGzipInputStream(filteredByAllA);
 						InputStreamReader decoder = new InputStreamReader(filteredByAllGz);
 						BufferedReader br = new BufferedReader(decoder)) {
 
 					boolean putRefpanel = false;
-					// I read the header and skip it.
+
+					// I read the header
 					String line = br.readLine();
+					// I put the refpanel column in the header:
 					String[] splittedHeader = line.split(TAB);
 					if (!splittedHeader[splittedHeader.length - 1].equals("refpanel")) {
+						line = line + "\trefpanel";
 						putRefpanel = true;
 					}
 
+					// Put the header in the output file.
+					writerFiltered.write(line);
+					writerFiltered.newLine();
+					writerFiltered.endHeader();
+					try {
+						writerFiltered.setIndex(TabixIndex.forTable(line));
+					} catch (IOException ioe) {
+						indexError = ioe.getMessage();
+					}
+
 					while ((line = br.readLine()) != null) {
 						if (putRefpanel) {
 							line = line + TAB + rpanelName;
 						}
-
-						writerFiltered.write(line);
-						writerFiltered.newLine();
+						writerFiltered.writeLine(line);
 					}
 				}
-			}
 
-			writerFiltered.flush();
-		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
-		}
+				// Do the same with the filteredByAllB file if this is different to the
+				// filteredByAllA file
+				// OK, I explain now: The only way filteredByAllB = filteredByAllA is when there
+				// is only one chromosome to
+				// process.
+				// In that case, in the main program, we put the same file as filteredByAllA and
+				// filteredByAllB.
+				if (!filteredByAllA.equals(filteredByAllB)) {
+					try (InputStream filteredByAllGz = FileUtils.openGzipInputStream(filteredByAllB);
+							InputStreamReader decoder = new InputStreamReader(filteredByAllGz);
+							BufferedReader br = new BufferedReader(decoder)) {
+
+						boolean putRefpanel = false;
+						// I read the header and skip it.
+						String line = br.readLine();
+						String[] splittedHeader = line.split(TAB);
+						if (!splittedHeader[splittedHeader.length - 1].equals("refpanel")) {
+							putRefpanel = true;
+						}
 
-		// We create the file if empty
-		try {
-			FileUtils.createEmptyFile(plainFilteredByAll, "[jointFilteredByAllFiles]");
-		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
+						while ((line = br.readLine()) != null) {
+							if (putRefpanel) {
+								line = line + TAB + rpanelName;
+							}
+
+							writerFiltered.writeLine(line);
+						}
+					}
+				}
+
+				writerFiltered.commit();
+				if (indexError == null) {
+					indexError = writerFiltered.getIndexError();
+				}
+			} catch (IOException ioe) {
+				throw new GuidanceTaskException(ioe);
+			}
 		}
 
-		// Then, we create the gz file and erase the plain file
-		FileUtils.gzipFile(plainFilteredByAll, filteredByAllC);
-		FileUtils.delete(plainFilteredByAll);
+		// The sketches are merged as the files. When A and B are the same file, C is
+		// a copy of A
+		PvalueSketch sketch = mergeSketches(sketchA, sketchB, sketchC, filteredByAllA.equals(filteredByAllB));
 
 		long stopTime = System.currentTimeMillis();
 		long elapsedTime = (stopTime - startTime) / 1_000;
@@ -2954,6 +3197,12 @@ public class GuidanceImpl {
 			System.out.println("\n[DEBUG] jointFilteredByAllFiles startTime: " + startTime);
 			System.out.println("\n[DEBUG] jointFilteredByAllFiles endTime: " + stopTime);
 			System.out.println("\n[DEBUG] jointFilteredByAllFiles elapsedTime: " + elapsedTime + " seconds");
+			if (indexError != null) {
+				System.out.println("\n[DEBUG] jointFilteredByAllFiles output without index: " + indexError);
+			}
+			for (String model : sketch.getModels()) {
+				System.out.println("\n[DEBUG] jointFilteredByAllFiles lambda (" + model + "): " + sketch.getLambda(model));
+			}
 			System.out.println("\n[DEBUG] Finished execution of jointFilteredByAllFiles");
 		}
 
@@ -3051,6 +3300,10 @@ public class GuidanceImpl {
 	 */
 	public static void combinePanelsComplex(String resultsPanelA, String resultsPanelB, String resultsPanelC, int lim1,
 			int lim2, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("combinePanelsComplex", resultsPanelA, resultsPanelB, resultsPanelC, lim1, lim2,
+				cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running combinePanelsComplex with parameters:");
@@ -3066,112 +3319,394 @@ public class GuidanceImpl {
 
 		long startTime = System.currentTimeMillis();
 
-		int posIdx = 0;
-		int a1Idx = 0;
-		int a2Idx = 0;
-		int chrIdx = 0;
-		int infoIdx = 0;
+		combinePanelFiles(Arrays.asList(resultsPanelA, resultsPanelB), resultsPanelC);
 
-		// First, we uncompress the input files
-		String resultsPanelAUnzip = resultsPanelA + ".temp";
-		String resultsPanelBUnzip = resultsPanelB + ".temp";
-		FileUtils.gunzipFile(resultsPanelA, resultsPanelAUnzip);
-		FileUtils.gunzipFile(resultsPanelB, resultsPanelBUnzip);
+		long stopTime = System.currentTimeMillis();
+		long elapsedTime = (stopTime - startTime) / 1_000;
+		if (DEBUG) {
+			System.out.println("\n[DEBUG] combinePanelsComplex startTime: " + startTime);
+			System.out.println("\n[DEBUG] combinePanelsComplex endTime: " + stopTime);
+			System.out.println("\n[DEBUG] combinePanelsComplex elapsedTime: " + elapsedTime + " seconds");
+			System.out.println("\n[DEBUG] Finished execution of combinePanelsComplex");
+		}
 
-		HashMap<String, Integer> resultsHashTableIndex = new HashMap<>();
+	}
 
-		// Create the first treeMap for the chromo
-		TreeMap<String, String> fileTreeMapA = new TreeMap<>();
+	/**
+	 * Method to combine three panels in a single pass. The result is the same as
+	 * combining A and B and then C with the result
+	 * 
+	 * @param resultsPanelA
+	 * @param resultsPanelB
+	 * @param resultsPanelC
+	 * @param resultsCombined
+	 * @param lim1
+	 * @param lim2
+	 * @param cmdToStore
+	 * @throws GuidanceTaskException
+	 */
+	public static void combineThreePanelsComplex(String resultsPanelA, String resultsPanelB, String resultsPanelC,
+			String resultsCombined, int lim1, int lim2, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("combineThreePanelsComplex", resultsPanelA, resultsPanelB, resultsPanelC,
+				resultsCombined, lim1, lim2, cmdToStore)) {
+			return;
+		}
 
-		final String EMPTY_HEADER = "chr\tposition\trs_id_all\tinfo_all\tcertainty_all\t";
-		String finalHeader = EMPTY_HEADER;
-		String positionA1A2Chr = null;
+		if (DEBUG) {
+			System.out.println("\n[DEBUG] Running combineThreePanelsComplex with parameters:");
+			System.out.println("[DEBUG] \t- resultsPanelA             : " + resultsPanelA);
+			System.out.println("[DEBUG] \t- resultsPanelB             : " + resultsPanelB);
+			System.out.println("[DEBUG] \t- resultsPanelC             : " + resultsPanelC);
+			System.out.println("[DEBUG] \t- resultsCombined           : " + resultsCombined);
+			System.out.println("[DEBUG] \t- lim1               : " + lim1);
+			System.out.println("[DEBUG] \t- lim2                 : " + lim2);
+			System.out.println(NEW_LINE);
+			System.out.println("[DEBUG] \t- Command: " + cmdToStore);
+			System.out.println("--------------------------------------");
+		}
 
-		// Treat results Panel A if it is not empty
-		if (new File(resultsPanelAUnzip).exists()) {
-			try (BufferedReader br = new BufferedReader(new FileReader(resultsPanelAUnzip))) {
-				// Get the header
-				String header = br.readLine();
-
-				if (!header.equals(EMPTY_HEADER)) {
-					// Save header for the end file
-					finalHeader = header;
-					// Process header
-					resultsHashTableIndex = Headers.createHashWithHeader(header, TAB);
-					chrIdx = resultsHashTableIndex.get("chr");
-					posIdx = resultsHashTableIndex.get("position");
-					a1Idx = resultsHashTableIndex.get("alleleA");
-					a2Idx = resultsHashTableIndex.get("alleleB");
-					infoIdx = resultsHashTableIndex.get("info_all");
-
-					String line = null;
-					while ((line = br.readLine()) != null) {
-						String[] splitted = line.split(TAB);
+		long startTime = System.currentTimeMillis();
+
+		combinePanelFiles(Arrays.asList(resultsPanelA, resultsPanelB, resultsPanelC), resultsCombined);
+
+		long stopTime = System.currentTimeMillis();
+		long elapsedTime = (stopTime - startTime) / 1_000;
+		if (DEBUG) {
+			System.out.println("\n[DEBUG] combineThreePanelsComplex startTime: " + startTime);
+			System.out.println("\n[DEBUG] combineThreePanelsComplex endTime: " + stopTime);
+			System.out.println("\n[DEBUG] combineThreePanelsComplex elapsedTime: " + elapsedTime + " seconds");
+			System.out.println("\n[DEBUG] Finished execution of combineThreePanelsComplex");
+		}
+	}
+
+	/**
+	 * Method to combine four panels in a single pass. The result is the same as
+	 * combining A with B, C with D and then both results
+	 * 
+	 * @param resultsPanelA
+	 * @param resultsPanelB
+	 * @param resultsPanelC
+	 * @param resultsPanelD
+	 * @param resultsCombined
+	 * @param lim1
+	 * @param lim2
+	 * @param cmdToStore
+	 * @throws GuidanceTaskException
+	 */
+	public static void combineFourPanelsComplex(String resultsPanelA, String resultsPanelB, String resultsPanelC,
+			String resultsPanelD, String resultsCombined, int lim1, int lim2, String cmdToStore)
+			throws GuidanceTaskException {
+		if (LocalExecutor.submit("combineFourPanelsComplex", resultsPanelA, resultsPanelB, resultsPanelC, resultsPanelD,
+				resultsCombined, lim1, lim2, cmdToStore)) {
+			return;
+		}
+
+		if (DEBUG) {
+			System.out.println("\n[DEBUG] Running combineFourPanelsComplex with parameters:");
+			System.out.println("[DEBUG] \t- resultsPanelA             : " + resultsPanelA);
+			System.out.println("[DEBUG] \t- resultsPanelB             : " + resultsPanelB);
+			System.out.println("[DEBUG] \t- resultsPanelC             : " + resultsPanelC);
+			System.out.println("[DEBUG] \t- resultsPanelD             : " + resultsPanelD);
+			System.out.println("[DEBUG] \t- resultsCombined           : " + resultsCombined);
+			System.out.println("[DEBUG] \t- lim1               : " + lim1);
+			System.out.println("[DEBUG] \t- lim2                 : " + lim2);
+			System.out.println(NEW_LINE);
+			System.out.println("[DEBUG] \t- Command: " + cmdToStore);
+			System.out.println("--------------------------------------");
+		}
+
+		long startTime = System.currentTimeMillis();
 
-						positionA1A2Chr = splitted[posIdx] + "_" + splitted[a1Idx] + "_" + splitted[a2Idx] + "_"
-								+ splitted[chrIdx];
-						// Now, we put this String into the treemap with the key positionA1A1Chr
-						fileTreeMapA.put(positionA1A2Chr, line);
+		combinePanelFiles(Arrays.asList(resultsPanelA, resultsPanelB, resultsPanelC, resultsPanelD), resultsCombined);
+
+		long stopTime = System.currentTimeMillis();
+		long elapsedTime = (stopTime - startTime) / 1_000;
+		if (DEBUG) {
+			System.out.println("\n[DEBUG] combineFourPanelsComplex startTime: " + startTime);
+			System.out.println("\n[DEBUG] combineFourPanelsComplex endTime: " + stopTime);
+			System.out.println("\n[DEBUG] combineFourPanelsComplex elapsedTime: " + elapsedTime + " seconds");
+			System.out.println("\n[DEBUG] Finished execution of combineFourPanelsComplex");
+		}
+	}
+
+	/**
+	 * Combines the results of several panels into the BGZF resultsCombined file,
+	 * indexed by position when it is sorted (see TabixIndex.forTable). The panels
+	 * are combined two by two as a queue: the first two panels are combined and the
+	 * result is added at the end of the queue, until only one remains.
+	 * 
+	 * @param resultsPanels
+	 * @param resultsCombined
+	 * @throws GuidanceTaskException
+	 */
+	private static void combinePanelFiles(List<String> resultsPanels, String resultsCombined)
+			throws GuidanceTaskException {
+
+		// All the panels are sorted by position, so we merge them position by position.
+		// If they are not, we load them in memory
+		if (!combinePanelsStreaming(resultsPanels, resultsCombined)) {
+			combinePanelsInMemory(resultsPanels, resultsCombined);
+		}
+
+		System.out.println("\n[DEBUG] Finished all chromosomes");
+	}
+
+	/**
+	 * Writes the header of the combined panels and indexes the next lines by
+	 * position, if the header has the chr and position columns
+	 * 
+	 * @param writer
+	 * @param header
+	 * @throws IOException
+	 */
+	private static void startCombinedPanels(CompressedFileWriter writer, String header) throws IOException {
+		writer.write(header);
+		writer.newLine();
+		writer.endHeader();
+		try {
+			writer.setIndex(TabixIndex.forTable(header));
+		} catch (IOException ioe) {
+			if (DEBUG) {
+				System.out.println("\n[DEBUG] Combined panels without index: " + ioe.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Renames the combined panels to their output file
+	 * 
+	 * @param writer
+	 * @throws IOException
+	 */
+	private static void commitCombinedPanels(CompressedFileWriter writer) throws IOException {
+		writer.commit();
+		if (DEBUG && writer.getIndexError() != null) {
+			System.out.println("\n[DEBUG] Combined panels without index: " + writer.getIndexError());
+		}
+	}
+
+	/**
+	 * Combines the results of several panels reading all the files at the same
+	 * time. Only the lines of the current position are kept in memory.
+	 * 
+	 * @param resultsPanels
+	 * @param resultsCombined
+	 * @return false if the panels are not sorted by position or have different
+	 *         headers. Then, the output file is not written
+	 * @throws GuidanceTaskException
+	 */
+	private static boolean combinePanelsStreaming(List<String> resultsPanels, String resultsCombined)
+			throws GuidanceTaskException {
+
+		List<PanelResultsReader> readers = new ArrayList<>();
+		try (CompressedFileWriter writer = CompressedFileWriter.bgzf(resultsCombined)) {
+			// The header and the columns are the ones of the panels that are not empty
+			PanelResultsReader lastReader = null;
+			for (String resultsPanel : resultsPanels) {
+				PanelResultsReader reader = new PanelResultsReader(resultsPanel);
+				readers.add(reader);
+				if (reader.getHeader() != null) {
+					if (lastReader != null && !lastReader.getHeader().equals(reader.getHeader())) {
+						return false;
 					}
+					lastReader = reader;
 				}
-			} catch (IOException ioe) {
-				throw new GuidanceTaskException(ioe);
 			}
-		}
 
-		// Create the second treeMap for the chromo
-		TreeMap<String, String> fileTreeMapB = new TreeMap<>();
-		// contador=0;
-
-		// Treat results Panel B if it is not empty
-		if (new File(resultsPanelBUnzip).exists()) {
-			try (BufferedReader br = new BufferedReader(new FileReader(resultsPanelBUnzip))) {
-				// Get the header
-				String header = br.readLine();
-
-				if (!header.equals(EMPTY_HEADER)) {
-					// Store header for end file
-					finalHeader = header;
-					// Process header
-					resultsHashTableIndex = Headers.createHashWithHeader(header, TAB);
-					chrIdx = resultsHashTableIndex.get("chr");
-					posIdx = resultsHashTableIndex.get("position");
-					a1Idx = resultsHashTableIndex.get("alleleA");
-					a2Idx = resultsHashTableIndex.get("alleleB");
-					infoIdx = resultsHashTableIndex.get("info_all");
-
-					String line = null;
-					while ((line = br.readLine()) != null) {
-						String[] splitted = line.split(TAB);
-
-						// if(splitted[chrIdx].equals(chromoS)) {
-						positionA1A2Chr = splitted[posIdx] + "_" + splitted[a1Idx] + "_" + splitted[a2Idx] + "_"
-								+ splitted[chrIdx];
-						// Now, we put this String into the treemap with the key positionA1A1Chr
-						fileTreeMapB.put(positionA1A2Chr, line);
-						// contador++;
-						// }
+			String finalHeader = (lastReader != null) ? lastReader.getHeader() : PanelResultsReader.EMPTY_HEADER;
+			startCombinedPanels(writer, finalHeader);
+
+			if (lastReader == null) {
+				commitCombinedPanels(writer);
+				return true;
+			}
+
+			ColumnProjection resultsProjection = lastReader.getProjection();
+			int chrIdx = resultsProjection.getIndex("chr");
+			int posIdx = resultsProjection.getIndex("position");
+			int a1Idx = resultsProjection.getIndex("alleleA");
+			int a2Idx = resultsProjection.getIndex("alleleB");
+			int infoIdx = resultsProjection.getIndex("info_all");
+
+			LineTokenizer tokenizerA = resultsProjection.project(new LineTokenizer('\t'), 0);
+			LineTokenizer tokenizerB = resultsProjection.project(new LineTokenizer('\t'), 0);
+			TreeMap<String, String> noLines = new TreeMap<>();
+
+			List<TreeMap<String, String>> panelsLines = new ArrayList<>();
+			for (PanelResultsReader reader : readers) {
+				panelsLines.add(reader.nextPosition());
+			}
+
+			while (true) {
+				// The next position is the lowest one of all the panels
+				String position = null;
+				for (int i = 0; i < readers.size(); ++i) {
+					if (panelsLines.get(i) != null && (position == null
+							|| PanelResultsReader.comparePositions(readers.get(i).getPosition(), position) < 0)) {
+						position = readers.get(i).getPosition();
+					}
+				}
+				if (position == null) {
+					break;
+				}
+
+				LinkedList<TreeMap<String, String>> panelsToCombine = new LinkedList<>();
+				for (int i = 0; i < readers.size(); ++i) {
+					PanelResultsReader reader = readers.get(i);
+					if (panelsLines.get(i) != null && reader.getPosition().equals(position)) {
+						panelsToCombine.add(panelsLines.get(i));
+						panelsLines.set(i, reader.nextPosition());
+						if (!reader.isSorted()) {
+							return false;
+						}
+					} else {
+						panelsToCombine.add(noLines);
 					}
 				}
+
+				// Combine the lines of this position in the same order as the whole panels
+				while (panelsToCombine.size() > 1) {
+					TreeMap<String, String> linesA = panelsToCombine.poll();
+					TreeMap<String, String> linesB = panelsToCombine.poll();
+					panelsToCombine.add(combinePanelResults(linesA, linesB, tokenizerA, tokenizerB, posIdx, a1Idx,
+							a2Idx, chrIdx, infoIdx));
+				}
+
+				for (String line : panelsToCombine.peek().values()) {
+					writer.writeLine(line);
+				}
+			}
+
+			commitCombinedPanels(writer);
+		} catch (IOException ioe) {
+			throw new GuidanceTaskException(ioe);
+		} finally {
+			closePanelReaders(readers);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Combines the results of several panels loading all of them in memory
+	 * 
+	 * @param resultsPanels
+	 * @param resultsCombined
+	 * @throws GuidanceTaskException
+	 */
+	private static void combinePanelsInMemory(List<String> resultsPanels, String resultsCombined)
+			throws GuidanceTaskException {
+
+		// Create the treeMaps of all the panels. The header of the empty panels is null
+		LinkedList<String> headersToCombine = new LinkedList<>();
+		LinkedList<TreeMap<String, String>> panelsToCombine = new LinkedList<>();
+		for (String resultsPanel : resultsPanels) {
+			try (PanelResultsReader reader = new PanelResultsReader(resultsPanel)) {
+				headersToCombine.add(reader.getHeader());
+				panelsToCombine.add(reader.readAll());
 			} catch (IOException ioe) {
 				throw new GuidanceTaskException(ioe);
 			}
 		}
-		// System.out.println("\n[DEBUG] We have read the chromo " + chromoS + " from
-		// second File. contador = " +
-		// contador);
+
+		// Combine the panels two by two. The columns are the ones of the last panel
+		// that is not empty
+		while (panelsToCombine.size() > 1) {
+			String headerA = headersToCombine.poll();
+			String headerB = headersToCombine.poll();
+			TreeMap<String, String> fileTreeMapA = panelsToCombine.poll();
+			TreeMap<String, String> fileTreeMapB = panelsToCombine.poll();
+
+			String headerC = (headerB != null) ? headerB : headerA;
+			TreeMap<String, String> fileTreeMapC = new TreeMap<>();
+			if (headerC != null) {
+				ColumnProjection resultsProjection = new ColumnProjection(headerC, TAB, "chr", "position", "alleleA",
+						"alleleB", "info_all");
+				LineTokenizer tokenizerA = resultsProjection.project(new LineTokenizer('\t'), 0);
+				LineTokenizer tokenizerB = resultsProjection.project(new LineTokenizer('\t'), 0);
+				fileTreeMapC = combinePanelResults(fileTreeMapA, fileTreeMapB, tokenizerA, tokenizerB,
+						resultsProjection.getIndex("position"), resultsProjection.getIndex("alleleA"),
+						resultsProjection.getIndex("alleleB"), resultsProjection.getIndex("chr"),
+						resultsProjection.getIndex("info_all"));
+			}
+			headersToCombine.add(headerC);
+			panelsToCombine.add(fileTreeMapC);
+		}
+
+		String finalHeader = headersToCombine.peek();
+		if (finalHeader == null) {
+			finalHeader = PanelResultsReader.EMPTY_HEADER;
+		}
+
+		// Finally we put the combined treeMap into the output file
+		try (CompressedFileWriter writer = CompressedFileWriter.bgzf(resultsCombined)) {
+			// We print the header which is the same always
+			startCombinedPanels(writer, finalHeader);
+
+			for (String line : panelsToCombine.peek().values()) {
+				writer.writeLine(line);
+			}
+
+			commitCombinedPanels(writer);
+		} catch (IOException ioe) {
+			throw new GuidanceTaskException(ioe);
+		}
+	}
+
+	/**
+	 * Closes the readers of the panels
+	 * 
+	 * @param readers
+	 * @throws GuidanceTaskException
+	 */
+	private static void closePanelReaders(List<PanelResultsReader> readers) throws GuidanceTaskException {
+		IOException closeException = null;
+		for (PanelResultsReader reader : readers) {
+			try {
+				reader.close();
+			} catch (IOException ioe) {
+				closeException = ioe;
+			}
+		}
+		if (closeException != null) {
+			throw new GuidanceTaskException(closeException);
+		}
+	}
+
+	/**
+	 * Combines the lines of two panels keyed by position_a1_a2_chr. A SNP of panel
+	 * A matches the same SNP of panel B, or the one with the reverse, complement or
+	 * complement and reverse alleles (in this order), and the one with the greater
+	 * info is kept. The lines of B that have been matched are removed from
+	 * fileTreeMapB
+	 * 
+	 * @param fileTreeMapA
+	 * @param fileTreeMapB
+	 * @param tokenizerA
+	 * @param tokenizerB
+	 * @param posIdx
+	 * @param a1Idx
+	 * @param a2Idx
+	 * @param chrIdx
+	 * @param infoIdx
+	 * @return the combined lines keyed by position_a1_a2_chr
+	 * @throws GuidanceTaskException
+	 */
+	private static TreeMap<String, String> combinePanelResults(TreeMap<String, String> fileTreeMapA,
+			TreeMap<String, String> fileTreeMapB, LineTokenizer tokenizerA, LineTokenizer tokenizerB, int posIdx,
+			int a1Idx, int a2Idx, int chrIdx, int infoIdx) throws GuidanceTaskException {
 
 		// A place to store the results of this combining
-		Double infoA;
-		Double infoB;
+		double infoA;
+		double infoB;
 
+		String positionA1A2Chr = null;
 		// String posAllelesEqual = null;
 		String posAllelesReverse = null;
 		String posAllelesComplement = null;
 		String posAllelesComplementAndReverse = null;
 
 		TreeMap<String, String> fileTreeMapC = new TreeMap<>();
-		// contador=0;
 
 		// We first iterate the fileTreeMapA
 		Set<Entry<String, String>> mySet = fileTreeMapA.entrySet();
@@ -3182,22 +3717,19 @@ public class GuidanceImpl {
 			Entry<String, String> m = iter.next();
 			positionA1A2Chr = m.getKey();
 			String lineA = m.getValue();
-			String[] splittedA = lineA.split(TAB);
+			tokenizerA.setLine(lineA);
 
-			String infoAString = splittedA[infoIdx];
-			if (infoAString.equals("-")) {
-				infoA = 1.0;
-			} else {
-				infoA = Double.parseDouble(splittedA[infoIdx]);
-			}
+			infoA = getInfoOrOne(tokenizerA, infoIdx);
 
 			// posAllelesEqual = positionA1A2Chr;
-			posAllelesReverse = splittedA[posIdx] + "_" + getAllele(splittedA[a1Idx], splittedA[a2Idx], "reverse") + "_"
-					+ splittedA[chrIdx];
-			posAllelesComplement = splittedA[posIdx] + "_" + getAllele(splittedA[a1Idx], splittedA[a2Idx], "complement")
-					+ "_" + splittedA[chrIdx];
-			posAllelesComplementAndReverse = splittedA[posIdx] + "_"
-					+ getAllele(splittedA[a1Idx], splittedA[a2Idx], "complementAndReverse") + "_" + splittedA[chrIdx];
+			String positionA = tokenizerA.get(posIdx);
+			String a1A = tokenizerA.get(a1Idx);
+			String a2A = tokenizerA.get(a2Idx);
+			String chrA = tokenizerA.get(chrIdx);
+			posAllelesReverse = positionA + "_" + getAllele(a1A, a2A, "reverse") + "_" + chrA;
+			posAllelesComplement = positionA + "_" + getAllele(a1A, a2A, "complement") + "_" + chrA;
+			posAllelesComplementAndReverse = positionA + "_" + getAllele(a1A, a2A, "complementAndReverse") + "_"
+					+ chrA;
 
 			// System.out.println("[combinePanelsComplex] " + positionA1A2Chr + " " +
 			// posAllelesEqual + " " +
@@ -3210,14 +3742,8 @@ public class GuidanceImpl {
 				// to choose
 				// the ones that has a better info (that is the ones with greater info).
 				String lineB = fileTreeMapB.get(positionA1A2Chr);
-				String[] splittedB = lineB.split(TAB);
-
-				String infoBString = splittedB[infoIdx];
-				if (infoBString.equals("-")) {
-					infoB = 1.0;
-				} else {
-					infoB = Double.parseDouble(infoBString);
-				}
+				tokenizerB.setLine(lineB);
+				infoB = getInfoOrOne(tokenizerB, infoIdx);
 
 				// Then we have to choose between A o B.
 				if (infoA >= infoB) {
@@ -3233,14 +3759,8 @@ public class GuidanceImpl {
 				// If the fileTreeMapB contains this posAllelesReverse, then we have to choose
 				// the ones that has a better info (that is the ones with greater info).
 				String lineB = fileTreeMapB.get(posAllelesReverse);
-				String[] splittedB = lineB.split(TAB);
-
-				String infoBString = splittedB[infoIdx];
-				if (infoBString.equals("-")) {
-					infoB = 1.0;
-				} else {
-					infoB = Double.parseDouble(infoBString);
-				}
+				tokenizerB.setLine(lineB);
+				infoB = getInfoOrOne(tokenizerB, infoIdx);
 
 				// Then we have to choose between A and B.
 				if (infoA >= infoB) {
@@ -3257,14 +3777,8 @@ public class GuidanceImpl {
 				// choose
 				// the ones that has a better info (that is the ones with greater info).
 				String lineB = fileTreeMapB.get(posAllelesComplement);
-				String[] splittedB = lineB.split(TAB);
-
-				String infoBString = splittedB[infoIdx];
-				if (infoBString.equals("-")) {
-					infoB = 1.0;
-				} else {
-					infoB = Double.parseDouble(infoBString);
-				}
+				tokenizerB.setLine(lineB);
+				infoB = getInfoOrOne(tokenizerB, infoIdx);
 
 				// Then we have to choose between A o B.
 				if (infoA >= infoB) {
@@ -3281,14 +3795,8 @@ public class GuidanceImpl {
 				// choose
 				// the ones that has a better info (that is the ones with greater info).
 				String lineB = fileTreeMapB.get(posAllelesComplementAndReverse);
-				String[] splittedB = lineB.split(TAB);
-
-				String infoBString = splittedB[infoIdx];
-				if (infoBString.equals("-")) {
-					infoB = 1.0;
-				} else {
-					infoB = Double.parseDouble(infoBString);
-				}
+				tokenizerB.setLine(lineB);
+				infoB = getInfoOrOne(tokenizerB, infoIdx);
 
 				// Then we have to choose between A o B.
 				if (infoA >= infoB) {
@@ -3312,8 +3820,6 @@ public class GuidanceImpl {
 			// contador++;
 		}
 
-		fileTreeMapA.clear();
-
 		// Now we have to put in fileTreeMapC the rest of values that remain in
 		// fileTreeMapB.
 		// We iterate the fileTreeMapB (the rest of the...)
@@ -3329,69 +3835,22 @@ public class GuidanceImpl {
 			// contador++;
 		}
 
-		fileTreeMapB.clear();
-
-		// Finally we put the fileTreeMapC into the plain output file and then compress
-		// it
-		String plainResultsPanelC = resultsPanelC.substring(0, resultsPanelC.length() - 3);
-		File resultFile = new File(plainResultsPanelC);
-		try {
-			resultFile.createNewFile();
-		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
-		}
-		try (BufferedWriter writer = new BufferedWriter(new FileWriter(resultFile))) {
-			// We print the header which is the same always
-			writer.write(finalHeader);
-			writer.newLine();
-
-			String myLine = null;
-
-			mySet = fileTreeMapC.entrySet();
-			// Move next key and value of Map by iterator
-			iter = mySet.iterator();
-			while (iter.hasNext()) {
-				// key=value separator this by Map.Entry to get key and value
-				Entry<String, String> m = iter.next();
-				// getKey is used to get key of Map
-				myLine = (String) m.getValue();
-
-				writer.write(myLine);
-				writer.newLine();
-			}
-
-			writer.flush();
-		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
-		}
-
-		fileTreeMapC.clear();
-		// System.out.println("\n[DEBUG] We have stored snps from chromosome " + chromoS
-		// + " in the output file");
-
-		// Then, we create the gz file and rename it
-		FileUtils.gzipFile(plainResultsPanelC, resultsPanelC);
-
-		// Erase tmp files
-		if (new File(resultsPanelAUnzip).exists()) {
-			FileUtils.delete(resultsPanelAUnzip);
-		}
-		if (new File(resultsPanelBUnzip).exists()) {
-			FileUtils.delete(resultsPanelBUnzip);
-		}
-		FileUtils.delete(plainResultsPanelC);
-
-		System.out.println("\n[DEBUG] Finished all chromosomes");
+		return fileTreeMapC;
+	}
 
-		long stopTime = System.currentTimeMillis();
-		long elapsedTime = (stopTime - startTime) / 1_000;
-		if (DEBUG) {
-			System.out.println("\n[DEBUG] combinePanelsComplex startTime: " + startTime);
-			System.out.println("\n[DEBUG] combinePanelsComplex endTime: " + stopTime);
-			System.out.println("\n[DEBUG] combinePanelsComplex elapsedTime: " + elapsedTime + " seconds");
-			System.out.println("\n[DEBUG] Finished execution of combinePanelsComplex");
+	/**
+	 * Returns the info value of the current line of a results file. The SNPs
+	 * without info ("-") have an info of 1.0
+	 * 
+	 * @param tokenizer
+	 * @param infoIdx
+	 * @return
+	 */
+	private static double getInfoOrOne(LineTokenizer tokenizer, int infoIdx) {
+		if (tokenizer.equals(infoIdx, "-")) {
+			return 1.0;
 		}
-
+		return tokenizer.getDouble(infoIdx);
 	}
 
 	/**
@@ -3594,7 +4053,8 @@ public class GuidanceImpl {
 	 */
 
 	/**
-	 * Method to generate top hits
+	 * Method to generate top hits, with the memory budget and number of top hits
+	 * of the topHitsMemoryMb and maxTopHits environment variables
 	 * 
 	 * @param resultsFile
 	 * @param outputTopHitFile
@@ -3607,11 +4067,34 @@ public class GuidanceImpl {
 	public static void generateTopHits(String resultsFile, String outputTopHitFile, String pvaThreshold,
 			String cmdToStore) throws GuidanceTaskException {
 
+		generateTopHits(resultsFile, outputTopHitFile, pvaThreshold, TopHitsCollector.getDefaultMaxTopHits(),
+				TopHitsCollector.getDefaultMemoryBudget(), cmdToStore);
+	}
+
+	/**
+	 * Method to generate top hits sorted by chromosome and position. Only
+	 * memoryBudget bytes of hits are kept in memory, the rest are spilled to disk
+	 * in sorted runs (see TopHitsCollector)
+	 * 
+	 * @param resultsFile
+	 * @param outputTopHitFile
+	 * @param pvaThreshold
+	 * @param maxTopHits       number of hits with the lowest p-value to write, or 0
+	 *                         to write all of them
+	 * @param memoryBudget
+	 * @param cmdToStore
+	 * @throws GuidanceTaskException
+	 */
+	public static void generateTopHits(String resultsFile, String outputTopHitFile, String pvaThreshold,
+			int maxTopHits, long memoryBudget, String cmdToStore) throws GuidanceTaskException {
+
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running generateTopHits with parameters:");
 			System.out.println("[DEBUG] \t- resultsFile                : " + resultsFile);
 			System.out.println("[DEBUG] \t- outputTopHitFile           : " + outputTopHitFile);
 			System.out.println("[DEBUG] \t- pvaThreshold               : " + pvaThreshold);
+			System.out.println("[DEBUG] \t- maxTopHits                 : " + maxTopHits);
+			System.out.println("[DEBUG] \t- memoryBudget               : " + memoryBudget);
 			System.out.println(NEW_LINE);
 			System.out.println("[DEBUG] \t- Command: " + cmdToStore);
 			System.out.println("--------------------------------------");
@@ -3621,80 +4104,73 @@ public class GuidanceImpl {
 		double pvaThres = Double.parseDouble(pvaThreshold);
 		// double pvaThres = Double.parseDouble(splitted[17]);
 
-		// We read each line of the resultsFile and put them into the String
-		TreeMap<String, String> fileTreeMap = new TreeMap<>();
+		// The spilled runs of the top hits go next to the output
+		File tmpDir = new File(outputTopHitFile).getAbsoluteFile().getParentFile();
 
-		String header = null;
-		String newHeader = null;
-		HashMap<String, Integer> resultsFileHashTableIndex = new HashMap<>();
-		// First: read the header and avoid it
-		try (GZIPInputStream inputGz = new GZIPInputStream(new FileInputStream(resultsFile));
+		String newHeader = "chr\tposition\trsid\tMAF\ta1\ta2\tpval_add";
+		int numberOfRuns = 0;
+		try (InputStream inputGz = FileUtils.openGzipInputStream(resultsFile);
 				InputStreamReader decoder = new InputStreamReader(inputGz);
-				BufferedReader br = new BufferedReader(decoder)) {
+				BufferedReader br = new BufferedReader(decoder);
+				TopHitsCollector topHits = new TopHitsCollector(tmpDir, memoryBudget, maxTopHits)) {
 
-			header = br.readLine();
-			resultsFileHashTableIndex = Headers.createHashWithHeader(header, TAB);
+			// First: read the header
+			String header = br.readLine();
+			ColumnProjection projection = new ColumnProjection(header, TAB, "position", "rs_id_all",
+					"frequentist_add_pvalue", "chr", "all_maf", "alleleA", "alleleB");
 
-			int indexPosition = resultsFileHashTableIndex.get("position");
-			int indexRsId = resultsFileHashTableIndex.get("rs_id_all");
+			int indexPosition = projection.getIndex("position");
+			int indexRsId = projection.getIndex("rs_id_all");
 
-			int indexPvalue = resultsFileHashTableIndex.get("frequentist_add_pvalue");
-			int indexChromo = resultsFileHashTableIndex.get("chr");
-			int indexAllMaf = resultsFileHashTableIndex.get("all_maf");
-			int indexAlleleA = resultsFileHashTableIndex.get("alleleA");
-			int indexAlleleB = resultsFileHashTableIndex.get("alleleB");
+			int indexPvalue = projection.getIndex("frequentist_add_pvalue");
+			int indexChromo = projection.getIndex("chr");
+			int indexAllMaf = projection.getIndex("all_maf");
+			int indexAlleleA = projection.getIndex("alleleA");
+			int indexAlleleB = projection.getIndex("alleleB");
 
-			newHeader = "chr\tposition\trsid\tMAF\ta1\ta2\tpval_add";
-			String line = null;
-			while ((line = br.readLine()) != null) {
-				String[] splitted = line.split(TAB);
-				String positionAndRsId = splitted[indexPosition] + "_" + splitted[indexRsId];
-				double myPva = Double.parseDouble(splitted[indexPvalue]);
+			LineTokenizer tokenizer = projection.createTokenizer(br, '\t');
+			StringBuilder sb = new StringBuilder();
+			while (tokenizer.next()) {
+				double myPva = tokenizer.getDouble(indexPvalue);
 
 				if (myPva <= pvaThres && myPva > 0.0) {
-					// Now, we put this String into the treemap with the key positionAndRsId
 					// reducedLine is chr;position;RSID_ALL;MAF;a1;a2;pval
-					String reducedLine = splitted[indexChromo] + TAB + splitted[indexPosition] + TAB
-							+ splitted[indexRsId] + TAB + splitted[indexAllMaf] + TAB + splitted[indexAlleleA] + TAB
-							+ splitted[indexAlleleB] + TAB + splitted[indexPvalue];
-					fileTreeMap.put(positionAndRsId, reducedLine);
+					sb.setLength(0);
+					tokenizer.appendTo(indexChromo, sb).append(TAB);
+					tokenizer.appendTo(indexPosition, sb).append(TAB);
+					tokenizer.appendTo(indexRsId, sb).append(TAB);
+					tokenizer.appendTo(indexAllMaf, sb).append(TAB);
+					tokenizer.appendTo(indexAlleleA, sb).append(TAB);
+					tokenizer.appendTo(indexAlleleB, sb).append(TAB);
+					tokenizer.appendTo(indexPvalue, sb);
+					topHits.add(tokenizer.get(indexChromo), tokenizer.get(indexPosition), tokenizer.get(indexRsId),
+							myPva, sb.toString());
 				}
 			}
-		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
-		}
-
-		// Finally we put the fileTreeMap into the output file
-		// We will generate the output first and then compress it
-		String plainOutputTopHitFile = outputTopHitFile.substring(0, outputTopHitFile.length() - 3);
-		try (BufferedWriter writer = new BufferedWriter(new FileWriter(plainOutputTopHitFile))) {
-			// We print the header which is the same always!.
-			writer.write(newHeader);
-			// writer.newLine();
-
-			Set<Entry<String, String>> mySet = fileTreeMap.entrySet();
-			// Move next key and value of Map by iterator
-			Iterator<Entry<String, String>> iter = mySet.iterator();
-			while (iter.hasNext()) {
-				Entry<String, String> m = iter.next();
-				String myLine = m.getValue();
+			topHits.sort();
+			numberOfRuns = topHits.getNumberOfRuns();
+
+			// Finally we put the top hits into the output file, compressed while written
+			try (CompressedFileWriter writer = CompressedFileWriter.gzip(outputTopHitFile)) {
+				// We print the header which is the same always!.
+				writer.write(newHeader);
+
+				String myLine = null;
+				while ((myLine = topHits.next()) != null) {
+					writer.newLine();
+					writer.write(myLine);
+				}
 
-				writer.newLine();
-				writer.write(myLine);
+				writer.commit();
 			}
-
-			writer.flush();
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
 		}
 
-		// Compress the output file to the parameter value
-		FileUtils.gzipFile(plainOutputTopHitFile, outputTopHitFile);
-		FileUtils.delete(plainOutputTopHitFile);
-
 		long stopTime = System.currentTimeMillis();
 		long elapsedTime = (stopTime - startTime) / 1_000;
 		if (DEBUG) {
+			System.out.println("\n[DEBUG] generateTopHits spilled runs: " + numberOfRuns);
 			System.out.println("\n[DEBUG] generateTopHits startTime:  " + startTime);
 			System.out.println("\n[DEBUG] generateTopHits endTime:    " + stopTime);
 			System.out.println("\n[DEBUG] generateTopHits elapsedTime: " + elapsedTime + " seconds");
@@ -3706,6 +4182,7 @@ public class GuidanceImpl {
 	 * Method to generate QQ Manhattan Plots
 	 * 
 	 * @param lastCondensedFile
+	 * @param lastCondensedSketchFile
 	 * @param qqPlotFile
 	 * @param manhattanPlotFile
 	 * @param qqPlotTiffFile
@@ -3716,16 +4193,18 @@ public class GuidanceImpl {
 	 * @throws InterruptedException
 	 * @throws Exception
 	 */
-	public static void generateQQManhattanPlots(String lastCondensedFile, String qqPlotFile, String manhattanPlotFile,
-			String qqPlotTiffFile, String manhattanPlotTiffFile, String manhattanOption, String thresh,
-			String cmdToStore) throws GuidanceTaskException {
-
-		String rScriptBinDir = loadFromEnvironment(RSCRIPTBINDIR, HEADER_GENERATE_QQ_MANHATTAN_PLOTS);
-		String rScriptDir = loadFromEnvironment(RSCRIPTDIR, HEADER_GENERATE_QQ_MANHATTAN_PLOTS);
+	public static void generateQQManhattanPlots(String lastCondensedFile, String lastCondensedSketchFile,
+			String qqPlotFile, String manhattanPlotFile, String qqPlotTiffFile, String manhattanPlotTiffFile,
+			String manhattanOption, String thresh, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("generateQQManhattanPlots", lastCondensedFile, lastCondensedSketchFile, qqPlotFile,
+				manhattanPlotFile, qqPlotTiffFile, manhattanPlotTiffFile, manhattanOption, thresh, cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running generateQQManhattanPlots with parameters:");
 			System.out.println("[DEBUG] \t- lastCondensedFile             : " + lastCondensedFile);
+			System.out.println("[DEBUG] \t- lastCondensedSketchFile       : " + lastCondensedSketchFile);
 			System.out.println("[DEBUG] \t- qqPlotFile                    : " + qqPlotFile);
 			System.out.println("[DEBUG] \t- manhattanPlotFile             : " + manhattanPlotFile);
 			System.out.println("[DEBUG] \t- qqPlotTiffFile                : " + qqPlotTiffFile);
@@ -3739,38 +4218,44 @@ public class GuidanceImpl {
 
 		long startTime = System.currentTimeMillis();
 
-		// First, we have to uncompress the input file
-		// String theInputFile = lastCondensedFile + TEMP_EXTENSION;
-		// FileUtils.gunzipFile(lastCondensedFile, theInputFile);
-
-		String cmd = null;
-		String rScriptPath = rScriptDir + "/qqplot_manhattan_all_models.R ";
-		//rScriptPath = "/gpfs/projects/pr1ejj00/launch_scripts/qqplot_manhattan_all_models.R ";
-		cmd = rScriptBinDir + "/Rscript " + rScriptPath + lastCondensedFile + " " + qqPlotFile + " " + manhattanPlotFile
-				+ " " + qqPlotTiffFile + " " + manhattanPlotTiffFile + " " + manhattanOption + " " + thresh;
+		// The QQ plot is the one of the sketch of the condensed file, whose pass only
+		// takes the points of the Manhattan plot. Without sketch of the model, the pass
+		// also takes the p-values of the QQ plot
+		double threshold = Double.parseDouble(thresh);
+		QQManhattanPlotter plotter;
+		try {
+			PvalueDistribution distribution = null;
+			PvalueSketch sketch = PvalueSketch.read(lastCondensedSketchFile);
+			for (String model : sketch.getModels()) {
+				if (PvalueSketch.getPvalueColumn(model).equals(manhattanOption)) {
+					distribution = sketch.getDistribution(model);
+				}
+			}
+			if (distribution != null && distribution.getThreshold() == threshold) {
+				plotter = new QQManhattanPlotter(manhattanOption, threshold, distribution);
+			} else {
+				plotter = new QQManhattanPlotter(manhattanOption, threshold);
+			}
 
-		if (DEBUG) {
-			System.out.println("\n[DEBUG] Cmd -> " + cmd);
-			System.out.println(" ");
-		}
+			plotter.read(lastCondensedFile);
+			plotter.writeQQPlot(qqPlotFile);
+			plotter.writeQQPlot(qqPlotTiffFile);
+			if (DEBUG) {
+				long pvalues = plotter.getNumberOfPvalues();
+				System.out.println("\n[DEBUG] generateQQManhattanPlots Q-Q plot of " + pvalues + " p-values, lambda: "
+						+ ((pvalues > 0) ? plotter.getLambda() : Double.NaN));
+			}
 
-		// Execute the command retrieving its exitValue, output and error
-		int exitValue = -1;
-		try {
-			exitValue = ProcessUtils.executeWithoutOutputs(cmd);
+			plotter.writeManhattanPlot(manhattanPlotFile);
+			plotter.writeManhattanPlot(manhattanPlotTiffFile);
+			if (DEBUG) {
+				System.out.println("\n[DEBUG] generateQQManhattanPlots Manhattan plot from 0 to "
+						+ plotter.getManhattanYMax());
+			}
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
 		}
 
-		// Check process exit value
-		if (exitValue != 0) {
-			throw new GuidanceTaskException(HEADER_GENERATE_QQ_MANHATTAN_PLOTS
-					+ " Error executing generateQQManProc job, exit value is: " + exitValue);
-		}
-
-		// Clean unziped file
-		// FileUtils.delete(theInputFile);
-
 		long stopTime = System.currentTimeMillis();
 		long elapsedTime = (stopTime - startTime) / 1_000;
 		if (DEBUG) {
@@ -3800,6 +4285,10 @@ public class GuidanceImpl {
 	public static void snptest(String mergedGenFile, String mergedSampleFile, String snptestOutFileGz,
 			String snptestLogFile, String responseVar, String covariables, String models, String theChromo,
 			String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("snptest", mergedGenFile, mergedSampleFile, snptestOutFileGz, snptestLogFile,
+				responseVar, covariables, models, theChromo, cmdToStore)) {
+			return;
+		}
 
 		String snptestBinary = loadFromEnvironment(SNPTESTBINARY, HEADER_SNPTEST);
 
@@ -3840,75 +4329,88 @@ public class GuidanceImpl {
 			mergedGenFileGz = mergedGenFile + ".gz";
 		}
 
-		// The SNPTest Out parameter is a GZ file. We retrieve its name for the binary
-		// output and we will compress it
-		// later
-		String snptestOutFile = snptestOutFileGz.substring(0, snptestOutFileGz.length() - 3);
-
-		// Before executing snptest, I have to verify that the input mergedGenFile is
-		// not empty
-		int nBytes = -1;
-		try (FileInputStream fis = new FileInputStream(new File(mergedGenFile))) {
-			nBytes = fis.read();
+		// The SNPTest Out parameter is a GZ file. The binary writes a plain file next
+		// to it, in the same file system, that is deleted once it is compressed or
+		// when the task fails
+		String snptestOutFile = null;
+		try {
+			File outDir = new File(snptestOutFileGz).getAbsoluteFile().getParentFile();
+			snptestOutFile = File.createTempFile("snptest", ".out", outDir).getAbsolutePath();
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
 		}
 
-		if (nBytes != -1) {
-			String cmd = null;
-			if (covariables.equals("none")) {
-				cmd = "env -i " + snptestBinary + " -data " + mergedGenFileGz + " " + mergedSampleFile + " -o "
-						+ snptestOutFile + " -pheno " + responseVar +
-						// " -hwe";
-						" -hwe -log " + snptestLogFile;
-				covariables = "";
-			} else {
-				cmd = "env -i " + snptestBinary + " -data " + mergedGenFileGz + " " + mergedSampleFile + " -o "
-						+ snptestOutFile + " -pheno " + responseVar + " -cov_names " + newStr
-						// + " -hwe";
-						+ " -hwe -log " + snptestLogFile;
+		try {
+			// Before executing snptest, I have to verify that the input mergedGenFile is
+			// not empty
+			int nBytes = -1;
+			try (FileInputStream fis = new FileInputStream(new File(mergedGenFile))) {
+				nBytes = fis.read();
+			} catch (IOException ioe) {
+				throw new GuidanceTaskException(ioe);
 			}
 
-			// Different parameters for chromo 23 (X) and the rest.
-			if (theChromo.equals(CHR_23)) {
-				cmd = cmd + " -method newml -assume_chromosome X -stratify_on sex -frequentist 1";
-			} else {
-				cmd = cmd + " -method em -frequentist" + models;
-			}
+			if (nBytes != -1) {
+				String cmd = null;
+				if (covariables.equals("none")) {
+					cmd = "env -i " + snptestBinary + " -data " + mergedGenFileGz + " " + mergedSampleFile + " -o "
+							+ snptestOutFile + " -pheno " + responseVar +
+							// " -hwe";
+							" -hwe -log " + snptestLogFile;
+					covariables = "";
+				} else {
+					cmd = "env -i " + snptestBinary + " -data " + mergedGenFileGz + " " + mergedSampleFile + " -o "
+							+ snptestOutFile + " -pheno " + responseVar + " -cov_names " + newStr
+							// + " -hwe";
+							+ " -hwe -log " + snptestLogFile;
+				}
 
-			if (DEBUG) {
-				System.out.println(HEADER_SNPTEST + MSG_CMD + cmd);
+				// Different parameters for chromo 23 (X) and the rest.
+				if (theChromo.equals(CHR_23)) {
+					cmd = cmd + " -method newml -assume_chromosome X -stratify_on sex -frequentist 1";
+				} else {
+					cmd = cmd + " -method em -frequentist" + models;
+				}
+
+				if (DEBUG) {
+					System.out.println(HEADER_SNPTEST + MSG_CMD + cmd);
+				}
+
+				// Execute the command retrieving its exitValue, output and error
+				int exitValue = -1;
+				TelemetryLog.Task telemetry = TelemetryLog.forTask("snptest", theChromo, "", "");
+				try {
+					exitValue = ProcessUtils.executeWithoutOutputsSNP(cmd);
+				} catch (IOException ioe) {
+					throw new GuidanceTaskException(ioe);
+				} finally {
+					telemetry.close();
+				}
+
+				// Check process exit value
+				if (exitValue != 0) {
+					System.err.println(
+							HEADER_SNPTEST + "Warning executing snptestProc job, exit value is: " + exitValue);
+					System.err.println(HEADER_SNPTEST + "                         (This error is not fatal).");
+				}
 			}
 
-			// Execute the command retrieving its exitValue, output and error
-			int exitValue = -1;
+			// The SNP Test binary does not create an empty file if there are not outputs.
+			// Check it (the temporary out file always exists)
 			try {
-				exitValue = ProcessUtils.executeWithoutOutputsSNP(cmd);
+				FileUtils.createEmptyFile(snptestLogFile, HEADER_SNPTEST);
+				// FileUtils.createEmptyFile(snptestLogFile, HEADER_SNPTEST);
 			} catch (IOException ioe) {
 				throw new GuidanceTaskException(ioe);
 			}
 
-			// Check process exit value
-			if (exitValue != 0) {
-				System.err.println(HEADER_SNPTEST + "Warning executing snptestProc job, exit value is: " + exitValue);
-				System.err.println(HEADER_SNPTEST + "                         (This error is not fatal).");
-			}
-		}
-
-		// The SNP Test binary does not create an empty file if there are not outputs.
-		// Check it
-		try {
-			FileUtils.createEmptyFile(snptestOutFile, HEADER_SNPTEST);
-			FileUtils.createEmptyFile(snptestLogFile, HEADER_SNPTEST);
-			// FileUtils.createEmptyFile(snptestLogFile, HEADER_SNPTEST);
-		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
+			// Then, we compress it to the output parameter, in blocks that are inflated
+			// in parallel by the readers
+			FileUtils.bgzipFile(snptestOutFile, snptestOutFileGz);
+		} finally {
+			new File(snptestOutFile).delete();
 		}
 
-		// Then, we create the gz file and rename it to the output parameter
-		FileUtils.gzipFile(snptestOutFile, snptestOutFileGz);
-		FileUtils.delete(snptestOutFile);
-
 		long stopTime = System.currentTimeMillis();
 		long elapsedTime = (stopTime - startTime) / 1_000;
 		if (DEBUG) {
@@ -3934,6 +4436,9 @@ public class GuidanceImpl {
 	 */
 	public static void mergeTwoChunks(String reduceFileA, String reduceFileB, String reduceFileC, String cmdToStore)
 			throws GuidanceTaskException {
+		if (LocalExecutor.submit("mergeTwoChunks", reduceFileA, reduceFileB, reduceFileC, cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running mergeTwoChunks with parameters:");
@@ -3947,44 +4452,95 @@ public class GuidanceImpl {
 
 		long startTime = System.currentTimeMillis();
 
-		String reducePlainFile = reduceFileC.substring(0, reduceFileC.length() - 3);
+		// The chunks are concatenated without decompressing them when their headers
+		// are in their own blocks
+		try {
+			ChunkMerger.merge(reduceFileA, reduceFileB, reduceFileC);
+		} catch (IOException ioe) {
+			throw new GuidanceTaskException(ioe);
+		}
+
+		long stopTime = System.currentTimeMillis();
+		long elapsedTime = (stopTime - startTime) / 1_000;
+		if (DEBUG) {
+			System.out.println("\n[DEBUG] mergeTwoChunks startTime: " + startTime);
+			System.out.println("\n[DEBUG] mergeTwoChunks endTime: " + stopTime);
+			System.out.println("\n[DEBUG] mergeTwoChunks elapsedTime: " + elapsedTime + " seconds");
+			System.out.println("\n[DEBUG] Finished execution of mergeTwoChunks.");
+		}
+	}
 
-		/*
-		 * String command1 = "zcat " + reduceFileA + " > " + reducePlainFile; String
-		 * command2 = "zcat " + reduceFileB + " | tail -n +2 >> " + reducePlainFile;
-		 * String command3 = "gzip -f " + reducePlainFile;
-		 * 
-		 * try { ProcessUtils.executeWithoutOutputs(command1); } catch (IOException ioe)
-		 * { throw new GuidanceTaskException(ioe); }
-		 * 
-		 * try { ProcessUtils.executeWithoutOutputs(command2); } catch (IOException ioe)
-		 * { throw new GuidanceTaskException(ioe); }
-		 * 
-		 * try { ProcessUtils.executeWithoutOutputs(command3); } catch (IOException ioe)
-		 * { throw new GuidanceTaskException(ioe); }
-		 */
+	/**
+	 * Returns whether the last column of a filteredByAll header is refpanel
+	 *
+	 * @param header
+	 * @return
+	 */
+	private static boolean endsWithRefpanel(String header) {
+		if (header == null) {
+			return false;
+		}
+		String[] splittedHeader = header.split(TAB);
+		return splittedHeader[splittedHeader.length - 1].equals("refpanel");
+	}
+
+	/**
+	 * Method to merge two chunks of filteredByAll files and their p-value sketches
+	 * 
+	 * @param reduceFileA
+	 * @param reduceFileB
+	 * @param reduceFileC
+	 * @param sketchA
+	 * @param sketchB
+	 * @param sketchC
+	 * @param cmdToStore
+	 * @throws GuidanceTaskException
+	 */
+	public static void mergeTwoFilteredByAllChunks(String reduceFileA, String reduceFileB, String reduceFileC,
+			String sketchA, String sketchB, String sketchC, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("mergeTwoFilteredByAllChunks", reduceFileA, reduceFileB, reduceFileC, sketchA, sketchB,
+				sketchC, cmdToStore)) {
+			return;
+		}
+
+		mergeTwoChunks(reduceFileA, reduceFileB, reduceFileC, cmdToStore);
+		PvalueSketch sketch = mergeSketches(sketchA, sketchB, sketchC, false);
+
+		if (DEBUG) {
+			System.out.println("\n[DEBUG] mergeTwoFilteredByAllChunks rows: " + sketch.getRows());
+			System.out.println("\n[DEBUG] mergeTwoFilteredByAllChunks lambda (add): " + sketch.getLambda("add"));
+		}
+	}
 
-		String command = "zcat " + reduceFileA + " > " + reducePlainFile + ";zcat " + reduceFileB + " | tail -n +2 >> "
-				+ reducePlainFile + ";gzip -f " + reducePlainFile;
+	/**
+	 * Merges the p-value sketches A and B into sketchC. When their files are the
+	 * same one, sketchC is a copy of sketchA
+	 * 
+	 * @param sketchA
+	 * @param sketchB
+	 * @param sketchC
+	 * @param sameFile
+	 * @return
+	 * @throws GuidanceTaskException
+	 */
+	private static PvalueSketch mergeSketches(String sketchA, String sketchB, String sketchC, boolean sameFile)
+			throws GuidanceTaskException {
 
 		try {
-			ProcessUtils.executeWithoutOutputs(command);
+			PvalueSketch sketch = PvalueSketch.read(sketchA);
+			if (!sameFile) {
+				sketch.merge(PvalueSketch.read(sketchB));
+			}
+			sketch.write(sketchC);
+			return sketch;
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
 		}
-
-		long stopTime = System.currentTimeMillis();
-		long elapsedTime = (stopTime - startTime) / 1_000;
-		if (DEBUG) {
-			System.out.println("\n[DEBUG] mergeTwoChunks startTime: " + startTime);
-			System.out.println("\n[DEBUG] mergeTwoChunks endTime: " + stopTime);
-			System.out.println("\n[DEBUG] mergeTwoChunks elapsedTime: " + elapsedTime + " seconds");
-			System.out.println("\n[DEBUG] Finished execution of mergeTwoChunks.");
-		}
 	}
 
 	/**
-	 * Method to collect the summary
+	 * Method to collect the summary, written as a columnar table (see
+	 * ColumnarTableWriter) since it is only read by filterByAll
 	 * 
 	 * @param chr
 	 * @param firstImputeFileInfo
@@ -4003,6 +4559,10 @@ public class GuidanceImpl {
 	public static void collectSummary(String chr, String imputeTool, String firstImputeFileInfo, String snptestOutFile,
 			String reduceFile, String mafThresholdS, String hweCohortThresholdS, String hweCasesThresholdS,
 			String hweControlsThresholdS, String sex, String cmdToStore) throws GuidanceTaskException {
+		if (LocalExecutor.submit("collectSummary", chr, imputeTool, firstImputeFileInfo, snptestOutFile, reduceFile,
+				mafThresholdS, hweCohortThresholdS, hweCasesThresholdS, hweControlsThresholdS, sex, cmdToStore)) {
+			return;
+		}
 
 		if (DEBUG) {
 			System.out.println("\n[DEBUG] Running collectSummary with parameters:");
@@ -4021,21 +4581,322 @@ public class GuidanceImpl {
 			System.out.println("--------------------------------------");
 		}
 
-		// FileUtils.recursiveSearch(firstImputeFileInfo);
-
 		long startTime = System.currentTimeMillis();
-		// Indexes for impute 2.3.2
-		/*
-		 * int indexRsId = 1; int indexPosition = 2; int indexInfo = 6; int
-		 * indexCertainty= 7;
-		 */
 
-		int indexRsId = 0;
-		int indexPosition = 0;
-		int indexInfo = 0;
-		int indexCertainty = 0;
-		int indexAlleleA = 0;
-		int indexAlleleB = 0;
+		// impute/minimac and snptest write the SNPs of a chunk in the same order, so the
+		// join can usually be done in a single pass over both files. If the inputs are
+		// not sorted by the join key we fall back to the in-memory join.
+		boolean streamed = collectSummaryStreaming(chr, imputeTool, firstImputeFileInfo, snptestOutFile,
+				reduceFile, mafThresholdS, hweCohortThresholdS, hweCasesThresholdS, hweControlsThresholdS, sex);
+		if (!streamed) {
+			if (DEBUG) {
+				System.out.println("[DEBUG] \t- Inputs are not sorted by position. Using the in-memory join");
+			}
+			collectSummaryInMemory(chr, imputeTool, firstImputeFileInfo, snptestOutFile, reduceFile,
+					mafThresholdS, hweCohortThresholdS, hweCasesThresholdS, hweControlsThresholdS, sex);
+		}
+
+		long stopTime = System.currentTimeMillis();
+		long elapsedTime = (stopTime - startTime) / 1_000;
+		if (DEBUG) {
+			System.out.println("\n[DEBUG] collectSummary startTime: " + startTime);
+			System.out.println("\n[DEBUG] collectSummary endTime: " + stopTime);
+			System.out.println("\n[DEBUG] collectSummary elapsedTime: " + elapsedTime + " seconds");
+			System.out.println("\n[DEBUG] Finished execution of collectSummary.");
+		}
+	}
+
+	/**
+	 * Joins the impute/minimac info file and the snptest output in a single pass.
+	 * Both files are read at the same time and every summary line is written as
+	 * soon as it is known, so the memory used does not depend on the size of the
+	 * chunk. The join key is position_rsid_alleleA_alleleB and both inputs have to
+	 * be sorted by it (duplicated keys are allowed, the first one is kept). The
+	 * output is the same one produced by the in-memory join.
+	 * 
+	 * @param chr
+	 * @param imputeTool
+	 * @param firstImputeFileInfo
+	 * @param snptestOutFile
+	 * @param reduceFile
+	 * @param mafThresholdS
+	 * @param hweCohortThresholdS
+	 * @param hweCasesThresholdS
+	 * @param hweControlsThresholdS
+	 * @param sex
+	 * @return false if any of the inputs is not sorted by the join key. In that
+	 *         case reduceFile is not written
+	 * @throws GuidanceTaskException
+	 */
+	private static boolean collectSummaryStreaming(String chr, String imputeTool, String firstImputeFileInfo,
+			String snptestOutFile, String reduceFile, String mafThresholdS, String hweCohortThresholdS,
+			String hweCasesThresholdS, String hweControlsThresholdS, String sex) throws GuidanceTaskException {
+
+		boolean isMinimac = imputeTool.equals("minimac");
+
+		// The association fields of the SNPs that are not in the snptest file
+		StringBuilder missingAssocBuilder = new StringBuilder();
+		for (int i = 6; i < 111; i++) {
+			missingAssocBuilder.append(TAB).append("NA");
+		}
+		String missingAssoc = missingAssocBuilder.toString();
+
+		try (MappedLineReader infoReader = new MappedLineReader(firstImputeFileInfo);
+				InputStream snptestOutGz = FileUtils.openGzipInputStream(snptestOutFile);
+				InputStreamReader decoder = new InputStreamReader(snptestOutGz);
+				ColumnarTableWriter writer = new ColumnarTableWriter(reduceFile)) {
+
+			LineTokenizer info = new LineTokenizer(infoReader, isMinimac ? '\t' : ' ');
+			LineTokenizer assoc = new LineTokenizer(decoder, ' ');
+
+			// Read the header of the info file. Only the columns up to the last one we
+			// need are split
+			int[] infoIndexes = new int[6];
+			if (info.next() && info.lineLength() > 0) {
+				infoIndexes = getSummaryInfoIndexes(imputeTool, info.getLine());
+			}
+			int lastInfoIndex = 0;
+			for (int index : infoIndexes) {
+				lastInfoIndex = Math.max(lastInfoIndex, index);
+			}
+			info.setMaxFields(lastInfoIndex + 1);
+
+			// Read the comments and the header of the snptest file, until the first SNP.
+			// Only the key columns of the SNPs are split, the association fields are
+			// copied to the output as they are
+			ColumnProjection snptestProjection = null;
+			HashMap<Integer, String> snptestHashTableIndexReversed = new HashMap<>();
+			boolean assocPending = false;
+			while (assoc.next()) {
+				char firstChar = assoc.lineCharAt(0);
+				if (assoc.equals(0, "alternate_ids")) {
+					String header = assoc.getLine();
+					snptestProjection = new ColumnProjection(header, " ", "position", "rsid", "alleleA", "alleleB");
+					snptestHashTableIndexReversed = Headers.createHashWithHeaderReversed(header, " ");
+				}
+				if ((firstChar != '#') && (firstChar != 'a')) {
+					assocPending = true;
+					break;
+				}
+			}
+
+			writeSummaryHeader(writer, chr, sex, snptestHashTableIndexReversed);
+
+			int[] snptestIndexes = null;
+			StringBuilder assocKey = new StringBuilder();
+			StringBuilder nextAssocKey = new StringBuilder();
+			if (assocPending) {
+				snptestIndexes = new int[] { snptestProjection.getIndex("position"), snptestProjection.getIndex("rsid"),
+						snptestProjection.getIndex("alleleA"), snptestProjection.getIndex("alleleB") };
+				snptestProjection.project(assoc, 6);
+				appendSnptestKey(assoc, snptestIndexes, assocKey);
+			}
+
+			int[] minimacPosition = new int[2];
+			StringBuilder infoKey = new StringBuilder();
+			StringBuilder lastInfoKey = new StringBuilder();
+			boolean firstInfo = true;
+			while (info.next()) {
+				// The key is position_rsid_alleleA_alleleB
+				infoKey.setLength(0);
+				if (isMinimac) {
+					getMinimacPosition(info, infoIndexes[1], minimacPosition);
+					info.appendTo(infoIndexes[1], minimacPosition[0], minimacPosition[1], infoKey);
+				} else {
+					info.appendTo(infoIndexes[0], infoKey);
+				}
+				info.appendTo(infoIndexes[1], infoKey.append('_'));
+				info.appendTo(infoIndexes[4], infoKey.append('_'));
+				info.appendTo(infoIndexes[5], infoKey.append('_'));
+
+				if (!firstInfo) {
+					int cmp = compareKeys(infoKey, lastInfoKey);
+					if (cmp < 0) {
+						return false;
+					} else if (cmp == 0) {
+						// Only the first SNP with this key is kept
+						continue;
+					}
+				}
+				firstInfo = false;
+				lastInfoKey.setLength(0);
+				lastInfoKey.append(infoKey);
+
+				// Skip the snptest SNPs that are not in the info file
+				boolean match = false;
+				while (assocPending) {
+					int cmp = compareKeys(assocKey, infoKey);
+					if (cmp >= 0) {
+						match = (cmp == 0);
+						break;
+					}
+					int moved = nextSnptestKey(assoc, snptestIndexes, assocKey, nextAssocKey);
+					if (moved < 0) {
+						return false;
+					}
+					assocPending = (moved > 0);
+				}
+
+				// chr, position, rsId, info, certainty, alleleA and alleleB
+				writer.write(chr);
+				writer.write(TAB);
+				if (isMinimac) {
+					info.write(infoIndexes[1], minimacPosition[0], minimacPosition[1], writer);
+				} else {
+					info.write(infoIndexes[0], writer);
+				}
+				for (int i = 1; i < 6; i++) {
+					writer.write(TAB);
+					info.write(infoIndexes[i], writer);
+				}
+
+				if (match) {
+					// We do not store the first 6 fields because they are not necessary or are
+					// repeated: alternative_ids, rsid, chromosome, position, alleleA and alleleB
+					for (int i = 6; i < assoc.size(); i++) {
+						writer.write(TAB);
+						assoc.write(i, writer);
+					}
+					if (assoc.hasRest()) {
+						writer.write(TAB);
+						assoc.writeRest(writer, '\t');
+					}
+
+					int moved = nextSnptestKey(assoc, snptestIndexes, assocKey, nextAssocKey);
+					if (moved < 0) {
+						return false;
+					}
+					assocPending = (moved > 0);
+				} else {
+					writer.write(missingAssoc);
+				}
+				writer.newLine();
+			}
+
+			// The remaining snptest SNPs are not in the info file, but an unsorted one
+			// could have matched a SNP that has already been written
+			while (assocPending) {
+				int moved = nextSnptestKey(assoc, snptestIndexes, assocKey, nextAssocKey);
+				if (moved < 0) {
+					return false;
+				}
+				assocPending = (moved > 0);
+			}
+
+			writer.commit();
+		} catch (IOException ioe) {
+			throw new GuidanceTaskException(ioe);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Moves the snptest tokenizer to the next SNP with a key different to
+	 * assocKey, skipping the comments and the duplicated keys
+	 * 
+	 * @param assoc
+	 * @param snptestIndexes
+	 * @param assocKey
+	 * @param nextAssocKey
+	 * @return 1 if there is a new SNP (its key is left in assocKey), 0 at the end
+	 *         of the file and -1 if the new SNP is not sorted
+	 * @throws IOException
+	 */
+	private static int nextSnptestKey(LineTokenizer assoc, int[] snptestIndexes, StringBuilder assocKey,
+			StringBuilder nextAssocKey) throws IOException {
+
+		while (assoc.next()) {
+			char firstChar = assoc.lineCharAt(0);
+			if ((firstChar == '#') || (firstChar == 'a')) {
+				continue;
+			}
+			nextAssocKey.setLength(0);
+			appendSnptestKey(assoc, snptestIndexes, nextAssocKey);
+			int cmp = compareKeys(nextAssocKey, assocKey);
+			if (cmp < 0) {
+				return -1;
+			} else if (cmp > 0) {
+				assocKey.setLength(0);
+				assocKey.append(nextAssocKey);
+				return 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Appends the position_rsid_alleleA_alleleB key of the current snptest line
+	 * 
+	 * @param assoc
+	 * @param snptestIndexes
+	 * @param key
+	 */
+	private static void appendSnptestKey(LineTokenizer assoc, int[] snptestIndexes, StringBuilder key) {
+		assoc.appendTo(snptestIndexes[0], key);
+		assoc.appendTo(snptestIndexes[1], key.append('_'));
+		assoc.appendTo(snptestIndexes[2], key.append('_'));
+		assoc.appendTo(snptestIndexes[3], key.append('_'));
+	}
+
+	/**
+	 * Finds the position inside a minimac SNP id (chr:position or
+	 * chr:position:a0:a1), as snpId.split(":")[1] does
+	 * 
+	 * @param info
+	 * @param snpIdIndex
+	 * @param range
+	 *            Filled with the start (included) and end (excluded) of the
+	 *            position inside the field
+	 */
+	private static void getMinimacPosition(LineTokenizer info, int snpIdIndex, int[] range) {
+		int start = info.indexOf(snpIdIndex, ':', 0);
+		if (start < 0 || info.length(snpIdIndex) == start + 1) {
+			throw new ArrayIndexOutOfBoundsException(1);
+		}
+		int end = info.indexOf(snpIdIndex, ':', start + 1);
+		range[0] = start + 1;
+		range[1] = (end < 0) ? info.length(snpIdIndex) : end;
+	}
+
+	/**
+	 * Compares two keys as String.compareTo does
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static int compareKeys(CharSequence a, CharSequence b) {
+		int length = Math.min(a.length(), b.length());
+		for (int i = 0; i < length; i++) {
+			char ca = a.charAt(i);
+			char cb = b.charAt(i);
+			if (ca != cb) {
+				return ca - cb;
+			}
+		}
+		return a.length() - b.length();
+	}
+
+	/**
+	 * Joins the impute/minimac info file and the snptest output loading both of
+	 * them in memory. It does not need any order in the inputs.
+	 * 
+	 * @param chr
+	 * @param imputeTool
+	 * @param firstImputeFileInfo
+	 * @param snptestOutFile
+	 * @param reduceFile
+	 * @param mafThresholdS
+	 * @param hweCohortThresholdS
+	 * @param hweCasesThresholdS
+	 * @param hweControlsThresholdS
+	 * @param sex
+	 * @throws GuidanceTaskException
+	 */
+	private static void collectSummaryInMemory(String chr, String imputeTool, String firstImputeFileInfo,
+			String snptestOutFile, String reduceFile, String mafThresholdS, String hweCohortThresholdS,
+			String hweCasesThresholdS, String hweControlsThresholdS, String sex) throws GuidanceTaskException {
 
 		int length_entry_assoc_list = 0;
 
@@ -4049,57 +4910,22 @@ public class GuidanceImpl {
 		TreeMap<String, ArrayList<String>> firstTreeMap = new TreeMap<>();
 		String positionAndRsId = null;
 
-		try (FileReader fr = new FileReader(firstImputeFileInfo); BufferedReader br = new BufferedReader(fr)) {
+		try (MappedLineReader infoReader = new MappedLineReader(firstImputeFileInfo)) {
 			String line = "";
 			// Read the header and avoid the header
-			line = br.readLine();
+			line = infoReader.readLine();
 
-			HashMap<String, Integer> imputeHashTableIndex = new HashMap<>();
+			int[] infoIndexes = null;
 			if (line != null && !line.isEmpty()) {
 				// If we are here, the file is not empty.
-				// if (imputeTool.equals("impute") || chr.equals("23")) {
-				if (imputeTool.equals("impute")) {
-					imputeHashTableIndex = Headers.createHashWithHeader(line, " ");
-					indexPosition = imputeHashTableIndex.get("position");
-					indexRsId = imputeHashTableIndex.get("rs_id");
-					indexInfo = imputeHashTableIndex.get("info");
-					indexCertainty = imputeHashTableIndex.get("certainty");
-					indexAlleleA = imputeHashTableIndex.get("a0");
-					indexAlleleB = imputeHashTableIndex.get("a1");
-				} else if (imputeTool.equals("minimac")) {
-					imputeHashTableIndex = Headers.createHashWithHeader(line, TAB);
-					indexRsId = imputeHashTableIndex.get("SNP");
-					indexInfo = imputeHashTableIndex.get("Rsq");
-					indexCertainty = imputeHashTableIndex.get("AvgCall");
-					indexAlleleA = imputeHashTableIndex.get("REF(0)");
-					indexAlleleB = imputeHashTableIndex.get("ALT(1)");
-				}
+				infoIndexes = getSummaryInfoIndexes(imputeTool, line);
 			}
 
-			while ((line = br.readLine()) != null) {
-				ArrayList<String> firstList = new ArrayList<>();
-				// delimiter I assume single space.
-				String[] splitted = null;
-
+			while ((line = infoReader.readLine()) != null) {
 				// Store Position:Store rsIDCases:Store infoCases:Store certCases
-				String positionStr = null;
-				// if (imputeTool.equals("impute") || chr.equals("23")) {
-				if (imputeTool.equals("impute")) {
-					splitted = line.split(" ");
-					positionStr = splitted[indexPosition];
-				} else if (imputeTool.equals("minimac")) {
-					splitted = line.split(TAB);
-					positionStr = splitted[indexRsId].split(":")[1];
-				}
-
-				firstList.add(positionStr);
-				firstList.add(splitted[indexRsId]);
-				firstList.add(splitted[indexInfo]);
-				firstList.add(splitted[indexCertainty]);
-				firstList.add(splitted[indexAlleleA]);
-				firstList.add(splitted[indexAlleleB]);
-				positionAndRsId = positionStr + "_" + splitted[indexRsId] + "_" + splitted[indexAlleleA] + "_"
-						+ splitted[indexAlleleB];
+				ArrayList<String> firstList = getSummaryInfoList(imputeTool, line, infoIndexes);
+				positionAndRsId = firstList.get(0) + "_" + firstList.get(1) + "_" + firstList.get(4) + "_"
+						+ firstList.get(5);
 
 				// If there is not a previous snp with this combination of position and rsID, we
 				// store it.
@@ -4107,10 +4933,6 @@ public class GuidanceImpl {
 					// We, put this in the firstTreeMap
 					firstTreeMap.put(positionAndRsId, firstList);
 				}
-				/*
-				 * else { // If there is a snp with this combination we should remove it.
-				 * firstTreeMap.remove(positionAndRsId); }
-				 */
 			}
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
@@ -4119,7 +4941,7 @@ public class GuidanceImpl {
 		// We read each line of the snptestOutFile and put them into assocTreeMap array
 		// of Strings
 		TreeMap<String, ArrayList<String>> assocTreeMap = new TreeMap<>();
-		try (GZIPInputStream snptestOutGz = new GZIPInputStream(new FileInputStream(snptestOutFile));
+		try (InputStream snptestOutGz = FileUtils.openGzipInputStream(snptestOutFile);
 				InputStreamReader decoder = new InputStreamReader(snptestOutGz);
 				BufferedReader br = new BufferedReader(decoder)) {
 
@@ -4139,31 +4961,15 @@ public class GuidanceImpl {
 				}
 
 				if ((firstChar != '#') && (firstChar != 'a')) {
-					ArrayList<String> assocList = new ArrayList<String>();
-					// delimiter I assume single space.
-					// String[] splitted = line.split(" ");
-
-					// REVIEW: Should we store position?
-					// assocList.add(splitted[3]);
-
 					// We store everything, from the line.
-					int index_field;
-					for (index_field = 2; index_field < splitted.length; index_field++) {
-						assocList.add(splitted[index_field]);
-					}
+					ArrayList<String> assocList = new ArrayList<>(Arrays.asList(splitted).subList(2, splitted.length));
 
 					// Now, store the array of string assocList in the assocTreeMap
-					positionAndRsId = splitted[snptestHashTableIndex.get("position")] + "_"
-							+ splitted[snptestHashTableIndex.get("rsid")] + "_"
-							+ splitted[snptestHashTableIndex.get("alleleA")] + "_"
-							+ splitted[snptestHashTableIndex.get("alleleB")];
+					positionAndRsId = getSnptestKey(splitted, snptestHashTableIndex);
 					if (!assocTreeMap.containsKey(positionAndRsId)) {
 						assocTreeMap.put(positionAndRsId, assocList);
 						length_entry_assoc_list = assocList.size();
 					}
-					/*
-					 * else { assocTreeMap.remove(positionAndRsId); }
-					 */
 				}
 				// The line does not start nor with "#" neither "alternate"
 			}
@@ -4182,8 +4988,7 @@ public class GuidanceImpl {
 			ArrayList<String> firstTmp = m.getValue();
 
 			// The same for assocTreeMap. If found, we get the value, otherwise we get null
-			ArrayList<String> assocTmp = new ArrayList<>();
-			assocTmp = assocTreeMap.get(firstPositionAndRsId);
+			ArrayList<String> assocTmp = assocTreeMap.get(firstPositionAndRsId);
 			ArrayList<String> summaryTmp = new ArrayList<>();
 			try {
 				summaryTmp = mergeArrays(chr, firstTmp, assocTmp, length_entry_assoc_list, mafThresholdS,
@@ -4197,30 +5002,8 @@ public class GuidanceImpl {
 
 		// ---------------
 		// Finally we put the summaryTotal into the outputFile
-		// We have to create the outputFile for this combination
-
-		// The output of the method is a GZ file. First we create the plain file, then
-		// we compress it
-		String reducePlainFile = reduceFile.substring(0, reduceFile.length() - 3);
-		try (BufferedWriter writer = new BufferedWriter(new FileWriter(reducePlainFile))) {
-			// We do not store the first 4 field because they are not necessary or are
-			// repeated:
-			// These four fields are:
-			// alternative_ids, rsid, chromosome, position
-			if (snptestHashTableIndexReversed.size() > 4) {
-				writer.write("chr\tposition\trs_id_all\tinfo_all\tcertainty_all\t");
-				for (int index = 4; index < snptestHashTableIndexReversed.size(); index++) {
-					String valueReversed = snptestHashTableIndexReversed.get(index);
-					writer.write(valueReversed + TAB);
-				}
-			} else {
-				if (!chr.equals("23")) {
-					writer.write(Headers.constructHeader());
-				} else {
-					writer.write(Headers.constructHeaderX(sex));
-				}
-			}
-			writer.write(NEW_LINE);
+		try (ColumnarTableWriter writer = new ColumnarTableWriter(reduceFile)) {
+			writeSummaryHeader(writer, chr, sex, snptestHashTableIndexReversed);
 
 			mySet = summaryTotal.entrySet();
 			// Move next key and value of Map by iterator
@@ -4228,39 +5011,180 @@ public class GuidanceImpl {
 			while (iter.hasNext()) {
 				// key=value separator this by Map.Entry to get key and value
 				Entry<String, ArrayList<String>> m = iter.next();
-				ArrayList<String> lineTmp = m.getValue();
-
-				writer.write(lineTmp.get(0));
-				for (int j = 1; j < lineTmp.size(); j++) {
-					writer.write(TAB + lineTmp.get(j));
-				}
-				writer.newLine();
+				writeSummaryLine(writer, m.getValue());
 			}
 
-			writer.flush();
+			writer.commit();
 		} catch (IOException ioe) {
 			throw new GuidanceTaskException(ioe);
 		}
+	}
+
+	/**
+	 * Returns the indexes of the position, rsId, info, certainty, alleleA and
+	 * alleleB columns of an impute or minimac info file
+	 * 
+	 * @param imputeTool
+	 * @param headerLine
+	 * @return
+	 */
+	private static int[] getSummaryInfoIndexes(String imputeTool, String headerLine) {
+		// Indexes for impute 2.3.2
+		/*
+		 * int indexRsId = 1; int indexPosition = 2; int indexInfo = 6; int
+		 * indexCertainty= 7;
+		 */
+		int[] indexes = new int[6];
+		HashMap<String, Integer> imputeHashTableIndex = new HashMap<>();
+		if (imputeTool.equals("impute")) {
+			imputeHashTableIndex = Headers.createHashWithHeader(headerLine, " ");
+			indexes[0] = imputeHashTableIndex.get("position");
+			indexes[1] = imputeHashTableIndex.get("rs_id");
+			indexes[2] = imputeHashTableIndex.get("info");
+			indexes[3] = imputeHashTableIndex.get("certainty");
+			indexes[4] = imputeHashTableIndex.get("a0");
+			indexes[5] = imputeHashTableIndex.get("a1");
+		} else if (imputeTool.equals("minimac")) {
+			imputeHashTableIndex = Headers.createHashWithHeader(headerLine, TAB);
+			indexes[1] = imputeHashTableIndex.get("SNP");
+			indexes[2] = imputeHashTableIndex.get("Rsq");
+			indexes[3] = imputeHashTableIndex.get("AvgCall");
+			indexes[4] = imputeHashTableIndex.get("REF(0)");
+			indexes[5] = imputeHashTableIndex.get("ALT(1)");
+		}
+
+		return indexes;
+	}
+
+	/**
+	 * Returns the threads of a tool: the ones of its environment variable when it
+	 * is defined, or the computing units of the task that runs it
+	 * 
+	 * @param toolEnvVarName
+	 * @param cuEnvVarName
+	 * @return
+	 */
+	private static int getToolThreads(String toolEnvVarName, String cuEnvVarName) {
+		String value = System.getenv(toolEnvVarName);
+		if (value != null) {
+			try {
+				return Math.max(1, Integer.parseInt(value.trim()));
+			} catch (NumberFormatException nfe) {
+				System.err.println("[getToolThreads] Invalid value of " + toolEnvVarName + ": " + value);
+			}
+		}
+		return FileUtils.getComputingUnits(cuEnvVarName);
+	}
 
-		// We create the file if it does not exist
+	/**
+	 * Opens and closes the write end of a named pipe, so a reader blocked opening
+	 * it gets the end of the stream. On Linux opening a pipe in read-write mode
+	 * does not block
+	 * 
+	 * @param fifoFile
+	 */
+	private static void releaseFifo(String fifoFile) {
 		try {
-			FileUtils.createEmptyFile(reducePlainFile, "[collectSummary]");
+			new RandomAccessFile(fifoFile, "rw").close();
 		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
+			System.err.println(HEADER_IMPUTE + " Cannot release the named pipe " + fifoFile);
 		}
+	}
 
-		// Then, we create the gz file and rename it
-		FileUtils.gzipFile(reducePlainFile, reduceFile);
-		FileUtils.delete(reducePlainFile);
+	/**
+	 * Returns the position, rsId, info, certainty, alleleA and alleleB of a line of
+	 * an impute or minimac info file
+	 * 
+	 * @param imputeTool
+	 * @param line
+	 * @param indexes
+	 * @return
+	 */
+	private static ArrayList<String> getSummaryInfoList(String imputeTool, String line, int[] indexes) {
+		if (indexes == null) {
+			indexes = new int[6];
+		}
+
+		// delimiter I assume single space.
+		String[] splitted = null;
+		String positionStr = null;
+		if (imputeTool.equals("impute")) {
+			splitted = line.split(" ");
+			positionStr = splitted[indexes[0]];
+		} else if (imputeTool.equals("minimac")) {
+			splitted = line.split(TAB);
+			positionStr = splitted[indexes[1]].split(":")[1];
+		}
+
+		ArrayList<String> firstList = new ArrayList<>();
+		firstList.add(positionStr);
+		firstList.add(splitted[indexes[1]]);
+		firstList.add(splitted[indexes[2]]);
+		firstList.add(splitted[indexes[3]]);
+		firstList.add(splitted[indexes[4]]);
+		firstList.add(splitted[indexes[5]]);
+
+		return firstList;
+	}
 
-		long stopTime = System.currentTimeMillis();
-		long elapsedTime = (stopTime - startTime) / 1_000;
-		if (DEBUG) {
-			System.out.println("\n[DEBUG] collectSummary startTime: " + startTime);
-			System.out.println("\n[DEBUG] collectSummary endTime: " + stopTime);
-			System.out.println("\n[DEBUG] collectSummary elapsedTime: " + elapsedTime + " seconds");
-			System.out.println("\n[DEBUG] Finished execution of collectSummary.");
+	/**
+	 * Returns the position_rsid_alleleA_alleleB key of a snptest line
+	 * 
+	 * @param splitted
+	 * @param snptestHashTableIndex
+	 * @return
+	 */
+	private static String getSnptestKey(String[] splitted, HashMap<String, Integer> snptestHashTableIndex) {
+		return splitted[snptestHashTableIndex.get("position")] + "_" + splitted[snptestHashTableIndex.get("rsid")]
+				+ "_" + splitted[snptestHashTableIndex.get("alleleA")] + "_"
+				+ splitted[snptestHashTableIndex.get("alleleB")];
+	}
+
+	/**
+	 * Writes the header of the summary file
+	 * 
+	 * @param writer
+	 * @param chr
+	 * @param sex
+	 * @param snptestHashTableIndexReversed
+	 * @throws IOException
+	 */
+	private static void writeSummaryHeader(Writer writer, String chr, String sex,
+			HashMap<Integer, String> snptestHashTableIndexReversed) throws IOException {
+
+		// We do not store the first 4 field because they are not necessary or are
+		// repeated:
+		// These four fields are:
+		// alternative_ids, rsid, chromosome, position
+		if (snptestHashTableIndexReversed.size() > 4) {
+			writer.write("chr\tposition\trs_id_all\tinfo_all\tcertainty_all\t");
+			for (int index = 4; index < snptestHashTableIndexReversed.size(); index++) {
+				String valueReversed = snptestHashTableIndexReversed.get(index);
+				writer.write(valueReversed + TAB);
+			}
+		} else {
+			if (!chr.equals("23")) {
+				writer.write(Headers.constructHeader());
+			} else {
+				writer.write(Headers.constructHeaderX(sex));
+			}
+		}
+		writer.write(NEW_LINE);
+	}
+
+	/**
+	 * Writes a line of the summary file
+	 * 
+	 * @param writer
+	 * @param lineTmp
+	 * @throws IOException
+	 */
+	private static void writeSummaryLine(Writer writer, ArrayList<String> lineTmp) throws IOException {
+		writer.write(lineTmp.get(0));
+		for (int j = 1; j < lineTmp.size(); j++) {
+			writer.write(TAB + lineTmp.get(j));
 		}
+		writer.write(NEW_LINE);
 	}
 
 	/**
@@ -4404,7 +5328,76 @@ public class GuidanceImpl {
 		}
 	}
 
+	/**
+	 * Method to get the rows of a region (chr:start-end, chr:position or chr) of a
+	 * result file, such as the final filteredByAll and condensed files. When
+	 * pvalueCutoff is not empty, only the rows with a p-value of any model lower or
+	 * equal to it are written. The indexed result files are read from the blocks
+	 * of the region. The output file is gzipped if it ends with .gz
+	 * 
+	 * @param resultsFile
+	 * @param region
+	 * @param pvalueCutoff
+	 * @param outputFile
+	 * @param cmdToStore
+	 * @throws GuidanceTaskException
+	 */
+	public static void queryRegion(String resultsFile, String region, String pvalueCutoff, String outputFile,
+			String cmdToStore) throws GuidanceTaskException {
+
+		if (DEBUG) {
+			System.out.println("\n[DEBUG] Running queryRegion with parameters:");
+			System.out.println("[DEBUG] \t- Input resultsFile        : " + resultsFile);
+			System.out.println("[DEBUG] \t- Region                   : " + region);
+			System.out.println("[DEBUG] \t- pvalueCutoff             : " + pvalueCutoff);
+			System.out.println("[DEBUG] \t- Output outputFile        : " + outputFile);
+			System.out.println(NEW_LINE);
+			System.out.println("[DEBUG] \t- Command: " + cmdToStore);
+			System.out.println("--------------------------------------");
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		RegionQuery query;
+		try {
+			boolean withCutoff = pvalueCutoff != null && !pvalueCutoff.isEmpty() && !pvalueCutoff.equals("NA");
+			query = new RegionQuery(region,
+					withCutoff ? Double.parseDouble(pvalueCutoff) : Double.POSITIVE_INFINITY);
+		} catch (IllegalArgumentException iae) {
+			throw new GuidanceTaskException("[queryRegion] Error, invalid region or p-value cutoff", iae);
+		}
+
+		long rows;
+		if (outputFile.endsWith(".gz")) {
+			try (CompressedFileWriter writer = CompressedFileWriter.bgzf(outputFile)) {
+				rows = query.run(resultsFile, writer);
+				writer.commit();
+			} catch (IOException ioe) {
+				throw new GuidanceTaskException(ioe);
+			}
+		} else {
+			try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+				rows = query.run(resultsFile, writer);
+			} catch (IOException ioe) {
+				throw new GuidanceTaskException(ioe);
+			}
+		}
+
+		long stopTime = System.currentTimeMillis();
+		long elapsedTime = (stopTime - startTime) / 1_000;
+		if (DEBUG) {
+			System.out.println("\n[DEBUG] queryRegion rows: " + rows + (query.isIndexed() ? "" : " (without index)"));
+			System.out.println("\n[DEBUG] queryRegion startTime: " + startTime);
+			System.out.println("\n[DEBUG] queryRegion endTime: " + stopTime);
+			System.out.println("\n[DEBUG] queryRegion elapsedTime: " + elapsedTime + " seconds");
+			System.out.println("\n[DEBUG] Finished execution of queryRegion.");
+		}
+	}
+
 	public static void copyFile(String fileA, String fileB) throws IOException, GuidanceTaskException {
+		if (LocalExecutor.submit("copyFile", fileA, fileB)) {
+			return;
+		}
 
 		long startTime = System.currentTimeMillis();
 
@@ -4436,6 +5429,10 @@ public class GuidanceImpl {
 	}
 
 	public static void getFile(String runtimeFilename, String realFilename) {
+		if (LocalExecutor.submit("getFile", runtimeFilename, realFilename)) {
+			return;
+		}
+
 		try {
 			FileUtils.copy(runtimeFilename, realFilename);
 		} catch (IOException e) {
@@ -4444,6 +5441,8 @@ public class GuidanceImpl {
 	}
 	
 	public static LinkedList<String> copyFileRuntimeToLocalSSH(String runtimeFilename, String realFilename, String hostname, String ip) throws IOException {
+		LocalExecutor.waitForInputs("copyFileRuntimeToLocalSSH", runtimeFilename, realFilename, hostname, ip);
+
 		String scpCommand = "scp " + runtimeFilename + " " + hostname + "@" + ip + ":" + realFilename;
 		System.out.println(scpCommand);
 		LinkedList<String> listToReturn = new LinkedList<String>();
@@ -4458,12 +5457,16 @@ public class GuidanceImpl {
 	}
 	
 	public static LinkedList<String> reduceTwo(LinkedList<String> a, LinkedList<String> b) {
+		LocalExecutor.waitForInputs("reduceTwo", a, b);
+
 		LinkedList<String> listToReturn = new LinkedList<String>();
 		listToReturn.add(a.get(0) + b.get(0));
 		return listToReturn;
 	}
 	
 	public static LinkedList<String> reduceFour(LinkedList<String> a, LinkedList<String> b, LinkedList<String> c, LinkedList<String> d) {
+		LocalExecutor.waitForInputs("reduceFour", a, b, c, d);
+
 		LinkedList<String> listToReturn = new LinkedList<String>();
 		listToReturn.add(a.get(0) + b.get(0) + c.get(0) + d.get(0));
 		return listToReturn;
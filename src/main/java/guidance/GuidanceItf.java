@@ -249,6 +249,7 @@ public interface GuidanceItf {
 			@Parameter(type = Type.STRING, direction = Direction.IN) String mafThresholdS,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String theChromo,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String sex,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String panel,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileInfo,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileSummary,
@@ -271,6 +272,7 @@ public interface GuidanceItf {
 			@Parameter(type = Type.STRING, direction = Direction.IN) String mafThresholdS,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String theChromo,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String sex,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String panel,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileInfo,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileSummary,
@@ -293,6 +295,7 @@ public interface GuidanceItf {
 			@Parameter(type = Type.STRING, direction = Direction.IN) String mafThresholdS,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String theChromo,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String sex,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String panel,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileInfo,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileSummary,
@@ -317,6 +320,7 @@ public interface GuidanceItf {
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileWarnings,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String theChromo,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String sex,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String panel,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
 
 	@Method(declaringClass = "guidance.GuidanceImpl")
@@ -335,6 +339,7 @@ public interface GuidanceItf {
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileWarnings,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String theChromo,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String sex,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String panel,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
 
 	@Method(declaringClass = "guidance.GuidanceImpl")
@@ -353,13 +358,15 @@ public interface GuidanceItf {
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileWarnings,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String theChromo,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String sex,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String panel,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
 
 	@Method(declaringClass = "guidance.GuidanceImpl")
-	@Constraints(computingUnits = "1", memorySize = "${imputeWithMinimacLowMem}")
+	@Constraints(computingUnits = "${imputeWithMinimacCU}", memorySize = "${imputeWithMinimacLowMem}")
 	void imputeWithMinimacLow(@Parameter(type = Type.FILE, direction = Direction.IN) String vcfFile,
 			@Parameter(type = Type.FILE, direction = Direction.IN) String filteredHapsVcfFileBgzip,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFile,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileTbi,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileInfo,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileErate,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileRec,
@@ -370,13 +377,15 @@ public interface GuidanceItf {
 			@Parameter(type = Type.STRING, direction = Direction.IN) String lim2S,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String myPrefix,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String sex,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String panel,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
 
 	@Method(declaringClass = "guidance.GuidanceImpl")
-	@Constraints(computingUnits = "1", memorySize = "${imputeWithMinimacMediumMem}")
+	@Constraints(computingUnits = "${imputeWithMinimacCU}", memorySize = "${imputeWithMinimacMediumMem}")
 	void imputeWithMinimacMedium(@Parameter(type = Type.FILE, direction = Direction.IN) String vcfFile,
 			@Parameter(type = Type.FILE, direction = Direction.IN) String filteredHapsVcfFileBgzip,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFile,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileTbi,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileInfo,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileErate,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileRec,
@@ -387,13 +396,15 @@ public interface GuidanceItf {
 			@Parameter(type = Type.STRING, direction = Direction.IN) String lim2S,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String myPrefix,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String sex,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String panel,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
 
 	@Method(declaringClass = "guidance.GuidanceImpl")
-	@Constraints(computingUnits = "1", memorySize = "${imputeWithMinimacHighMem}")
+	@Constraints(computingUnits = "${imputeWithMinimacCU}", memorySize = "${imputeWithMinimacHighMem}")
 	void imputeWithMinimacHigh(@Parameter(type = Type.FILE, direction = Direction.IN) String vcfFile,
 			@Parameter(type = Type.FILE, direction = Direction.IN) String filteredHapsVcfFileBgzip,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFile,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileTbi,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileInfo,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileErate,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String imputeFileRec,
@@ -404,6 +415,7 @@ public interface GuidanceItf {
 			@Parameter(type = Type.STRING, direction = Direction.IN) String lim2S,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String myPrefix,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String sex,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String panel,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
 
 	@Method(declaringClass = "guidance.GuidanceImpl")
@@ -411,6 +423,7 @@ public interface GuidanceItf {
 	void filterByAll(@Parameter(type = Type.STRING, direction = Direction.IN) String imputationTool,
 			@Parameter(type = Type.FILE, direction = Direction.IN) String inputFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String outputFile,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String outputSketchFile,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String mafThresholdS,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String infoThresholdS,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String hweCohortThresholdS,
@@ -434,6 +447,7 @@ public interface GuidanceItf {
 			@Parameter(type = Type.FILE, direction = Direction.IN) String filteredFemalesFile,
 			@Parameter(type = Type.FILE, direction = Direction.IN) String filteredAllXFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String condensedFile,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String condensedSketchFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String topHitsFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String crossRangesFile,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String pvaThresholdStr,
@@ -456,6 +470,9 @@ public interface GuidanceItf {
 	void jointFilteredByAllFiles(@Parameter(type = Type.FILE, direction = Direction.IN) String filteredByAllA,
 			@Parameter(type = Type.FILE, direction = Direction.IN) String filteredByAllB,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String filteredByAllC,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String sketchA,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String sketchB,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String sketchC,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String rpanelName,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String rpanelFlag,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
@@ -490,6 +507,7 @@ public interface GuidanceItf {
 	@Method(declaringClass = "guidance.GuidanceImpl")
 	@Constraints(computingUnits = "${generateQQManhattanPlotsCU}", memorySize = "${generateQQManhattanPlotsMem}")
 	void generateQQManhattanPlots(@Parameter(type = Type.FILE, direction = Direction.IN) String lastCondensedFile,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String lastCondensedSketchFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String qqPlotFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String manhattanPlotFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String qqPlotTiffFile,
@@ -533,7 +551,8 @@ public interface GuidanceItf {
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String snptestOutFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String snptestLogFile,
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String summaryFile,
-			@Parameter(type = Type.FILE, direction = Direction.OUT) String assocFilterByAll);
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String assocFilterByAll,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String assocFilterByAllSketch);
 
 	@Method(declaringClass = "guidance.GuidanceImpl")
 	@Constraints(computingUnits = "1", memorySize = "${snptestMem}")
@@ -554,6 +573,16 @@ public interface GuidanceItf {
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String reduceFileC,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
 
+	@Method(declaringClass = "guidance.GuidanceImpl")
+	@Constraints(computingUnits = "1", memorySize = "${mergeTwoChunksMem}")
+	void mergeTwoFilteredByAllChunks(@Parameter(type = Type.FILE, direction = Direction.IN) String reduceFileA,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String reduceFileB,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String reduceFileC,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String sketchA,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String sketchB,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String sketchC,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
+
 	@Method(declaringClass = "guidance.GuidanceImpl")
 	@Constraints(computingUnits = "1", memorySize = "1.0f")
 	void combinePanelsComplex(@Parameter(type = Type.FILE, direction = Direction.IN) String resultsFileA,
@@ -563,6 +592,27 @@ public interface GuidanceItf {
 			@Parameter(type = Type.INT, direction = Direction.IN) int lim2,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
 
+	@Method(declaringClass = "guidance.GuidanceImpl")
+	@Constraints(computingUnits = "1", memorySize = "1.0f")
+	void combineThreePanelsComplex(@Parameter(type = Type.FILE, direction = Direction.IN) String resultsFileA,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String resultsFileB,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String resultsFileC,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String resultsCombined,
+			@Parameter(type = Type.INT, direction = Direction.IN) int lim1,
+			@Parameter(type = Type.INT, direction = Direction.IN) int lim2,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
+
+	@Method(declaringClass = "guidance.GuidanceImpl")
+	@Constraints(computingUnits = "1", memorySize = "1.0f")
+	void combineFourPanelsComplex(@Parameter(type = Type.FILE, direction = Direction.IN) String resultsFileA,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String resultsFileB,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String resultsFileC,
+			@Parameter(type = Type.FILE, direction = Direction.IN) String resultsFileD,
+			@Parameter(type = Type.FILE, direction = Direction.OUT) String resultsCombined,
+			@Parameter(type = Type.INT, direction = Direction.IN) int lim1,
+			@Parameter(type = Type.INT, direction = Direction.IN) int lim2,
+			@Parameter(type = Type.STRING, direction = Direction.IN) String cmdToStore);
+
 	/*
 	 * @Method(declaringClass = "guidance.GuidanceImpl")
 	 * 
@@ -642,7 +692,6 @@ public interface GuidanceItf {
 			@Parameter(type = Type.FILE, direction = Direction.OUT) String topHitsAllPheno,
 			@Parameter(type = Type.STRING, direction = Direction.IN) String hostname, 
 			@Parameter(type = Type.STRING, direction = Direction.IN) String ip);
-	/*
 	@Method(declaringClass = "guidance.GuidanceImpl")
 	@Constraints(computingUnits = "1", memorySize = "1.0f")
 	void computeCrossPheno(@Parameter(type = Type.OBJECT, direction = Direction.IN)LinkedList<String> controlString, 
@@ -652,7 +701,7 @@ public interface GuidanceItf {
 			@Parameter(type = Type.STRING, direction = Direction.IN) String models, 
 			@Parameter(type = Type.STRING, direction = Direction.IN) String hostname, 
 			@Parameter(type = Type.STRING, direction = Direction.IN) String ip);
-	*/
+
 	@Method(declaringClass = "guidance.GuidanceImpl")
 	@Constraints(computingUnits = "1", memorySize = "1.0f")
 	LinkedList<String> reduceTwo(@Parameter(type = Type.OBJECT, direction = Direction.IN) LinkedList<String> a, 
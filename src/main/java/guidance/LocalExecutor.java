@@ -0,0 +1,583 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance;
+
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import es.bsc.compss.types.annotations.Constraints;
+import es.bsc.compss.types.annotations.Parameter;
+import es.bsc.compss.types.annotations.parameter.Direction;
+import es.bsc.compss.types.annotations.parameter.Type;
+
+import guidance.exceptions.GuidanceTaskException;
+
+
+/**
+ * Executor of the tasks of GuidanceItf in a single node, without the COMPSs runtime.
+ *
+ * The calls to the tasks of GuidanceImpl made by the master are submitted to the executor instead of being run (see
+ * submit). Each call must come from the method of its task, with the arguments of its only declaration in
+ * GuidanceItf, or it is rejected. The dependencies between the tasks are the ones of their FILE parameters: a task that reads a file waits
+ * for the last task that writes it, and a task that writes a file also waits for the tasks that read its previous
+ * content. The tasks without pending dependencies run in a work-stealing pool while the computing units and the
+ * memory of their constraints fit in the ones of the node, taken from the localExecutorCU and localExecutorMem (GB)
+ * environment variables, or from the node when they are not defined.
+ *
+ * The tasks that return a value run in the master once the files they read are written. After a task fails no more
+ * tasks are started and the barrier reports the failure, as the runtime stops the application.
+ */
+public class LocalExecutor {
+
+    /**
+     * Argument of Guidance that runs the workflow with the local executor
+     */
+    public static final String LOCAL_EXECUTOR_FLAG = "-local_executor";
+
+    /**
+     * Environment variable with the computing units of the node
+     */
+    public static final String LOCAL_EXECUTOR_CU = "localExecutorCU";
+
+    /**
+     * Environment variable with the memory of the node in GB
+     */
+    public static final String LOCAL_EXECUTOR_MEM = "localExecutorMem";
+
+    private static final String CLASS_HEADER = "[LocalExecutor]";
+    private static final double BYTES_PER_GB = 1024.0 * 1024.0 * 1024.0;
+
+    private static LocalExecutor instance = null;
+
+    // The tasks run by the pool call the task methods directly
+    private static final ThreadLocal<Boolean> RUNNING_TASK = new ThreadLocal<>();
+
+    private final int totalCores;
+    private final double totalMemoryGb;
+    private final ExecutorService pool;
+
+    private int freeCores;
+    private double freeMemoryGb;
+    private final List<TaskNode> readyTasks;
+    private final Map<String, TaskNode> lastWriters;
+    private final Map<String, List<TaskNode>> lastReaders;
+    private int pendingTasks;
+    private int runningTasks;
+    private int submittedTasks;
+    private final List<String> failedTasks;
+
+
+    /**
+     * Task of the graph: a call to a task method, or a deletion of files
+     */
+    private class TaskNode {
+
+        private final String name;
+        private final Method method;
+        private final Object[] args;
+        private final Runnable action;
+        private final int cores;
+        private final double memoryGb;
+        private final List<TaskNode> successors;
+        private int predecessors;
+        private boolean finished;
+
+
+        private TaskNode(String name, Method method, Object[] args, Runnable action, int cores, double memoryGb) {
+            this.name = name;
+            this.method = method;
+            this.args = args;
+            this.action = action;
+            this.cores = cores;
+            this.memoryGb = memoryGb;
+            this.successors = new ArrayList<>();
+            this.predecessors = 0;
+            this.finished = false;
+        }
+
+        private void dependOn(TaskNode predecessor) {
+            if (predecessor != null && predecessor != this && !predecessor.finished
+                    && !predecessor.successors.contains(this)) {
+
+                predecessor.successors.add(this);
+                this.predecessors++;
+            }
+        }
+    }
+
+
+    /**
+     * Creates an executor with the given computing units and memory (GB)
+     *
+     * @param totalCores
+     * @param totalMemoryGb
+     */
+    public LocalExecutor(int totalCores, double totalMemoryGb) {
+        this.totalCores = Math.max(1, totalCores);
+        this.totalMemoryGb = totalMemoryGb;
+        this.pool = Executors.newWorkStealingPool(this.totalCores);
+
+        this.freeCores = this.totalCores;
+        this.freeMemoryGb = totalMemoryGb;
+        this.readyTasks = new LinkedList<>();
+        this.lastWriters = new HashMap<>();
+        this.lastReaders = new HashMap<>();
+        this.pendingTasks = 0;
+        this.runningTasks = 0;
+        this.submittedTasks = 0;
+        this.failedTasks = new ArrayList<>();
+    }
+
+    /**
+     * Starts the executor of the node. From now on the calls to the task methods are submitted to it
+     *
+     * @return
+     */
+    public static synchronized LocalExecutor start() {
+        if (instance == null) {
+            int cores = getEnvInt(LOCAL_EXECUTOR_CU, Runtime.getRuntime().availableProcessors());
+            double memoryGb = getEnvDouble(LOCAL_EXECUTOR_MEM, getNodeMemoryGb());
+            instance = new LocalExecutor(cores, memoryGb);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the running executor, or null if the tasks are run by COMPSs
+     *
+     * @return
+     */
+    public static synchronized LocalExecutor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Submits a call of the master to a task without return value. Returns true if the call has been submitted, and
+     * false if the task has to be run by the caller: there is no executor or the call comes from a running task. It
+     * must be called by the method of the task, with its arguments in order
+     *
+     * @param taskName
+     * @param args
+     * @return
+     * @throws IllegalArgumentException
+     *             If the caller is not the task or the arguments are not its parameters
+     */
+    public static boolean submit(String taskName, Object... args) {
+        LocalExecutor executor = getInstance();
+        if (executor == null || Boolean.TRUE.equals(RUNNING_TASK.get())) {
+            return false;
+        }
+        checkCaller(taskName);
+        executor.addTask(taskName, args);
+        return true;
+    }
+
+    /**
+     * Waits until the files read by a call of the master to a task with return value are written, so the caller can
+     * run it
+     *
+     * @param taskName
+     * @param args
+     */
+    public static void waitForInputs(String taskName, Object... args) {
+        LocalExecutor executor = getInstance();
+        if (executor == null || Boolean.TRUE.equals(RUNNING_TASK.get())) {
+            return;
+        }
+        checkCaller(taskName);
+        executor.waitForWriters(taskName, args);
+    }
+
+    /**
+     * Deletes the given files once the tasks that read or write them have finished. The deletion is the last writer of
+     * the files, so a later task that writes them again waits for it
+     *
+     * @param files
+     */
+    public synchronized void deleteFiles(String... files) {
+        TaskNode node = new TaskNode("deleteFiles", null, null, () -> {
+            for (String file : files) {
+                new File(file).delete();
+            }
+        }, 0, 0);
+
+        for (String file : files) {
+            String key = getKey(file);
+            node.dependOn(this.lastWriters.get(key));
+            List<TaskNode> readers = this.lastReaders.remove(key);
+            if (readers != null) {
+                for (TaskNode reader : readers) {
+                    node.dependOn(reader);
+                }
+            }
+            this.lastWriters.put(key, node);
+        }
+        enqueue(node);
+    }
+
+    /**
+     * Submits an action without files that needs the given computing units and memory (GB) of the node
+     *
+     * @param name
+     * @param cores
+     * @param memoryGb
+     * @param action
+     */
+    synchronized void submitAction(String name, int cores, double memoryGb, Runnable action) {
+        TaskNode node = createNode(name, null, null, action, cores, memoryGb);
+        this.submittedTasks++;
+        enqueue(node);
+    }
+
+    /**
+     * Waits until all the submitted tasks have finished. Throws an exception if any of them has failed
+     *
+     * @throws GuidanceTaskException
+     */
+    public synchronized void barrier() throws GuidanceTaskException {
+        // After a failure the tasks that have not started are abandoned
+        while (this.pendingTasks > 0 && (this.failedTasks.isEmpty() || this.runningTasks > 0)) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new GuidanceTaskException(ie);
+            }
+        }
+        if (!this.failedTasks.isEmpty()) {
+            throw new GuidanceTaskException(CLASS_HEADER + " " + this.failedTasks.size() + " of "
+                    + this.submittedTasks + " tasks have failed: " + this.failedTasks);
+        }
+    }
+
+    /**
+     * Waits for the submitted tasks and stops the executor
+     *
+     * @throws GuidanceTaskException
+     */
+    public void shutdown() throws GuidanceTaskException {
+        try {
+            barrier();
+        } finally {
+            this.pool.shutdown();
+            synchronized (LocalExecutor.class) {
+                if (instance == this) {
+                    instance = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the computing units of the node
+     *
+     * @return
+     */
+    public int getTotalCores() {
+        return this.totalCores;
+    }
+
+    /**
+     * Returns the memory of the node in GB
+     *
+     * @return
+     */
+    public double getTotalMemoryGb() {
+        return this.totalMemoryGb;
+    }
+
+    private synchronized void addTask(String taskName, Object[] args) {
+        Method itfMethod = getItfMethod(taskName, args);
+        Method implMethod = getImplMethod(itfMethod);
+
+        Constraints constraints = itfMethod.getAnnotation(Constraints.class);
+        int cores = 1;
+        double memoryGb = 0;
+        if (constraints != null) {
+            cores = (int) Math.max(1, Math.round(resolve(constraints.computingUnits(), 1)));
+            memoryGb = Math.max(0, resolve(constraints.memorySize(), 0));
+        }
+
+        TaskNode node = createNode(taskName, implMethod, args, null, cores, memoryGb);
+        Annotation[][] annotations = itfMethod.getParameterAnnotations();
+        // The writers first, so a file read and written by the task depends on its previous readers
+        for (int i = 0; i < args.length && i < annotations.length; ++i) {
+            Parameter parameter = getFileParameter(annotations[i]);
+            if (parameter != null && args[i] != null && parameter.direction() != Direction.IN) {
+                String key = getKey(args[i].toString());
+                node.dependOn(this.lastWriters.get(key));
+                List<TaskNode> readers = this.lastReaders.remove(key);
+                if (readers != null) {
+                    for (TaskNode reader : readers) {
+                        node.dependOn(reader);
+                    }
+                }
+                this.lastWriters.put(key, node);
+            }
+        }
+        for (int i = 0; i < args.length && i < annotations.length; ++i) {
+            Parameter parameter = getFileParameter(annotations[i]);
+            if (parameter != null && args[i] != null && parameter.direction() == Direction.IN) {
+                String key = getKey(args[i].toString());
+                node.dependOn(this.lastWriters.get(key));
+                this.lastReaders.computeIfAbsent(key, k -> new ArrayList<>()).add(node);
+            }
+        }
+        this.submittedTasks++;
+        enqueue(node);
+    }
+
+    private TaskNode createNode(String name, Method method, Object[] args, Runnable action, int cores,
+            double memoryGb) {
+
+        if (cores > this.totalCores || memoryGb > this.totalMemoryGb) {
+            System.err.println(CLASS_HEADER + " The constraints of " + name + " (" + cores + " CU, " + memoryGb
+                    + " GB) exceed the node, it runs with all of it");
+            cores = Math.min(cores, this.totalCores);
+            memoryGb = Math.min(memoryGb, this.totalMemoryGb);
+        }
+        return new TaskNode(name, method, args, action, cores, memoryGb);
+    }
+
+    private synchronized void waitForWriters(String taskName, Object[] args) {
+        Annotation[][] annotations = getItfMethod(taskName, args).getParameterAnnotations();
+        for (int i = 0; i < args.length && i < annotations.length; ++i) {
+            Parameter parameter = getFileParameter(annotations[i]);
+            if (parameter != null && args[i] != null && parameter.direction() != Direction.OUT) {
+                TaskNode writer = this.lastWriters.get(getKey(args[i].toString()));
+                while (writer != null && !writer.finished && this.failedTasks.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void enqueue(TaskNode node) {
+        this.pendingTasks++;
+        if (node.predecessors == 0) {
+            this.readyTasks.add(node);
+            dispatch();
+        }
+    }
+
+    /**
+     * Starts the ready tasks that fit in the free resources, in submission order. A task that does not fit does not
+     * stop the smaller ones behind it
+     */
+    private void dispatch() {
+        Iterator<TaskNode> it = this.readyTasks.iterator();
+        while (it.hasNext() && this.failedTasks.isEmpty()) {
+            TaskNode node = it.next();
+            if (node.cores <= this.freeCores && node.memoryGb <= this.freeMemoryGb + 1e-9) {
+                it.remove();
+                this.freeCores -= node.cores;
+                this.freeMemoryGb -= node.memoryGb;
+                this.runningTasks++;
+                this.pool.execute(() -> run(node));
+            }
+        }
+    }
+
+    private void run(TaskNode node) {
+        Throwable error = null;
+        RUNNING_TASK.set(Boolean.TRUE);
+        try {
+            if (node.action != null) {
+                node.action.run();
+            } else {
+                node.method.invoke(null, node.args);
+            }
+        } catch (InvocationTargetException ite) {
+            error = ite.getCause();
+        } catch (IllegalAccessException | RuntimeException e) {
+            error = e;
+        } finally {
+            RUNNING_TASK.remove();
+        }
+        finish(node, error);
+    }
+
+    private synchronized void finish(TaskNode node, Throwable error) {
+        if (error != null) {
+            System.err.println(CLASS_HEADER + " Task " + node.name + " has failed: " + error);
+            this.failedTasks.add(node.name);
+        }
+        node.finished = true;
+        this.freeCores += node.cores;
+        this.freeMemoryGb += node.memoryGb;
+        for (TaskNode successor : node.successors) {
+            if (--successor.predecessors == 0) {
+                this.readyTasks.add(successor);
+            }
+        }
+        this.pendingTasks--;
+        this.runningTasks--;
+        dispatch();
+        notifyAll();
+    }
+
+    /**
+     * Returns the task with the given name, checking that the arguments of the call are its parameters. The files of
+     * the call are found by position, so the overloaded tasks are not supported
+     */
+    static Method getItfMethod(String taskName, Object[] args) {
+        Method itfMethod = null;
+        for (Method method : GuidanceItf.class.getMethods()) {
+            if (method.getName().equals(taskName)) {
+                if (itfMethod != null) {
+                    throw new IllegalArgumentException(CLASS_HEADER + " The task " + taskName + " is overloaded");
+                }
+                itfMethod = method;
+            }
+        }
+        if (itfMethod == null) {
+            throw new IllegalArgumentException(CLASS_HEADER + " Unknown task " + taskName);
+        }
+
+        Class<?>[] types = itfMethod.getParameterTypes();
+        if (args.length != types.length) {
+            throw new IllegalArgumentException(CLASS_HEADER + " The task " + taskName + " has " + types.length
+                    + " parameters but has been called with " + args.length + " arguments");
+        }
+        for (int i = 0; i < types.length; ++i) {
+            if (args[i] != null ? !box(types[i]).isInstance(args[i]) : types[i].isPrimitive()) {
+                throw new IllegalArgumentException(CLASS_HEADER + " The argument " + i + " of the task " + taskName
+                        + " is not a " + types[i].getSimpleName() + ": " + args[i]);
+            }
+        }
+        return itfMethod;
+    }
+
+    /**
+     * Checks that the method that calls submit or waitForInputs is the one of the task
+     */
+    private static void checkCaller(String taskName) {
+        // 0 is checkCaller, 1 is submit or waitForInputs
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        if (stack.length > 2 && !(stack[2].getClassName().equals(GuidanceImpl.class.getName())
+                && stack[2].getMethodName().equals(taskName))) {
+            throw new IllegalArgumentException(CLASS_HEADER + " The task " + taskName + " has been submitted by "
+                    + stack[2].getClassName() + "." + stack[2].getMethodName());
+        }
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        }
+        if (type == long.class) {
+            return Long.class;
+        }
+        if (type == double.class) {
+            return Double.class;
+        }
+        if (type == float.class) {
+            return Float.class;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        }
+        if (type == char.class) {
+            return Character.class;
+        }
+        if (type == short.class) {
+            return Short.class;
+        }
+        return Byte.class;
+    }
+
+    private static Method getImplMethod(Method itfMethod) {
+        try {
+            return GuidanceImpl.class.getMethod(itfMethod.getName(), itfMethod.getParameterTypes());
+        } catch (NoSuchMethodException nsme) {
+            throw new IllegalArgumentException(CLASS_HEADER + " Unknown task " + itfMethod.getName(), nsme);
+        }
+    }
+
+    private static Parameter getFileParameter(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof Parameter && ((Parameter) annotation).type() == Type.FILE) {
+                return (Parameter) annotation;
+            }
+        }
+        return null;
+    }
+
+    private static String getKey(String file) {
+        return new File(file).getAbsolutePath();
+    }
+
+    /**
+     * Returns the value of a constraint, a number (e.g. 1.0f) or an environment variable (e.g. ${phasingBedCU}), or
+     * the default value if it is not defined
+     */
+    private static double resolve(String constraint, double defaultValue) {
+        String value = (constraint == null) ? "" : constraint.trim();
+        if (value.startsWith("${") && value.endsWith("}")) {
+            value = System.getenv(value.substring(2, value.length() - 1));
+        }
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+
+    private static int getEnvInt(String envVarName, int defaultValue) {
+        return (int) Math.round(resolve("${" + envVarName + "}", defaultValue));
+    }
+
+    private static double getEnvDouble(String envVarName, double defaultValue) {
+        return resolve("${" + envVarName + "}", defaultValue);
+    }
+
+    private static double getNodeMemoryGb() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize() / BYTES_PER_GB;
+        }
+        return Runtime.getRuntime().maxMemory() / BYTES_PER_GB;
+    }
+
+}
@@ -12,6 +12,7 @@ import guidance.exceptions.GuidanceTaskException;
 import guidance.files.AssocFiles;
 import guidance.files.CombinedPanelsFiles;
 import guidance.files.MergeFiles;
+import guidance.plots.PvalueSketch;
 import guidance.utils.ParseCmdLine;
 
 public class TestFunction {
@@ -48,8 +49,9 @@ public class TestFunction {
 		String hweControlsThresholdS = args[7];
 		String cmdToStore = "";
 		try {
-			GuidanceImpl.filterByAll(inputFile, outputFile, panelName, mafThresholdS, infoThresholdS,
-					hweCohortThresholdS, hweCasesThresholdS, hweControlsThresholdS, "", "", cmdToStore);
+			GuidanceImpl.filterByAll(inputFile, outputFile, panelName, PvalueSketch.getSketchFile(panelName),
+					mafThresholdS, infoThresholdS, hweCohortThresholdS, hweCasesThresholdS, hweControlsThresholdS, "",
+					"", cmdToStore);
 		} catch (GuidanceTaskException e) {
 			e.printStackTrace();
 		}
@@ -131,10 +133,11 @@ public class TestFunction {
 		String imputeFileWarnings = args[11];
 		String theChromo = args[12];
 		String sex = args[13];
+		String panel = args[14];
 		try {
 			GuidanceImpl.imputeWithImpute(gmapFile, knownHapFile, legendFile, phasingHapsFile, phasingSampleFile, lim1S,
 					lim2S, pairsFile, imputeFile, imputeFileInfo, imputeFileSummary, imputeFileWarnings, theChromo, sex,
-					"");
+					panel, "");
 		} catch (GuidanceTaskException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
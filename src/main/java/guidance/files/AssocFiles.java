@@ -339,7 +339,7 @@ public class AssocFiles {
 							chunkListSnptestLogMalesFile.add(myChunkListSnptestLogMalesFile);
 
 							String tmpSummaryMalesFileName = "chr_" + chromo + "_" + testTypeName + "_" + rPanel + "_"
-									+ lim1 + "_" + lim2 + "_males_summary.txt.gz";
+									+ lim1 + "_" + lim2 + "_males_summary.col";
 
 							GenericFile myChunkListSummaryMalesFile = new GenericFile(tmpChrDir,
 									tmpSummaryMalesFileName, UNCOMPRESSED, "none");
@@ -364,7 +364,7 @@ public class AssocFiles {
 							chunkListSnptestLogFemalesFile.add(myChunkListSnptestLogFemalesFile);
 
 							String tmpSummaryFemalesFileName = "chr_" + chromo + "_" + testTypeName + "_" + rPanel + "_"
-									+ lim1 + "_" + lim2 + "_females_summary.txt.gz";
+									+ lim1 + "_" + lim2 + "_females_summary.col";
 
 							GenericFile myChunkListSummaryFemalesFile = new GenericFile(tmpChrDir,
 									tmpSummaryFemalesFileName, UNCOMPRESSED, "none");
@@ -410,7 +410,7 @@ public class AssocFiles {
 						chunkListSnptestLogFile.add(myChunkListSnptestLogFile);
 
 						String tmpSummaryFileName = "chr_" + chromo + "_" + testTypeName + "_" + rPanel + "_" + lim1
-								+ "_" + lim2 + "_summary.txt.gz";
+								+ "_" + lim2 + "_summary.col";
 						GenericFile myChunkListSummaryFile = new GenericFile(tmpChrDir, tmpSummaryFileName,
 								UNCOMPRESSED, "none");
 						chunkListSummaryFile.add(myChunkListSummaryFile);
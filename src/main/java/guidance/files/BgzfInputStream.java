@@ -0,0 +1,280 @@
+package guidance.files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream of a BGZF file (written by bgzip or BgzfOutputStream) that can
+ * seek to the virtual offsets of a tabix index
+ */
+public class BgzfInputStream extends InputStream {
+
+	private final String fileName;
+	private final RandomAccessFile file;
+	private final Inflater inflater;
+	private final CRC32 crc;
+
+	private final byte[] compressed;
+	private final byte[] block;
+	private int blockLength;
+	private int blockOffset;
+
+	// File offsets of the current and the next blocks
+	private long blockAddress;
+	private long nextBlockAddress;
+
+	private final ByteArrayOutputStream line;
+
+	/**
+	 * Opens a BGZF file
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public BgzfInputStream(String fileName) throws IOException {
+		this.fileName = fileName;
+		this.file = new RandomAccessFile(fileName, "r");
+		this.inflater = new Inflater(true);
+		this.crc = new CRC32();
+
+		this.compressed = new byte[BgzfOutputStream.MAX_COMPRESSED_BLOCK_SIZE];
+		this.block = new byte[BgzfOutputStream.MAX_COMPRESSED_BLOCK_SIZE];
+		this.blockLength = 0;
+		this.blockOffset = 0;
+
+		this.blockAddress = 0;
+		this.nextBlockAddress = 0;
+
+		this.line = new ByteArrayOutputStream(1024);
+	}
+
+	/**
+	 * Returns the virtual offset of the next byte
+	 *
+	 * @return
+	 */
+	public long getVirtualOffset() {
+		if (this.blockOffset == this.blockLength) {
+			return this.nextBlockAddress << 16;
+		}
+		return (this.blockAddress << 16) | this.blockOffset;
+	}
+
+	/**
+	 * Moves to a virtual offset
+	 *
+	 * @param virtualOffset
+	 * @throws IOException
+	 */
+	public void seek(long virtualOffset) throws IOException {
+		long address = virtualOffset >>> 16;
+		int offset = (int) (virtualOffset & 0xFFFF);
+		if (address != this.blockAddress || this.blockLength == 0) {
+			this.nextBlockAddress = address;
+			readBlock();
+		}
+		if (offset > this.blockLength) {
+			throw new IOException("Invalid virtual offset " + virtualOffset + " of " + this.fileName);
+		}
+		this.blockOffset = offset;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fillBlock()) {
+			return -1;
+		}
+		return this.block[this.blockOffset++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fillBlock()) {
+			return -1;
+		}
+		int n = Math.min(len, this.blockLength - this.blockOffset);
+		System.arraycopy(this.block, this.blockOffset, b, off, n);
+		this.blockOffset += n;
+		return n;
+	}
+
+	/**
+	 * Reads a line without the line terminator, or returns null at the end of the
+	 * file
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public String readLine() throws IOException {
+		this.line.reset();
+		boolean read = false;
+		while (fillBlock()) {
+			read = true;
+			int start = this.blockOffset;
+			int end = start;
+			while (end < this.blockLength && this.block[end] != '\n') {
+				end++;
+			}
+			this.line.write(this.block, start, end - start);
+			if (end < this.blockLength) {
+				this.blockOffset = end + 1;
+				return toLine();
+			}
+			this.blockOffset = end;
+		}
+		return read ? toLine() : null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.inflater.end();
+		this.file.close();
+	}
+
+	private String toLine() {
+		byte[] bytes = this.line.toByteArray();
+		int length = bytes.length;
+		if (length > 0 && bytes[length - 1] == '\r') {
+			length--;
+		}
+		return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Reads blocks until there are bytes to read, skipping the empty ones
+	 */
+	private boolean fillBlock() throws IOException {
+		while (this.blockOffset == this.blockLength) {
+			if (this.nextBlockAddress >= this.file.length()) {
+				return false;
+			}
+			readBlock();
+		}
+		return true;
+	}
+
+	private void readBlock() throws IOException {
+		this.file.seek(this.nextBlockAddress);
+		int headerSize = BgzfOutputStream.HEADER_SIZE;
+		try {
+			this.file.readFully(this.compressed, 0, headerSize);
+		} catch (EOFException eofe) {
+			throw new IOException("Truncated BGZF block in " + this.fileName, eofe);
+		}
+		int blockSize = getBlockSize(this.compressed, this.fileName);
+		this.file.readFully(this.compressed, headerSize, blockSize - headerSize);
+
+		int size = inflateBlock(this.inflater, this.crc, this.compressed, blockSize, this.block, this.fileName);
+
+		this.blockAddress = this.nextBlockAddress;
+		this.nextBlockAddress += blockSize;
+		this.blockLength = size;
+		this.blockOffset = 0;
+	}
+
+	/**
+	 * Returns whether a file starts with a BGZF block
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isBgzf(String fileName) throws IOException {
+		byte[] header = new byte[BgzfOutputStream.HEADER_SIZE];
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			if (file.length() < header.length) {
+				return false;
+			}
+			file.readFully(header);
+		}
+		return isBlockHeader(header);
+	}
+
+	/**
+	 * Returns the compressed size of the block with the given header, or throws an
+	 * exception if it is not a BGZF header
+	 *
+	 * @param header
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	static int getBlockSize(byte[] header, String fileName) throws IOException {
+		if (!isBlockHeader(header)) {
+			throw new IOException("The file " + fileName + " is not in the BGZF format");
+		}
+		return readShortLE(header, 16) + 1;
+	}
+
+	/**
+	 * Inflates a whole BGZF block and checks its CRC. Returns the uncompressed
+	 * size
+	 *
+	 * @param inflater
+	 * @param crc
+	 * @param compressed
+	 * @param blockSize
+	 * @param block
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	static int inflateBlock(Inflater inflater, CRC32 crc, byte[] compressed, int blockSize, byte[] block,
+			String fileName) throws IOException {
+
+		int headerSize = BgzfOutputStream.HEADER_SIZE;
+		int dataLength = blockSize - headerSize - BgzfOutputStream.TRAILER_SIZE;
+		int size = (int) readIntLE(compressed, blockSize - 4);
+		if (dataLength < 0 || size > block.length) {
+			throw new IOException("Corrupted BGZF block in " + fileName);
+		}
+		inflater.reset();
+		inflater.setInput(compressed, headerSize, dataLength);
+		try {
+			int n = 0;
+			while (n < size && !inflater.finished()) {
+				int inflated = inflater.inflate(block, n, size - n);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				n += inflated;
+			}
+			if (n != size) {
+				throw new IOException("Corrupted BGZF block in " + fileName);
+			}
+		} catch (DataFormatException dfe) {
+			throw new IOException("Corrupted BGZF block in " + fileName, dfe);
+		}
+		crc.reset();
+		crc.update(block, 0, size);
+		if (crc.getValue() != readIntLE(compressed, blockSize - 8)) {
+			throw new IOException("Wrong CRC of a BGZF block in " + fileName);
+		}
+		return size;
+	}
+
+	private static boolean isBlockHeader(byte[] header) {
+		return (header[0] & 0xFF) == 0x1f && (header[1] & 0xFF) == 0x8b && header[3] == 0x04 && header[12] == 'B'
+				&& header[13] == 'C';
+	}
+
+	private static int readShortLE(byte[] b, int offset) {
+		return (b[offset] & 0xFF) | ((b[offset + 1] & 0xFF) << 8);
+	}
+
+	private static long readIntLE(byte[] b, int offset) {
+		return (b[offset] & 0xFFL) | ((b[offset + 1] & 0xFFL) << 8) | ((b[offset + 2] & 0xFFL) << 16)
+				| ((b[offset + 3] & 0xFFL) << 24);
+	}
+
+}
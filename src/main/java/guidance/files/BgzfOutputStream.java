@@ -0,0 +1,291 @@
+package guidance.files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that writes the BGZF format of bgzip: a series of gzip members
+ * of at most 64 KB each, with the compressed size in an extra field, and an
+ * empty member at the end. The blocks are independent, so they are deflated in
+ * parallel and written in order, as in ParallelGzipOutputStream.
+ *
+ * The blocks of a BGZF file are addressed by virtual offsets: the file offset
+ * of the block shifted 16 bits plus the offset in the uncompressed block.
+ * Since the compressed sizes are not known while the blocks are being
+ * deflated, getPosition returns the number of the block instead of its offset,
+ * and toVirtualOffset converts it once the stream is finished.
+ */
+public class BgzfOutputStream extends OutputStream {
+
+	/**
+	 * Maximum uncompressed size of a block, the one of bgzip
+	 */
+	public static final int MAX_BLOCK_SIZE = 0xff00;
+
+	/**
+	 * Empty block at the end of the BGZF files
+	 */
+	public static final byte[] EOF_BLOCK = new byte[] { 0x1f, (byte) 0x8b, 0x08, 0x04, 0, 0, 0, 0, 0, (byte) 0xff,
+			0x06, 0, 0x42, 0x43, 0x02, 0, 0x1b, 0, 0x03, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+	static final int HEADER_SIZE = 18;
+	static final int TRAILER_SIZE = 8;
+	static final int MAX_COMPRESSED_BLOCK_SIZE = 64 * 1024;
+
+	private final OutputStream out;
+	private final int level;
+	private final int maxPending;
+	private final ExecutorService executor;
+
+	private final ArrayDeque<Future<byte[]>> pending;
+
+	// File offsets of the written blocks
+	private long[] blockAddresses;
+	private int writtenBlocks;
+	private long address;
+
+	// Blocks submitted to compress
+	private int numBlocks;
+
+	private byte[] block;
+	private int blockLength;
+	private boolean closed;
+
+	/**
+	 * Creates a stream that compresses with the given level and number of threads
+	 *
+	 * @param out
+	 * @param level
+	 * @param threads
+	 */
+	public BgzfOutputStream(OutputStream out, int level, int threads) {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		}
+		this.out = out;
+		this.level = level;
+
+		int numThreads = Math.max(1, threads);
+		this.maxPending = 2 * numThreads;
+		this.executor = (numThreads > 1) ? Executors.newFixedThreadPool(numThreads) : null;
+		this.pending = new ArrayDeque<>();
+
+		this.blockAddresses = new long[1024];
+		this.writtenBlocks = 0;
+		this.address = 0;
+		this.numBlocks = 0;
+
+		this.block = new byte[MAX_BLOCK_SIZE];
+		this.blockLength = 0;
+		this.closed = false;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		while (len > 0) {
+			int n = Math.min(len, MAX_BLOCK_SIZE - this.blockLength);
+			System.arraycopy(b, off, this.block, this.blockLength, n);
+			this.blockLength += n;
+			off += n;
+			len -= n;
+			if (this.blockLength == MAX_BLOCK_SIZE) {
+				submitBlock();
+			}
+		}
+	}
+
+	/**
+	 * Ends the current block, so the next byte starts a new one
+	 *
+	 * @throws IOException
+	 */
+	public void endBlock() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		if (this.blockLength > 0) {
+			submitBlock();
+		}
+	}
+
+	/**
+	 * Returns the position of the next byte: the number of its block shifted 16
+	 * bits plus its offset in the block
+	 *
+	 * @return
+	 */
+	public long getPosition() {
+		return ((long) this.numBlocks << 16) | this.blockLength;
+	}
+
+	/**
+	 * Converts a position of getPosition to a virtual offset. The stream must be
+	 * finished
+	 *
+	 * @param position
+	 * @return
+	 */
+	public long toVirtualOffset(long position) {
+		if (!this.closed) {
+			throw new IllegalStateException("The BGZF stream is not finished");
+		}
+		int blockNumber = (int) (position >>> 16);
+		long blockAddress = (blockNumber < this.numBlocks) ? this.blockAddresses[blockNumber] : this.address;
+		return (blockAddress << 16) | (position & 0xFFFF);
+	}
+
+	/**
+	 * Writes the pending blocks and the EOF block, and shuts down the threads. The
+	 * underlying stream is not closed
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		try {
+			if (this.blockLength > 0) {
+				submitBlock();
+			}
+			while (!this.pending.isEmpty()) {
+				writeNext();
+			}
+			this.out.write(EOF_BLOCK);
+			this.out.flush();
+		} finally {
+			this.closed = true;
+			if (this.executor != null) {
+				this.executor.shutdownNow();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			this.out.close();
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		final byte[] input = Arrays.copyOf(this.block, this.blockLength);
+		final int blockLevel = this.level;
+		if (this.executor == null) {
+			writeBlock(compressBlock(input, blockLevel));
+		} else {
+			while (this.pending.size() >= this.maxPending) {
+				writeNext();
+			}
+			this.pending.add(this.executor.submit(new Callable<byte[]>() {
+
+				@Override
+				public byte[] call() {
+					return compressBlock(input, blockLevel);
+				}
+			}));
+		}
+		this.numBlocks++;
+		this.blockLength = 0;
+	}
+
+	private void writeNext() throws IOException {
+		Future<byte[]> next = this.pending.poll();
+		try {
+			writeBlock(next.get());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException ee) {
+			throw new IOException("Cannot compress block", ee.getCause());
+		}
+	}
+
+	private void writeBlock(byte[] compressed) throws IOException {
+		// The blocks are written in order
+		if (this.writtenBlocks == this.blockAddresses.length) {
+			this.blockAddresses = Arrays.copyOf(this.blockAddresses, 2 * this.writtenBlocks);
+		}
+		this.blockAddresses[this.writtenBlocks] = this.address;
+		this.writtenBlocks++;
+		this.out.write(compressed);
+		this.address += compressed.length;
+	}
+
+	/**
+	 * Compresses a block in the BGZF format. The blocks that do not fit once
+	 * compressed are stored
+	 *
+	 * @param input
+	 * @param level
+	 * @return
+	 */
+	static byte[] compressBlock(byte[] input, int level) {
+		byte[] compressed = deflate(input, level);
+		if (HEADER_SIZE + compressed.length + TRAILER_SIZE > MAX_COMPRESSED_BLOCK_SIZE) {
+			compressed = deflate(input, Deflater.NO_COMPRESSION);
+		}
+		int blockSize = HEADER_SIZE + compressed.length + TRAILER_SIZE;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(blockSize);
+		bytes.write(EOF_BLOCK, 0, 16);
+		writeShortLE(bytes, blockSize - 1);
+		bytes.write(compressed, 0, compressed.length);
+
+		CRC32 crc = new CRC32();
+		crc.update(input, 0, input.length);
+		writeIntLE(bytes, crc.getValue());
+		writeIntLE(bytes, input.length);
+		return bytes.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] input, int level) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(input);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 2 + 64);
+			byte[] buffer = new byte[16 * 1024];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				compressed.write(buffer, 0, n);
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static void writeShortLE(ByteArrayOutputStream out, int value) {
+		out.write(value & 0xFF);
+		out.write((value >> 8) & 0xFF);
+	}
+
+	private static void writeIntLE(ByteArrayOutputStream out, long value) {
+		for (int i = 0; i < 4; ++i) {
+			out.write((int) (value >> (8 * i)) & 0xFF);
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+package guidance.files;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Merges two compressed chunks of a table with a header line: the output has
+ * the lines of A followed by the lines of B without its header.
+ *
+ * When both chunks are BGZF files whose header is alone in the first blocks
+ * (as written by CompressedFileWriter.endHeader), the merge is a copy of the
+ * blocks of A without its EOF block followed by the data blocks of B, so no
+ * byte is decompressed or compressed except the header blocks of B, which are
+ * read to know where its data starts. Other chunks are merged line by line
+ * into a BGZF file with its header alone, so that the next merges are copies.
+ *
+ * mergeIndexed also writes the tabix index of C. When C is a copy of the blocks
+ * of A and B, the index of C is the one of A followed by the one of B with the
+ * addresses of B moved, so the chunks are not read to index them.
+ */
+public class ChunkMerger {
+
+	/**
+	 * Private constructor to avoid instantiation
+	 */
+	private ChunkMerger() {
+		// Nothing to do
+	}
+
+	/**
+	 * Merges the chunks A and B into C
+	 *
+	 * @param chunkA
+	 * @param chunkB
+	 * @param chunkC
+	 * @throws IOException
+	 */
+	public static void merge(String chunkA, String chunkB, String chunkC) throws IOException {
+		if (!concatenate(chunkA, chunkB, chunkC)) {
+			mergeLines(chunkA, chunkB, chunkC);
+		}
+	}
+
+	/**
+	 * Merges the chunks A and B into C as merge, and writes the tabix index of C
+	 * (see TabixIndex.forTable). Returns null if C is indexed, or why it cannot be
+	 * indexed (e.g. its lines are not sorted by position); then C has no index
+	 *
+	 * @param chunkA
+	 * @param chunkB
+	 * @param chunkC
+	 * @return
+	 * @throws IOException
+	 */
+	public static String mergeIndexed(String chunkA, String chunkB, String chunkC) throws IOException {
+		long lengthA = getDataLength(chunkA);
+		long dataAddressB = getDataAddress(chunkB);
+		if (!concatenate(chunkA, chunkB, chunkC)) {
+			String indexError = writeLines(chunkA, chunkB, chunkC, true);
+			if (indexError != null) {
+				new File(TabixIndex.getIndexFile(chunkC)).delete();
+			}
+			return indexError;
+		}
+
+		TabixIndex index = readIndex(chunkA);
+		TabixIndex indexB = readIndex(chunkB);
+		if (index == null || indexB == null || !index.append(indexB, lengthA - dataAddressB)) {
+			// The index is built reading C
+			try {
+				index = TabixIndex.buildForTable(chunkC);
+			} catch (IOException ioe) {
+				new File(TabixIndex.getIndexFile(chunkC)).delete();
+				return ioe.getMessage();
+			}
+		}
+
+		File indexFile = new File(TabixIndex.getIndexFile(chunkC)).getAbsoluteFile();
+		File tmpFile = CompressedFileWriter.createTmpFile(indexFile);
+		try {
+			index.write(tmpFile.getPath());
+		} catch (IOException ioe) {
+			tmpFile.delete();
+			throw ioe;
+		}
+		CompressedFileWriter.commitFile(tmpFile, indexFile);
+		return null;
+	}
+
+	/**
+	 * Merges the chunks A and B into C copying their blocks. Returns false, without
+	 * writing C, when the chunks are not BGZF files with the header in its own
+	 * blocks
+	 *
+	 * @param chunkA
+	 * @param chunkB
+	 * @param chunkC
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean concatenate(String chunkA, String chunkB, String chunkC) throws IOException {
+		long lengthA = getDataLength(chunkA);
+		long dataAddressB = getDataAddress(chunkB);
+		if (lengthA < 0 || dataAddressB < 0) {
+			return false;
+		}
+
+		File outputFile = new File(chunkC).getAbsoluteFile();
+		File tmpFile = CompressedFileWriter.createTmpFile(outputFile);
+		try (FileChannel out = new RandomAccessFile(tmpFile, "rw").getChannel()) {
+			// A has the header blocks of the output, B its EOF block
+			try (FileChannel in = new FileInputStream(chunkA).getChannel()) {
+				transfer(in, 0, lengthA, out);
+			}
+			try (FileChannel in = new FileInputStream(chunkB).getChannel()) {
+				transfer(in, dataAddressB, in.size() - dataAddressB, out);
+			}
+		} catch (IOException ioe) {
+			tmpFile.delete();
+			throw ioe;
+		}
+		CompressedFileWriter.commitFile(tmpFile, outputFile);
+		return true;
+	}
+
+	/**
+	 * Merges the chunks A and B into C decompressing their lines
+	 *
+	 * @param chunkA
+	 * @param chunkB
+	 * @param chunkC
+	 * @throws IOException
+	 */
+	public static void mergeLines(String chunkA, String chunkB, String chunkC) throws IOException {
+		writeLines(chunkA, chunkB, chunkC, false);
+	}
+
+	/**
+	 * Returns the header line of a compressed chunk, or null if it is empty
+	 *
+	 * @param chunk
+	 * @return
+	 * @throws IOException
+	 */
+	public static String readHeader(String chunk) throws IOException {
+		try (BufferedReader br = openReader(chunk)) {
+			return br.readLine();
+		}
+	}
+
+	/**
+	 * Writes the lines of A and the lines of B without its header to C, indexing
+	 * them if asked. Returns the index error of the writer
+	 */
+	private static String writeLines(String chunkA, String chunkB, String chunkC, boolean indexed)
+			throws IOException {
+
+		String indexError = indexed ? "The chunk " + chunkA + " has no header" : null;
+		try (CompressedFileWriter writer = CompressedFileWriter.bgzf(chunkC)) {
+			try (BufferedReader br = openReader(chunkA)) {
+				String line = br.readLine();
+				if (line != null) {
+					writer.write(line);
+					writer.newLine();
+					if (indexed) {
+						try {
+							writer.setIndex(TabixIndex.forTable(line));
+							indexError = null;
+						} catch (IOException ioe) {
+							indexError = ioe.getMessage();
+						}
+					}
+				}
+				writer.endHeader();
+				while ((line = br.readLine()) != null) {
+					writer.writeLine(line);
+				}
+			}
+			try (BufferedReader br = openReader(chunkB)) {
+				// The header of B is skipped
+				String line = br.readLine();
+				while ((line = br.readLine()) != null) {
+					writer.writeLine(line);
+				}
+			}
+			writer.commit();
+			return (indexError != null) ? indexError : writer.getIndexError();
+		}
+	}
+
+	/**
+	 * Returns the index of a chunk, or null if it has no index or it is older than
+	 * the chunk
+	 */
+	private static TabixIndex readIndex(String chunk) {
+		try {
+			return TabixIndex.readIndexOf(chunk);
+		} catch (IOException ioe) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the length of a BGZF file without its EOF block, or -1 if the file
+	 * is not BGZF or does not end with one
+	 */
+	private static long getDataLength(String fileName) throws IOException {
+		byte[] eofBlock = BgzfOutputStream.EOF_BLOCK;
+		if (!BgzfInputStream.isBgzf(fileName)) {
+			return -1;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			long length = file.length() - eofBlock.length;
+			if (length < 0) {
+				return -1;
+			}
+			byte[] tail = new byte[eofBlock.length];
+			file.seek(length);
+			file.readFully(tail);
+			return Arrays.equals(tail, eofBlock) ? length : -1;
+		}
+	}
+
+	/**
+	 * Returns the address of the first block after the header line of a BGZF file,
+	 * or -1 if the file is not BGZF or the header shares a block with the data
+	 */
+	private static long getDataAddress(String fileName) throws IOException {
+		if (!BgzfInputStream.isBgzf(fileName)) {
+			return -1;
+		}
+		try (BgzfInputStream in = new BgzfInputStream(fileName)) {
+			if (in.readLine() == null) {
+				return -1;
+			}
+			long virtualOffset = in.getVirtualOffset();
+			return ((virtualOffset & 0xFFFF) == 0) ? virtualOffset >>> 16 : -1;
+		}
+	}
+
+	private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+		long transferred = 0;
+		while (transferred < count) {
+			long n = in.transferTo(position + transferred, count - transferred, out);
+			if (n <= 0) {
+				throw new IOException("Cannot copy the blocks of a chunk");
+			}
+			transferred += n;
+		}
+	}
+
+	private static BufferedReader openReader(String fileName) throws IOException {
+		return new BufferedReader(
+				new InputStreamReader(FileUtils.openGzipInputStream(fileName), StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,117 @@
+package guidance.files;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts the columnar tables of the tasks to tab separated text and back, to
+ * inspect the intermediate files of a run. Gzipped text is written when the
+ * output file name ends with .gz, and gzipped input text is detected.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java -cp guidance.jar guidance.files.ColumnarTableConverter toText table.col [table.txt.gz]
+ * java -cp guidance.jar guidance.files.ColumnarTableConverter toColumnar table.txt.gz table.col
+ * </pre>
+ *
+ * Without output file, toText prints the table to the standard output.
+ */
+public class ColumnarTableConverter {
+
+	private static final String TO_TEXT = "toText";
+	private static final String TO_COLUMNAR = "toColumnar";
+	private static final String GZ_SUFFIX = ".gz";
+
+	/**
+	 * Private constructor to avoid instantiation
+	 */
+	private ColumnarTableConverter() {
+		// Nothing to do
+	}
+
+	/**
+	 * Writes a columnar table as tab separated text
+	 *
+	 * @param columnarFile
+	 * @param writer
+	 * @throws IOException
+	 */
+	public static void toText(String columnarFile, Writer writer) throws IOException {
+		try (ColumnarTableReader reader = new ColumnarTableReader(columnarFile)) {
+			writer.write(reader.getHeader());
+			writer.write('\n');
+			while (reader.next()) {
+				reader.writeLine(writer);
+				writer.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * Writes a text table (gzipped or not) as a columnar table
+	 *
+	 * @param textFile
+	 * @param columnarFile
+	 * @throws IOException
+	 */
+	public static void toColumnar(String textFile, String columnarFile) throws IOException {
+		try (BufferedReader br = openText(textFile);
+				ColumnarTableWriter writer = new ColumnarTableWriter(columnarFile)) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				writer.write(line);
+				writer.write('\n');
+			}
+			writer.commit();
+		}
+	}
+
+	private static BufferedReader openText(String textFile) throws IOException {
+		if (textFile.endsWith(GZ_SUFFIX)) {
+			return new BufferedReader(
+					new InputStreamReader(FileUtils.openGzipInputStream(textFile), StandardCharsets.UTF_8));
+		}
+		return new BufferedReader(new InputStreamReader(new FileInputStream(textFile), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Entry point of the converter
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 2 && args[0].equals(TO_TEXT)) {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+			toText(args[1], writer);
+			writer.flush();
+		} else if (args.length == 3 && args[0].equals(TO_TEXT)) {
+			if (args[2].endsWith(GZ_SUFFIX)) {
+				try (CompressedFileWriter writer = CompressedFileWriter.gzip(args[2])) {
+					toText(args[1], writer);
+					writer.commit();
+				}
+			} else {
+				try (Writer writer = new BufferedWriter(
+						new OutputStreamWriter(new FileOutputStream(args[2]), StandardCharsets.UTF_8))) {
+					toText(args[1], writer);
+				}
+			}
+		} else if (args.length == 3 && args[0].equals(TO_COLUMNAR)) {
+			toColumnar(args[1], args[2]);
+		} else {
+			System.err.println("Usage: ColumnarTableConverter " + TO_TEXT + " <columnarFile> [<textFile>]");
+			System.err.println("       ColumnarTableConverter " + TO_COLUMNAR + " <textFile> <columnarFile>");
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,437 @@
+package guidance.files;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import guidance.utils.TableRow;
+
+/**
+ * Reader of the binary columnar files of ColumnarTableWriter. The rows are read
+ * one by one as those of a LineTokenizer, but the numeric fields are not
+ * parsed: getDouble returns the stored values, and the text of the fields is
+ * only created for the fields that are used or written.
+ *
+ * The ranges given with require are checked against the minimum and maximum
+ * of the columns of each block, and the blocks without rows in the ranges are
+ * skipped without inflating them. The rows of the blocks that are read are not
+ * filtered, the caller still checks them.
+ */
+public class ColumnarTableReader implements TableRow, Closeable {
+
+	private final String fileName;
+	private final DataInputStream in;
+	private final Inflater inflater;
+	private final int version;
+	private final String[] columns;
+
+	// Required ranges of columns, to skip blocks
+	private final List<Integer> requiredColumns;
+	private final List<double[]> requiredRanges;
+	private int skippedBlocks;
+
+	// Current block
+	private int numRows;
+	private int row;
+	private int[] rowSizes;
+	private byte[] encodings;
+	private long[][] longValues;
+	private double[][] doubleValues;
+	private String[][] stringValues;
+	private boolean endOfFile;
+
+	/**
+	 * Opens a columnar file
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public ColumnarTableReader(String fileName) throws IOException {
+		this.fileName = fileName;
+		this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 64 * 1024));
+		this.inflater = new Inflater();
+		try {
+			if (this.in.readInt() != ColumnarTableWriter.MAGIC) {
+				throw new IOException("The file " + fileName + " is not a columnar table");
+			}
+			this.version = this.in.readUnsignedByte();
+			if (this.version != ColumnarTableWriter.VERSION
+					&& this.version != ColumnarTableWriter.VERSION_WITHOUT_STATISTICS) {
+				throw new IOException("Unknown version " + this.version + " of the columnar table " + fileName);
+			}
+			this.columns = new String[this.in.readInt()];
+			for (int c = 0; c < this.columns.length; ++c) {
+				this.columns[c] = this.in.readUTF();
+			}
+		} catch (IOException ioe) {
+			close();
+			throw ioe;
+		}
+
+		this.requiredColumns = new ArrayList<>();
+		this.requiredRanges = new ArrayList<>();
+		this.skippedBlocks = 0;
+
+		this.numRows = 0;
+		this.row = 0;
+		this.endOfFile = false;
+	}
+
+	/**
+	 * Skips the blocks without values of the given column in [min, max]. NA values
+	 * are never in the range, so the blocks where the column is all NA are skipped
+	 *
+	 * @param column
+	 * @param min
+	 * @param max
+	 */
+	public void require(int column, double min, double max) {
+		this.requiredColumns.add(column);
+		this.requiredRanges.add(new double[] { min, max });
+	}
+
+	/**
+	 * Skips the blocks where the given column is all NA
+	 *
+	 * @param column
+	 */
+	public void requireValues(int column) {
+		require(column, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Returns the number of blocks that have been skipped
+	 *
+	 * @return
+	 */
+	public int getSkippedBlocks() {
+		return this.skippedBlocks;
+	}
+
+	/**
+	 * Returns whether a file is a columnar table
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isColumnar(String fileName) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+			return in.readInt() == ColumnarTableWriter.MAGIC;
+		} catch (EOFException eofe) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the names of the columns
+	 *
+	 * @return
+	 */
+	public String[] getColumns() {
+		return this.columns.clone();
+	}
+
+	/**
+	 * Returns the header as a line of tab separated text
+	 *
+	 * @return
+	 */
+	public String getHeader() {
+		return String.join("\t", this.columns);
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		this.row++;
+		while (this.row >= this.numRows) {
+			if (this.endOfFile || !readBlock()) {
+				this.endOfFile = true;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return this.rowSizes[this.row];
+	}
+
+	@Override
+	public String get(int i) {
+		checkIndex(i);
+		switch (this.encodings[i]) {
+		case ColumnarTableWriter.ENCODING_DELTA:
+			return Long.toString(this.longValues[i][this.row]);
+		case ColumnarTableWriter.ENCODING_DOUBLE:
+			double value = this.doubleValues[i][this.row];
+			return Double.isNaN(value) ? ColumnarTableWriter.NA : Double.toString(value);
+		default:
+			return this.stringValues[i][this.row];
+		}
+	}
+
+	@Override
+	public boolean equals(int i, String literal) {
+		checkIndex(i);
+		switch (this.encodings[i]) {
+		case ColumnarTableWriter.ENCODING_DOUBLE:
+			if (literal.equals(ColumnarTableWriter.NA)) {
+				return Double.isNaN(this.doubleValues[i][this.row]);
+			}
+			return get(i).equals(literal);
+		case ColumnarTableWriter.ENCODING_DELTA:
+			return get(i).equals(literal);
+		default:
+			return this.stringValues[i][this.row].equals(literal);
+		}
+	}
+
+	@Override
+	public double getDouble(int i) {
+		checkIndex(i);
+		switch (this.encodings[i]) {
+		case ColumnarTableWriter.ENCODING_DELTA:
+			return this.longValues[i][this.row];
+		case ColumnarTableWriter.ENCODING_DOUBLE:
+			double value = this.doubleValues[i][this.row];
+			if (Double.isNaN(value)) {
+				throw new NumberFormatException("For input string: \"" + ColumnarTableWriter.NA + "\"");
+			}
+			return value;
+		default:
+			return Double.parseDouble(this.stringValues[i][this.row]);
+		}
+	}
+
+	@Override
+	public void writeLine(Writer writer) throws IOException {
+		int size = size();
+		for (int i = 0; i < size; ++i) {
+			if (i > 0) {
+				writer.write('\t');
+			}
+			writer.write(get(i));
+		}
+	}
+
+	/**
+	 * Returns the current row as a line of tab separated text
+	 *
+	 * @return
+	 */
+	public String getLine() {
+		StringBuilder sb = new StringBuilder();
+		int size = size();
+		for (int i = 0; i < size; ++i) {
+			if (i > 0) {
+				sb.append('\t');
+			}
+			sb.append(get(i));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.inflater.end();
+		this.in.close();
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= this.rowSizes[this.row]) {
+			throw new IndexOutOfBoundsException("Field " + i + " of a row with " + this.rowSizes[this.row] + " fields");
+		}
+	}
+
+	/**
+	 * Reads and decodes the next block, or returns false at the end of the file
+	 */
+	private boolean readBlock() throws IOException {
+		int blockRows;
+		int rawLength;
+		int compressedLength;
+		while (true) {
+			blockRows = this.in.readInt();
+			if (blockRows == 0) {
+				return false;
+			}
+			boolean inRange = true;
+			if (this.version != ColumnarTableWriter.VERSION_WITHOUT_STATISTICS) {
+				inRange = readRanges();
+			}
+			rawLength = this.in.readInt();
+			compressedLength = this.in.readInt();
+			if (inRange) {
+				break;
+			}
+			skipFully(compressedLength);
+			this.skippedBlocks++;
+		}
+		byte[] compressed = new byte[compressedLength];
+		this.in.readFully(compressed);
+
+		byte[] raw = new byte[rawLength];
+		this.inflater.reset();
+		this.inflater.setInput(compressed);
+		try {
+			int n = 0;
+			while (n < rawLength && !this.inflater.finished()) {
+				int inflated = this.inflater.inflate(raw, n, rawLength - n);
+				if (inflated == 0 && this.inflater.needsInput()) {
+					break;
+				}
+				n += inflated;
+			}
+			if (n != rawLength) {
+				throw new IOException("Corrupted block in " + this.fileName);
+			}
+		} catch (DataFormatException dfe) {
+			throw new IOException("Corrupted block in " + this.fileName, dfe);
+		}
+
+		DataInputStream block = new DataInputStream(new ByteArrayInputStream(raw));
+		int numColumns = block.readInt();
+		this.rowSizes = new int[blockRows];
+		if (block.readBoolean()) {
+			Arrays.fill(this.rowSizes, numColumns);
+		} else {
+			for (int r = 0; r < blockRows; ++r) {
+				this.rowSizes[r] = (int) readVarLong(block);
+			}
+		}
+
+		this.encodings = new byte[numColumns];
+		this.longValues = new long[numColumns][];
+		this.doubleValues = new double[numColumns][];
+		this.stringValues = new String[numColumns][];
+		for (int c = 0; c < numColumns; ++c) {
+			readColumn(block, c, blockRows);
+		}
+
+		this.numRows = blockRows;
+		this.row = 0;
+		return true;
+	}
+
+	/**
+	 * Reads the ranges of the columns of a block. Returns false if the rows of the
+	 * block cannot be in the required ranges
+	 */
+	private boolean readRanges() throws IOException {
+		int numColumns = this.in.readInt();
+		double[] min = new double[numColumns];
+		double[] max = new double[numColumns];
+		boolean[] known = new boolean[numColumns];
+		for (int c = 0; c < numColumns; ++c) {
+			known[c] = this.in.readBoolean();
+			if (known[c]) {
+				min[c] = this.in.readDouble();
+				max[c] = this.in.readDouble();
+			}
+		}
+
+		for (int i = 0; i < this.requiredColumns.size(); ++i) {
+			int column = this.requiredColumns.get(i);
+			double[] range = this.requiredRanges.get(i);
+			if (column >= numColumns || !known[column]) {
+				continue;
+			}
+			// The range of a column without values other than NA is empty (min > max)
+			if (min[column] > max[column] || max[column] < range[0] || min[column] > range[1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void skipFully(int length) throws IOException {
+		int skipped = 0;
+		while (skipped < length) {
+			int n = this.in.skipBytes(length - skipped);
+			if (n <= 0) {
+				throw new EOFException("Truncated block in " + this.fileName);
+			}
+			skipped += n;
+		}
+	}
+
+	/**
+	 * Decodes a column. The rows without the column have no value in the block
+	 */
+	private void readColumn(DataInputStream block, int c, int blockRows) throws IOException {
+		byte encoding = block.readByte();
+		this.encodings[c] = encoding;
+		switch (encoding) {
+		case ColumnarTableWriter.ENCODING_DELTA:
+			long[] longs = new long[blockRows];
+			long previous = 0;
+			for (int r = 0; r < blockRows; ++r) {
+				if (c < this.rowSizes[r]) {
+					long zigZag = readVarLong(block);
+					previous += (zigZag >>> 1) ^ -(zigZag & 1);
+					longs[r] = previous;
+				}
+			}
+			this.longValues[c] = longs;
+			break;
+		case ColumnarTableWriter.ENCODING_DOUBLE:
+			double[] doubles = new double[blockRows];
+			for (int r = 0; r < blockRows; ++r) {
+				if (c < this.rowSizes[r]) {
+					doubles[r] = block.readDouble();
+				}
+			}
+			this.doubleValues[c] = doubles;
+			break;
+		case ColumnarTableWriter.ENCODING_DICTIONARY:
+			String[] words = new String[block.readUnsignedShort()];
+			for (int w = 0; w < words.length; ++w) {
+				words[w] = block.readUTF();
+			}
+			String[] dictionaryValues = new String[blockRows];
+			for (int r = 0; r < blockRows; ++r) {
+				if (c < this.rowSizes[r]) {
+					dictionaryValues[r] = words[block.readUnsignedByte()];
+				}
+			}
+			this.stringValues[c] = dictionaryValues;
+			break;
+		case ColumnarTableWriter.ENCODING_STRING:
+			String[] strings = new String[blockRows];
+			for (int r = 0; r < blockRows; ++r) {
+				if (c < this.rowSizes[r]) {
+					strings[r] = block.readUTF();
+				}
+			}
+			this.stringValues[c] = strings;
+			break;
+		default:
+			throw new IOException("Unknown encoding " + encoding + " in " + this.fileName);
+		}
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+}
@@ -0,0 +1,493 @@
+package guidance.files;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writer of the binary columnar format of the intermediate tables of the
+ * tasks (e.g. the summary of collectSummary that filterByAll reads). The rows
+ * are grouped in blocks and each column of a block is encoded on its own:
+ * <ul>
+ * <li>integers (e.g. positions) as the deltas between consecutive values</li>
+ * <li>columns with few distinct values (e.g. chromosomes, alleles or NA) as a
+ * dictionary and a byte per row</li>
+ * <li>decimal numbers as raw IEEE doubles, NA as NaN</li>
+ * <li>the rest of fields as strings</li>
+ * </ul>
+ * Then the block is deflated. A value is only encoded as a number if it is
+ * printed back with the same text, so ColumnarTableReader returns exactly the
+ * fields that were written.
+ *
+ * Before its deflated data, each block has the minimum and maximum of the
+ * columns whose values are all numbers or NA in all its rows, so that the readers skip the
+ * blocks whose rows cannot pass a filter (see ColumnarTableReader.require)
+ * without inflating them.
+ *
+ * The writer receives lines of tab separated text, the first one being the
+ * header, so the code that writes the text tables writes this format without
+ * changes. As CompressedFileWriter, it writes to a temporary file that is
+ * renamed to the output file when the writer is committed.
+ */
+public class ColumnarTableWriter extends Writer {
+
+	static final int MAGIC = 0x47434F4C;
+	static final int VERSION = 2;
+	// Version without block statistics
+	static final int VERSION_WITHOUT_STATISTICS = 1;
+
+	static final byte ENCODING_DELTA = 0;
+	static final byte ENCODING_DICTIONARY = 1;
+	static final byte ENCODING_DOUBLE = 2;
+	static final byte ENCODING_STRING = 3;
+
+	static final String NA = "NA";
+
+	private static final int BLOCK_ROWS = 4096;
+	private static final int MAX_DICTIONARY_SIZE = 256;
+	// Longest integer whose deltas fit in a long
+	private static final int MAX_INTEGER_DIGITS = 18;
+
+	private final File outputFile;
+	private final File tmpFile;
+	private final DataOutputStream out;
+	private final Deflater deflater;
+
+	private final StringBuilder line;
+	private String[] columns;
+	private final List<String[]> rows;
+	private boolean committed;
+	private boolean closed;
+
+	/**
+	 * Creates a writer of the given output file
+	 *
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public ColumnarTableWriter(String outputFile) throws IOException {
+		this.outputFile = new File(outputFile).getAbsoluteFile();
+		this.tmpFile = CompressedFileWriter.createTmpFile(this.outputFile);
+		try {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.tmpFile), 64 * 1024));
+		} catch (IOException ioe) {
+			this.tmpFile.delete();
+			throw ioe;
+		}
+		this.deflater = new Deflater(Deflater.BEST_SPEED);
+
+		this.line = new StringBuilder(1024);
+		this.columns = null;
+		this.rows = new ArrayList<>(BLOCK_ROWS);
+		this.committed = false;
+		this.closed = false;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+		for (int i = off; i < end; ++i) {
+			if (cbuf[i] == '\n') {
+				endLine();
+			} else {
+				this.line.append(cbuf[i]);
+			}
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		int end = off + len;
+		for (int i = off; i < end; ++i) {
+			char c = str.charAt(i);
+			if (c == '\n') {
+				endLine();
+			} else {
+				this.line.append(c);
+			}
+		}
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (c == '\n') {
+			endLine();
+		} else {
+			this.line.append((char) c);
+		}
+	}
+
+	/**
+	 * Ends the current line
+	 *
+	 * @throws IOException
+	 */
+	public void newLine() throws IOException {
+		endLine();
+	}
+
+	/**
+	 * Writes a row of fields. The first row is the header
+	 *
+	 * @param fields
+	 * @throws IOException
+	 */
+	public void writeRow(String[] fields) throws IOException {
+		if (this.closed) {
+			throw new IOException("The writer of " + this.outputFile + " is closed");
+		}
+		if (this.columns == null) {
+			this.columns = fields.clone();
+			writeHeader();
+			return;
+		}
+		this.rows.add(fields.clone());
+		if (this.rows.size() == BLOCK_ROWS) {
+			writeBlock();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		// The rows are written by blocks
+	}
+
+	/**
+	 * Writes the last block and renames the file to the output file
+	 *
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		if (this.closed) {
+			throw new IOException("The writer of " + this.outputFile + " is closed");
+		}
+		try {
+			if (this.line.length() > 0) {
+				endLine();
+			}
+			if (this.columns == null) {
+				this.columns = new String[0];
+				writeHeader();
+			}
+			if (!this.rows.isEmpty()) {
+				writeBlock();
+			}
+			// Block without rows at the end of the file
+			this.out.writeInt(0);
+		} catch (IOException ioe) {
+			close();
+			throw ioe;
+		}
+		this.closed = true;
+		this.deflater.end();
+		try {
+			this.out.close();
+		} catch (IOException ioe) {
+			this.tmpFile.delete();
+			throw ioe;
+		}
+		CompressedFileWriter.commitFile(this.tmpFile, this.outputFile);
+		this.committed = true;
+	}
+
+	/**
+	 * Returns whether the output file has been written
+	 *
+	 * @return
+	 */
+	public boolean isCommitted() {
+		return this.committed;
+	}
+
+	/**
+	 * Closes the writer. If it is not committed the temporary file is deleted
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		this.deflater.end();
+		try {
+			this.out.close();
+		} catch (IOException ioe) {
+			// The file is discarded anyway
+		} finally {
+			this.tmpFile.delete();
+		}
+	}
+
+	private void endLine() throws IOException {
+		int length = this.line.length();
+		if (length > 0 && this.line.charAt(length - 1) == '\r') {
+			this.line.setLength(length - 1);
+		}
+		// All the fields are kept, also the trailing empty ones
+		String[] fields = this.line.toString().split("\t", -1);
+		this.line.setLength(0);
+		writeRow(fields);
+	}
+
+	private void writeHeader() throws IOException {
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+		this.out.writeInt(this.columns.length);
+		for (String column : this.columns) {
+			this.out.writeUTF(column);
+		}
+	}
+
+	/**
+	 * Writes the pending rows as a block: the number of rows, the number of fields
+	 * of each row and the values of each column, deflated
+	 */
+	private void writeBlock() throws IOException {
+		int numRows = this.rows.size();
+		int numColumns = 0;
+		boolean sameSize = true;
+		for (String[] row : this.rows) {
+			sameSize = sameSize && row.length == this.rows.get(0).length;
+			numColumns = Math.max(numColumns, row.length);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(numRows * numColumns * 4);
+		DataOutputStream block = new DataOutputStream(bytes);
+		block.writeInt(numColumns);
+		block.writeBoolean(sameSize);
+		if (!sameSize) {
+			for (String[] row : this.rows) {
+				writeVarLong(block, row.length);
+			}
+		}
+
+		List<String> values = new ArrayList<>(numRows);
+		double[][] ranges = new double[numColumns][];
+		for (int c = 0; c < numColumns; ++c) {
+			values.clear();
+			for (String[] row : this.rows) {
+				if (c < row.length) {
+					values.add(row[c]);
+				}
+			}
+			double[] range = writeColumn(block, values);
+			// The readers skip blocks by the ranges of the columns that all the rows have
+			ranges[c] = (values.size() == numRows) ? range : null;
+		}
+		block.flush();
+
+		byte[] raw = bytes.toByteArray();
+		this.deflater.reset();
+		this.deflater.setInput(raw);
+		this.deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+		byte[] buffer = new byte[64 * 1024];
+		while (!this.deflater.finished()) {
+			int n = this.deflater.deflate(buffer);
+			compressed.write(buffer, 0, n);
+		}
+
+		this.out.writeInt(numRows);
+		this.out.writeInt(numColumns);
+		for (double[] range : ranges) {
+			this.out.writeBoolean(range != null);
+			if (range != null) {
+				this.out.writeDouble(range[0]);
+				this.out.writeDouble(range[1]);
+			}
+		}
+		this.out.writeInt(raw.length);
+		this.out.writeInt(compressed.size());
+		compressed.writeTo(this.out);
+		this.rows.clear();
+	}
+
+	/**
+	 * Writes the values of a column. Returns their minimum and maximum (NA values
+	 * are left out), or null if any of them is not a number
+	 */
+	private static double[] writeColumn(DataOutputStream block, List<String> values) throws IOException {
+		if (allIntegers(values)) {
+			block.writeByte(ENCODING_DELTA);
+			double[] range = createRange();
+			long previous = 0;
+			for (String value : values) {
+				long number = Long.parseLong(value);
+				writeVarLong(block, zigZag(number - previous));
+				previous = number;
+				updateRange(range, number);
+			}
+			return range;
+		}
+
+		Map<String, Integer> dictionary = createDictionary(values);
+		if (dictionary != null) {
+			block.writeByte(ENCODING_DICTIONARY);
+			String[] words = new String[dictionary.size()];
+			for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+				words[entry.getValue()] = entry.getKey();
+			}
+			block.writeShort(words.length);
+			for (String word : words) {
+				block.writeUTF(word);
+			}
+			for (String value : values) {
+				block.writeByte(dictionary.get(value));
+			}
+			return getRange(Arrays.asList(words));
+		}
+
+		double[] doubles = toDoubles(values);
+		if (doubles != null) {
+			block.writeByte(ENCODING_DOUBLE);
+			double[] range = createRange();
+			for (double number : doubles) {
+				block.writeDouble(number);
+				if (!Double.isNaN(number)) {
+					updateRange(range, number);
+				}
+			}
+			return range;
+		}
+
+		block.writeByte(ENCODING_STRING);
+		for (String value : values) {
+			block.writeUTF(value);
+		}
+		return getRange(values);
+	}
+
+	/**
+	 * Returns the minimum and maximum of the values that are not NA, or null if
+	 * any of them is not a number
+	 */
+	private static double[] getRange(List<String> values) {
+		double[] range = createRange();
+		for (String value : values) {
+			if (value.equals(NA)) {
+				continue;
+			}
+			if (!mayBeNumber(value)) {
+				return null;
+			}
+			double number;
+			try {
+				number = Double.parseDouble(value);
+			} catch (NumberFormatException nfe) {
+				return null;
+			}
+			if (Double.isNaN(number)) {
+				return null;
+			}
+			updateRange(range, number);
+		}
+		return range;
+	}
+
+	/**
+	 * Returns an empty range, the one of a column without numbers
+	 */
+	private static double[] createRange() {
+		return new double[] { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+	}
+
+	private static void updateRange(double[] range, double number) {
+		range[0] = Math.min(range[0], number);
+		range[1] = Math.max(range[1], number);
+	}
+
+	private static boolean mayBeNumber(String value) {
+		char first = value.isEmpty() ? ' ' : value.charAt(0);
+		return first == '-' || first == '+' || first == '.' || first == 'I' || (first >= '0' && first <= '9');
+	}
+
+	/**
+	 * Returns true if all the values are integers printed as Long.toString does
+	 */
+	private static boolean allIntegers(List<String> values) {
+		if (values.isEmpty()) {
+			return false;
+		}
+		for (String value : values) {
+			int length = value.length();
+			int start = (length > 0 && value.charAt(0) == '-') ? 1 : 0;
+			int digits = length - start;
+			if (digits == 0 || digits > MAX_INTEGER_DIGITS || (value.charAt(start) == '0' && length > 1)) {
+				return false;
+			}
+			for (int i = start; i < length; ++i) {
+				char c = value.charAt(i);
+				if (c < '0' || c > '9') {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the indexes of the distinct values, or null if there are too many
+	 */
+	private static Map<String, Integer> createDictionary(List<String> values) {
+		Map<String, Integer> dictionary = new HashMap<>();
+		for (String value : values) {
+			if (!dictionary.containsKey(value)) {
+				if (dictionary.size() == MAX_DICTIONARY_SIZE) {
+					return null;
+				}
+				dictionary.put(value, dictionary.size());
+			}
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Returns the values as doubles (NA as NaN), or null if any of them is not
+	 * printed back as it is
+	 */
+	private static double[] toDoubles(List<String> values) {
+		double[] doubles = new double[values.size()];
+		for (int i = 0; i < doubles.length; ++i) {
+			String value = values.get(i);
+			if (value.equals(NA)) {
+				doubles[i] = Double.NaN;
+				continue;
+			}
+			if (!mayBeNumber(value)) {
+				return null;
+			}
+			try {
+				doubles[i] = Double.parseDouble(value);
+			} catch (NumberFormatException nfe) {
+				return null;
+			}
+			if (Double.isNaN(doubles[i]) || !Double.toString(doubles[i]).equals(value)) {
+				return null;
+			}
+		}
+		return doubles;
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+}
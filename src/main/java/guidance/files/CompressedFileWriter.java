@@ -0,0 +1,328 @@
+package guidance.files;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+
+/**
+ * Writer of a compressed output file of a task. The text is compressed while
+ * it is written, to a temporary file next to the output that is renamed to the
+ * output when the writer is committed. If it is closed without commit (e.g.
+ * after an exception) the temporary file is deleted, so the output file is
+ * either complete or not there, and only compressed bytes are written.
+ *
+ * Usage:
+ *
+ * <pre>
+ * try (CompressedFileWriter writer = CompressedFileWriter.gzip(outputFile)) {
+ * 	writer.write(...);
+ * 	writer.commit();
+ * }
+ * </pre>
+ *
+ * BGZF files can be indexed (see setIndex): the lines written with writeLine
+ * are added to a tabix index that is written next to the output when it is
+ * committed.
+ */
+public class CompressedFileWriter extends Writer {
+
+	/**
+	 * Compressed formats
+	 */
+	public enum Format {
+		/** Single gzip member, compressed in parallel */
+		GZIP,
+		/** BGZF blocks, as bgzip */
+		BGZF
+	}
+
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private final File outputFile;
+	private final File tmpFile;
+	private final OutputStream compressed;
+	private final BufferedWriter writer;
+	private TabixIndex index;
+	private String indexError;
+	private boolean committed;
+	private boolean closed;
+
+	/**
+	 * Creates a writer of the given output file, format, compression level and
+	 * number of compression threads
+	 *
+	 * @param outputFile
+	 * @param format
+	 * @param level
+	 * @param threads
+	 * @throws IOException
+	 */
+	public CompressedFileWriter(String outputFile, Format format, int level, int threads) throws IOException {
+		this.outputFile = new File(outputFile).getAbsoluteFile();
+		this.tmpFile = createTmpFile(this.outputFile);
+
+		OutputStream fileStream = new FileOutputStream(this.tmpFile);
+		try {
+			if (format == Format.BGZF) {
+				this.compressed = new BgzfOutputStream(fileStream, level, threads);
+			} else {
+				this.compressed = new ParallelGzipOutputStream(fileStream, level, threads);
+			}
+		} catch (IOException | RuntimeException e) {
+			fileStream.close();
+			this.tmpFile.delete();
+			throw e;
+		}
+		this.writer = new BufferedWriter(new OutputStreamWriter(this.compressed, StandardCharsets.UTF_8),
+				64 * 1024);
+		this.index = null;
+		this.indexError = null;
+		this.committed = false;
+		this.closed = false;
+	}
+
+	/**
+	 * Creates a gzip writer of the output file with the threads of the gzipCU
+	 * environment variable
+	 *
+	 * @param outputFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static CompressedFileWriter gzip(String outputFile) throws IOException {
+		return new CompressedFileWriter(outputFile, Format.GZIP, Deflater.DEFAULT_COMPRESSION,
+				FileUtils.getComputingUnits(FileUtils.GZIP_CU_ENV));
+	}
+
+	/**
+	 * Creates a BGZF writer of the output file with the threads of the gzipCU
+	 * environment variable
+	 *
+	 * @param outputFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static CompressedFileWriter bgzf(String outputFile) throws IOException {
+		return new CompressedFileWriter(outputFile, Format.BGZF, Deflater.DEFAULT_COMPRESSION,
+				FileUtils.getComputingUnits(FileUtils.GZIP_CU_ENV));
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		this.writer.write(cbuf, off, len);
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		this.writer.write(str, off, len);
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		this.writer.write(c);
+	}
+
+	/**
+	 * Writes the bytes of a stream, as they are
+	 *
+	 * @param in
+	 * @throws IOException
+	 */
+	public void write(InputStream in) throws IOException {
+		this.writer.flush();
+		byte[] buffer = new byte[64 * 1024];
+		int bytesRead;
+		while ((bytesRead = in.read(buffer)) > 0) {
+			this.compressed.write(buffer, 0, bytesRead);
+		}
+	}
+
+	/**
+	 * Ends the header of the file. In BGZF files the header is left alone in the
+	 * first blocks, so that the files can be concatenated without decompressing
+	 * them (see ChunkMerger). It does nothing in gzip files
+	 *
+	 * @throws IOException
+	 */
+	public void endHeader() throws IOException {
+		this.writer.flush();
+		if (this.compressed instanceof BgzfOutputStream) {
+			((BgzfOutputStream) this.compressed).endBlock();
+		}
+	}
+
+	/**
+	 * Writes a line separator
+	 *
+	 * @throws IOException
+	 */
+	public void newLine() throws IOException {
+		this.writer.write('\n');
+	}
+
+	/**
+	 * Indexes the lines written with writeLine in the given index, written to the
+	 * index file of the output (see TabixIndex.getIndexFile) on commit. Only BGZF
+	 * files can be indexed
+	 *
+	 * @param index
+	 * @throws IOException
+	 */
+	public void setIndex(TabixIndex index) throws IOException {
+		if (!(this.compressed instanceof BgzfOutputStream)) {
+			throw new IOException("Only BGZF files can be indexed: " + this.outputFile);
+		}
+		this.index = index;
+	}
+
+	/**
+	 * Writes a line and its separator, and adds it to the index if there is one.
+	 * If the lines are not sorted the index is dropped and the file is written
+	 * without it (see getIndexError)
+	 *
+	 * @param line
+	 * @throws IOException
+	 */
+	public void writeLine(String line) throws IOException {
+		if (this.index == null) {
+			this.writer.write(line);
+			this.writer.write('\n');
+			return;
+		}
+
+		// The line is written as bytes to know where it starts and ends
+		BgzfOutputStream bgzf = (BgzfOutputStream) this.compressed;
+		this.writer.flush();
+		long start = bgzf.getPosition();
+		bgzf.write(line.getBytes(StandardCharsets.UTF_8));
+		bgzf.write('\n');
+		try {
+			this.index.addLine(line, start, bgzf.getPosition());
+		} catch (IOException ioe) {
+			this.index = null;
+			this.indexError = ioe.getMessage();
+		}
+	}
+
+	/**
+	 * Returns why the lines could not be indexed, or null if they are indexed or
+	 * there is no index
+	 *
+	 * @return
+	 */
+	public String getIndexError() {
+		return this.indexError;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		this.writer.flush();
+	}
+
+	/**
+	 * Finishes the compressed file and renames it to the output file
+	 *
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		if (this.closed) {
+			throw new IOException("The writer of " + this.outputFile + " is closed");
+		}
+		this.closed = true;
+		File indexFile = new File(TabixIndex.getIndexFile(this.outputFile.getPath()));
+		File tmpIndexFile = null;
+		try {
+			this.writer.close();
+			if (this.index != null) {
+				tmpIndexFile = createTmpFile(indexFile);
+				this.index.write(tmpIndexFile.getPath(), (BgzfOutputStream) this.compressed);
+			}
+		} catch (IOException ioe) {
+			this.tmpFile.delete();
+			if (tmpIndexFile != null) {
+				tmpIndexFile.delete();
+			}
+			throw ioe;
+		}
+		commitFile(this.tmpFile, this.outputFile);
+		// The index is renamed after the file, so it is never older than it. An
+		// index of a former output is removed
+		if (tmpIndexFile != null) {
+			commitFile(tmpIndexFile, indexFile);
+		} else if (this.indexError != null) {
+			indexFile.delete();
+		}
+		this.committed = true;
+	}
+
+	/**
+	 * Creates an empty temporary file next to an output file
+	 *
+	 * @param outputFile
+	 * @return
+	 * @throws IOException
+	 */
+	static File createTmpFile(File outputFile) throws IOException {
+		File output = outputFile.getAbsoluteFile();
+		return File.createTempFile("." + output.getName() + ".", TMP_SUFFIX, output.getParentFile());
+	}
+
+	/**
+	 * Renames a complete temporary file to its output file, atomically when the
+	 * file system allows it. The temporary file is deleted if it cannot be renamed
+	 *
+	 * @param tmpFile
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	static void commitFile(File tmpFile, File outputFile) throws IOException {
+		try {
+			try {
+				Files.move(tmpFile.toPath(), outputFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException amnse) {
+				Files.move(tmpFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ioe) {
+			tmpFile.delete();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Returns whether the output file has been written
+	 *
+	 * @return
+	 */
+	public boolean isCommitted() {
+		return this.committed;
+	}
+
+	/**
+	 * Closes the writer. If it is not committed the temporary file is deleted
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		try {
+			this.writer.close();
+		} catch (IOException ioe) {
+			// The file is discarded anyway
+		} finally {
+			this.tmpFile.delete();
+		}
+	}
+
+}
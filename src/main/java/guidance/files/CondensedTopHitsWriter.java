@@ -0,0 +1,826 @@
+package guidance.files;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+import guidance.plots.PvalueSketch;
+import guidance.utils.LineTokenizer;
+
+/**
+ * Generates the condensed, top hits and cross model ranges files of a test from
+ * its filteredByAll files (the autosomes and the chromosome 23 of males,
+ * females and all). This is the Java version of condensed_tophits_crossmodel.R:
+ * <ul>
+ * <li>condensed: chr, position, rs_id_all, info_all, alleleA, alleleB, all_maf,
+ * refpanel and the pvalue, _se_ and _beta_ columns of each model. When there
+ * are chromosome 23 files, their chr is renamed to 23_males, 23_females and 23
+ * and the rows are sorted by chr as text. It is indexed by position (see
+ * TabixIndex.forTable) when the rows of each chr are sorted.</li>
+ * <li>top hits: the condensed rows with the p-value of any model under the
+ * threshold (first the ones of the first model, then the new ones of the
+ * second...) plus the best_model column.</li>
+ * <li>ranges: the top hits of each chromosome are extended 250 kb to each side
+ * and the overlapping ranges are merged. Each range has the models with top
+ * hits and the variant with the lowest p-value. The ranges are written in
+ * genomic order.</li>
+ * </ul>
+ * The p-values of each model in the condensed file are also added to a
+ * PvalueSketch, with the threshold as significant p-value, so the lambda and the
+ * QQ plot are known without reading the condensed file again.
+ *
+ * The inputs are streamed. The top hits of each model are written to a
+ * temporary file, and a TopHitsCollector sorts them by position, within its
+ * memory budget, to build the ranges. The values are written as they are in the
+ * input files, except the missing ones ("-" or "NA") that are written as NA.
+ */
+public class CondensedTopHitsWriter {
+
+	private static final String NA = "NA";
+	private static final String TAB = "\t";
+
+	// Top hits are extended HALF_RANGE bases to each side to build the ranges
+	private static final long HALF_RANGE = 250_000;
+
+	private static final String[] BASE_COLUMNS = new String[] { "chr", "position", "rs_id_all", "info_all", "alleleA",
+			"alleleB", "all_maf", "refpanel" };
+
+	private static final String[] RANGES_COLUMNS = new String[] { "start", "end", "width", "chr",
+			"inheritance_models", "num_variants", "position", "rs_id_all", "alleleA", "alleleB", "all_maf", "pvalue",
+			"se", "beta_1", "beta_2", "se_males", "beta_males", "se_females", "beta_females", "info_all", "refpanel",
+			"model", "add_pvalue" };
+
+	private final double pvaThreshold;
+	private final String[] models;
+	private int compressionThreads;
+	private long memoryBudget;
+
+	// Columns of the condensed file
+	private List<String> columns;
+	private HashMap<String, Integer> columnIndexes;
+	private int[] pvalueColumns;
+	private int[] bestModelColumns;
+
+	// Temporary files with the top hits of each model, in the order of the
+	// condensed file
+	private File[] topHitsFiles;
+	private long numberOfTopHits;
+
+	// P-values of the condensed file
+	private PvalueSketch sketch;
+
+	// Why the condensed file of the last generation has no index
+	private String condensedIndexError;
+
+	/**
+	 * Creates a generator for the given threshold and models
+	 *
+	 * @param pvaThreshold
+	 * @param models
+	 */
+	public CondensedTopHitsWriter(double pvaThreshold, String[] models) {
+		this.pvaThreshold = pvaThreshold;
+		this.models = models.clone();
+		this.compressionThreads = 1;
+		this.memoryBudget = TopHitsCollector.getDefaultMemoryBudget();
+	}
+
+	/**
+	 * Sets the number of threads that compress each output file
+	 *
+	 * @param compressionThreads
+	 */
+	public void setCompressionThreads(int compressionThreads) {
+		this.compressionThreads = Math.max(1, compressionThreads);
+	}
+
+	/**
+	 * Sets the bytes of top hits to keep in memory before spilling them to disk to
+	 * build the ranges
+	 *
+	 * @param memoryBudget
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Generates the three gzipped output files. When the four filtered files are
+	 * the same there is no chromosome 23, and when the filtered file is the males
+	 * one there are only the chromosome 23 files
+	 *
+	 * @param filteredFile
+	 * @param filteredMalesFile
+	 * @param filteredFemalesFile
+	 * @param filteredAllXFile
+	 * @param condensedFile
+	 * @param topHitsFile
+	 * @param crossRangesFile
+	 * @throws IOException
+	 */
+	public void generate(String filteredFile, String filteredMalesFile, String filteredFemalesFile,
+			String filteredAllXFile, String condensedFile, String topHitsFile, String crossRangesFile)
+			throws IOException {
+
+		List<Part> parts = new ArrayList<>();
+		boolean sortByChr = true;
+		if (filteredFile.equals(filteredMalesFile) && filteredMalesFile.equals(filteredFemalesFile)
+				&& filteredFemalesFile.equals(filteredAllXFile)) {
+			parts.add(new Part(filteredFile, null, null));
+			sortByChr = false;
+		} else if (filteredFile.equals(filteredMalesFile) && !filteredMalesFile.equals(filteredFemalesFile)
+				&& !filteredFemalesFile.equals(filteredAllXFile)) {
+			parts.add(new Part(filteredMalesFile, "23_males", this.models));
+			parts.add(new Part(filteredFemalesFile, "23_females", this.models));
+			parts.add(new Part(filteredAllXFile, "23", this.models));
+		} else if (!filteredFile.equals(filteredMalesFile) && !filteredMalesFile.equals(filteredFemalesFile)
+				&& !filteredFemalesFile.equals(filteredAllXFile)) {
+			parts.add(new Part(filteredFile, null, this.models));
+			parts.add(new Part(filteredMalesFile, "23_males", this.models));
+			parts.add(new Part(filteredFemalesFile, "23_females", this.models));
+			parts.add(new Part(filteredAllXFile, "23", this.models));
+		} else {
+			throw new IOException("Unexpected combination of filtered files: " + filteredFile + " "
+					+ filteredMalesFile + " " + filteredFemalesFile + " " + filteredAllXFile);
+		}
+
+		computeColumns(parts);
+
+		File tmpDir = new File(condensedFile).getAbsoluteFile().getParentFile();
+		List<File> tmpFiles = new ArrayList<>();
+		try (TopHitsCollector rangeHits = new TopHitsCollector(tmpDir, this.memoryBudget, 0)) {
+			writeCondensed(parts, sortByChr, condensedFile, tmpDir, tmpFiles, rangeHits);
+			writeTopHits(topHitsFile);
+			rangeHits.sort();
+			writeRanges(crossRangesFile, rangeHits);
+		} finally {
+			for (File tmpFile : tmpFiles) {
+				tmpFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns why the condensed file of the last generation could not be indexed,
+	 * or null if it is indexed
+	 *
+	 * @return
+	 */
+	public String getCondensedIndexError() {
+		return this.condensedIndexError;
+	}
+
+	/**
+	 * Returns the sketch of the p-values of the condensed file of the last
+	 * generation
+	 *
+	 * @return
+	 */
+	public PvalueSketch getSketch() {
+		return this.sketch;
+	}
+
+	/**
+	 * Returns the number of top hits of the last generation
+	 *
+	 * @return
+	 */
+	public long getNumberOfTopHits() {
+		return this.numberOfTopHits;
+	}
+
+	/**
+	 * Converts a header to the names that R read.table uses (make.names with
+	 * unique names)
+	 *
+	 * @param header
+	 * @return
+	 */
+	public static String[] makeNames(String[] header) {
+		String[] names = new String[header.length];
+		HashSet<String> used = new HashSet<>();
+		for (int i = 0; i < header.length; ++i) {
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < header[i].length(); ++j) {
+				char c = header[i].charAt(j);
+				sb.append((Character.isLetterOrDigit(c) || c == '.' || c == '_') ? c : '.');
+			}
+			if (sb.length() == 0 || Character.isDigit(sb.charAt(0)) || sb.charAt(0) == '_'
+					|| (sb.charAt(0) == '.' && sb.length() > 1 && Character.isDigit(sb.charAt(1)))) {
+				sb.insert(0, 'X');
+			}
+
+			String name = sb.toString();
+			for (int k = 1; used.contains(name); ++k) {
+				name = sb.toString() + "." + k;
+			}
+			used.add(name);
+			names[i] = name;
+		}
+		return names;
+	}
+
+	private void computeColumns(List<Part> parts) throws IOException {
+		// Columns selected in any part
+		List<String> selected = new ArrayList<>(Arrays.asList(BASE_COLUMNS));
+		for (Part part : parts) {
+			for (String model : this.models) {
+				for (String column : part.header) {
+					if ((column.contains("_se_") || column.contains("pvalue") || column.contains("_beta_"))
+							&& column.contains(model) && !selected.contains(column)) {
+						selected.add(column);
+					}
+				}
+			}
+		}
+
+		// The condensed columns are the selected ones of each part in order of
+		// appearance
+		this.columns = new ArrayList<>();
+		for (Part part : parts) {
+			List<String> partColumns = Arrays.asList(part.header);
+			for (String column : selected) {
+				if (partColumns.contains(column) && !this.columns.contains(column)) {
+					this.columns.add(column);
+				}
+			}
+		}
+
+		this.columnIndexes = new HashMap<>();
+		for (int i = 0; i < this.columns.size(); ++i) {
+			this.columnIndexes.put(this.columns.get(i), i);
+		}
+
+		for (Part part : parts) {
+			part.setColumns(this.columns);
+		}
+
+		// The p-values of each model and the ones to choose the best model
+		this.pvalueColumns = new int[this.models.length];
+		for (int m = 0; m < this.models.length; ++m) {
+			Integer index = this.columnIndexes.get("frequentist_" + this.models[m] + "_pvalue");
+			this.pvalueColumns[m] = (index != null) ? index : -1;
+		}
+		List<Integer> bestModel = new ArrayList<>();
+		for (int i = 0; i < this.columns.size(); ++i) {
+			if (this.columns.get(i).contains("pvalue")) {
+				bestModel.add(i);
+			}
+		}
+		this.bestModelColumns = new int[bestModel.size()];
+		for (int i = 0; i < bestModel.size(); ++i) {
+			this.bestModelColumns[i] = bestModel.get(i);
+		}
+	}
+
+	private void writeCondensed(List<Part> parts, boolean sortByChr, String condensedFile, File tmpDir,
+			List<File> tmpFiles, TopHitsCollector rangeHits) throws IOException {
+
+		// The rows are written in groups of chr. The parts with a fixed chr are read
+		// again when their group is written, the rest are split in temporary files
+		TreeMap<String, List<Object>> groups = new TreeMap<>();
+		List<Object> unsorted = new ArrayList<>();
+		for (Part part : parts) {
+			if (!sortByChr) {
+				unsorted.add(part);
+			} else if (part.chr != null) {
+				getGroup(groups, part.chr).add(part);
+			} else {
+				splitByChr(part, groups, tmpDir, tmpFiles);
+			}
+		}
+
+		this.topHitsFiles = new File[this.models.length];
+		for (int m = 0; m < this.models.length; ++m) {
+			this.topHitsFiles[m] = File.createTempFile("tophits_" + this.models[m] + "_", ".tmp", tmpDir);
+			tmpFiles.add(this.topHitsFiles[m]);
+		}
+		this.numberOfTopHits = 0;
+		this.sketch = new PvalueSketch(this.pvaThreshold);
+
+		try (CompressedFileWriter writer = new CompressedFileWriter(condensedFile, CompressedFileWriter.Format.BGZF,
+				Deflater.DEFAULT_COMPRESSION, this.compressionThreads);
+				CondensedRowHandler handler = new CondensedRowHandler(writer, rangeHits)) {
+			String header = String.join(TAB, this.columns);
+			writer.write(header);
+			writer.newLine();
+			writer.setIndex(TabixIndex.forTable(header));
+
+			if (!sortByChr) {
+				writeGroup(unsorted, handler);
+			}
+			for (List<Object> group : groups.values()) {
+				writeGroup(group, handler);
+			}
+			writer.commit();
+			this.condensedIndexError = writer.getIndexError();
+		}
+	}
+
+	private static List<Object> getGroup(TreeMap<String, List<Object>> groups, String chr) {
+		List<Object> group = groups.get(chr);
+		if (group == null) {
+			group = new ArrayList<>();
+			groups.put(chr, group);
+		}
+		return group;
+	}
+
+	private void splitByChr(Part part, TreeMap<String, List<Object>> groups, File tmpDir, List<File> tmpFiles)
+			throws IOException {
+
+		Map<String, BufferedWriter> writers = new HashMap<>();
+		try (Reader reader = part.open()) {
+			LineTokenizer tokenizer = part.createTokenizer(reader);
+			StringBuilder sb = new StringBuilder();
+			while (tokenizer.next()) {
+				if (Part.isBlank(tokenizer)) {
+					continue;
+				}
+				String chr = part.getChr(tokenizer);
+				BufferedWriter writer = writers.get(chr);
+				if (writer == null) {
+					File tmpFile = File.createTempFile("condensed_chr_", ".tmp", tmpDir);
+					tmpFiles.add(tmpFile);
+					getGroup(groups, chr).add(tmpFile);
+					writer = new BufferedWriter(new FileWriter(tmpFile));
+					writers.put(chr, writer);
+				}
+				sb.setLength(0);
+				part.appendRow(tokenizer, sb);
+				writer.append(sb);
+				writer.newLine();
+			}
+		} finally {
+			for (BufferedWriter writer : writers.values()) {
+				writer.close();
+			}
+		}
+	}
+
+	private void writeGroup(List<Object> group, CondensedRowHandler handler) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (Object source : group) {
+			if (source instanceof Part) {
+				Part part = (Part) source;
+				try (Reader reader = part.open()) {
+					LineTokenizer tokenizer = part.createTokenizer(reader);
+					while (tokenizer.next()) {
+						if (Part.isBlank(tokenizer)) {
+							continue;
+						}
+						sb.setLength(0);
+						part.appendRow(tokenizer, sb);
+						handler.handle(sb.toString());
+					}
+				}
+			} else {
+				try (BufferedReader br = new BufferedReader(new FileReader((File) source))) {
+					String line = null;
+					while ((line = br.readLine()) != null) {
+						handler.handle(line);
+					}
+				}
+			}
+		}
+	}
+
+	private void writeTopHits(String topHitsFile) throws IOException {
+		try (CompressedFileWriter writer = createBgzfWriter(topHitsFile)) {
+			writer.write(String.join(TAB, this.columns));
+			writer.write(TAB);
+			writer.write("best_model");
+			writer.newLine();
+
+			for (File modelTopHits : this.topHitsFiles) {
+				try (BufferedReader br = new BufferedReader(new FileReader(modelTopHits))) {
+					String line = null;
+					while ((line = br.readLine()) != null) {
+						writer.write(line);
+						writer.newLine();
+					}
+				}
+			}
+			writer.commit();
+		}
+	}
+
+	private void writeRanges(String crossRangesFile, TopHitsCollector rangeHits) throws IOException {
+		try (CompressedFileWriter writer = createBgzfWriter(crossRangesFile)) {
+			writer.write(String.join(TAB, RANGES_COLUMNS));
+			writer.newLine();
+
+			// The top hits come sorted by chr and position, and then in the order of the
+			// top hits file. Only the ones of the current range are kept
+			LineTokenizer tokenizer = new LineTokenizer('\t');
+			List<TopHit> topHits = new ArrayList<>();
+			String line = null;
+			while ((line = rangeHits.next()) != null) {
+				TopHit topHit = parseTopHit(line, tokenizer);
+				if (!topHits.isEmpty()) {
+					// Merge the ranges that overlap or are adjacent
+					TopHit last = topHits.get(topHits.size() - 1);
+					if (!topHit.chr.equals(last.chr) || topHit.position - HALF_RANGE > last.position + HALF_RANGE) {
+						writeRange(writer, last.chr, topHits, tokenizer);
+						topHits.clear();
+					}
+				}
+				topHits.add(topHit);
+			}
+			if (!topHits.isEmpty()) {
+				writeRange(writer, topHits.get(0).chr, topHits, tokenizer);
+			}
+			writer.commit();
+		}
+	}
+
+	private TopHit parseTopHit(String line, LineTokenizer tokenizer) {
+		int tab = line.indexOf('\t');
+		TopHit topHit = new TopHit();
+		topHit.order = line.substring(0, tab);
+		topHit.row = line.substring(tab + 1);
+
+		tokenizer.setLine(topHit.row);
+		topHit.chr = tokenizer.get(this.columnIndexes.get("chr"));
+		topHit.position = Long.parseLong(tokenizer.get(this.columnIndexes.get("position")));
+		topHit.rsId = tokenizer.get(this.columnIndexes.get("rs_id_all"));
+		topHit.pvalues = new double[this.models.length];
+		for (int m = 0; m < this.models.length; ++m) {
+			topHit.pvalues[m] = parsePvalue(tokenizer, this.pvalueColumns[m]);
+		}
+		return topHit;
+	}
+
+	private void writeRange(CompressedFileWriter writer, String chr, List<TopHit> topHits, LineTokenizer tokenizer)
+			throws IOException {
+
+		long start = topHits.get(0).position - HALF_RANGE;
+		long end = topHits.get(topHits.size() - 1).position + HALF_RANGE - 1;
+		boolean isX = chr.equals("23") || chr.equals("23_males") || chr.equals("23_females");
+
+		// Models with top hits in the range
+		List<Integer> rangeModels = new ArrayList<>();
+		if (isX) {
+			int add = Arrays.asList(this.models).indexOf("add");
+			rangeModels.add(add);
+		} else {
+			for (int m = 0; m < this.models.length; ++m) {
+				for (TopHit topHit : topHits) {
+					if (topHit.pvalues[m] <= this.pvaThreshold) {
+						rangeModels.add(m);
+						break;
+					}
+				}
+			}
+		}
+		StringBuilder modelNames = new StringBuilder();
+		for (int m : rangeModels) {
+			if (modelNames.length() > 0) {
+				modelNames.append(',');
+			}
+			modelNames.append((m >= 0) ? this.models[m] : "add");
+		}
+
+		// The variant with the lowest p-value of each model, and the lowest of all
+		TopHit best = null;
+		int bestModel = -1;
+		for (int m : rangeModels) {
+			TopHit modelBest = null;
+			for (TopHit topHit : topHits) {
+				double pvalue = (m >= 0) ? topHit.pvalues[m] : Double.NaN;
+				if (!Double.isNaN(pvalue) && (modelBest == null || pvalue < modelBest.pvalues[m]
+						|| (pvalue == modelBest.pvalues[m] && topHit.order.compareTo(modelBest.order) < 0))) {
+					modelBest = topHit;
+				}
+			}
+			if (modelBest != null && (best == null || modelBest.pvalues[m] < best.pvalues[bestModel])) {
+				best = modelBest;
+				bestModel = m;
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(start).append(TAB).append(end).append(TAB).append(end - start + 1).append(TAB);
+		sb.append(chr).append(TAB).append(modelNames).append(TAB).append(topHits.size());
+
+		String model = (bestModel >= 0) ? this.models[bestModel] : (isX ? "add" : NA);
+		String[] variant = new String[] { NA, NA, NA, NA, NA, NA, NA, NA, NA, NA, NA, NA, NA, NA, NA, model, NA };
+		if (best != null) {
+			tokenizer.setLine(best.row);
+			variant[0] = getValue(tokenizer, "position");
+			variant[1] = getValue(tokenizer, "rs_id_all");
+			variant[2] = getValue(tokenizer, "alleleA");
+			variant[3] = getValue(tokenizer, "alleleB");
+			variant[4] = getValue(tokenizer, "all_maf");
+			variant[5] = getValue(tokenizer, "frequentist_" + model + "_pvalue");
+			if (isX) {
+				variant[9] = getValue(tokenizer, "frequentist_" + model + "_se_sex.1");
+				variant[10] = getValue(tokenizer, "frequentist_" + model + "_beta_sex.1");
+				variant[11] = getValue(tokenizer, "frequentist_" + model + "_se_sex.2");
+				variant[12] = getValue(tokenizer, "frequentist_" + model + "_beta_sex.2");
+			} else {
+				variant[6] = getValue(tokenizer, "frequentist_" + model + "_se_1");
+				variant[7] = getValue(tokenizer, "frequentist_" + model + "_beta_1");
+				if (model.equals("gen")) {
+					variant[8] = getValue(tokenizer, "frequentist_" + model + "_beta_2");
+				}
+			}
+			variant[13] = getValue(tokenizer, "info_all");
+			variant[14] = getValue(tokenizer, "refpanel");
+
+			// The add p-value of the first top hit of the range with the same rsId
+			String rsId = variant[1];
+			TopHit sameRsId = best;
+			for (TopHit topHit : topHits) {
+				if (topHit.order.compareTo(sameRsId.order) < 0 && topHit.rsId.equals(rsId)) {
+					sameRsId = topHit;
+				}
+			}
+			tokenizer.setLine(sameRsId.row);
+			variant[16] = getValue(tokenizer, "frequentist_add_pvalue");
+		}
+
+		for (String value : variant) {
+			sb.append(TAB).append(value);
+		}
+		writer.append(sb);
+		writer.newLine();
+	}
+
+	private String getValue(LineTokenizer tokenizer, String column) {
+		Integer index = this.columnIndexes.get(column);
+		if (index == null || index >= tokenizer.size()) {
+			return NA;
+		}
+		return tokenizer.get(index);
+	}
+
+	private static double parsePvalue(LineTokenizer tokenizer, int index) {
+		if (index < 0 || index >= tokenizer.size() || tokenizer.equals(index, NA)) {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(tokenizer.get(index));
+		} catch (NumberFormatException nfe) {
+			return Double.NaN;
+		}
+	}
+
+	private CompressedFileWriter createBgzfWriter(String file) throws IOException {
+		// BGZF, so that the readers of the condensed files inflate it in parallel. The
+		// file is only there when it is complete (see CompressedFileWriter)
+		return new CompressedFileWriter(file, CompressedFileWriter.Format.BGZF, Deflater.DEFAULT_COMPRESSION,
+				this.compressionThreads);
+	}
+
+	/**
+	 * Writes the condensed rows and the top hits of each model, and adds the top
+	 * hits to the collector of the ranges
+	 */
+	private class CondensedRowHandler implements AutoCloseable {
+
+		private final CompressedFileWriter writer;
+		private final TopHitsCollector rangeHits;
+		private final BufferedWriter[] topHitsWriters;
+		private final long[] topHitsCounts;
+		private final LineTokenizer tokenizer;
+		private final int chrIdx;
+		private final int positionIdx;
+
+		// Rows of the last position of each model, to remove the repeated ones
+		private final String[] lastPosition;
+		private final List<HashSet<String>> lastRows;
+
+		private CondensedRowHandler(CompressedFileWriter writer, TopHitsCollector rangeHits) throws IOException {
+			this.writer = writer;
+			this.rangeHits = rangeHits;
+			this.topHitsWriters = new BufferedWriter[models.length];
+			this.topHitsCounts = new long[models.length];
+			try {
+				for (int m = 0; m < models.length; ++m) {
+					this.topHitsWriters[m] = new BufferedWriter(new FileWriter(topHitsFiles[m]));
+				}
+			} catch (IOException ioe) {
+				close();
+				throw ioe;
+			}
+			this.tokenizer = new LineTokenizer('\t');
+			this.chrIdx = columnIndexes.get("chr");
+			this.positionIdx = columnIndexes.get("position");
+			this.lastPosition = new String[models.length];
+			this.lastRows = new ArrayList<>();
+			for (int m = 0; m < models.length; ++m) {
+				this.lastRows.add(new HashSet<String>());
+			}
+		}
+
+		private void handle(String row) throws IOException {
+			this.writer.writeLine(row);
+
+			this.tokenizer.setLine(row);
+			double[] pvalues = new double[models.length];
+			int firstModel = -1;
+			sketch.addRow();
+			for (int m = 0; m < models.length; ++m) {
+				pvalues[m] = parsePvalue(this.tokenizer, pvalueColumns[m]);
+				sketch.add(models[m], pvalues[m]);
+				if (firstModel < 0 && pvalues[m] <= pvaThreshold) {
+					firstModel = m;
+				}
+			}
+			if (firstModel < 0) {
+				return;
+			}
+
+			// The same row is only kept once
+			String chrPosition = this.tokenizer.get(this.chrIdx) + TAB + this.tokenizer.get(this.positionIdx);
+			if (!chrPosition.equals(this.lastPosition[firstModel])) {
+				this.lastPosition[firstModel] = chrPosition;
+				this.lastRows.get(firstModel).clear();
+			}
+			if (!this.lastRows.get(firstModel).add(row)) {
+				return;
+			}
+
+			// The best model is the one of the lowest p-value
+			int bestColumn = -1;
+			double bestPvalue = Double.NaN;
+			for (int column : bestModelColumns) {
+				double pvalue = parsePvalue(this.tokenizer, column);
+				if (!Double.isNaN(pvalue) && (bestColumn < 0 || pvalue < bestPvalue)) {
+					bestColumn = column;
+					bestPvalue = pvalue;
+				}
+			}
+			String[] bestColumnName = columns.get(bestColumn).split("_");
+
+			String bestModel = (bestColumnName.length > 1) ? bestColumnName[1] : NA;
+
+			BufferedWriter topHitsWriter = this.topHitsWriters[firstModel];
+			topHitsWriter.write(row);
+			topHitsWriter.write(TAB);
+			topHitsWriter.write(bestModel);
+			topHitsWriter.newLine();
+
+			// The order in the top hits file goes before the row, and keeps apart the hits
+			// with the same chr, position and rsId
+			String order = String.format("%02d%019d", firstModel, this.topHitsCounts[firstModel]++);
+			this.rangeHits.add(this.tokenizer.get(this.chrIdx), this.tokenizer.get(this.positionIdx), order,
+					pvalues[firstModel], order + TAB + row);
+			numberOfTopHits++;
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException error = null;
+			for (BufferedWriter topHitsWriter : this.topHitsWriters) {
+				if (topHitsWriter != null) {
+					try {
+						topHitsWriter.close();
+					} catch (IOException ioe) {
+						error = (error == null) ? ioe : error;
+					}
+				}
+			}
+			if (error != null) {
+				throw error;
+			}
+		}
+	}
+
+	/**
+	 * A filteredByAll file and the columns of the condensed file it has
+	 */
+	private static class Part {
+
+		private final String file;
+		private final String chr;
+		private final String[] header;
+		private int[] columnIndexes;
+		private int chrIdx;
+
+		private Part(String file, String chr, String[] models) throws IOException {
+			this.file = file;
+			this.chr = chr;
+
+			String headerLine = null;
+			try (BufferedReader br = new BufferedReader(open())) {
+				headerLine = br.readLine();
+			}
+			if (headerLine == null) {
+				throw new IOException("Empty file without header: " + file);
+			}
+
+			LineTokenizer tokenizer = new LineTokenizer(LineTokenizer.WHITESPACE);
+			tokenizer.setLine(headerLine.trim());
+			String[] names = new String[tokenizer.size()];
+			for (int i = 0; i < names.length; ++i) {
+				names[i] = tokenizer.get(i);
+			}
+			this.header = makeNames(names);
+			if (models != null) {
+				this.changeNames(models);
+			}
+		}
+
+		private Reader open() throws IOException {
+			return new InputStreamReader(FileUtils.openGzipInputStream(this.file));
+		}
+
+		/**
+		 * Gives the same name to the sex columns of all the files
+		 *
+		 * @param models
+		 */
+		private void changeNames(String[] models) {
+			String[][] renames = new String[][] { { "_se_", "sex.1" }, { "_se_", "sex.2" }, { "_beta_", "sex.1" },
+					{ "_beta_", "sex.2" } };
+			for (String[] rename : renames) {
+				Pattern sex = Pattern.compile(rename[1]);
+				for (String model : models) {
+					for (int i = 0; i < this.header.length; ++i) {
+						String column = this.header[i];
+						if (column.contains(model) && column.contains(rename[0]) && sex.matcher(column).find()) {
+							this.header[i] = "frequentist_" + model + rename[0] + rename[1];
+						}
+					}
+				}
+			}
+		}
+
+		private void setColumns(List<String> columns) {
+			List<String> names = Arrays.asList(this.header);
+			this.columnIndexes = new int[columns.size()];
+			for (int i = 0; i < columns.size(); ++i) {
+				this.columnIndexes[i] = names.indexOf(columns.get(i));
+			}
+			this.chrIdx = names.indexOf("chr");
+		}
+
+		private LineTokenizer createTokenizer(Reader reader) throws IOException {
+			LineTokenizer tokenizer = new LineTokenizer(reader, LineTokenizer.WHITESPACE);
+			// Skip the header
+			tokenizer.next();
+			return tokenizer;
+		}
+
+		private String getChr(LineTokenizer tokenizer) {
+			if (this.chr != null) {
+				return this.chr;
+			}
+			return getField(tokenizer, this.chrIdx);
+		}
+
+		private void appendRow(LineTokenizer tokenizer, StringBuilder sb) {
+			for (int i = 0; i < this.columnIndexes.length; ++i) {
+				if (i > 0) {
+					sb.append('\t');
+				}
+				if (i == 0 && this.chr != null) {
+					sb.append(this.chr);
+				} else {
+					sb.append(getField(tokenizer, this.columnIndexes[i]));
+				}
+			}
+		}
+
+		private static boolean isBlank(LineTokenizer tokenizer) {
+			return tokenizer.size() == 0 || (tokenizer.size() == 1 && tokenizer.length(0) == 0);
+		}
+
+		private static String getField(LineTokenizer tokenizer, int index) {
+			// Leading whitespaces give an empty first field
+			int shift = (tokenizer.size() > 0 && tokenizer.length(0) == 0) ? 1 : 0;
+			int i = index + shift;
+			if (index < 0 || i >= tokenizer.size() || tokenizer.equals(i, "-") || tokenizer.equals(i, NA)) {
+				return NA;
+			}
+			return tokenizer.get(i);
+		}
+	}
+
+	private static class TopHit {
+
+		private String row;
+		private String chr;
+		private long position;
+		private String rsId;
+		private double[] pvalues;
+		private String order;
+	}
+
+}
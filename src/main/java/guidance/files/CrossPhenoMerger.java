@@ -0,0 +1,608 @@
+package guidance.files;
+
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import guidance.utils.LineTokenizer;
+
+/**
+ * Merges the top hits of all the phenotypes (the tophits_merge files of each
+ * test) and writes the cross phenotype associations. This is the Java version
+ * of crossphenotype_crossmodel.R:
+ * <ul>
+ * <li>The files are merged (full outer join) on chr, position, rs_id_all,
+ * alleleA and alleleB with a k-way merge. Each file is streamed when it is
+ * sorted in genomic order, otherwise it is sorted in memory.</li>
+ * <li>The merged variants of each chromosome are extended 250 kb to each side
+ * and the overlapping ranges are merged.</li>
+ * <li>For each model, a variant associates disease A with disease B when its
+ * p-value of A is under the threshold and the one of B is up to 0.05. For each
+ * range and pair of diseases, the variant with the lowest p-value of A is
+ * written.</li>
+ * </ul>
+ * Only the associations of the current range and the best one of each range
+ * and pair of diseases are kept in memory.
+ */
+public class CrossPhenoMerger {
+
+	/**
+	 * Columns of the output file
+	 */
+	public static final String[] OUTPUT_COLUMNS = new String[] { "range", "rsid", "disease_A", "pvalue_A",
+			"disease_B", "pvalue_B", "disease_A_vs_disease_B", "model" };
+
+	private static final String NA = "NA";
+	private static final String TAB = "\t";
+	private static final String PVALUE = "pvalue";
+	private static final String DISEASE_PREFIX = "pvalue_";
+
+	// Merged variants are extended HALF_RANGE bases to each side to build the
+	// ranges
+	private static final long HALF_RANGE = 250_000;
+
+	// Maximum p-value of disease B of an association
+	private static final double PVALUE_B_THRESHOLD = 0.05;
+
+	private static final Comparator<Row> GENOMIC_ORDER = new Comparator<Row>() {
+
+		@Override
+		public int compare(Row a, Row b) {
+			if (a.chrNumber != b.chrNumber) {
+				return Integer.compare(a.chrNumber, b.chrNumber);
+			}
+			int cmp = a.chr.compareTo(b.chr);
+			if (cmp != 0) {
+				return cmp;
+			}
+			if (a.position != b.position) {
+				return Long.compare(a.position, b.position);
+			}
+			cmp = a.rsId.compareTo(b.rsId);
+			if (cmp != 0) {
+				return cmp;
+			}
+			cmp = a.alleleA.compareTo(b.alleleA);
+			if (cmp != 0) {
+				return cmp;
+			}
+			return a.alleleB.compareTo(b.alleleB);
+		}
+	};
+
+	// Order of the associations inside a range: by rsid, pair of diseases and
+	// merged row
+	private static final Comparator<Association> RANGE_ORDER = new Comparator<Association>() {
+
+		@Override
+		public int compare(Association a, Association b) {
+			int cmp = a.rsId.compareTo(b.rsId);
+			if (cmp != 0) {
+				return cmp;
+			}
+			if (a.diseaseA != b.diseaseA) {
+				return Integer.compare(a.diseaseA, b.diseaseA);
+			}
+			if (a.diseaseB != b.diseaseB) {
+				return Integer.compare(a.diseaseB, b.diseaseB);
+			}
+			return Long.compare(a.row, b.row);
+		}
+	};
+
+	private final double pvaThreshold;
+	private final String[] models;
+
+	// Diseases (p-value columns) of each model, in the order of the files
+	private List<List<Disease>> diseasesByModel;
+
+	// Current range
+	private String rangeChr;
+	private long rangeStart;
+	private long rangeLastPosition;
+	private final List<Association> rangeAssociations;
+
+	// Selected associations of each model by range and pair of diseases
+	private final List<TreeMap<String, Map<String, Selection>>> selectionsByModel;
+
+	private long numberOfRows;
+	private long numberOfAssociations;
+
+	/**
+	 * Creates a merger for the given threshold and models
+	 *
+	 * @param pvaThreshold
+	 * @param models
+	 */
+	public CrossPhenoMerger(double pvaThreshold, String[] models) {
+		this.pvaThreshold = pvaThreshold;
+		this.models = models.clone();
+
+		this.rangeAssociations = new ArrayList<>();
+		this.selectionsByModel = new ArrayList<>();
+	}
+
+	/**
+	 * Merges the top hits files of the phenotypes and writes the cross phenotype
+	 * associations to outputFile
+	 *
+	 * @param topHitsFiles
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void merge(List<String> topHitsFiles, String outputFile) throws IOException {
+		this.diseasesByModel = new ArrayList<>();
+		this.selectionsByModel.clear();
+		for (int m = 0; m < this.models.length; ++m) {
+			this.diseasesByModel.add(new ArrayList<Disease>());
+			this.selectionsByModel.add(new TreeMap<String, Map<String, Selection>>());
+		}
+		this.rangeChr = null;
+		this.rangeAssociations.clear();
+		this.numberOfRows = 0;
+		this.numberOfAssociations = 0;
+
+		List<Source> sources = new ArrayList<>();
+		try {
+			for (int i = 0; i < topHitsFiles.size(); ++i) {
+				Source source = new Source(i, topHitsFiles.get(i));
+				sources.add(source);
+				for (int m = 0; m < this.models.length; ++m) {
+					for (int c = 0; c < source.pvalueNames.length; ++c) {
+						if (source.pvalueNames[c].contains(this.models[m])) {
+							this.diseasesByModel.get(m).add(new Disease(i, c, source.pvalueNames[c]));
+						}
+					}
+				}
+			}
+			mergeSources(sources);
+		} finally {
+			for (Source source : sources) {
+				source.close();
+			}
+		}
+		closeRange();
+
+		write(outputFile);
+	}
+
+	/**
+	 * Returns the number of merged rows of the last merge
+	 *
+	 * @return
+	 */
+	public long getNumberOfRows() {
+		return this.numberOfRows;
+	}
+
+	/**
+	 * Returns the number of associations written by the last merge
+	 *
+	 * @return
+	 */
+	public long getNumberOfAssociations() {
+		return this.numberOfAssociations;
+	}
+
+	private void mergeSources(List<Source> sources) throws IOException {
+		PriorityQueue<Source> queue = new PriorityQueue<>(Math.max(1, sources.size()), new Comparator<Source>() {
+
+			@Override
+			public int compare(Source a, Source b) {
+				int cmp = GENOMIC_ORDER.compare(a.current, b.current);
+				return (cmp != 0) ? cmp : Integer.compare(a.index, b.index);
+			}
+		});
+		for (Source source : sources) {
+			if (source.current != null) {
+				queue.add(source);
+			}
+		}
+
+		// Rows of each file with the current key
+		List<List<Row>> keyRows = new ArrayList<>();
+		for (int i = 0; i < sources.size(); ++i) {
+			keyRows.add(new ArrayList<Row>());
+		}
+		Row[] merged = new Row[sources.size()];
+
+		while (!queue.isEmpty()) {
+			Row key = queue.peek().current;
+			for (List<Row> rows : keyRows) {
+				rows.clear();
+			}
+			while (!queue.isEmpty() && GENOMIC_ORDER.compare(queue.peek().current, key) == 0) {
+				Source source = queue.poll();
+				keyRows.get(source.index).add(source.current);
+				if (source.advance()) {
+					queue.add(source);
+				}
+			}
+
+			// As a merge, repeated keys give all the combinations of their rows
+			addCombinations(key, keyRows, merged, 0);
+		}
+	}
+
+	private void addCombinations(Row key, List<List<Row>> keyRows, Row[] merged, int file) {
+		if (file == merged.length) {
+			addMergedRow(key, merged);
+			return;
+		}
+		List<Row> rows = keyRows.get(file);
+		if (rows.isEmpty()) {
+			merged[file] = null;
+			addCombinations(key, keyRows, merged, file + 1);
+		} else {
+			for (Row row : rows) {
+				merged[file] = row;
+				addCombinations(key, keyRows, merged, file + 1);
+			}
+		}
+	}
+
+	private void addMergedRow(Row key, Row[] merged) {
+		long rowNumber = this.numberOfRows++;
+
+		if (this.rangeChr == null || !this.rangeChr.equals(key.chr)
+				|| key.position - HALF_RANGE > this.rangeLastPosition + HALF_RANGE) {
+			closeRange();
+			this.rangeChr = key.chr;
+			this.rangeStart = key.position - HALF_RANGE;
+		}
+		this.rangeLastPosition = key.position;
+
+		for (int m = 0; m < this.models.length; ++m) {
+			List<Disease> diseases = this.diseasesByModel.get(m);
+			for (int n = 0; n < diseases.size(); ++n) {
+				double pvalueA = getPvalue(merged, diseases.get(n));
+				if (Double.isNaN(pvalueA) || pvalueA > this.pvaThreshold) {
+					continue;
+				}
+				for (int e = 0; e < diseases.size(); ++e) {
+					double pvalueB = getPvalue(merged, diseases.get(e));
+					if (e == n || Double.isNaN(pvalueB) || pvalueB > PVALUE_B_THRESHOLD) {
+						continue;
+					}
+					Association association = new Association();
+					association.model = m;
+					association.rsId = key.rsId;
+					association.diseaseA = n;
+					association.diseaseB = e;
+					association.row = rowNumber;
+					association.pvalueA = pvalueA;
+					association.pvalueAText = getPvalueText(merged, diseases.get(n));
+					association.pvalueBText = getPvalueText(merged, diseases.get(e));
+					this.rangeAssociations.add(association);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Assigns the range to its associations and keeps the first and the best one
+	 * of each pair of diseases
+	 */
+	private void closeRange() {
+		if (this.rangeChr == null || this.rangeAssociations.isEmpty()) {
+			this.rangeAssociations.clear();
+			return;
+		}
+		String range = "chr" + this.rangeChr + ":" + this.rangeStart + "-"
+				+ (this.rangeLastPosition + HALF_RANGE - 1);
+
+		for (Association association : this.rangeAssociations) {
+			List<Disease> diseases = this.diseasesByModel.get(association.model);
+			String pair = diseases.get(association.diseaseA).disease + "-" + diseases.get(association.diseaseB).disease;
+
+			TreeMap<String, Map<String, Selection>> ranges = this.selectionsByModel.get(association.model);
+			Map<String, Selection> pairs = ranges.get(range);
+			if (pairs == null) {
+				pairs = new HashMap<>();
+				ranges.put(range, pairs);
+			}
+			Selection selection = pairs.get(pair);
+			if (selection == null) {
+				selection = new Selection(pair, association);
+				pairs.put(pair, selection);
+			} else {
+				if (RANGE_ORDER.compare(association, selection.first) < 0) {
+					selection.first = association;
+				}
+				int cmp = Double.compare(association.pvalueA, selection.best.pvalueA);
+				if (cmp < 0 || (cmp == 0 && RANGE_ORDER.compare(association, selection.best) < 0)) {
+					selection.best = association;
+				}
+			}
+		}
+		this.rangeAssociations.clear();
+	}
+
+	/**
+	 * Writes the selected associations of each model: by range and then by pair
+	 * of diseases in order of appearance
+	 */
+	private void write(String outputFile) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+			writer.write(String.join(TAB, OUTPUT_COLUMNS));
+			writer.newLine();
+
+			for (int m = 0; m < this.models.length; ++m) {
+				TreeMap<String, Map<String, Selection>> ranges = this.selectionsByModel.get(m);
+				List<Disease> diseases = this.diseasesByModel.get(m);
+
+				LinkedHashSet<String> pairs = new LinkedHashSet<>();
+				for (Map<String, Selection> rangePairs : ranges.values()) {
+					List<Selection> selections = new ArrayList<>(rangePairs.values());
+					Collections.sort(selections, new Comparator<Selection>() {
+
+						@Override
+						public int compare(Selection a, Selection b) {
+							return RANGE_ORDER.compare(a.first, b.first);
+						}
+					});
+					for (Selection selection : selections) {
+						pairs.add(selection.pair);
+					}
+				}
+
+				for (Map.Entry<String, Map<String, Selection>> entry : ranges.entrySet()) {
+					for (String pair : pairs) {
+						Selection selection = entry.getValue().get(pair);
+						if (selection == null) {
+							continue;
+						}
+						Association best = selection.best;
+						writer.write(entry.getKey() + TAB + best.rsId + TAB + diseases.get(best.diseaseA).disease + TAB
+								+ best.pvalueAText + TAB + diseases.get(best.diseaseB).disease + TAB + best.pvalueBText
+								+ TAB + pair + TAB + this.models[m]);
+						writer.newLine();
+						this.numberOfAssociations++;
+					}
+				}
+			}
+		}
+	}
+
+	private static double getPvalue(Row[] merged, Disease disease) {
+		Row row = merged[disease.file];
+		return (row == null) ? Double.NaN : row.pvalues[disease.column];
+	}
+
+	private static String getPvalueText(Row[] merged, Disease disease) {
+		return merged[disease.file].pvalueTexts[disease.column];
+	}
+
+	private static int getChrNumber(String chr) {
+		try {
+			return Integer.parseInt(chr);
+		} catch (NumberFormatException nfe) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Top hits file of a phenotype, read in genomic order
+	 */
+	private static class Source {
+
+		private final int index;
+		private final String fileName;
+
+		private int chrIdx;
+		private int positionIdx;
+		private int rsIdIdx;
+		private int alleleAIdx;
+		private int alleleBIdx;
+		private int[] pvalueColumns;
+		private String[] pvalueNames;
+
+		private Reader reader;
+		private LineTokenizer tokenizer;
+		private Iterator<Row> sortedRows;
+		private Row current;
+
+		private Source(int index, String fileName) throws IOException {
+			this.index = index;
+			this.fileName = fileName;
+
+			boolean sorted = true;
+			open();
+			try {
+				Row previous = null;
+				Row row;
+				while (sorted && (row = readRow()) != null) {
+					sorted = (previous == null || GENOMIC_ORDER.compare(previous, row) <= 0);
+					previous = row;
+				}
+			} finally {
+				close();
+			}
+
+			open();
+			if (!sorted) {
+				List<Row> rows = new ArrayList<>();
+				Row row;
+				while ((row = readRow()) != null) {
+					rows.add(row);
+				}
+				close();
+				Collections.sort(rows, GENOMIC_ORDER);
+				this.sortedRows = rows.iterator();
+			}
+			advance();
+		}
+
+		private void open() throws IOException {
+			this.reader = new FileReader(this.fileName);
+			this.tokenizer = new LineTokenizer(this.reader, LineTokenizer.WHITESPACE);
+			if (!this.tokenizer.next()) {
+				throw new IOException("Empty top hits file: " + this.fileName);
+			}
+			List<String> header = new ArrayList<>();
+			for (int i = 0; i < this.tokenizer.size(); ++i) {
+				if (this.tokenizer.length(i) > 0) {
+					header.add(this.tokenizer.get(i));
+				}
+			}
+			// The disease names are the column names that R read
+			String[] names = CondensedTopHitsWriter.makeNames(header.toArray(new String[header.size()]));
+
+			this.chrIdx = header.indexOf("chr");
+			this.positionIdx = header.indexOf("position");
+			this.rsIdIdx = header.indexOf("rs_id_all");
+			this.alleleAIdx = header.indexOf("alleleA");
+			this.alleleBIdx = header.indexOf("alleleB");
+			if (this.chrIdx < 0 || this.positionIdx < 0 || this.rsIdIdx < 0 || this.alleleAIdx < 0
+					|| this.alleleBIdx < 0) {
+				throw new IOException("The top hits file " + this.fileName
+						+ " has no chr, position, rs_id_all, alleleA or alleleB column");
+			}
+
+			List<Integer> columns = new ArrayList<>();
+			for (int i = 0; i < names.length; ++i) {
+				if (names[i].contains(PVALUE)) {
+					columns.add(i);
+				}
+			}
+			this.pvalueColumns = new int[columns.size()];
+			this.pvalueNames = new String[columns.size()];
+			for (int i = 0; i < columns.size(); ++i) {
+				this.pvalueColumns[i] = columns.get(i);
+				this.pvalueNames[i] = names[columns.get(i)];
+			}
+		}
+
+		private Row readRow() throws IOException {
+			while (this.tokenizer.next()) {
+				// Leading whitespaces give an empty first field
+				int shift = (this.tokenizer.size() > 0 && this.tokenizer.length(0) == 0) ? 1 : 0;
+				if (this.tokenizer.size() <= shift) {
+					continue;
+				}
+				Row row = new Row();
+				row.chr = getField(this.chrIdx + shift);
+				row.chrNumber = getChrNumber(row.chr);
+				try {
+					row.position = Long.parseLong(getField(this.positionIdx + shift));
+				} catch (NumberFormatException nfe) {
+					throw new IOException("Wrong position in the top hits file " + this.fileName + ": "
+							+ this.tokenizer.getLine(), nfe);
+				}
+				row.rsId = getField(this.rsIdIdx + shift);
+				row.alleleA = getField(this.alleleAIdx + shift);
+				row.alleleB = getField(this.alleleBIdx + shift);
+				row.pvalues = new double[this.pvalueColumns.length];
+				row.pvalueTexts = new String[this.pvalueColumns.length];
+				for (int i = 0; i < this.pvalueColumns.length; ++i) {
+					String value = getField(this.pvalueColumns[i] + shift);
+					row.pvalueTexts[i] = value;
+					try {
+						row.pvalues[i] = NA.equals(value) ? Double.NaN : Double.parseDouble(value);
+					} catch (NumberFormatException nfe) {
+						row.pvalues[i] = Double.NaN;
+					}
+				}
+				return row;
+			}
+			return null;
+		}
+
+		private String getField(int i) {
+			return (i < this.tokenizer.size()) ? this.tokenizer.get(i) : NA;
+		}
+
+		private boolean advance() throws IOException {
+			if (this.sortedRows != null) {
+				this.current = this.sortedRows.hasNext() ? this.sortedRows.next() : null;
+			} else {
+				this.current = readRow();
+			}
+			return this.current != null;
+		}
+
+		private void close() throws IOException {
+			if (this.reader != null) {
+				this.reader.close();
+				this.reader = null;
+			}
+		}
+	}
+
+	private static class Row {
+
+		private String chr;
+		private int chrNumber;
+		private long position;
+		private String rsId;
+		private String alleleA;
+		private String alleleB;
+		private double[] pvalues;
+		private String[] pvalueTexts;
+	}
+
+	/**
+	 * P-value column of a file
+	 */
+	private static class Disease {
+
+		private final int file;
+		private final int column;
+		private final String disease;
+
+		private Disease(int file, int column, String name) {
+			this.file = file;
+			this.column = column;
+			// As strsplit(name, "pvalue_")[2]
+			int start = name.indexOf(DISEASE_PREFIX);
+			if (start < 0) {
+				this.disease = NA;
+			} else {
+				start += DISEASE_PREFIX.length();
+				int end = name.indexOf(DISEASE_PREFIX, start);
+				this.disease = name.substring(start, (end < 0) ? name.length() : end);
+			}
+		}
+	}
+
+	private static class Association {
+
+		private int model;
+		private String rsId;
+		private int diseaseA;
+		private int diseaseB;
+		private long row;
+		private double pvalueA;
+		private String pvalueAText;
+		private String pvalueBText;
+	}
+
+	/**
+	 * First (in range order) and best association of a range and pair of diseases
+	 */
+	private static class Selection {
+
+		private final String pair;
+		private Association first;
+		private Association best;
+
+		private Selection(String pair, Association association) {
+			this.pair = pair;
+			this.first = association;
+			this.best = association;
+		}
+	}
+
+}
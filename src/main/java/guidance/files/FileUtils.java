@@ -1,5 +1,6 @@
 package guidance.files;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -10,17 +11,16 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
-import java.nio.file.DirectoryStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -40,15 +40,8 @@ public class FileUtils {
 	private static final String GUIDANCE_MSG_HEADER = "[Guidance]";
 	private static final String GUIDANCE_MSG_CREATE_FILE = GUIDANCE_MSG_HEADER + " Creating ";
 
-	// TODO: this constants are associated to a function that should not be here
-	private static final String SAMTOOLSBINARY = "SAMTOOLSBINARY";
-	private static final String TABIXBINARY = "TABIXBINARY";
-	private static final String BGZIPBINARY = "BGZIPBINARY";
-	private static final String HEADER_TABIX = "[tabix]";
-	private static final String HEADER_BGZIP = "[bgzip]";
-
-	private static final String STDOUT_EXTENSION = ".stdout";
-	private static final String STDERR_EXTENSION = ".stderr";
+	// Threads of the gzip and BGZF compressions
+	static final String GZIP_CU_ENV = "gzipCU";
 
 	// File paths
 	private static final String COMMON_REL_PATH = "common";
@@ -259,97 +252,189 @@ public class FileUtils {
 	}
 
 	/**
-	 * Method to zip a file
+	 * Method to create a named pipe, replacing the file if it exists. Returns false
+	 * if the pipe cannot be created (e.g. mkfifo is not available)
+	 *
+	 * @param fileName
+	 * @return
+	 */
+	public static boolean createFifo(String fileName) {
+		File fifo = new File(fileName);
+		if (fifo.exists() && !fifo.delete()) {
+			return false;
+		}
+		try {
+			int exitValue = ProcessUtils.executeWithoutOutputs("mkfifo " + fileName);
+			return exitValue == 0 && fifo.exists();
+		} catch (IOException ioe) {
+			LOGGER.warn("[FileUtils] Cannot create the named pipe " + fileName + ": " + ioe.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Method to zip a file, with the default compression level and the number of
+	 * threads of GZIP_CU_ENV
 	 * 
 	 * @param sourceFilePath
 	 * @param destZipFilePath
 	 */
 	public static void gzipFile(String sourceFilePath, String destZipFilePath) {
-		byte[] buffer = new byte[1024];
-		File fInput = new File(sourceFilePath);
-		String path = fInput.getParent();
-		Path dir = Paths.get(path);
-
-		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*")) {
-			for (Path file : stream) {
-				System.out.println(file.toAbsolutePath().toString());
-			}
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		gzipFile(sourceFilePath, destZipFilePath, Deflater.DEFAULT_COMPRESSION, getComputingUnits(GZIP_CU_ENV));
+	}
 
-		try (FileOutputStream fileOutputStream = new FileOutputStream(destZipFilePath);
-				GZIPOutputStream gzipOuputStream = new GZIPOutputStream(fileOutputStream);
+	/**
+	 * Method to zip a file compressing blocks of it in parallel. The file is
+	 * written with a temporary name and renamed when complete
+	 * 
+	 * @param sourceFilePath
+	 * @param destZipFilePath
+	 * @param level
+	 * @param threads
+	 */
+	public static void gzipFile(String sourceFilePath, String destZipFilePath, int level, int threads) {
+		try (CompressedFileWriter writer = new CompressedFileWriter(destZipFilePath,
+				CompressedFileWriter.Format.GZIP, level, threads);
 				FileInputStream fileInput = new FileInputStream(sourceFilePath)) {
 
-			int bytesRead;
-			while ((bytesRead = fileInput.read(buffer)) > 0) {
-				gzipOuputStream.write(buffer, 0, bytesRead);
-			}
-
-			gzipOuputStream.finish();
+			writer.write(fileInput);
+			writer.commit();
 		} catch (IOException ioe) {
 			System.err.println("ERROR: Cannot zip file");
-			/*
-			 * try { Thread.sleep(600000); } catch (InterruptedException e) { // TODO
-			 * Auto-generated catch block e.printStackTrace(); }
-			 */
 			ioe.printStackTrace();
 		}
 	}
 
-	// TODO: remove when removing bgzipFile
-	private static String loadFromEnvironment(String envVarName, String methodHeader) throws GuidanceTaskException {
-		String envVar = System.getenv(envVarName);
-		if (envVar == null) {
-			throw new GuidanceTaskException(
-					methodHeader + "Error, " + envVarName + " environment variable is not defined in .bashrc!!!");
+	/**
+	 * Opens a gzip stream to a file that compresses with the given level and
+	 * number of threads
+	 * 
+	 * @param fileName
+	 * @param level
+	 * @param threads
+	 * @return
+	 * @throws IOException
+	 */
+	public static OutputStream createGzipOutputStream(String fileName, int level, int threads) throws IOException {
+		FileOutputStream fileOutputStream = new FileOutputStream(fileName);
+		try {
+			return new ParallelGzipOutputStream(new BufferedOutputStream(fileOutputStream), level, threads);
+		} catch (IOException ioe) {
+			fileOutputStream.close();
+			throw ioe;
 		}
+	}
 
-		return envVar;
+	/**
+	 * Returns the computing units given in an environment variable, the same that
+	 * sets the constraint of a task, or 1 if it is not defined or not valid
+	 * 
+	 * @param envVarName
+	 * @return
+	 */
+	public static int getComputingUnits(String envVarName) {
+		String value = System.getenv(envVarName);
+		if (value == null) {
+			return 1;
+		}
+		try {
+			return Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException nfe) {
+			return 1;
+		}
 	}
 
-	// TODO: this function should not be here, just a "fast fix"
+	/**
+	 * Method to compress a file in the BGZF format of bgzip
+	 * 
+	 * @param input
+	 * @param output
+	 * @throws GuidanceTaskException
+	 */
 	public static void bgzipFile(String input, String output) throws GuidanceTaskException {
+		bgzipFile(input, output, null);
+	}
 
-		String samToolsBinary = FileUtils.loadFromEnvironment(SAMTOOLSBINARY, "[samtoolsBgzipFile]");
-		String bgzipBinary = FileUtils.loadFromEnvironment(BGZIPBINARY, HEADER_BGZIP);
-
+	/**
+	 * Method to compress a VCF file in the BGZF format of bgzip and, if indexFile
+	 * is not null, write its tabix index
+	 * 
+	 * @param input
+	 * @param output
+	 * @param indexFile
+	 * @throws GuidanceTaskException
+	 */
+	public static void bgzipFile(String input, String output, String indexFile) throws GuidanceTaskException {
 		long startTime = System.currentTimeMillis();
 
-		String cmd = bgzipBinary + " -f " + input + " " + output;
-
-		LOGGER.debug("\n[DEBUG] Command: " + cmd);
-		LOGGER.debug(" ");
-
-		int exitValue = -1;
-		try {
-			exitValue = ProcessUtils.execute(cmd, input + STDOUT_EXTENSION, input + STDERR_EXTENSION);
+		TabixIndex index = (indexFile == null) ? null : new TabixIndex();
+		try (FileInputStream fileInput = new FileInputStream(input);
+				BgzfOutputStream bgzf = createBgzfOutputStream(output)) {
+			if (index == null) {
+				byte[] buffer = new byte[BgzfOutputStream.MAX_BLOCK_SIZE];
+				int bytesRead;
+				while ((bytesRead = fileInput.read(buffer)) > 0) {
+					bgzf.write(buffer, 0, bytesRead);
+				}
+			} else {
+				BufferedReader br = new BufferedReader(new InputStreamReader(fileInput, StandardCharsets.ISO_8859_1));
+				String line;
+				while ((line = br.readLine()) != null) {
+					writeIndexedLine(bgzf, index, line);
+				}
+			}
+			bgzf.finish();
+			if (index != null) {
+				index.write(indexFile, bgzf);
+			}
 		} catch (IOException ioe) {
-			throw new GuidanceTaskException(ioe);
+			throw new GuidanceTaskException("[bgzipFile] Error, cannot compress " + input + " to " + output, ioe);
 		}
 
-		if (exitValue != 0) {
-			System.err.println("[phasing] Warning executing samtoolsBgzip job, exit value is: " + exitValue);
-			System.err.println("[phasing]                         (This warning is not fatal).");
-		}
+		long stopTime = System.currentTimeMillis();
+		LOGGER.debug("[bgzipFile] Compressed " + input + " in " + (stopTime - startTime) + " ms");
+	}
 
-		File tmpOutput = new File(input + ".gz");
-		if (tmpOutput.exists()) {
-			boolean success = FileUtils.move(input + ".gz", output);
-			if (!success) {
-				throw new GuidanceTaskException(
-						"[samtoolsBgzip] Error, the file " + input + ".gz was not succesfully renamed to " + output);
-				// File was not successfully renamed
-			}
-		} else {
-			throw new GuidanceTaskException(
-					"[samtoolsBgzip] Error, the file " + input + ".gz was not succesfully created");
-		}
+	/**
+	 * Opens a BGZF stream to a file that compresses with the threads of GZIP_CU_ENV
+	 * 
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static BgzfOutputStream createBgzfOutputStream(String fileName) throws IOException {
+		return new BgzfOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)),
+				Deflater.DEFAULT_COMPRESSION, getComputingUnits(GZIP_CU_ENV));
+	}
 
-		long stopTime = System.currentTimeMillis();
-		long elapsedTime = (stopTime - startTime) / 1000;
+	/**
+	 * Writes a line of a VCF file to a BGZF stream and adds it to its index
+	 * 
+	 * @param bgzf
+	 * @param index
+	 * @param line
+	 * @throws IOException
+	 */
+	public static void writeIndexedLine(BgzfOutputStream bgzf, TabixIndex index, String line) throws IOException {
+		long start = bgzf.getPosition();
+		bgzf.write(line.getBytes(StandardCharsets.ISO_8859_1));
+		bgzf.write('\n');
+		index.addLine(line, start, bgzf.getPosition());
+	}
+
+	/**
+	 * Opens a gzip file to read it. BGZF files are inflated by blocks with the
+	 * threads of GZIP_CU_ENV, other gzip files with a single thread
+	 * 
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static InputStream openGzipInputStream(String fileName) throws IOException {
+		if (BgzfInputStream.isBgzf(fileName)) {
+			return new ParallelBgzfInputStream(fileName, getComputingUnits(GZIP_CU_ENV));
+		}
+		return new GZIPInputStream(new FileInputStream(fileName), 64 * 1024);
 	}
 
 	/**
@@ -361,8 +446,7 @@ public class FileUtils {
 	public static void gunzipFile(String compressedFile, String decompressedFile) {
 		byte[] buffer = new byte[1024];
 
-		try (FileInputStream fileIn = new FileInputStream(compressedFile);
-				GZIPInputStream gZIPInputStream = new GZIPInputStream(fileIn);
+		try (InputStream gZIPInputStream = openGzipInputStream(compressedFile);
 				FileOutputStream fileOutputStream = new FileOutputStream(decompressedFile)) {
 
 			int bytesRead;
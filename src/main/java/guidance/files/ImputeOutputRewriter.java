@@ -0,0 +1,272 @@
+package guidance.files;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Rewrites the second column of the gen and info files of impute2 as
+ * chr:position_a0_a1, taken from the third to fifth columns. It is the Java
+ * version of
+ *
+ * <pre>
+ * awk -v chr=$chr '{out=$1 " " chr ":" $3 "_" $4 "_" $5 ; for(i=3;i&lt;=NF;i++){out=out" "$i}; print out}'
+ * </pre>
+ *
+ * Only the first five fields of each line are split. The rest of the line (the
+ * genotype probabilities of the gen files) is copied as it is, so its
+ * separators are kept: impute2 writes single spaces, as awk does.
+ *
+ * The input is a stream, so the gen file can be rewritten while impute2 writes
+ * it to a named pipe.
+ */
+public class ImputeOutputRewriter {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final int KEY_FIELDS = 5;
+
+	private final byte[] chr;
+
+	private final byte[] buffer;
+	private int position;
+	private int limit;
+
+	// First fields of the current line
+	private byte[] head;
+	private int headLength;
+	private boolean lineEnded;
+	private final int[] fieldStart;
+	private final int[] fieldEnd;
+
+	private ImputeOutputRewriter(String chr) {
+		this.chr = chr.getBytes(StandardCharsets.US_ASCII);
+		this.buffer = new byte[BUFFER_SIZE];
+		this.position = 0;
+		this.limit = 0;
+		this.head = new byte[1024];
+		this.headLength = 0;
+		this.fieldStart = new int[KEY_FIELDS];
+		this.fieldEnd = new int[KEY_FIELDS];
+	}
+
+	/**
+	 * Rewrites the lines of in to out, except the first headerLines lines that are
+	 * copied as they are. Returns the number of rewritten lines. The streams are
+	 * not closed
+	 *
+	 * @param in
+	 * @param out
+	 * @param chr
+	 * @param headerLines
+	 * @return
+	 * @throws IOException
+	 */
+	public static long rewrite(InputStream in, OutputStream out, String chr, int headerLines) throws IOException {
+		return new ImputeOutputRewriter(chr).rewriteLines(in, out, headerLines);
+	}
+
+	/**
+	 * Rewrites a stream of a gen file to a BGZF file, compressed with the threads
+	 * of GZIP_CU_ENV. The output is written to a temporary file that is renamed
+	 * when complete, so it can replace the file the stream is read from
+	 *
+	 * @param in
+	 * @param outputFile
+	 * @param chr
+	 * @return
+	 * @throws IOException
+	 */
+	public static long rewriteToBgzf(InputStream in, String outputFile, String chr) throws IOException {
+		File output = new File(outputFile).getAbsoluteFile();
+		File tmpFile = CompressedFileWriter.createTmpFile(output);
+		long lines;
+		try (BgzfOutputStream out = FileUtils.createBgzfOutputStream(tmpFile.getPath())) {
+			lines = rewrite(in, out, chr, 0);
+		} catch (IOException ioe) {
+			tmpFile.delete();
+			throw ioe;
+		}
+		CompressedFileWriter.commitFile(tmpFile, output);
+		return lines;
+	}
+
+	/**
+	 * Rewrites an uncompressed file in place (e.g. the info file, with one header
+	 * line)
+	 *
+	 * @param file
+	 * @param chr
+	 * @param headerLines
+	 * @return
+	 * @throws IOException
+	 */
+	public static long rewriteFile(String file, String chr, int headerLines) throws IOException {
+		File output = new File(file).getAbsoluteFile();
+		File tmpFile = CompressedFileWriter.createTmpFile(output);
+		long lines;
+		try (InputStream in = new FileInputStream(output);
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE)) {
+			lines = rewrite(in, out, chr, headerLines);
+		} catch (IOException ioe) {
+			tmpFile.delete();
+			throw ioe;
+		}
+		CompressedFileWriter.commitFile(tmpFile, output);
+		return lines;
+	}
+
+	private long rewriteLines(InputStream in, OutputStream out, int headerLines) throws IOException {
+		for (int i = 0; i < headerLines; ++i) {
+			if (!fill(in) || !copyRest(in, out)) {
+				return 0;
+			}
+		}
+
+		long lines = 0;
+		while (fill(in)) {
+			int numFields = readHead(in);
+			writeHead(out, numFields);
+			if (!this.lineEnded) {
+				// The rest of the fields and the end of line are copied
+				out.write(' ');
+				copyRest(in, out);
+			} else {
+				out.write('\n');
+			}
+			lines++;
+		}
+		out.flush();
+		return lines;
+	}
+
+	/**
+	 * Reads the first fields of a line up to the end of the fifth one and the
+	 * separators after it, or to the end of the line (that is consumed) when it
+	 * has no more fields. Returns the number of fields that have been read, and
+	 * sets lineEnded when the whole line has been read
+	 */
+	private int readHead(InputStream in) throws IOException {
+		this.headLength = 0;
+		this.lineEnded = true;
+		int numFields = 0;
+		boolean inField = false;
+		while (fill(in)) {
+			byte b = this.buffer[this.position];
+			if (b == '\n') {
+				this.position++;
+				break;
+			}
+			boolean separator = (b == ' ' || b == '\t' || b == '\r');
+			if (inField && separator) {
+				this.fieldEnd[numFields] = this.headLength;
+				inField = false;
+				numFields++;
+				if (numFields == KEY_FIELDS) {
+					this.lineEnded = skipSeparators(in);
+					return numFields;
+				}
+			} else if (!inField && !separator) {
+				this.fieldStart[numFields] = this.headLength;
+				inField = true;
+			}
+			if (this.headLength == this.head.length) {
+				this.head = Arrays.copyOf(this.head, 2 * this.head.length);
+			}
+			this.head[this.headLength++] = b;
+			this.position++;
+		}
+		if (inField) {
+			this.fieldEnd[numFields] = this.headLength;
+			numFields++;
+		}
+		return numFields;
+	}
+
+	/**
+	 * Skips the separators up to the next field or the end of the line, that is
+	 * consumed. Returns true if the line has ended
+	 */
+	private boolean skipSeparators(InputStream in) throws IOException {
+		while (fill(in)) {
+			byte b = this.buffer[this.position];
+			if (b == '\n') {
+				this.position++;
+				return true;
+			}
+			if (b != ' ' && b != '\t' && b != '\r') {
+				return false;
+			}
+			this.position++;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes $1 " " chr ":" $3 "_" $4 "_" $5, and " " $i for the fields from the
+	 * third one that have been read
+	 */
+	private void writeHead(OutputStream out, int numFields) throws IOException {
+		writeField(out, 0, numFields);
+		out.write(' ');
+		out.write(this.chr);
+		out.write(':');
+		writeField(out, 2, numFields);
+		out.write('_');
+		writeField(out, 3, numFields);
+		out.write('_');
+		writeField(out, 4, numFields);
+		for (int i = 2; i < numFields; ++i) {
+			out.write(' ');
+			writeField(out, i, numFields);
+		}
+	}
+
+	private void writeField(OutputStream out, int field, int numFields) throws IOException {
+		if (field < numFields) {
+			out.write(this.head, this.fieldStart[field], this.fieldEnd[field] - this.fieldStart[field]);
+		}
+	}
+
+	/**
+	 * Copies the bytes up to the end of the line, included. Returns false if the
+	 * stream ends before
+	 */
+	private boolean copyRest(InputStream in, OutputStream out) throws IOException {
+		while (fill(in)) {
+			int end = this.position;
+			while (end < this.limit && this.buffer[end] != '\n') {
+				end++;
+			}
+			if (end < this.limit) {
+				out.write(this.buffer, this.position, end + 1 - this.position);
+				this.position = end + 1;
+				return true;
+			}
+			out.write(this.buffer, this.position, end - this.position);
+			this.position = end;
+		}
+		// Last line without end of line
+		out.write('\n');
+		return false;
+	}
+
+	/**
+	 * Reads more bytes if the buffer has been consumed. Returns false at the end of
+	 * the stream
+	 */
+	private boolean fill(InputStream in) throws IOException {
+		if (this.position < this.limit) {
+			return true;
+		}
+		this.position = 0;
+		this.limit = Math.max(0, in.read(this.buffer, 0, this.buffer.length));
+		return this.limit > 0;
+	}
+
+}
@@ -0,0 +1,207 @@
+package guidance.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.TreeMap;
+
+import guidance.utils.ColumnProjection;
+import guidance.utils.LineTokenizer;
+
+/**
+ * Reader of the gzipped results files of a panel (the filtered summaries and
+ * the combined files). The lines are returned grouped by position and keyed by
+ * position_a1_a2_chr, the same key that combinePanelsComplex uses. Missing
+ * files and files with the empty header are read as empty panels.
+ */
+public class PanelResultsReader implements AutoCloseable {
+
+	public static final String EMPTY_HEADER = "chr\tposition\trs_id_all\tinfo_all\tcertainty_all\t";
+
+	private final Reader reader;
+	private final LineTokenizer tokenizer;
+	private final String header;
+	private final ColumnProjection projection;
+
+	private int chrIdx;
+	private int posIdx;
+	private int a1Idx;
+	private int a2Idx;
+
+	private boolean pending;
+	private String position;
+	private boolean sorted;
+
+	/**
+	 * Opens the given results file and reads its header
+	 *
+	 * @param resultsFile
+	 * @throws IOException
+	 */
+	public PanelResultsReader(String resultsFile) throws IOException {
+		this.position = null;
+		this.sorted = true;
+		this.pending = false;
+
+		if (!new File(resultsFile).exists()) {
+			this.reader = null;
+			this.tokenizer = null;
+			this.header = null;
+			this.projection = null;
+			return;
+		}
+
+		this.reader = new InputStreamReader(FileUtils.openGzipInputStream(resultsFile));
+		this.tokenizer = new LineTokenizer(this.reader, '\t');
+
+		String firstLine = null;
+		try {
+			if (this.tokenizer.next()) {
+				firstLine = this.tokenizer.getLine();
+			}
+		} catch (IOException ioe) {
+			this.reader.close();
+			throw ioe;
+		}
+
+		if (firstLine == null || firstLine.equals(EMPTY_HEADER)) {
+			this.header = null;
+			this.projection = null;
+			return;
+		}
+
+		this.header = firstLine;
+		this.projection = new ColumnProjection(this.header, "\t", "chr", "position", "alleleA", "alleleB",
+				"info_all");
+		this.chrIdx = this.projection.getIndex("chr");
+		this.posIdx = this.projection.getIndex("position");
+		this.a1Idx = this.projection.getIndex("alleleA");
+		this.a2Idx = this.projection.getIndex("alleleB");
+		this.projection.project(this.tokenizer, 0);
+		this.pending = this.tokenizer.next();
+	}
+
+	/**
+	 * Returns the header of the file or null if the panel is empty
+	 *
+	 * @return
+	 */
+	public String getHeader() {
+		return this.header;
+	}
+
+	/**
+	 * Returns the projection of the chr, position, alleleA, alleleB and info_all
+	 * columns or null if the panel is empty
+	 *
+	 * @return
+	 */
+	public ColumnProjection getProjection() {
+		return this.projection;
+	}
+
+	/**
+	 * Returns the position of the last group returned by nextPosition
+	 *
+	 * @return
+	 */
+	public String getPosition() {
+		return this.position;
+	}
+
+	/**
+	 * Returns false if a position has been found out of order. The order is the
+	 * one of the position_a1_a2_chr keys (see comparePositions)
+	 *
+	 * @return
+	 */
+	public boolean isSorted() {
+		return this.sorted;
+	}
+
+	/**
+	 * Returns the lines of the next position keyed by position_a1_a2_chr. When a
+	 * key is repeated the last line is kept.
+	 *
+	 * @return the lines or null at the end of the file or if the next position is
+	 *         out of order (see isSorted)
+	 * @throws IOException
+	 */
+	public TreeMap<String, String> nextPosition() throws IOException {
+		if (!this.pending || !this.sorted) {
+			return null;
+		}
+
+		String nextPosition = this.tokenizer.get(this.posIdx);
+		if (this.position != null && comparePositions(nextPosition, this.position) <= 0) {
+			this.sorted = false;
+			return null;
+		}
+		this.position = nextPosition;
+
+		TreeMap<String, String> lines = new TreeMap<>();
+		while (this.pending && this.tokenizer.equals(this.posIdx, this.position)) {
+			lines.put(getKey(), this.tokenizer.getLine());
+			this.pending = this.tokenizer.next();
+		}
+		return lines;
+	}
+
+	/**
+	 * Returns all the remaining lines of the file keyed by position_a1_a2_chr
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public TreeMap<String, String> readAll() throws IOException {
+		TreeMap<String, String> lines = new TreeMap<>();
+		while (this.pending) {
+			lines.put(getKey(), this.tokenizer.getLine());
+			this.pending = this.tokenizer.next();
+		}
+		return lines;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.reader != null) {
+			this.reader.close();
+		}
+	}
+
+	/**
+	 * Compares two positions in the order of the position_a1_a2_chr keys, that is,
+	 * as the Strings positionA + "_" and positionB + "_"
+	 *
+	 * @param positionA
+	 * @param positionB
+	 * @return
+	 */
+	public static int comparePositions(String positionA, String positionB) {
+		int lengthA = positionA.length();
+		int lengthB = positionB.length();
+		int length = Math.min(lengthA, lengthB);
+		for (int i = 0; i < length; ++i) {
+			char a = positionA.charAt(i);
+			char b = positionB.charAt(i);
+			if (a != b) {
+				return a - b;
+			}
+		}
+		if (lengthA == lengthB) {
+			return 0;
+		}
+		return (lengthA < lengthB) ? '_' - positionB.charAt(length) : positionA.charAt(length) - '_';
+	}
+
+	private String getKey() {
+		StringBuilder sb = new StringBuilder();
+		this.tokenizer.appendTo(this.posIdx, sb).append('_');
+		this.tokenizer.appendTo(this.a1Idx, sb).append('_');
+		this.tokenizer.appendTo(this.a2Idx, sb).append('_');
+		this.tokenizer.appendTo(this.chrIdx, sb);
+		return sb.toString();
+	}
+
+}
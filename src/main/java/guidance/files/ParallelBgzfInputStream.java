@@ -0,0 +1,215 @@
+package guidance.files;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+/**
+ * Sequential input stream of a BGZF file that inflates the next blocks in
+ * parallel. The thread that reads from the stream reads the compressed blocks
+ * and hands them to the pool, and the inflated blocks are returned in order.
+ * At most twice as many blocks as threads are read ahead.
+ *
+ * Unlike BgzfInputStream it cannot seek; it replaces GZIPInputStream in the
+ * readers of whole files (see FileUtils.openGzipInputStream).
+ */
+public class ParallelBgzfInputStream extends InputStream {
+
+	private final String fileName;
+	private final InputStream in;
+	private final int maxPending;
+	private final ExecutorService executor;
+
+	private final ArrayDeque<Future<byte[]>> pending;
+	private boolean endOfFile;
+
+	// Used to inflate in the reader thread when there is a single thread
+	private final Inflater inflater;
+	private final CRC32 crc;
+
+	private byte[] block;
+	private int blockOffset;
+	private boolean closed;
+
+	/**
+	 * Opens a BGZF file that is inflated with the given number of threads
+	 *
+	 * @param fileName
+	 * @param threads
+	 * @throws IOException
+	 */
+	public ParallelBgzfInputStream(String fileName, int threads) throws IOException {
+		this.fileName = fileName;
+		this.in = new BufferedInputStream(new FileInputStream(fileName), BgzfOutputStream.MAX_COMPRESSED_BLOCK_SIZE);
+
+		int numThreads = Math.max(1, threads);
+		this.maxPending = 2 * numThreads;
+		this.executor = (numThreads > 1) ? Executors.newFixedThreadPool(numThreads) : null;
+		this.pending = new ArrayDeque<>();
+		this.endOfFile = false;
+
+		this.inflater = (this.executor == null) ? new Inflater(true) : null;
+		this.crc = (this.executor == null) ? new CRC32() : null;
+
+		this.block = new byte[0];
+		this.blockOffset = 0;
+		this.closed = false;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fillBlock()) {
+			return -1;
+		}
+		return this.block[this.blockOffset++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fillBlock()) {
+			return -1;
+		}
+		int n = Math.min(len, this.block.length - this.blockOffset);
+		System.arraycopy(this.block, this.blockOffset, b, off, n);
+		this.blockOffset += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return this.block.length - this.blockOffset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		} else {
+			this.inflater.end();
+		}
+		this.in.close();
+	}
+
+	/**
+	 * Moves to the next block with bytes to read, skipping the empty ones
+	 */
+	private boolean fillBlock() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		while (this.blockOffset == this.block.length) {
+			byte[] next = nextBlock();
+			if (next == null) {
+				return false;
+			}
+			this.block = next;
+			this.blockOffset = 0;
+		}
+		return true;
+	}
+
+	private byte[] nextBlock() throws IOException {
+		if (this.executor == null) {
+			byte[] compressed = readCompressedBlock();
+			return (compressed == null) ? null : inflate(compressed, this.inflater, this.crc, this.fileName);
+		}
+
+		// Keep the pool busy with the next blocks
+		while (!this.endOfFile && this.pending.size() < this.maxPending) {
+			final byte[] compressed = readCompressedBlock();
+			if (compressed == null) {
+				this.endOfFile = true;
+			} else {
+				final String name = this.fileName;
+				this.pending.add(this.executor.submit(new Callable<byte[]>() {
+
+					@Override
+					public byte[] call() throws IOException {
+						Inflater blockInflater = new Inflater(true);
+						try {
+							return inflate(compressed, blockInflater, new CRC32(), name);
+						} finally {
+							blockInflater.end();
+						}
+					}
+				}));
+			}
+		}
+
+		Future<byte[]> next = this.pending.poll();
+		if (next == null) {
+			return null;
+		}
+		try {
+			return next.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while inflating " + this.fileName);
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Cannot inflate a block of " + this.fileName, cause);
+		}
+	}
+
+	/**
+	 * Reads the next compressed block, or returns null at the end of the file
+	 */
+	private byte[] readCompressedBlock() throws IOException {
+		byte[] header = new byte[BgzfOutputStream.HEADER_SIZE];
+		int n = readFully(header, 0, header.length);
+		if (n == 0) {
+			return null;
+		}
+		if (n < header.length) {
+			throw new IOException("Truncated BGZF block in " + this.fileName);
+		}
+		int blockSize = BgzfInputStream.getBlockSize(header, this.fileName);
+		byte[] compressed = Arrays.copyOf(header, blockSize);
+		if (readFully(compressed, header.length, blockSize - header.length) < blockSize - header.length) {
+			throw new IOException("Truncated BGZF block in " + this.fileName);
+		}
+		return compressed;
+	}
+
+	private int readFully(byte[] b, int off, int len) throws IOException {
+		int total = 0;
+		while (total < len) {
+			int n = this.in.read(b, off + total, len - total);
+			if (n < 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	private static byte[] inflate(byte[] compressed, Inflater inflater, CRC32 crc, String fileName)
+			throws IOException {
+
+		byte[] block = new byte[BgzfOutputStream.MAX_COMPRESSED_BLOCK_SIZE];
+		int size = BgzfInputStream.inflateBlock(inflater, crc, compressed, compressed.length, block, fileName);
+		return Arrays.copyOf(block, size);
+	}
+
+}
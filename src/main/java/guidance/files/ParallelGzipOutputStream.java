@@ -0,0 +1,253 @@
+package guidance.files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream that deflates blocks of the input in parallel, as pigz
+ * does. Each block is deflated with the last 32 KB of the previous block as
+ * dictionary and ends with a sync flush (the last one is finished), so the
+ * concatenation of the blocks is a single deflate stream and the output is a
+ * standard gzip file, readable by GZIPInputStream and gzip.
+ *
+ * The blocks are written in order by the thread that writes to the stream,
+ * which also computes the CRC of the gzip trailer. At most twice as many
+ * blocks as threads are kept in memory.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	/**
+	 * Default size of the input blocks
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	// Header with no flags, no modification time and unknown OS
+	private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0,
+			(byte) 0xff };
+
+	private final OutputStream out;
+	private final int level;
+	private final int blockSize;
+	private final int maxPending;
+	private final ExecutorService executor;
+
+	private final ArrayDeque<Future<byte[]>> pending;
+	private final CRC32 crc;
+	private long size;
+
+	private byte[] block;
+	private int blockLength;
+	private byte[] dictionary;
+	private boolean closed;
+
+	/**
+	 * Creates a stream that compresses with the given level and number of threads
+	 *
+	 * @param out
+	 * @param level
+	 * @param threads
+	 * @throws IOException
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int level, int threads) throws IOException {
+		this(out, level, threads, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a stream that compresses with the given level, number of threads and
+	 * block size
+	 *
+	 * @param out
+	 * @param level
+	 * @param threads
+	 * @param blockSize
+	 * @throws IOException
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int level, int threads, int blockSize) throws IOException {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		}
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Invalid block size " + blockSize);
+		}
+		this.out = out;
+		this.level = level;
+		this.blockSize = blockSize;
+
+		// A single thread deflates in the writer thread
+		int numThreads = Math.max(1, threads);
+		this.maxPending = 2 * numThreads;
+		this.executor = (numThreads > 1) ? Executors.newFixedThreadPool(numThreads) : null;
+
+		this.pending = new ArrayDeque<>();
+		this.crc = new CRC32();
+		this.size = 0;
+
+		this.block = new byte[blockSize];
+		this.blockLength = 0;
+		this.dictionary = null;
+		this.closed = false;
+
+		this.out.write(GZIP_HEADER);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		while (len > 0) {
+			int n = Math.min(len, this.blockSize - this.blockLength);
+			System.arraycopy(b, off, this.block, this.blockLength, n);
+			this.blockLength += n;
+			off += n;
+			len -= n;
+			if (this.blockLength == this.blockSize) {
+				submitBlock(false);
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending blocks and the gzip trailer, and shuts down the threads.
+	 * The underlying stream is not closed
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		try {
+			submitBlock(true);
+			while (!this.pending.isEmpty()) {
+				writeNext();
+			}
+			writeIntLE(this.crc.getValue());
+			writeIntLE(this.size);
+			this.out.flush();
+		} finally {
+			this.closed = true;
+			if (this.executor != null) {
+				this.executor.shutdownNow();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			this.out.close();
+		}
+	}
+
+	private void submitBlock(boolean last) throws IOException {
+		final byte[] input = (this.blockLength == this.blockSize) ? this.block
+				: Arrays.copyOf(this.block, this.blockLength);
+		final byte[] dict = this.dictionary;
+		final boolean finish = last;
+
+		this.crc.update(input, 0, input.length);
+		this.size += input.length;
+
+		// The next block uses the end of this one as dictionary
+		if (input.length >= DICTIONARY_SIZE) {
+			this.dictionary = Arrays.copyOfRange(input, input.length - DICTIONARY_SIZE, input.length);
+		} else if (input.length > 0) {
+			byte[] previous = (dict == null) ? new byte[0] : dict;
+			int keep = Math.min(previous.length, DICTIONARY_SIZE - input.length);
+			byte[] joined = Arrays.copyOfRange(previous, previous.length - keep, previous.length + input.length);
+			System.arraycopy(input, 0, joined, keep, input.length);
+			this.dictionary = joined;
+		}
+
+		if (this.executor == null) {
+			this.out.write(deflate(input, dict, finish, this.level));
+		} else {
+			while (this.pending.size() >= this.maxPending) {
+				writeNext();
+			}
+			final int blockLevel = this.level;
+			this.pending.add(this.executor.submit(new Callable<byte[]>() {
+
+				@Override
+				public byte[] call() {
+					return deflate(input, dict, finish, blockLevel);
+				}
+			}));
+		}
+
+		// The submitted block is owned by the task
+		if (input == this.block) {
+			this.block = new byte[this.blockSize];
+		}
+		this.blockLength = 0;
+	}
+
+	private void writeNext() throws IOException {
+		Future<byte[]> next = this.pending.poll();
+		try {
+			this.out.write(next.get());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException ee) {
+			throw new IOException("Cannot compress block", ee.getCause());
+		}
+	}
+
+	private static byte[] deflate(byte[] input, byte[] dictionary, boolean finish, int level) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(input);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 2 + 64);
+			byte[] buffer = new byte[64 * 1024];
+			if (finish) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					int n = deflater.deflate(buffer);
+					compressed.write(buffer, 0, n);
+				}
+			} else {
+				// The sync flush ends the block at a byte boundary
+				int n;
+				do {
+					n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					compressed.write(buffer, 0, n);
+				} while (n == buffer.length || !deflater.needsInput());
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void writeIntLE(long value) throws IOException {
+		for (int i = 0; i < 4; ++i) {
+			this.out.write((int) (value >> (8 * i)) & 0xFF);
+		}
+	}
+
+}
@@ -0,0 +1,231 @@
+package guidance.files;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import guidance.utils.LineTokenizer;
+
+/**
+ * Query of the rows of a region of a result table with a header line and the
+ * chr and position columns (the filteredByAll and condensed files), optionally
+ * only the ones with a p-value of any model under a cutoff. The region is
+ * given as chr:start-end (1-based and inclusive), chr:position or chr.
+ *
+ * When the table has a current tabix index (see TabixIndex.forTable) the query
+ * seeks to the blocks of the region. Otherwise the whole table is read.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java -cp guidance.jar guidance.files.RegionQuery filteredByAll.txt.gz 22:16000000-17000000 [5e-8]
+ * </pre>
+ */
+public class RegionQuery {
+
+	private static final char TAB = '\t';
+	private static final String PVALUE_SUFFIX = "pvalue";
+
+	private final String chr;
+	private final int start;
+	private final int end;
+	private final double pvalueCutoff;
+
+	private boolean indexed;
+
+	/**
+	 * Creates a query of the region without p-value cutoff
+	 *
+	 * @param region
+	 */
+	public RegionQuery(String region) {
+		this(region, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Creates a query of the region and the rows with a p-value lower or equal to
+	 * the cutoff
+	 *
+	 * @param region
+	 * @param pvalueCutoff
+	 * @throws IllegalArgumentException
+	 *             If the region is not valid
+	 */
+	public RegionQuery(String region, double pvalueCutoff) {
+		int colon = region.lastIndexOf(':');
+		this.chr = (colon < 0) ? region : region.substring(0, colon);
+		if (this.chr.isEmpty()) {
+			throw new IllegalArgumentException("The region has no chromosome: " + region);
+		}
+		if (colon < 0) {
+			this.start = 1;
+			this.end = Integer.MAX_VALUE;
+		} else {
+			String range = region.substring(colon + 1).replace(",", "");
+			int dash = range.indexOf('-');
+			try {
+				this.start = Integer.parseInt((dash < 0) ? range : range.substring(0, dash));
+				this.end = (dash < 0) ? this.start : Integer.parseInt(range.substring(dash + 1));
+			} catch (NumberFormatException nfe) {
+				throw new IllegalArgumentException("The region has no valid positions: " + region, nfe);
+			}
+			if (this.start < 1 || this.end < this.start) {
+				throw new IllegalArgumentException("The region has no valid positions: " + region);
+			}
+		}
+		this.pvalueCutoff = pvalueCutoff;
+		this.indexed = false;
+	}
+
+	/**
+	 * Writes the header and the rows of the region of a result table. Returns the
+	 * number of rows
+	 *
+	 * @param resultsFile
+	 * @param writer
+	 * @return
+	 * @throws IOException
+	 */
+	public long run(String resultsFile, Writer writer) throws IOException {
+		TabixIndex index = BgzfInputStream.isBgzf(resultsFile) ? TabixIndex.readIndexOf(resultsFile) : null;
+		this.indexed = (index != null);
+		if (index == null) {
+			return scan(resultsFile, writer);
+		}
+
+		long rows = 0;
+		try (BgzfInputStream in = new BgzfInputStream(resultsFile)) {
+			String header = in.readLine();
+			if (header == null) {
+				return 0;
+			}
+			writer.write(header);
+			writer.write('\n');
+
+			int[] pvalueColumns = getPvalueColumns(header);
+			LineTokenizer tokenizer = new LineTokenizer(TAB);
+			TabixIndex.RegionLines lines = index.query(in, this.chr, this.start, this.end);
+			String line = null;
+			while ((line = lines.next()) != null) {
+				tokenizer.setLine(line);
+				if (isUnderCutoff(tokenizer, pvalueColumns)) {
+					writer.write(line);
+					writer.write('\n');
+					rows++;
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns whether the last run used the index of the table
+	 *
+	 * @return
+	 */
+	public boolean isIndexed() {
+		return this.indexed;
+	}
+
+	/**
+	 * Reads the whole table, for the tables without index
+	 */
+	private long scan(String resultsFile, Writer writer) throws IOException {
+		long rows = 0;
+		try (Reader reader = new InputStreamReader(FileUtils.openGzipInputStream(resultsFile),
+				StandardCharsets.ISO_8859_1)) {
+			LineTokenizer tokenizer = new LineTokenizer(reader, TAB);
+			if (!tokenizer.next()) {
+				return 0;
+			}
+			String header = tokenizer.getLine();
+			writer.write(header);
+			writer.write('\n');
+
+			List<String> columns = new ArrayList<>();
+			for (int i = 0; i < tokenizer.size(); ++i) {
+				columns.add(tokenizer.get(i));
+			}
+			int chrIdx = columns.indexOf("chr");
+			int positionIdx = columns.indexOf("position");
+			if (chrIdx < 0 || positionIdx < 0) {
+				throw new IOException("The table " + resultsFile + " has no chr and position columns");
+			}
+			int[] pvalueColumns = getPvalueColumns(header);
+
+			while (tokenizer.next()) {
+				if (tokenizer.size() <= Math.max(chrIdx, positionIdx) || !tokenizer.equals(chrIdx, this.chr)) {
+					continue;
+				}
+				double position = tokenizer.getDouble(positionIdx);
+				if (position >= this.start && position <= this.end && isUnderCutoff(tokenizer, pvalueColumns)) {
+					tokenizer.writeLine(writer);
+					writer.write('\n');
+					rows++;
+				}
+			}
+		}
+		return rows;
+	}
+
+	private static int[] getPvalueColumns(String header) {
+		String[] columns = header.split(String.valueOf(TAB));
+		List<Integer> pvalueColumns = new ArrayList<>();
+		for (int i = 0; i < columns.length; ++i) {
+			if (columns[i].endsWith(PVALUE_SUFFIX)) {
+				pvalueColumns.add(i);
+			}
+		}
+		int[] indexes = new int[pvalueColumns.size()];
+		for (int i = 0; i < indexes.length; ++i) {
+			indexes[i] = pvalueColumns.get(i);
+		}
+		return indexes;
+	}
+
+	/**
+	 * Returns whether the p-value of any model is under the cutoff. All the rows
+	 * are under an infinite cutoff, also the ones without p-values
+	 */
+	private boolean isUnderCutoff(LineTokenizer tokenizer, int[] pvalueColumns) {
+		if (this.pvalueCutoff == Double.POSITIVE_INFINITY) {
+			return true;
+		}
+		for (int column : pvalueColumns) {
+			if (column < tokenizer.size()) {
+				try {
+					if (tokenizer.getDouble(column) <= this.pvalueCutoff) {
+						return true;
+					}
+				} catch (NumberFormatException nfe) {
+					// NA p-value
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Entry point of the query, that prints the rows to the standard output
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2 && args.length != 3) {
+			System.err.println("Usage: RegionQuery <resultsFile> <chr:start-end> [<pvalueCutoff>]");
+			System.exit(1);
+		}
+		double pvalueCutoff = (args.length == 3) ? Double.parseDouble(args[2]) : Double.POSITIVE_INFINITY;
+		Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.ISO_8859_1));
+		new RegionQuery(args[1], pvalueCutoff).run(args[0], writer);
+		writer.flush();
+	}
+
+}
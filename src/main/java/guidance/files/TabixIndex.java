@@ -0,0 +1,722 @@
+package guidance.files;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * Tabix (.tbi) index of a BGZF VCF file, as the one of "tabix -p vcf", or of a
+ * BGZF table with a header line and the chr and position columns (the result
+ * files), as the one of "tabix -s chr -b position -e position -S 1". It is
+ * built adding the lines of the file in order with their positions, written
+ * next to the file, and read to get the lines of a region.
+ *
+ * The index has, for each chromosome, the chunks of the file of each bin of the
+ * UCSC binning scheme and the first offset of each 16 KB window (the linear
+ * index).
+ */
+public class TabixIndex {
+
+	/**
+	 * Suffix of the index of a file
+	 */
+	public static final String FILE_SUFFIX = ".tbi";
+
+	private static final byte[] MAGIC = new byte[] { 'T', 'B', 'I', 1 };
+
+	// Formats, and the VCF preset: sequence, begin and end columns (1-based),
+	// meta character and skipped lines
+	private static final int FORMAT_GENERIC = 0;
+	private static final int FORMAT_VCF = 2;
+	private static final int COL_SEQ = 1;
+	private static final int COL_BEG = 2;
+	private static final int COL_END = 0;
+	private static final int META_CHAR = '#';
+	private static final int SKIP_LINES = 0;
+
+	private static final String CHR_COLUMN = "chr";
+	private static final String POSITION_COLUMN = "position";
+
+	private static final int LINEAR_SHIFT = 14;
+	private static final int MAX_POSITION = 1 << 29;
+
+	private static final char TAB = '\t';
+
+	private final int format;
+	private final int seqColumn;
+	private final int beginColumn;
+	private final int endColumn;
+	private final int skipLines;
+
+	private final LinkedHashMap<String, Reference> references;
+
+	// Last reference and begin of the added lines, to check the order
+	private Reference lastReference;
+	private int lastBegin;
+
+	/**
+	 * Creates an empty index of a VCF file
+	 */
+	public TabixIndex() {
+		this(FORMAT_VCF, COL_SEQ, COL_BEG, COL_END, SKIP_LINES);
+	}
+
+	private TabixIndex(int format, int seqColumn, int beginColumn, int endColumn, int skipLines) {
+		this.format = format;
+		this.seqColumn = seqColumn;
+		this.beginColumn = beginColumn;
+		this.endColumn = endColumn;
+		this.skipLines = skipLines;
+		this.references = new LinkedHashMap<>();
+		this.lastReference = null;
+		this.lastBegin = -1;
+	}
+
+	/**
+	 * Creates an empty index of a table with the given header line, that has the
+	 * chr and position columns. Each line is a single position
+	 *
+	 * @param header
+	 * @return
+	 * @throws IOException
+	 *             If the header has no chr or position column
+	 */
+	public static TabixIndex forTable(String header) throws IOException {
+		List<String> columns = Arrays.asList(header.split(String.valueOf(TAB)));
+		int chrIdx = columns.indexOf(CHR_COLUMN);
+		int positionIdx = columns.indexOf(POSITION_COLUMN);
+		if (chrIdx < 0 || positionIdx < 0) {
+			throw new IOException("The table has no " + CHR_COLUMN + " and " + POSITION_COLUMN + " columns: " + header);
+		}
+		return new TabixIndex(FORMAT_GENERIC, chrIdx + 1, positionIdx + 1, positionIdx + 1, 1);
+	}
+
+	/**
+	 * Returns the index file of the given file
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static String getIndexFile(String file) {
+		return file + FILE_SUFFIX;
+	}
+
+	/**
+	 * Adds a line of the file, that starts at the position start of the file and
+	 * ends (after its line terminator) at the position end. The meta lines are not
+	 * indexed, and the header line of a table must not be added
+	 *
+	 * @param line
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 *             If the line is not sorted or has no position
+	 */
+	public void addLine(String line, long start, long end) throws IOException {
+		if (line.isEmpty() || line.charAt(0) == META_CHAR) {
+			return;
+		}
+		Region region = getRegion(line);
+		if (region == null) {
+			throw new IOException("The line has no valid position: " + line);
+		}
+		add(region.chr, region.begin, region.end, start, end);
+	}
+
+	/**
+	 * Adds the lines of a BGZF file from its beginning, skipping its header lines
+	 *
+	 * @param in
+	 * @throws IOException
+	 *             If the lines are not sorted or have no position
+	 */
+	public void addLines(BgzfInputStream in) throws IOException {
+		for (int i = 0; i < this.skipLines; ++i) {
+			if (in.readLine() == null) {
+				return;
+			}
+		}
+		long start = in.getVirtualOffset();
+		String line;
+		while ((line = in.readLine()) != null) {
+			long end = in.getVirtualOffset();
+			addLine(line, start, end);
+			start = end;
+		}
+	}
+
+	/**
+	 * Appends the index of a file B to this index of a file A, for the file made of
+	 * the blocks of A followed by the blocks of B (see ChunkMerger). The addresses
+	 * of the blocks of B are moved addressShift bytes. Returns false, without
+	 * changing this index, when the indexes are of different kinds or B has lines
+	 * of the chromosomes of A, so that the appended index would not be sorted
+	 *
+	 * @param other
+	 * @param addressShift
+	 * @return
+	 */
+	public boolean append(TabixIndex other, long addressShift) {
+		if (this.format != other.format || this.seqColumn != other.seqColumn
+				|| this.beginColumn != other.beginColumn || this.endColumn != other.endColumn) {
+			return false;
+		}
+		for (String chr : other.references.keySet()) {
+			if (this.references.containsKey(chr)) {
+				return false;
+			}
+		}
+		for (Map.Entry<String, Reference> entry : other.references.entrySet()) {
+			Reference reference = entry.getValue();
+			reference.shift(addressShift);
+			this.references.put(entry.getKey(), reference);
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a record of the 0-based region [begin, end) of a chromosome, in the
+	 * file positions [start, end)
+	 *
+	 * @param chr
+	 * @param begin
+	 * @param endPosition
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 *             If the record is not sorted
+	 */
+	public void add(String chr, int begin, int endPosition, long start, long end) throws IOException {
+		if (begin < 0 || begin >= MAX_POSITION) {
+			throw new IOException("Position out of the tabix range: " + (begin + 1));
+		}
+		Reference reference = this.references.get(chr);
+		if (reference == null) {
+			reference = new Reference();
+			this.references.put(chr, reference);
+		} else if (reference != this.lastReference) {
+			throw new IOException("The file is not sorted: the chromosome " + chr + " is not contiguous");
+		} else if (begin < this.lastBegin) {
+			throw new IOException("The file is not sorted: position " + (begin + 1) + " of chromosome " + chr
+					+ " after position " + (this.lastBegin + 1));
+		}
+		this.lastReference = reference;
+		this.lastBegin = begin;
+
+		reference.add(begin, Math.min(endPosition, MAX_POSITION), start, end);
+	}
+
+	/**
+	 * Returns the chromosomes of the index, in file order
+	 *
+	 * @return
+	 */
+	public List<String> getChromosomes() {
+		return new ArrayList<>(this.references.keySet());
+	}
+
+	/**
+	 * Returns the chunks of the file (pairs of virtual offsets) that can have lines
+	 * of the 1-based region [start, end] of a chromosome, sorted and merged
+	 *
+	 * @param chr
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public List<long[]> getChunks(String chr, int start, int end) {
+		Reference reference = this.references.get(chr);
+		List<long[]> chunks = new ArrayList<>();
+		if (reference == null || end < start) {
+			return chunks;
+		}
+		int begin = Math.max(0, start - 1);
+		int endExclusive = Math.min(end, MAX_POSITION);
+
+		// No line overlaps the windows after the linear index, and the lines before
+		// the first offset of the window do not overlap the region
+		int window = begin >> LINEAR_SHIFT;
+		if (window >= reference.linearSize) {
+			return chunks;
+		}
+		long minOffset = reference.linear[window];
+
+		for (int bin : reg2bins(begin, endExclusive)) {
+			List<long[]> binChunks = reference.bins.get(bin);
+			if (binChunks == null) {
+				continue;
+			}
+			for (long[] chunk : binChunks) {
+				if (chunk[1] > minOffset) {
+					chunks.add(new long[] { Math.max(chunk[0], minOffset), chunk[1] });
+				}
+			}
+		}
+
+		chunks.sort((a, b) -> Long.compare(a[0], b[0]));
+		List<long[]> merged = new ArrayList<>();
+		for (long[] chunk : chunks) {
+			long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (last != null && chunk[0] <= last[1]) {
+				last[1] = Math.max(last[1], chunk[1]);
+			} else {
+				merged.add(chunk);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns the lines of a BGZF file that overlap the 1-based region [start,
+	 * end] of a chromosome. The lines are read from the stream as they are asked
+	 * for, so the region is never loaded in memory
+	 *
+	 * @param in
+	 * @param chr
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public RegionLines query(BgzfInputStream in, String chr, int start, int end) {
+		return new RegionLines(in, getChunks(chr, start, end), chr, start, end);
+	}
+
+	/**
+	 * Writes the index of a file written with a BgzfOutputStream, whose positions
+	 * are converted to virtual offsets
+	 *
+	 * @param file
+	 * @param bgzf
+	 * @throws IOException
+	 */
+	public void write(String file, BgzfOutputStream bgzf) throws IOException {
+		for (Reference reference : this.references.values()) {
+			reference.toVirtualOffsets(bgzf);
+		}
+		write(file);
+	}
+
+	/**
+	 * Writes the index, whose positions are virtual offsets, to a BGZF file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(String file) throws IOException {
+		ByteArrayOutputStream names = new ByteArrayOutputStream();
+		for (String chr : this.references.keySet()) {
+			byte[] name = chr.getBytes(StandardCharsets.US_ASCII);
+			names.write(name, 0, name.length);
+			names.write(0);
+		}
+
+		try (OutputStream out = new BgzfOutputStream(new BufferedOutputStream(new FileOutputStream(file)),
+				Deflater.DEFAULT_COMPRESSION, 1)) {
+			LittleEndianWriter writer = new LittleEndianWriter(out);
+			out.write(MAGIC);
+			writer.writeInt(this.references.size());
+			writer.writeInt(this.format);
+			writer.writeInt(this.seqColumn);
+			writer.writeInt(this.beginColumn);
+			writer.writeInt(this.endColumn);
+			writer.writeInt(META_CHAR);
+			writer.writeInt(this.skipLines);
+			writer.writeInt(names.size());
+			names.writeTo(out);
+
+			for (Reference reference : this.references.values()) {
+				writer.writeInt(reference.bins.size());
+				for (Map.Entry<Integer, List<long[]>> bin : reference.bins.entrySet()) {
+					writer.writeInt(bin.getKey());
+					writer.writeInt(bin.getValue().size());
+					for (long[] chunk : bin.getValue()) {
+						writer.writeLong(chunk[0]);
+						writer.writeLong(chunk[1]);
+					}
+				}
+				reference.fillLinear();
+				writer.writeInt(reference.linearSize);
+				for (int i = 0; i < reference.linearSize; ++i) {
+					writer.writeLong(reference.linear[i]);
+				}
+			}
+			// Records without coordinates
+			writer.writeLong(0);
+		}
+	}
+
+	/**
+	 * Reads a tabix index
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static TabixIndex read(String file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BgzfInputStream(file))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("The file " + file + " is not a tabix index");
+			}
+			int numReferences = readInt(in);
+			int format = readInt(in);
+			if (format != FORMAT_VCF && format != FORMAT_GENERIC) {
+				throw new IOException("The tabix index " + file + " is not of a VCF file or a table");
+			}
+			int seqColumn = readInt(in);
+			int beginColumn = readInt(in);
+			int endColumn = readInt(in);
+			// Meta character
+			readInt(in);
+			int skipLines = readInt(in);
+			byte[] names = new byte[readInt(in)];
+			in.readFully(names);
+
+			TabixIndex index = new TabixIndex(format, seqColumn, beginColumn, endColumn, skipLines);
+			int nameStart = 0;
+			for (int r = 0; r < numReferences; ++r) {
+				int nameEnd = nameStart;
+				while (names[nameEnd] != 0) {
+					nameEnd++;
+				}
+				String chr = new String(names, nameStart, nameEnd - nameStart, StandardCharsets.US_ASCII);
+				nameStart = nameEnd + 1;
+
+				Reference reference = new Reference();
+				int numBins = readInt(in);
+				for (int b = 0; b < numBins; ++b) {
+					int bin = readInt(in);
+					int numChunks = readInt(in);
+					List<long[]> chunks = new ArrayList<>(numChunks);
+					for (int c = 0; c < numChunks; ++c) {
+						chunks.add(new long[] { readLong(in), readLong(in) });
+					}
+					reference.bins.put(bin, chunks);
+				}
+				int numIntervals = readInt(in);
+				reference.linear = new long[Math.max(1, numIntervals)];
+				for (int i = 0; i < numIntervals; ++i) {
+					reference.linear[i] = readLong(in);
+				}
+				reference.linearSize = numIntervals;
+				index.references.put(chr, reference);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Reads the index of a file, or returns null if the file has no index or the
+	 * index is older than the file
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static TabixIndex readIndexOf(String file) throws IOException {
+		File indexFile = new File(getIndexFile(file));
+		if (!indexFile.isFile() || indexFile.lastModified() < new File(file).lastModified()) {
+			return null;
+		}
+		return read(indexFile.getPath());
+	}
+
+	/**
+	 * Builds the index of a BGZF VCF file
+	 *
+	 * @param bgzfFile
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public static void build(String bgzfFile, String indexFile) throws IOException {
+		TabixIndex index = new TabixIndex();
+		try (BgzfInputStream in = new BgzfInputStream(bgzfFile)) {
+			index.addLines(in);
+		}
+		index.write(indexFile);
+	}
+
+	/**
+	 * Builds the index of a BGZF table with a header line (see forTable)
+	 *
+	 * @param bgzfFile
+	 * @return
+	 * @throws IOException
+	 *             If the table has no chr and position columns or is not sorted
+	 */
+	public static TabixIndex buildForTable(String bgzfFile) throws IOException {
+		try (BgzfInputStream in = new BgzfInputStream(bgzfFile)) {
+			String header = in.readLine();
+			if (header == null) {
+				throw new IOException("The table " + bgzfFile + " has no header");
+			}
+			TabixIndex index = forTable(header);
+			in.seek(0);
+			index.addLines(in);
+			return index;
+		}
+	}
+
+	/**
+	 * Returns the bin of the 0-based region [begin, end)
+	 *
+	 * @param begin
+	 * @param end
+	 * @return
+	 */
+	static int reg2bin(int begin, int end) {
+		--end;
+		if (begin >> 14 == end >> 14) {
+			return ((1 << 15) - 1) / 7 + (begin >> 14);
+		}
+		if (begin >> 17 == end >> 17) {
+			return ((1 << 12) - 1) / 7 + (begin >> 17);
+		}
+		if (begin >> 20 == end >> 20) {
+			return ((1 << 9) - 1) / 7 + (begin >> 20);
+		}
+		if (begin >> 23 == end >> 23) {
+			return ((1 << 6) - 1) / 7 + (begin >> 23);
+		}
+		if (begin >> 26 == end >> 26) {
+			return ((1 << 3) - 1) / 7 + (begin >> 26);
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the bins that can overlap the 0-based region [begin, end)
+	 */
+	private static List<Integer> reg2bins(int begin, int end) {
+		List<Integer> bins = new ArrayList<>();
+		--end;
+		bins.add(0);
+		int[] offsets = new int[] { 1, 9, 73, 585, 4681 };
+		int[] shifts = new int[] { 26, 23, 20, 17, 14 };
+		for (int level = 0; level < offsets.length; ++level) {
+			for (int k = offsets[level] + (begin >> shifts[level]); k <= offsets[level] + (end >> shifts[level]); ++k) {
+				bins.add(k);
+			}
+		}
+		return bins;
+	}
+
+	/**
+	 * Returns the 0-based region [begin, end) of a line, or null if it has no
+	 * valid position. The end of a VCF line is given by the length of its REF
+	 */
+	private Region getRegion(String line) {
+		String[] fields = line.split(String.valueOf(TAB), Math.max(this.seqColumn, this.beginColumn) + 3);
+		if (fields.length < Math.max(this.seqColumn, this.beginColumn)) {
+			return null;
+		}
+		Region region = new Region();
+		region.chr = fields[this.seqColumn - 1];
+		try {
+			region.begin = Integer.parseInt(fields[this.beginColumn - 1]) - 1;
+		} catch (NumberFormatException nfe) {
+			return null;
+		}
+		if (this.format == FORMAT_VCF) {
+			int refLength = (fields.length > 3) ? fields[3].length() : 1;
+			region.end = region.begin + Math.max(1, refLength);
+		} else {
+			region.end = region.begin + 1;
+		}
+		return region;
+	}
+
+	private static int readInt(DataInputStream in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	}
+
+	private static long readLong(DataInputStream in) throws IOException {
+		return Long.reverseBytes(in.readLong());
+	}
+
+	/**
+	 * Bins and linear index of a chromosome
+	 */
+	private static class Reference {
+
+		private final TreeMap<Integer, List<long[]>> bins = new TreeMap<>();
+		private long[] linear = new long[16];
+		private int linearSize = 0;
+
+		private void add(int begin, int end, long start, long stop) {
+			int bin = reg2bin(begin, end);
+			List<long[]> chunks = this.bins.get(bin);
+			if (chunks == null) {
+				chunks = new ArrayList<>();
+				this.bins.put(bin, chunks);
+			}
+			long[] last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+			if (last != null && last[1] == start) {
+				last[1] = stop;
+			} else {
+				chunks.add(new long[] { start, stop });
+			}
+
+			int firstWindow = begin >> LINEAR_SHIFT;
+			int lastWindow = (end - 1) >> LINEAR_SHIFT;
+			if (lastWindow >= this.linear.length) {
+				this.linear = Arrays.copyOf(this.linear, Math.max(2 * this.linear.length, lastWindow + 1));
+			}
+			for (int w = this.linearSize; w <= lastWindow; ++w) {
+				this.linear[w] = -1;
+			}
+			this.linearSize = Math.max(this.linearSize, lastWindow + 1);
+			for (int w = firstWindow; w <= lastWindow; ++w) {
+				if (this.linear[w] == -1) {
+					this.linear[w] = start;
+				}
+			}
+		}
+
+		private void shift(long addressShift) {
+			long virtualShift = addressShift << 16;
+			for (List<long[]> chunks : this.bins.values()) {
+				for (long[] chunk : chunks) {
+					chunk[0] += virtualShift;
+					chunk[1] += virtualShift;
+				}
+			}
+			// The windows before the first line have the offset 0
+			for (int i = 0; i < this.linearSize; ++i) {
+				this.linear[i] = Math.max(0, this.linear[i] + virtualShift);
+			}
+		}
+
+		private void toVirtualOffsets(BgzfOutputStream bgzf) {
+			for (List<long[]> chunks : this.bins.values()) {
+				for (long[] chunk : chunks) {
+					chunk[0] = bgzf.toVirtualOffset(chunk[0]);
+					chunk[1] = bgzf.toVirtualOffset(chunk[1]);
+				}
+			}
+			for (int i = 0; i < this.linearSize; ++i) {
+				if (this.linear[i] != -1) {
+					this.linear[i] = bgzf.toVirtualOffset(this.linear[i]);
+				}
+			}
+		}
+
+		/**
+		 * The windows without lines get the offset of the previous one
+		 */
+		private void fillLinear() {
+			long previous = 0;
+			for (int i = 0; i < this.linearSize; ++i) {
+				if (this.linear[i] == -1) {
+					this.linear[i] = previous;
+				}
+				previous = this.linear[i];
+			}
+		}
+	}
+
+	/**
+	 * Chromosome and 0-based region [begin, end) of a line
+	 */
+	/**
+	 * Lines of a region of a BGZF file, read from its chunks one by one
+	 */
+	public class RegionLines {
+
+		private final BgzfInputStream in;
+		private final List<long[]> chunks;
+		private final String chr;
+		private final int start;
+		private final int end;
+		private int nextChunk;
+		private long chunkEnd;
+
+		private RegionLines(BgzfInputStream in, List<long[]> chunks, String chr, int start, int end) {
+			this.in = in;
+			this.chunks = chunks;
+			this.chr = chr;
+			this.start = start;
+			this.end = end;
+			this.nextChunk = 0;
+			this.chunkEnd = -1;
+		}
+
+		/**
+		 * Returns the next line of the region, or null when there are no more lines
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		public String next() throws IOException {
+			while (true) {
+				if (this.chunkEnd < 0 || this.in.getVirtualOffset() >= this.chunkEnd) {
+					if (this.nextChunk >= this.chunks.size()) {
+						return null;
+					}
+					long[] chunk = this.chunks.get(this.nextChunk++);
+					this.in.seek(chunk[0]);
+					this.chunkEnd = chunk[1];
+					continue;
+				}
+				String line = this.in.readLine();
+				if (line == null) {
+					this.chunkEnd = -1;
+					continue;
+				}
+				Region region = getRegion(line);
+				if (region != null && region.chr.equals(this.chr) && region.begin < this.end
+						&& region.end > this.start - 1) {
+					return line;
+				}
+			}
+		}
+	}
+
+	private static class Region {
+
+		private String chr;
+		private int begin;
+		private int end;
+	}
+
+	/**
+	 * Writes the little endian integers of the index
+	 */
+	private static class LittleEndianWriter {
+
+		private final OutputStream out;
+		private final byte[] buffer = new byte[8];
+
+		private LittleEndianWriter(OutputStream out) {
+			this.out = out;
+		}
+
+		private void writeInt(int value) throws IOException {
+			for (int i = 0; i < 4; ++i) {
+				this.buffer[i] = (byte) (value >> (8 * i));
+			}
+			this.out.write(this.buffer, 0, 4);
+		}
+
+		private void writeLong(long value) throws IOException {
+			for (int i = 0; i < 8; ++i) {
+				this.buffer[i] = (byte) (value >> (8 * i));
+			}
+			this.out.write(this.buffer, 0, 8);
+		}
+	}
+
+}
@@ -0,0 +1,428 @@
+package guidance.files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the top hits of a results file and returns them sorted by
+ * chromosome and position (numerically), and then by rsId. When the same
+ * chromosome, position and rsId is added twice, the last row is kept.
+ *
+ * Only a compact key and the reduced row of each hit are kept in memory. When
+ * the estimated size of the hits goes over the memory budget, they are sorted
+ * and spilled to a run file next to the output, and the runs are merged when
+ * the hits are read back. Optionally, only the maxTopHits hits with the lowest
+ * p-value are kept (then there is no spill).
+ *
+ * The default budget and number of top hits can be set through the
+ * topHitsMemoryMb and maxTopHits environment variables.
+ */
+public class TopHitsCollector implements AutoCloseable {
+
+	// Environment variables with the default memory budget (in MB) and top hits
+	public static final String MEMORY_BUDGET_ENV = "topHitsMemoryMb";
+	public static final String MAX_TOP_HITS_ENV = "maxTopHits";
+
+	// Estimated bytes used by a hit besides its Strings
+	private static final long HIT_OVERHEAD = 96;
+
+	private static final Comparator<Hit> GENOMIC_ORDER = new Comparator<Hit>() {
+
+		@Override
+		public int compare(Hit a, Hit b) {
+			if (a.chrNumber != b.chrNumber) {
+				return Integer.compare(a.chrNumber, b.chrNumber);
+			}
+			if (a.chrName != b.chrName) {
+				if (a.chrName == null) {
+					return -1;
+				}
+				if (b.chrName == null) {
+					return 1;
+				}
+				int cmp = a.chrName.compareTo(b.chrName);
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+			if (a.position != b.position) {
+				return Long.compare(a.position, b.position);
+			}
+			return a.rsId.compareTo(b.rsId);
+		}
+	};
+
+	private static final Comparator<Hit> WORST_PVALUE_FIRST = new Comparator<Hit>() {
+
+		@Override
+		public int compare(Hit a, Hit b) {
+			int cmp = Double.compare(b.pvalue, a.pvalue);
+			if (cmp != 0) {
+				return cmp;
+			}
+			return Long.compare(b.sequence, a.sequence);
+		}
+	};
+
+	private final File tmpDir;
+	private final long memoryBudget;
+	private final int maxTopHits;
+
+	private final ArrayList<Hit> hits;
+	private final PriorityQueue<Hit> bestHits;
+	private long usedMemory;
+	private long sequence;
+
+	private final List<File> runFiles;
+	private PriorityQueue<RunCursor> merge;
+	private int nextHit;
+	private boolean sorted;
+
+	/**
+	 * Creates a collector that spills its runs to tmpDir
+	 *
+	 * @param tmpDir
+	 * @param memoryBudget bytes of hits to keep in memory before spilling a run
+	 * @param maxTopHits number of hits with the lowest p-value to keep, or 0 to
+	 *                   keep all of them
+	 */
+	public TopHitsCollector(File tmpDir, long memoryBudget, int maxTopHits) {
+		this.tmpDir = tmpDir;
+		this.memoryBudget = memoryBudget;
+		this.maxTopHits = maxTopHits;
+
+		this.hits = new ArrayList<>();
+		this.bestHits = (maxTopHits > 0) ? new PriorityQueue<>(maxTopHits, WORST_PVALUE_FIRST) : null;
+		this.usedMemory = 0;
+		this.sequence = 0;
+
+		this.runFiles = new ArrayList<>();
+		this.merge = null;
+		this.nextHit = 0;
+		this.sorted = false;
+	}
+
+	/**
+	 * Returns the default memory budget: the MB given in the topHitsMemoryMb
+	 * environment variable, or a quarter of the maximum heap
+	 *
+	 * @return
+	 */
+	public static long getDefaultMemoryBudget() {
+		return parseMemoryBudget(System.getenv(MEMORY_BUDGET_ENV));
+	}
+
+	/**
+	 * Returns the default number of top hits: the one given in the maxTopHits
+	 * environment variable, or 0 to keep all of them
+	 *
+	 * @return
+	 */
+	public static int getDefaultMaxTopHits() {
+		return parseMaxTopHits(System.getenv(MAX_TOP_HITS_ENV));
+	}
+
+	static long parseMemoryBudget(String megabytes) {
+		if (megabytes != null) {
+			try {
+				long value = Long.parseLong(megabytes.trim());
+				if (value > 0) {
+					return value * 1024 * 1024;
+				}
+			} catch (NumberFormatException nfe) {
+				// Falls back to the heap
+			}
+		}
+		return Runtime.getRuntime().maxMemory() / 4;
+	}
+
+	static int parseMaxTopHits(String value) {
+		if (value != null) {
+			try {
+				return Math.max(0, Integer.parseInt(value.trim()));
+			} catch (NumberFormatException nfe) {
+				// Keeps all the hits
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Adds a hit
+	 *
+	 * @param chr
+	 * @param position
+	 * @param rsId
+	 * @param pvalue
+	 * @param row      the line to write for this hit
+	 * @throws IOException
+	 */
+	public void add(String chr, String position, String rsId, double pvalue, String row) throws IOException {
+		Hit hit = new Hit(chr, Long.parseLong(position), rsId, row);
+		hit.pvalue = pvalue;
+		hit.sequence = this.sequence++;
+
+		if (this.bestHits != null) {
+			if (this.bestHits.size() < this.maxTopHits) {
+				this.bestHits.add(hit);
+			} else if (WORST_PVALUE_FIRST.compare(hit, this.bestHits.peek()) > 0) {
+				this.bestHits.poll();
+				this.bestHits.add(hit);
+			}
+			return;
+		}
+
+		this.hits.add(hit);
+		this.usedMemory += hit.getSize();
+		if (this.usedMemory > this.memoryBudget) {
+			spill();
+		}
+	}
+
+	/**
+	 * Ends the collection of hits. After this, the hits are returned by next
+	 *
+	 * @throws IOException
+	 */
+	public void sort() throws IOException {
+		if (this.bestHits != null) {
+			this.hits.addAll(this.bestHits);
+			this.bestHits.clear();
+		}
+
+		if (this.runFiles.isEmpty()) {
+			sortHits();
+		} else {
+			spill();
+			this.merge = new PriorityQueue<>(this.runFiles.size());
+			for (int i = 0; i < this.runFiles.size(); ++i) {
+				RunCursor cursor = new RunCursor(this.runFiles.get(i), i);
+				if (cursor.next()) {
+					this.merge.add(cursor);
+				} else {
+					cursor.close();
+				}
+			}
+		}
+		this.sorted = true;
+	}
+
+	/**
+	 * Returns the row of the next hit in genomic order, or null when there are no
+	 * more hits
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public String next() throws IOException {
+		if (!this.sorted) {
+			throw new IllegalStateException("The hits must be sorted before reading them");
+		}
+
+		if (this.merge == null) {
+			if (this.nextHit >= this.hits.size()) {
+				return null;
+			}
+			return this.hits.get(this.nextHit++).row;
+		}
+
+		RunCursor first = this.merge.poll();
+		if (first == null) {
+			return null;
+		}
+
+		// The same hit can be in several runs: the one of the last run wins
+		Hit hit = first.hit;
+		int run = first.run;
+		advance(first);
+		while (!this.merge.isEmpty() && GENOMIC_ORDER.compare(this.merge.peek().hit, hit) == 0) {
+			RunCursor cursor = this.merge.poll();
+			if (cursor.run > run) {
+				hit = cursor.hit;
+				run = cursor.run;
+			}
+			advance(cursor);
+		}
+		return hit.row;
+	}
+
+	/**
+	 * Returns the number of runs that have been spilled to disk
+	 *
+	 * @return
+	 */
+	public int getNumberOfRuns() {
+		return this.runFiles.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.merge != null) {
+			for (RunCursor cursor : this.merge) {
+				cursor.close();
+			}
+			this.merge.clear();
+		}
+		for (File runFile : this.runFiles) {
+			runFile.delete();
+		}
+		this.runFiles.clear();
+	}
+
+	/**
+	 * Sorts the hits in memory and removes the repeated ones, keeping the last
+	 * added
+	 */
+	private void sortHits() {
+		Collections.sort(this.hits, new Comparator<Hit>() {
+
+			@Override
+			public int compare(Hit a, Hit b) {
+				int cmp = GENOMIC_ORDER.compare(a, b);
+				return (cmp != 0) ? cmp : Long.compare(a.sequence, b.sequence);
+			}
+		});
+
+		int last = -1;
+		for (int i = 0; i < this.hits.size(); ++i) {
+			Hit hit = this.hits.get(i);
+			if (last >= 0 && GENOMIC_ORDER.compare(this.hits.get(last), hit) == 0) {
+				this.hits.set(last, hit);
+			} else {
+				this.hits.set(++last, hit);
+			}
+		}
+		this.hits.subList(last + 1, this.hits.size()).clear();
+	}
+
+	private void spill() throws IOException {
+		sortHits();
+
+		File runFile = File.createTempFile("tophits_run_", ".tmp", this.tmpDir);
+		this.runFiles.add(runFile);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(runFile), 64 * 1024))) {
+			for (Hit hit : this.hits) {
+				hit.write(out);
+			}
+		}
+
+		this.hits.clear();
+		this.usedMemory = 0;
+	}
+
+	private void advance(RunCursor cursor) throws IOException {
+		if (cursor.next()) {
+			this.merge.add(cursor);
+		} else {
+			cursor.close();
+		}
+	}
+
+	private static class Hit {
+
+		private final int chrNumber;
+		private final String chrName;
+		private final long position;
+		private final String rsId;
+		private final String row;
+		private double pvalue;
+		private long sequence;
+
+		private Hit(String chr, long position, String rsId, String row) {
+			int number = -1;
+			if (!chr.isEmpty() && chr.length() < 9) {
+				number = 0;
+				for (int i = 0; i < chr.length() && number >= 0; ++i) {
+					char c = chr.charAt(i);
+					number = (c >= '0' && c <= '9') ? number * 10 + (c - '0') : -1;
+				}
+			}
+
+			// The chromosomes that are not numbers go after the numeric ones
+			this.chrNumber = (number >= 0) ? number : Integer.MAX_VALUE;
+			this.chrName = (number >= 0) ? null : chr;
+			this.position = position;
+			this.rsId = rsId;
+			this.row = row;
+		}
+
+		private Hit(int chrNumber, String chrName, long position, String rsId, String row) {
+			this.chrNumber = chrNumber;
+			this.chrName = chrName;
+			this.position = position;
+			this.rsId = rsId;
+			this.row = row;
+		}
+
+		private long getSize() {
+			long size = HIT_OVERHEAD + 2L * (this.rsId.length() + this.row.length());
+			if (this.chrName != null) {
+				size += 2L * this.chrName.length();
+			}
+			return size;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeInt(this.chrNumber);
+			out.writeUTF((this.chrName != null) ? this.chrName : "");
+			out.writeLong(this.position);
+			out.writeUTF(this.rsId);
+			out.writeUTF(this.row);
+		}
+
+		private static Hit read(DataInputStream in) throws IOException {
+			int chrNumber;
+			try {
+				chrNumber = in.readInt();
+			} catch (EOFException eofe) {
+				return null;
+			}
+			String chrName = in.readUTF();
+			long position = in.readLong();
+			String rsId = in.readUTF();
+			String row = in.readUTF();
+			return new Hit(chrNumber, chrName.isEmpty() ? null : chrName, position, rsId, row);
+		}
+	}
+
+	private static class RunCursor implements Comparable<RunCursor> {
+
+		private final DataInputStream in;
+		private final int run;
+		private Hit hit;
+
+		private RunCursor(File runFile, int run) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 64 * 1024));
+			this.run = run;
+			this.hit = null;
+		}
+
+		private boolean next() throws IOException {
+			this.hit = Hit.read(this.in);
+			return this.hit != null;
+		}
+
+		private void close() throws IOException {
+			this.in.close();
+		}
+
+		@Override
+		public int compareTo(RunCursor other) {
+			return GENOMIC_ORDER.compare(this.hit, other.hit);
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+package guidance.plots;
+
+/**
+ * Quantile functions of the distributions used by the plots (the qnorm, qchisq
+ * and qbeta of R). They are precise enough to draw and to compute the genomic
+ * inflation factor.
+ */
+public class Distributions {
+
+	// Coefficients of the Acklam approximation of the normal quantile
+	private static final double[] A = { -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+			1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+	private static final double[] B = { -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+			6.680131188771972e+01, -1.328068155288572e+01 };
+	private static final double[] C = { -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+			-2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+	private static final double[] D = { 7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+			3.754408661907416e+00 };
+
+	private static final double[] LANCZOS = { 76.18009172947146, -86.50532032941677, 24.01409824083091,
+			-1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5 };
+
+	// Beta quantiles are computed exactly up to this number of trials
+	private static final int MAX_EXACT_BETA = 2_000;
+	// Beyond MAX_EXACT_BETA, the gamma approximation is used up to this shape
+	private static final int MAX_GAMMA_SHAPE = 100;
+
+	private static final int BISECTION_STEPS = 100;
+
+	private Distributions() {
+		// Static methods only
+	}
+
+	/**
+	 * Returns the quantile of the standard normal distribution for the lower tail
+	 * probability p
+	 *
+	 * @param p
+	 * @return
+	 */
+	public static double normalQuantile(double p) {
+		if (p <= 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		if (p >= 1) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double x;
+		if (p < 0.02425) {
+			double q = Math.sqrt(-2 * Math.log(p));
+			x = (((((C[0] * q + C[1]) * q + C[2]) * q + C[3]) * q + C[4]) * q + C[5])
+					/ ((((D[0] * q + D[1]) * q + D[2]) * q + D[3]) * q + 1);
+		} else if (p > 1 - 0.02425) {
+			return -normalQuantile(1 - p);
+		} else {
+			double q = p - 0.5;
+			double r = q * q;
+			x = (((((A[0] * r + A[1]) * r + A[2]) * r + A[3]) * r + A[4]) * r + A[5]) * q
+					/ (((((B[0] * r + B[1]) * r + B[2]) * r + B[3]) * r + B[4]) * r + 1);
+		}
+
+		// One step of Halley refinement
+		double e = 0.5 * erfc(-x / Math.sqrt(2)) - p;
+		double u = e * Math.sqrt(2 * Math.PI) * Math.exp(x * x / 2);
+		return x - u / (1 + x * u / 2);
+	}
+
+	/**
+	 * Returns the quantile of the chi-squared distribution with 1 degree of
+	 * freedom for the upper tail probability p (qchisq(p, 1, lower.tail = FALSE))
+	 *
+	 * @param p
+	 * @return
+	 */
+	public static double chiSquaredQuantileUpper(double p) {
+		double z = normalQuantile(p / 2);
+		return z * z;
+	}
+
+	/**
+	 * Returns the quantile of the Beta(a, b) distribution with integer shapes for
+	 * the lower tail probability p. This is the distribution of the a-th order
+	 * statistic of a + b - 1 uniform values
+	 *
+	 * @param p
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static double betaQuantile(double p, long a, long b) {
+		long n = a + b - 1;
+		if (n <= MAX_EXACT_BETA) {
+			return bisection(p, a, b);
+		}
+		if (a <= MAX_GAMMA_SHAPE) {
+			// The a-th of n uniform values is close to Gamma(a) / n
+			return Math.min(1, gammaQuantile(p, a) / (n + 1));
+		}
+		if (b <= MAX_GAMMA_SHAPE) {
+			return Math.max(0, 1 - gammaQuantile(1 - p, b) / (n + 1));
+		}
+
+		// Both shapes are big: normal approximation
+		double mean = (double) a / (a + b);
+		double sd = Math.sqrt(mean * (1 - mean) / (a + b + 1));
+		return Math.min(1, Math.max(0, mean + sd * normalQuantile(p)));
+	}
+
+	/**
+	 * Returns the quantile of the Gamma(k, 1) distribution with integer shape k
+	 *
+	 * @param p
+	 * @param k
+	 * @return
+	 */
+	private static double gammaQuantile(double p, long k) {
+		double low = 0;
+		double high = k + 20 * Math.sqrt(k) + 50;
+		for (int i = 0; i < BISECTION_STEPS; ++i) {
+			double mid = (low + high) / 2;
+			if (gammaCdf(mid, k) < p) {
+				low = mid;
+			} else {
+				high = mid;
+			}
+		}
+		return (low + high) / 2;
+	}
+
+	/**
+	 * P(Gamma(k, 1) <= x) = P(Poisson(x) >= k)
+	 */
+	private static double gammaCdf(double x, long k) {
+		double term = Math.exp(-x);
+		double sum = term;
+		for (int j = 1; j < k; ++j) {
+			term *= x / j;
+			sum += term;
+		}
+		return Math.max(0, 1 - sum);
+	}
+
+	private static double bisection(double p, long a, long b) {
+		double low = 0;
+		double high = 1;
+		for (int i = 0; i < BISECTION_STEPS; ++i) {
+			double mid = (low + high) / 2;
+			if (betaCdf(mid, a, b) < p) {
+				low = mid;
+			} else {
+				high = mid;
+			}
+		}
+		return (low + high) / 2;
+	}
+
+	/**
+	 * P(Beta(a, b) <= x) = P(Binomial(a + b - 1, x) >= a)
+	 */
+	private static double betaCdf(double x, long a, long b) {
+		if (x <= 0) {
+			return 0;
+		}
+		if (x >= 1) {
+			return 1;
+		}
+		long n = a + b - 1;
+		double logX = Math.log(x);
+		double log1mX = Math.log1p(-x);
+		double logNFactorial = logGamma(n + 1);
+		double sum = 0;
+		for (long j = a; j <= n; ++j) {
+			double logTerm = logNFactorial - logGamma(j + 1) - logGamma(n - j + 1) + j * logX + (n - j) * log1mX;
+			sum += Math.exp(logTerm);
+		}
+		return Math.min(1, sum);
+	}
+
+	private static double logGamma(double x) {
+		double y = x;
+		double tmp = x + 5.5;
+		tmp -= (x + 0.5) * Math.log(tmp);
+		double ser = 1.000000000190015;
+		for (double c : LANCZOS) {
+			ser += c / ++y;
+		}
+		return -tmp + Math.log(2.5066282746310005 * ser / x);
+	}
+
+	/**
+	 * Complementary error function with fractional error below 1.2e-7
+	 */
+	private static double erfc(double x) {
+		double z = Math.abs(x);
+		double t = 1 / (1 + 0.5 * z);
+		double ans = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409191 + t * (0.09678418
+				+ t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+						+ t * (-0.82215223 + t * 0.17087277)))))))));
+		return (x >= 0) ? ans : 2 - ans;
+	}
+
+}
@@ -0,0 +1,222 @@
+package guidance.plots;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Canvas that writes a single page vector PDF. The page content is deflate
+ * compressed and the texts use the standard Helvetica font.
+ */
+public class PdfCanvas implements PlotCanvas {
+
+	private static final double POINTS_PER_INCH = 72;
+
+	// Average width of the Helvetica characters relative to the font size
+	private static final double HELVETICA_CHAR_WIDTH = 0.52;
+
+	// Control point distance of the Bezier approximation of a circle
+	private static final double KAPPA = 0.5523;
+
+	// Resolution of the plotted points: the coordinates are written with 2
+	// decimals
+	private static final double PIXEL_SIZE = 0.25;
+
+	private final String fileName;
+	private final double width;
+	private final double height;
+
+	private final ByteArrayOutputStream content;
+	private final DeflaterOutputStream contentStream;
+	private final StringBuilder sb;
+
+	/**
+	 * Creates a blank page of the given size in inches
+	 *
+	 * @param fileName
+	 * @param widthInches
+	 * @param heightInches
+	 */
+	public PdfCanvas(String fileName, double widthInches, double heightInches) {
+		this.fileName = fileName;
+		this.width = widthInches * POINTS_PER_INCH;
+		this.height = heightInches * POINTS_PER_INCH;
+
+		this.content = new ByteArrayOutputStream();
+		this.contentStream = new DeflaterOutputStream(this.content);
+		this.sb = new StringBuilder();
+	}
+
+	@Override
+	public double getWidth() {
+		return this.width;
+	}
+
+	@Override
+	public double getHeight() {
+		return this.height;
+	}
+
+	@Override
+	public double getPixelSize() {
+		return PIXEL_SIZE;
+	}
+
+	@Override
+	public void setColor(Color color) {
+		String rgb = number(color.getRed() / 255.0) + " " + number(color.getGreen() / 255.0) + " "
+				+ number(color.getBlue() / 255.0);
+		append(rgb + " rg " + rgb + " RG\n");
+	}
+
+	@Override
+	public void setLineWidth(double width, boolean dashed) {
+		append(number(width) + " w " + (dashed ? "[" + number(4 * width) + "] 0 d" : "[] 0 d") + "\n");
+	}
+
+	@Override
+	public void drawLine(double x1, double y1, double x2, double y2) {
+		append(point(x1, y1) + " m " + point(x2, y2) + " l S\n");
+	}
+
+	@Override
+	public void drawPolyline(double[] xs, double[] ys, int n) {
+		appendPath(xs, ys, n);
+		append("S\n");
+	}
+
+	@Override
+	public void fillPolygon(double[] xs, double[] ys, int n) {
+		appendPath(xs, ys, n);
+		append("h f\n");
+	}
+
+	@Override
+	public void fillRect(double x, double y, double width, double height) {
+		append(number(x) + " " + number(this.height - y - height) + " " + number(width) + " " + number(height)
+				+ " re f\n");
+	}
+
+	@Override
+	public void fillCircle(double x, double y, double radius) {
+		double k = KAPPA * radius;
+		this.sb.setLength(0);
+		this.sb.append(point(x + radius, y)).append(" m ");
+		this.sb.append(point(x + radius, y - k)).append(' ').append(point(x + k, y - radius)).append(' ')
+				.append(point(x, y - radius)).append(" c ");
+		this.sb.append(point(x - k, y - radius)).append(' ').append(point(x - radius, y - k)).append(' ')
+				.append(point(x - radius, y)).append(" c ");
+		this.sb.append(point(x - radius, y + k)).append(' ').append(point(x - k, y + radius)).append(' ')
+				.append(point(x, y + radius)).append(" c ");
+		this.sb.append(point(x + k, y + radius)).append(' ').append(point(x + radius, y + k)).append(' ')
+				.append(point(x + radius, y)).append(" c f\n");
+		append(this.sb.toString());
+	}
+
+	@Override
+	public void fillDiamond(double x, double y, double radius) {
+		append(point(x, y - radius) + " m " + point(x + radius, y) + " l " + point(x, y + radius) + " l "
+				+ point(x - radius, y) + " l h f\n");
+	}
+
+	@Override
+	public void drawText(String text, double x, double y, double size, int align, boolean vertical) {
+		double textWidth = HELVETICA_CHAR_WIDTH * size * text.length();
+		double shift = (align == ALIGN_CENTER) ? textWidth / 2 : (align == ALIGN_RIGHT) ? textWidth : 0;
+
+		String escaped = text.replace("\\", "\\\\").replace("(", "\\(").replace(")", "\\)");
+		String matrix;
+		if (vertical) {
+			matrix = "0 1 -1 0 " + number(x) + " " + number(this.height - y + shift);
+		} else {
+			matrix = "1 0 0 1 " + number(x - shift) + " " + number(this.height - y);
+		}
+		append("BT /F1 " + number(size) + " Tf " + matrix + " Tm (" + escaped + ") Tj ET\n");
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.contentStream.close();
+		byte[] pageContent = this.content.toByteArray();
+
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(this.fileName))) {
+			List<Long> offsets = new ArrayList<>();
+			long[] position = new long[] { 0 };
+
+			write(out, position, "%PDF-1.4\n");
+			offsets.add(position[0]);
+			write(out, position, "1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+			offsets.add(position[0]);
+			write(out, position, "2 0 obj\n<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n");
+			offsets.add(position[0]);
+			write(out, position,
+					"3 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + number(this.width) + " "
+							+ number(this.height) + "] /Resources << /Font << /F1 4 0 R >> >> /Contents 5 0 R >>\n"
+							+ "endobj\n");
+			offsets.add(position[0]);
+			write(out, position,
+					"4 0 obj\n<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica /Encoding /WinAnsiEncoding >>\n"
+							+ "endobj\n");
+			offsets.add(position[0]);
+			write(out, position,
+					"5 0 obj\n<< /Length " + pageContent.length + " /Filter /FlateDecode >>\nstream\n");
+			out.write(pageContent);
+			position[0] += pageContent.length;
+			write(out, position, "\nendstream\nendobj\n");
+
+			long xref = position[0];
+			StringBuilder table = new StringBuilder();
+			table.append("xref\n0 ").append(offsets.size() + 1).append("\n0000000000 65535 f \n");
+			for (long offset : offsets) {
+				table.append(String.format(Locale.US, "%010d 00000 n \n", offset));
+			}
+			table.append("trailer\n<< /Size ").append(offsets.size() + 1).append(" /Root 1 0 R >>\n");
+			table.append("startxref\n").append(xref).append("\n%%EOF\n");
+			write(out, position, table.toString());
+		}
+	}
+
+	private void appendPath(double[] xs, double[] ys, int n) {
+		this.sb.setLength(0);
+		for (int i = 0; i < n; ++i) {
+			this.sb.append(point(xs[i], ys[i])).append((i == 0) ? " m " : " l ");
+		}
+		append(this.sb.toString());
+	}
+
+	private void append(String operators) {
+		try {
+			this.contentStream.write(operators.getBytes(StandardCharsets.ISO_8859_1));
+		} catch (IOException ioe) {
+			// Writes to memory
+			throw new IllegalStateException(ioe);
+		}
+	}
+
+	private String point(double x, double y) {
+		return number(x) + " " + number(this.height - y);
+	}
+
+	private static String number(double value) {
+		long hundredths = Math.round(value * 100);
+		if (hundredths % 100 == 0) {
+			return Long.toString(hundredths / 100);
+		}
+		return String.format(Locale.US, "%.2f", value);
+	}
+
+	private static void write(OutputStream out, long[] position, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+		out.write(bytes);
+		position[0] += bytes.length;
+	}
+
+}
@@ -0,0 +1,78 @@
+package guidance.plots;
+
+import java.awt.Color;
+import java.io.IOException;
+
+/**
+ * Drawing surface of the plots. Coordinates are in points (1/72 inch) from the
+ * top left corner of the page.
+ */
+public interface PlotCanvas extends AutoCloseable {
+
+	/**
+	 * Text alignments
+	 */
+	public static final int ALIGN_LEFT = 0;
+	public static final int ALIGN_CENTER = 1;
+	public static final int ALIGN_RIGHT = 2;
+
+	/**
+	 * Returns the width of the page in points
+	 *
+	 * @return
+	 */
+	public double getWidth();
+
+	/**
+	 * Returns the height of the page in points
+	 *
+	 * @return
+	 */
+	public double getHeight();
+
+	/**
+	 * Returns the size of a device pixel in points. Points closer than this are
+	 * drawn on the same pixel
+	 *
+	 * @return
+	 */
+	public double getPixelSize();
+
+	public void setColor(Color color);
+
+	public void setLineWidth(double width, boolean dashed);
+
+	public void drawLine(double x1, double y1, double x2, double y2);
+
+	public void drawPolyline(double[] xs, double[] ys, int n);
+
+	public void fillPolygon(double[] xs, double[] ys, int n);
+
+	public void fillRect(double x, double y, double width, double height);
+
+	public void fillCircle(double x, double y, double radius);
+
+	public void fillDiamond(double x, double y, double radius);
+
+	/**
+	 * Draws a text with its baseline at y, rotated 90 degrees counterclockwise if
+	 * vertical
+	 *
+	 * @param text
+	 * @param x
+	 * @param y
+	 * @param size
+	 * @param align
+	 * @param vertical
+	 */
+	public void drawText(String text, double x, double y, double size, int align, boolean vertical);
+
+	/**
+	 * Writes the plot to its file
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException;
+
+}
@@ -0,0 +1,354 @@
+package guidance.plots;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Summary of a stream of p-values that is enough to draw a QQ plot and to
+ * compute the genomic inflation factor (lambda) without keeping the values:
+ * <ul>
+ * <li>A histogram of the p-values with LINEAR_BINS bins between 0 and 1, for
+ * the median and the lambda.</li>
+ * <li>A histogram of the -log10(p) values with bins of LOG_BIN_WIDTH, up to the
+ * significance threshold.</li>
+ * <li>The exact -log10(p) of the p-values under the threshold.</li>
+ * </ul>
+ * Its size does not depend on the number of p-values, only on the threshold and
+ * the number of significant ones. It can be written and read back (only the non
+ * empty bins are written) and merged, so the distributions of the chunks can
+ * be combined into the one of a chromosome or a genome.
+ */
+public class PvalueDistribution {
+
+	/**
+	 * Number of bins of the linear histogram
+	 */
+	public static final int LINEAR_BINS = 100_000;
+
+	/**
+	 * Width of the bins of the -log10(p) histogram
+	 */
+	public static final double LOG_BIN_WIDTH = 0.001;
+
+	// Median of the chi-squared distribution with 1 degree of freedom
+	private static final double CHI_SQUARED_MEDIAN = 0.456;
+
+	private final double threshold;
+	private final double thresholdLog;
+
+	private long count;
+	private final long[] linearBins;
+	private final long[] logBins;
+	private double[] significant;
+	private int numSignificant;
+
+	private double minLog;
+	private double maxLog;
+	private double sumLog;
+	private double sumSquaresLog;
+
+	/**
+	 * Creates an empty distribution that keeps the p-values under threshold
+	 *
+	 * @param threshold
+	 */
+	public PvalueDistribution(double threshold) {
+		this.threshold = threshold;
+		this.thresholdLog = -Math.log10(threshold);
+
+		this.count = 0;
+		this.linearBins = new long[LINEAR_BINS];
+		this.logBins = new long[(int) Math.ceil(Math.max(0, this.thresholdLog) / LOG_BIN_WIDTH) + 1];
+		this.significant = new double[1024];
+		this.numSignificant = 0;
+
+		this.minLog = Double.POSITIVE_INFINITY;
+		this.maxLog = Double.NEGATIVE_INFINITY;
+		this.sumLog = 0;
+		this.sumSquaresLog = 0;
+	}
+
+	/**
+	 * Adds a p-value. NaN values are ignored
+	 *
+	 * @param pvalue
+	 */
+	public void add(double pvalue) {
+		if (Double.isNaN(pvalue)) {
+			return;
+		}
+		this.count++;
+
+		int linearBin = (int) (pvalue * LINEAR_BINS);
+		this.linearBins[Math.max(0, Math.min(LINEAR_BINS - 1, linearBin))]++;
+
+		double log = -Math.log10(pvalue);
+		this.minLog = Math.min(this.minLog, log);
+		this.maxLog = Math.max(this.maxLog, log);
+		this.sumLog += log;
+		this.sumSquaresLog += log * log;
+
+		if (pvalue <= this.threshold) {
+			if (this.numSignificant == this.significant.length) {
+				this.significant = Arrays.copyOf(this.significant, 2 * this.significant.length);
+			}
+			this.significant[this.numSignificant++] = log;
+		} else {
+			this.logBins[getLogBin(log)]++;
+		}
+	}
+
+	/**
+	 * Adds the p-values of another distribution with the same threshold
+	 *
+	 * @param other
+	 */
+	public void merge(PvalueDistribution other) {
+		if (other.threshold != this.threshold) {
+			throw new IllegalArgumentException("Cannot merge distributions with different thresholds");
+		}
+		this.count += other.count;
+		for (int i = 0; i < LINEAR_BINS; ++i) {
+			this.linearBins[i] += other.linearBins[i];
+		}
+		for (int i = 0; i < this.logBins.length; ++i) {
+			this.logBins[i] += other.logBins[i];
+		}
+		int otherSignificant = other.numSignificant;
+		for (int i = 0; i < otherSignificant; ++i) {
+			if (this.numSignificant == this.significant.length) {
+				this.significant = Arrays.copyOf(this.significant, 2 * this.significant.length);
+			}
+			this.significant[this.numSignificant++] = other.significant[i];
+		}
+		this.minLog = Math.min(this.minLog, other.minLog);
+		this.maxLog = Math.max(this.maxLog, other.maxLog);
+		this.sumLog += other.sumLog;
+		this.sumSquaresLog += other.sumSquaresLog;
+	}
+
+	/**
+	 * Returns the threshold of the significant p-values
+	 *
+	 * @return
+	 */
+	public double getThreshold() {
+		return this.threshold;
+	}
+
+	/**
+	 * Returns the number of p-values
+	 *
+	 * @return
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Returns the quantile q of the p-values, interpolated inside its bin
+	 *
+	 * @param q
+	 * @return
+	 */
+	public double getQuantile(double q) {
+		if (this.count == 0) {
+			return Double.NaN;
+		}
+
+		// Same position as the R quantile and median: 1 + (n - 1) * q
+		double rank = 1 + (this.count - 1) * q;
+		long cumulative = 0;
+		for (int i = 0; i < LINEAR_BINS; ++i) {
+			long binCount = this.linearBins[i];
+			if (binCount > 0 && cumulative + binCount >= rank) {
+				double fraction = (rank - cumulative - 0.5) / binCount;
+				return (i + Math.max(0, Math.min(1, fraction))) / LINEAR_BINS;
+			}
+			cumulative += binCount;
+		}
+		return 1;
+	}
+
+	/**
+	 * Returns the genomic inflation factor: the median chi-squared statistic of
+	 * the p-values divided by the expected one
+	 *
+	 * @return
+	 */
+	public double getLambda() {
+		return Distributions.chiSquaredQuantileUpper(getQuantile(0.5)) / CHI_SQUARED_MEDIAN;
+	}
+
+	/**
+	 * Returns the significant -log10(p) values, in decreasing order
+	 *
+	 * @return
+	 */
+	public double[] getSignificantLogs() {
+		double[] logs = Arrays.copyOf(this.significant, this.numSignificant);
+		Arrays.sort(logs);
+		for (int i = 0, j = logs.length - 1; i < j; ++i, --j) {
+			double tmp = logs[i];
+			logs[i] = logs[j];
+			logs[j] = tmp;
+		}
+		return logs;
+	}
+
+	/**
+	 * Returns the number of bins of the -log10(p) histogram
+	 *
+	 * @return
+	 */
+	public int getNumLogBins() {
+		return this.logBins.length;
+	}
+
+	/**
+	 * Returns the number of non significant p-values in the -log10(p) bin i, that
+	 * starts at i * LOG_BIN_WIDTH
+	 *
+	 * @param i
+	 * @return
+	 */
+	public long getLogBinCount(int i) {
+		return this.logBins[i];
+	}
+
+	/**
+	 * Returns the minimum -log10(p)
+	 *
+	 * @return
+	 */
+	public double getMinLog() {
+		return this.minLog;
+	}
+
+	/**
+	 * Returns the maximum -log10(p)
+	 *
+	 * @return
+	 */
+	public double getMaxLog() {
+		return this.maxLog;
+	}
+
+	/**
+	 * Returns the standard deviation of the -log10(p) values
+	 *
+	 * @return
+	 */
+	public double getSdLog() {
+		if (this.count < 2) {
+			return 0;
+		}
+		double mean = this.sumLog / this.count;
+		double variance = (this.sumSquaresLog - this.count * mean * mean) / (this.count - 1);
+		return Math.sqrt(Math.max(0, variance));
+	}
+
+	/**
+	 * Writes the distribution. Only the non empty bins are written, as the
+	 * distance to the previous one and the count
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeDouble(this.threshold);
+		out.writeLong(this.count);
+		writeBins(out, this.linearBins);
+		writeBins(out, this.logBins);
+		out.writeInt(this.numSignificant);
+		for (int i = 0; i < this.numSignificant; ++i) {
+			out.writeDouble(this.significant[i]);
+		}
+		out.writeDouble(this.minLog);
+		out.writeDouble(this.maxLog);
+		out.writeDouble(this.sumLog);
+		out.writeDouble(this.sumSquaresLog);
+	}
+
+	/**
+	 * Reads a distribution written by write
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static PvalueDistribution read(DataInputStream in) throws IOException {
+		PvalueDistribution distribution = new PvalueDistribution(in.readDouble());
+		distribution.count = in.readLong();
+		readBins(in, distribution.linearBins);
+		readBins(in, distribution.logBins);
+		distribution.numSignificant = in.readInt();
+		distribution.significant = new double[Math.max(1024, distribution.numSignificant)];
+		for (int i = 0; i < distribution.numSignificant; ++i) {
+			distribution.significant[i] = in.readDouble();
+		}
+		distribution.minLog = in.readDouble();
+		distribution.maxLog = in.readDouble();
+		distribution.sumLog = in.readDouble();
+		distribution.sumSquaresLog = in.readDouble();
+		return distribution;
+	}
+
+	private static void writeBins(DataOutputStream out, long[] bins) throws IOException {
+		int nonEmpty = 0;
+		for (long bin : bins) {
+			if (bin != 0) {
+				nonEmpty++;
+			}
+		}
+		out.writeInt(nonEmpty);
+		int previous = -1;
+		for (int i = 0; i < bins.length; ++i) {
+			if (bins[i] != 0) {
+				writeVarLong(out, i - previous);
+				writeVarLong(out, bins[i]);
+				previous = i;
+			}
+		}
+	}
+
+	private static void readBins(DataInputStream in, long[] bins) throws IOException {
+		int nonEmpty = in.readInt();
+		int index = -1;
+		for (int i = 0; i < nonEmpty; ++i) {
+			index += (int) readVarLong(in);
+			if (index >= bins.length) {
+				throw new IOException("Wrong bin index in the p-value distribution: " + index);
+			}
+			bins[index] = readVarLong(in);
+		}
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Wrong variable length number in the p-value distribution");
+	}
+
+	private int getLogBin(double log) {
+		int bin = (int) (log / LOG_BIN_WIDTH);
+		return Math.max(0, Math.min(this.logBins.length - 1, bin));
+	}
+
+}
@@ -0,0 +1,245 @@
+package guidance.plots;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * P-value distributions of the models of a filteredByAll file, written next to
+ * it (the file name plus FILE_SUFFIX). filterByAll writes one per chunk, and
+ * the merges of the chunks and the chromosomes merge them, so the genomic
+ * inflation factor (lambda) and the QQ plot of each model are known without
+ * reading the filtered files again.
+ *
+ * The sketch file is gzipped and has, after the magic number, the threshold of
+ * the significant p-values and the number of rows, the name, number of
+ * p-values, lambda and distribution of each model. The files without threshold
+ * (the former magic number) take the one of their first distribution.
+ */
+public class PvalueSketch {
+
+	/**
+	 * Suffix of the sketch file of a filteredByAll file
+	 */
+	public static final String FILE_SUFFIX = ".sketch";
+
+	/**
+	 * The p-values under this one are kept exactly in the distributions
+	 */
+	public static final double SIGNIFICANT_PVALUE = 5e-8;
+
+	/**
+	 * Models whose p-values are added, when the file has their column
+	 */
+	public static final String[] MODELS = new String[] { "add", "dom", "rec", "gen", "het" };
+
+	private static final int MAGIC = 0x47505354;
+	private static final int MAGIC_WITHOUT_THRESHOLD = 0x47505348;
+
+	private final double significantPvalue;
+	private long rows;
+	private final LinkedHashMap<String, PvalueDistribution> distributions;
+
+	/**
+	 * Creates an empty sketch
+	 */
+	public PvalueSketch() {
+		this(SIGNIFICANT_PVALUE);
+	}
+
+	/**
+	 * Creates an empty sketch that keeps exactly the p-values under the given one,
+	 * e.g. the threshold of the QQ plots
+	 *
+	 * @param significantPvalue
+	 */
+	public PvalueSketch(double significantPvalue) {
+		this.significantPvalue = significantPvalue;
+		this.rows = 0;
+		this.distributions = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Returns the sketch file of the given file
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static String getSketchFile(String file) {
+		return file + FILE_SUFFIX;
+	}
+
+	/**
+	 * Returns the p-value column of a model
+	 *
+	 * @param model
+	 * @return
+	 */
+	public static String getPvalueColumn(String model) {
+		return "frequentist_" + model + "_pvalue";
+	}
+
+	/**
+	 * Counts a row of the filtered file
+	 */
+	public void addRow() {
+		this.rows++;
+	}
+
+	/**
+	 * Adds a p-value of a model. The values that are not in (0, 1] are ignored, as
+	 * in the QQ plots
+	 *
+	 * @param model
+	 * @param pvalue
+	 */
+	public void add(String model, double pvalue) {
+		if (!(pvalue > 0 && pvalue <= 1)) {
+			return;
+		}
+		getDistribution(model, true).add(pvalue);
+	}
+
+	/**
+	 * Adds the rows and p-values of another sketch
+	 *
+	 * @param other
+	 */
+	public void merge(PvalueSketch other) {
+		this.rows += other.rows;
+		for (Map.Entry<String, PvalueDistribution> entry : other.distributions.entrySet()) {
+			getDistribution(entry.getKey(), true).merge(entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns the threshold under which the p-values are kept exactly
+	 *
+	 * @return
+	 */
+	public double getSignificantPvalue() {
+		return this.significantPvalue;
+	}
+
+	/**
+	 * Returns the number of rows
+	 *
+	 * @return
+	 */
+	public long getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * Returns the models with p-values, in order of appearance
+	 *
+	 * @return
+	 */
+	public List<String> getModels() {
+		return new ArrayList<>(this.distributions.keySet());
+	}
+
+	/**
+	 * Returns the distribution of the p-values of a model, or null if there is
+	 * none
+	 *
+	 * @param model
+	 * @return
+	 */
+	public PvalueDistribution getDistribution(String model) {
+		return getDistribution(model, false);
+	}
+
+	/**
+	 * Returns the genomic inflation factor of a model, or NaN if it has no
+	 * p-values
+	 *
+	 * @param model
+	 * @return
+	 */
+	public double getLambda(String model) {
+		PvalueDistribution distribution = this.distributions.get(model);
+		return (distribution == null) ? Double.NaN : distribution.getLambda();
+	}
+
+	/**
+	 * Writes the sketch to a file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(String file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+			out.writeInt(MAGIC);
+			out.writeDouble(this.significantPvalue);
+			out.writeLong(this.rows);
+			out.writeInt(this.distributions.size());
+			for (Map.Entry<String, PvalueDistribution> entry : this.distributions.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().getCount());
+				out.writeDouble(entry.getValue().getLambda());
+				entry.getValue().write(out);
+			}
+		}
+	}
+
+	/**
+	 * Reads a sketch file. The sketch keeps the threshold it was written with, so
+	 * the p-values added to it or merged are kept as those of the file
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static PvalueSketch read(String file) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			int magic = in.readInt();
+			if (magic != MAGIC && magic != MAGIC_WITHOUT_THRESHOLD) {
+				throw new IOException("The file " + file + " is not a p-value sketch");
+			}
+			double significantPvalue = (magic == MAGIC) ? in.readDouble() : Double.NaN;
+			long rows = in.readLong();
+			int numModels = in.readInt();
+			LinkedHashMap<String, PvalueDistribution> distributions = new LinkedHashMap<>();
+			for (int i = 0; i < numModels; ++i) {
+				String model = in.readUTF();
+				// Count and lambda are also in the distribution
+				in.readLong();
+				in.readDouble();
+				PvalueDistribution distribution = PvalueDistribution.read(in);
+				if (Double.isNaN(significantPvalue)) {
+					significantPvalue = distribution.getThreshold();
+				}
+				distributions.put(model, distribution);
+			}
+
+			PvalueSketch sketch = new PvalueSketch(
+					Double.isNaN(significantPvalue) ? SIGNIFICANT_PVALUE : significantPvalue);
+			sketch.rows = rows;
+			sketch.distributions.putAll(distributions);
+			return sketch;
+		}
+	}
+
+	private PvalueDistribution getDistribution(String model, boolean create) {
+		PvalueDistribution distribution = this.distributions.get(model);
+		if (distribution == null && create) {
+			distribution = new PvalueDistribution(this.significantPvalue);
+			this.distributions.put(model, distribution);
+		}
+		return distribution;
+	}
+
+}
@@ -0,0 +1,731 @@
+package guidance.plots;
+
+import java.awt.Color;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+import guidance.files.FileUtils;
+import guidance.utils.LineTokenizer;
+
+/**
+ * Draws the QQ and Manhattan plots of a p-value column of a condensed file. This
+ * is the Java version of qqplot_manhattan_all_models.R.
+ *
+ * The file is read once. The p-values over the threshold are only counted in
+ * bins: the QQ plot uses a PvalueDistribution and the Manhattan plot a grid of
+ * 2^X_BIN_SHIFT bases by Y_BIN_WIDTH per chromosome. The points under the
+ * threshold are all kept and drawn. Then, the time and memory needed to draw
+ * the plots do not depend on the number of variants. When the distribution of
+ * the QQ plot is already known, from the PvalueSketch of the file, the file is
+ * only read for the Manhattan plot.
+ */
+public class QQManhattanPlotter {
+
+	/**
+	 * Size of the plots in inches and resolution of the raster ones
+	 */
+	public static final double QQ_SIZE = 7;
+	public static final int QQ_DPI = 300;
+	public static final double MANHATTAN_WIDTH = 24;
+	public static final double MANHATTAN_HEIGHT = 14.5;
+	public static final int MANHATTAN_DPI = 200;
+
+	// Only the variants with a p-value up to this one are in the Manhattan plot
+	private static final double MANHATTAN_MAX_PVALUE = 0.05;
+	private static final double MANHATTAN_MIN_YMAX = 8;
+
+	private static final int MAX_CHROMOSOME = 25;
+	private static final int CHR_23_FEMALES = 23;
+	private static final int CHR_23_MALES = 24;
+	private static final int CHR_23_ALL = 25;
+
+	// Manhattan bins of non significant points: 2^17 bases by 0.01
+	private static final int X_BIN_SHIFT = 17;
+	private static final double Y_BIN_WIDTH = 0.01;
+
+	private static final int BAND_POINTS = 200;
+	private static final int DENSITY_POINTS = 512;
+	private static final double BAND_ALPHA = 0.05;
+
+	// Points and text sizes
+	private static final double FONT_SIZE = 12;
+	private static final double LINE_HEIGHT = 14.4;
+	private static final double SYMBOL_SIZE = 1.8;
+	private static final double MAX_QQ_SYMBOL_RADIUS = 3;
+
+	private static final Color IVORY3 = new Color(205, 205, 193);
+	private static final Color DEEPPINK = new Color(255, 20, 147);
+	private static final Color GREY80 = new Color(204, 204, 204);
+	private static final Color CADETBLUE4 = new Color(83, 134, 139);
+	private static final Color LIGHTSLATEGREY = new Color(119, 136, 153);
+	private static final Color LIGHTSTEELBLUE4 = new Color(110, 123, 139);
+	private static final Color LIGHTCORAL = new Color(240, 128, 128);
+	private static final Color INDIANRED2 = new Color(238, 99, 99);
+	private static final Color[] CHROMOSOME_COLORS = new Color[] { LIGHTSTEELBLUE4, IVORY3 };
+
+	private final String pvalueColumn;
+	private final double threshold;
+	private final double thresholdLog;
+
+	private final PvalueDistribution distribution;
+	private final boolean knownDistribution;
+	private final ChromosomeGrid[] chromosomes;
+	private final List<ManhattanPoint> significant;
+	private double manhattanMaxLog;
+
+	/**
+	 * Creates a plotter of the given p-value column and significance threshold
+	 *
+	 * @param pvalueColumn
+	 * @param threshold
+	 */
+	public QQManhattanPlotter(String pvalueColumn, double threshold) {
+		this.pvalueColumn = pvalueColumn;
+		this.threshold = threshold;
+		this.thresholdLog = -Math.log10(threshold);
+
+		this.distribution = new PvalueDistribution(threshold);
+		this.knownDistribution = false;
+		this.chromosomes = new ChromosomeGrid[MAX_CHROMOSOME + 1];
+		this.significant = new ArrayList<>();
+		this.manhattanMaxLog = 0;
+	}
+
+	/**
+	 * Creates a plotter whose QQ plot is the one of an already known distribution,
+	 * e.g. the one of the PvalueSketch of the condensed file. Then read only takes
+	 * the points of the Manhattan plot
+	 *
+	 * @param pvalueColumn
+	 * @param threshold
+	 * @param distribution
+	 */
+	public QQManhattanPlotter(String pvalueColumn, double threshold, PvalueDistribution distribution) {
+		this.pvalueColumn = pvalueColumn;
+		this.threshold = threshold;
+		this.thresholdLog = -Math.log10(threshold);
+
+		this.distribution = distribution;
+		this.knownDistribution = true;
+		this.chromosomes = new ChromosomeGrid[MAX_CHROMOSOME + 1];
+		this.significant = new ArrayList<>();
+		this.manhattanMaxLog = 0;
+	}
+
+	/**
+	 * Reads the p-values of a condensed file (gzipped if its name ends with .gz)
+	 *
+	 * @param condensedFile
+	 * @throws IOException
+	 */
+	public void read(String condensedFile) throws IOException {
+		InputStream is;
+		if (condensedFile.endsWith(".gz")) {
+			is = FileUtils.openGzipInputStream(condensedFile);
+		} else {
+			is = new FileInputStream(condensedFile);
+		}
+		try (Reader reader = new InputStreamReader(is)) {
+			LineTokenizer tokenizer = new LineTokenizer(reader, '\t');
+			if (!tokenizer.next()) {
+				throw new IOException("Empty condensed file: " + condensedFile);
+			}
+			int chrIdx = -1;
+			int positionIdx = -1;
+			int pvalueIdx = -1;
+			for (int i = 0; i < tokenizer.size(); ++i) {
+				if (tokenizer.equals(i, "chr")) {
+					chrIdx = i;
+				} else if (tokenizer.equals(i, "position")) {
+					positionIdx = i;
+				} else if (tokenizer.equals(i, this.pvalueColumn)) {
+					pvalueIdx = i;
+				}
+			}
+			if (chrIdx < 0 || positionIdx < 0 || pvalueIdx < 0) {
+				throw new IOException("The condensed file " + condensedFile + " has no chr, position or "
+						+ this.pvalueColumn + " column");
+			}
+
+			while (tokenizer.next()) {
+				if (pvalueIdx >= tokenizer.size() || tokenizer.length(pvalueIdx) == 0
+						|| tokenizer.equals(pvalueIdx, "NA")) {
+					continue;
+				}
+				double pvalue;
+				try {
+					pvalue = tokenizer.getDouble(pvalueIdx);
+				} catch (NumberFormatException nfe) {
+					continue;
+				}
+				if (pvalue == 0 || Double.isNaN(pvalue)) {
+					continue;
+				}
+				if (!this.knownDistribution) {
+					this.distribution.add(pvalue);
+				}
+
+				if (pvalue > 0 && pvalue <= MANHATTAN_MAX_PVALUE) {
+					int chr = getChromosomeCode(tokenizer.get(chrIdx));
+					if (chr > 0) {
+						addManhattanPoint(chr, Long.parseLong(tokenizer.get(positionIdx)), pvalue);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of p-values of the QQ plot
+	 *
+	 * @return
+	 */
+	public long getNumberOfPvalues() {
+		return this.distribution.getCount();
+	}
+
+	/**
+	 * Returns the genomic inflation factor of the p-values of the QQ plot
+	 *
+	 * @return
+	 */
+	public double getLambda() {
+		return this.distribution.getLambda();
+	}
+
+	/**
+	 * Returns the top of the y axis (-log10 of the p-value) of the Manhattan plot.
+	 * The bottom is 0
+	 *
+	 * @return
+	 */
+	public double getManhattanYMax() {
+		return Math.max(MANHATTAN_MIN_YMAX, Math.ceil(this.manhattanMaxLog));
+	}
+
+	/**
+	 * Draws the QQ plot to a PDF, TIFF or PNG file, depending on its extension
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void writeQQPlot(String fileName) throws IOException {
+		try (PlotCanvas canvas = createCanvas(fileName, QQ_SIZE, QQ_SIZE, QQ_DPI)) {
+			drawQQPlot(canvas);
+		}
+	}
+
+	/**
+	 * Draws the Manhattan plot to a PDF, TIFF or PNG file, depending on its
+	 * extension
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void writeManhattanPlot(String fileName) throws IOException {
+		try (PlotCanvas canvas = createCanvas(fileName, MANHATTAN_WIDTH, MANHATTAN_HEIGHT, MANHATTAN_DPI)) {
+			drawManhattanPlot(canvas);
+		}
+	}
+
+	/**
+	 * Creates a PDF canvas for .pdf files and a raster one for the rest
+	 *
+	 * @param fileName
+	 * @param widthInches
+	 * @param heightInches
+	 * @param dpi
+	 * @return
+	 */
+	public static PlotCanvas createCanvas(String fileName, double widthInches, double heightInches, int dpi) {
+		if (fileName.toLowerCase().endsWith(".pdf")) {
+			return new PdfCanvas(fileName, widthInches, heightInches);
+		}
+		return new RasterCanvas(fileName, widthInches, heightInches, dpi);
+	}
+
+	/**
+	 * Maps the chr of the condensed file to the Manhattan plot ones: 1 to 22, 23
+	 * for 23_females, 24 for 23_males and 25 for 23. Returns -1 for the rest
+	 */
+	private static int getChromosomeCode(String chr) {
+		switch (chr) {
+			case "23":
+				return CHR_23_ALL;
+			case "23_females":
+				return CHR_23_FEMALES;
+			case "23_males":
+				return CHR_23_MALES;
+			default:
+				try {
+					int code = Integer.parseInt(chr);
+					return (code >= 1 && code <= MAX_CHROMOSOME) ? code : -1;
+				} catch (NumberFormatException nfe) {
+					return -1;
+				}
+		}
+	}
+
+	private void addManhattanPoint(int chr, long position, double pvalue) {
+		double log = -Math.log10(pvalue);
+		this.manhattanMaxLog = Math.max(this.manhattanMaxLog, log);
+
+		ChromosomeGrid grid = this.chromosomes[chr];
+		if (grid == null) {
+			grid = new ChromosomeGrid(this.thresholdLog);
+			this.chromosomes[chr] = grid;
+		}
+		grid.minPosition = Math.min(grid.minPosition, position);
+		grid.maxPosition = Math.max(grid.maxPosition, position);
+
+		if (pvalue <= this.threshold) {
+			this.significant.add(new ManhattanPoint(chr, position, log));
+		} else {
+			grid.add(position, log);
+		}
+	}
+
+	private void drawQQPlot(PlotCanvas canvas) {
+		long n = this.distribution.getCount();
+		double lambda = (n > 0) ? getLambda() : Double.NaN;
+
+		double maxExpected = Math.log10(n + 1.0);
+		double xMax = maxExpected + 1;
+		double yMax = ((n > 0) ? this.distribution.getMaxLog() : 0) + 6;
+		PlotArea area = new PlotArea(canvas, 4.1 * LINE_HEIGHT, 4.1 * LINE_HEIGHT, 4.1 * LINE_HEIGHT,
+				5.1 * LINE_HEIGHT, 0, xMax, 0, yMax);
+
+		if (n > 0) {
+			drawConfidenceBand(area, n);
+			drawDensity(area, yMax);
+
+			canvas.setColor(LIGHTSLATEGREY);
+			canvas.setLineWidth(2, true);
+			canvas.drawLine(area.x(0), area.y(0), area.x(maxExpected), area.y(maxExpected));
+
+			// Significant points, with rank 1 to S
+			double[] logs = this.distribution.getSignificantLogs();
+			canvas.setColor(DEEPPINK);
+			for (int i = 0; i < logs.length; ++i) {
+				double expected = -Math.log10((i + 1) / (n + 1.0));
+				canvas.fillDiamond(area.x(expected), area.y(logs[i]), getQQSymbolRadius(logs[i]));
+			}
+
+			// The rest, bin by bin, from the lowest p-values
+			canvas.setColor(IVORY3);
+			double step = canvas.getPixelSize();
+			long rank = logs.length + 1;
+			for (int bin = this.distribution.getNumLogBins() - 1; bin >= 0; --bin) {
+				long count = this.distribution.getLogBinCount(bin);
+				if (count == 0) {
+					continue;
+				}
+				double log = (bin + 0.5) * PvalueDistribution.LOG_BIN_WIDTH;
+				double radius = getQQSymbolRadius(log);
+				double xHigh = area.x(-Math.log10(rank / (n + 1.0)));
+				double xLow = area.x(-Math.log10((rank + count - 1) / (n + 1.0)));
+				double y = area.y(log);
+				double spacing = Math.max(step, radius);
+				for (double x = xHigh; x >= xLow - spacing / 2; x -= spacing) {
+					canvas.fillDiamond(Math.max(x, xLow), y, radius);
+				}
+				rank += count;
+			}
+		}
+
+		canvas.setColor(Color.BLACK);
+		canvas.setLineWidth(1, false);
+		area.drawAxes(true);
+		area.drawXLabel("-log10(p) expected");
+		area.drawYLabel("-log10(p) observed");
+		canvas.drawText(String.format(Locale.US, "lambda = %.3f", lambda), (area.left + area.right) / 2,
+				area.top - LINE_HEIGHT, FONT_SIZE * 0.9, PlotCanvas.ALIGN_CENTER, false);
+	}
+
+	private static double getQQSymbolRadius(double log) {
+		// As the R cex of 0.25 * 0.9 * -log10(p), but bounded
+		return Math.max(0.2, Math.min(MAX_QQ_SYMBOL_RADIUS, SYMBOL_SIZE * 0.25 * 0.9 * log));
+	}
+
+	/**
+	 * Draws the 95% interval of the expected -log10(p) of each rank
+	 */
+	private void drawConfidenceBand(PlotArea area, long n) {
+		List<Long> ranks = new ArrayList<>();
+		double logN = Math.log(n);
+		long last = 0;
+		for (int i = 0; i <= BAND_POINTS; ++i) {
+			long rank = Math.max(1, Math.min(n, Math.round(Math.exp(logN * i / BAND_POINTS))));
+			if (rank > last) {
+				ranks.add(rank);
+				last = rank;
+			}
+		}
+
+		int size = ranks.size();
+		double[] xs = new double[2 * size];
+		double[] ys = new double[2 * size];
+		for (int i = 0; i < size; ++i) {
+			long rank = ranks.get(i);
+			double expected = -Math.log10(rank / (n + 1.0));
+			double upper = -Math.log10(Distributions.betaQuantile(BAND_ALPHA / 2, rank, n - rank + 1));
+			double lower = -Math.log10(Distributions.betaQuantile(1 - BAND_ALPHA / 2, rank, n - rank + 1));
+			xs[i] = area.x(expected);
+			ys[i] = area.y(Math.min(upper, area.yMax));
+			xs[2 * size - 1 - i] = xs[i];
+			ys[2 * size - 1 - i] = area.y(Math.max(lower, 0));
+		}
+		area.canvas.setColor(GREY80);
+		area.canvas.fillPolygon(xs, ys, 2 * size);
+	}
+
+	/**
+	 * Draws the kernel density of the -log10(p) values in the upper half of the
+	 * plot
+	 */
+	private void drawDensity(PlotArea area, double yMax) {
+		long n = this.distribution.getCount();
+		double width = PvalueDistribution.LOG_BIN_WIDTH;
+		double minLog = Math.max(0, this.distribution.getMinLog());
+		double maxLog = this.distribution.getMaxLog();
+
+		// All the values in bins: the significant ones are added to the histogram
+		long[] counts = new long[(int) Math.ceil(maxLog / width) + 2];
+		for (int i = 0; i < this.distribution.getNumLogBins() && i < counts.length; ++i) {
+			counts[i] += this.distribution.getLogBinCount(i);
+		}
+		for (double log : this.distribution.getSignificantLogs()) {
+			counts[Math.max(0, Math.min(counts.length - 1, (int) (log / width)))]++;
+		}
+
+		// Bandwidth as the R nrd0 rule
+		double bandwidth = 0.9 * this.distribution.getSdLog() * Math.pow(n, -0.2);
+		bandwidth = Math.max(bandwidth, width);
+
+		double from = minLog - 3 * bandwidth;
+		double to = maxLog + 3 * bandwidth;
+		double[] xs = new double[DENSITY_POINTS];
+		double[] densities = new double[DENSITY_POINTS];
+		double maxDensity = 0;
+		int window = (int) Math.ceil(4 * bandwidth / width);
+		for (int i = 0; i < DENSITY_POINTS; ++i) {
+			double x = from + (to - from) * i / (DENSITY_POINTS - 1);
+			int center = (int) (x / width);
+			double sum = 0;
+			for (int bin = Math.max(0, center - window); bin <= Math.min(counts.length - 1, center + window); ++bin) {
+				if (counts[bin] > 0) {
+					double z = (x - (bin + 0.5) * width) / bandwidth;
+					sum += counts[bin] * Math.exp(-z * z / 2);
+				}
+			}
+			xs[i] = x;
+			densities[i] = sum / (n * bandwidth * Math.sqrt(2 * Math.PI));
+			maxDensity = Math.max(maxDensity, densities[i]);
+		}
+
+		double[] px = new double[DENSITY_POINTS];
+		double[] py = new double[DENSITY_POINTS];
+		int points = 0;
+		for (int i = 0; i < DENSITY_POINTS; ++i) {
+			if (xs[i] >= area.xMin && xs[i] <= area.xMax && maxDensity > 0) {
+				px[points] = area.x(xs[i]);
+				py[points] = area.y(yMax / 2 + yMax / 2 * densities[i] / maxDensity);
+				points++;
+			}
+		}
+		PlotCanvas canvas = area.canvas;
+		canvas.setColor(CADETBLUE4);
+		canvas.setLineWidth(2, true);
+		canvas.drawPolyline(px, py, points);
+
+		// Density axis on the right
+		canvas.setColor(Color.BLACK);
+		canvas.setLineWidth(1, false);
+		double x = area.right;
+		canvas.drawLine(x, area.y(yMax / 2), x, area.y(yMax));
+		canvas.drawLine(x, area.y(yMax / 2), x + 5, area.y(yMax / 2));
+		canvas.drawLine(x, area.y(yMax), x + 5, area.y(yMax));
+		canvas.drawText("0", x + 8, area.y(yMax / 2) + FONT_SIZE / 3, FONT_SIZE * 0.8, PlotCanvas.ALIGN_LEFT,
+				false);
+		canvas.drawText(String.format(Locale.US, "%.1f", maxDensity), x + 8, area.y(yMax) + FONT_SIZE / 3,
+				FONT_SIZE * 0.8, PlotCanvas.ALIGN_LEFT, false);
+		canvas.drawText("Data density", x + 2 * LINE_HEIGHT, area.y(yMax * 0.75), FONT_SIZE * 0.9,
+				PlotCanvas.ALIGN_CENTER, true);
+	}
+
+	private void drawManhattanPlot(PlotCanvas canvas) {
+		// Position of each chromosome in the x axis: the end of the previous one
+		List<Integer> chrs = new ArrayList<>();
+		long[] offsets = new long[MAX_CHROMOSOME + 1];
+		long lastBase = 0;
+		for (int chr = 1; chr <= MAX_CHROMOSOME; ++chr) {
+			if (this.chromosomes[chr] != null) {
+				if (!chrs.isEmpty()) {
+					lastBase += this.chromosomes[chrs.get(chrs.size() - 1)].maxPosition;
+				}
+				offsets[chr] = lastBase;
+				chrs.add(chr);
+			}
+		}
+
+		double yMax = getManhattanYMax();
+
+		double xMin = 0;
+		double xMax = 1;
+		if (!chrs.isEmpty()) {
+			int firstChr = chrs.get(0);
+			int lastChr = chrs.get(chrs.size() - 1);
+			xMin = this.chromosomes[firstChr].minPosition + offsets[firstChr];
+			xMax = this.chromosomes[lastChr].maxPosition + offsets[lastChr];
+		}
+		double xPad = Math.max(1, 0.04 * (xMax - xMin));
+		double yPad = 0.04 * yMax;
+		PlotArea area = new PlotArea(canvas, 4.1 * LINE_HEIGHT, 4.1 * LINE_HEIGHT, 2.1 * LINE_HEIGHT,
+				6.1 * LINE_HEIGHT, xMin - xPad, xMax + xPad, -yPad, yMax + yPad);
+
+		// Non significant bins, one point per device pixel
+		double pixel = canvas.getPixelSize();
+		int pixelColumns = (int) Math.ceil((area.right - area.left) / pixel) + 1;
+		int pixelRows = (int) Math.ceil((area.bottom - area.top) / pixel) + 1;
+		for (int i = 0; i < chrs.size(); ++i) {
+			int chr = chrs.get(i);
+			ChromosomeGrid grid = this.chromosomes[chr];
+			BitSet drawn = new BitSet();
+			canvas.setColor(CHROMOSOME_COLORS[i % CHROMOSOME_COLORS.length]);
+			for (int cell = grid.cells.nextSetBit(0); cell >= 0; cell = grid.cells.nextSetBit(cell + 1)) {
+				long position = ((long) (cell / grid.rows) << X_BIN_SHIFT) + (1L << (X_BIN_SHIFT - 1));
+				double log = (cell % grid.rows + 0.5) * Y_BIN_WIDTH;
+				double x = area.x(Math.min(Math.max(position, grid.minPosition), grid.maxPosition) + offsets[chr]);
+				double y = area.y(log);
+				int column = (int) ((x - area.left) / pixel);
+				int row = (int) ((y - area.top) / pixel);
+				if (column >= 0 && column < pixelColumns && row >= 0 && row < pixelRows) {
+					int index = row * pixelColumns + column;
+					if (!drawn.get(index)) {
+						drawn.set(index);
+						canvas.fillRect(area.left + column * pixel, area.top + row * pixel, pixel, pixel);
+					}
+				}
+			}
+		}
+
+		// Significant points
+		canvas.setColor(LIGHTCORAL);
+		for (ManhattanPoint point : this.significant) {
+			canvas.fillCircle(area.x(point.position + offsets[point.chr]), area.y(point.log), 0.6 * SYMBOL_SIZE);
+		}
+
+		canvas.setColor(INDIANRED2);
+		canvas.setLineWidth(1, true);
+		canvas.drawLine(area.left, area.y(this.thresholdLog), area.right, area.y(this.thresholdLog));
+
+		canvas.setColor(Color.BLACK);
+		canvas.setLineWidth(1, false);
+		canvas.drawText("Manhattan-plot", (area.left + area.right) / 2, area.top - 1.5 * LINE_HEIGHT,
+				FONT_SIZE * 1.2, PlotCanvas.ALIGN_CENTER, false);
+		area.drawYLabel("-log10(p)");
+		if (chrs.size() == 1) {
+			area.drawAxes(false);
+			area.drawXLabel("Chromosome " + getChromosomeLabel(chrs.get(0)) + " position");
+		} else {
+			area.drawAxes(false, false);
+			drawChromosomeAxis(area, chrs, offsets);
+		}
+	}
+
+	private void drawChromosomeAxis(PlotArea area, List<Integer> chrs, long[] offsets) {
+		PlotCanvas canvas = area.canvas;
+		double tickLength = 0.5 * LINE_HEIGHT;
+		double xLow = Double.NaN;
+		double xHigh = Double.NaN;
+		for (int chr : chrs) {
+			ChromosomeGrid grid = this.chromosomes[chr];
+			double x = area.x((grid.minPosition + grid.maxPosition) / 2.0 + offsets[chr]);
+			canvas.drawLine(x, area.bottom, x, area.bottom + tickLength);
+			canvas.drawText(getChromosomeLabel(chr), x, area.bottom + tickLength + FONT_SIZE, FONT_SIZE,
+					PlotCanvas.ALIGN_CENTER, false);
+			if (chr >= CHR_23_FEMALES) {
+				xLow = Double.isNaN(xLow) ? x : Math.min(xLow, x);
+				xHigh = Double.isNaN(xHigh) ? x : Math.max(xHigh, x);
+			}
+		}
+
+		// The three chromosome 23 plots are grouped under an X
+		double y = area.bottom + 2.5 * LINE_HEIGHT;
+		if (!Double.isNaN(xLow)) {
+			canvas.drawLine(xLow, y, xHigh, y);
+			canvas.drawText("X", (xLow + xHigh) / 2, y + FONT_SIZE, FONT_SIZE, PlotCanvas.ALIGN_CENTER, false);
+		}
+		canvas.drawText("Chromosome", (area.left + area.right) / 2, area.bottom + 4.5 * LINE_HEIGHT, FONT_SIZE,
+				PlotCanvas.ALIGN_CENTER, false);
+	}
+
+	private static String getChromosomeLabel(int chr) {
+		switch (chr) {
+			case CHR_23_FEMALES:
+				return "F";
+			case CHR_23_MALES:
+				return "M";
+			case CHR_23_ALL:
+				return "A";
+			default:
+				return Integer.toString(chr);
+		}
+	}
+
+	/**
+	 * Non significant points of a chromosome, in bins of 2^X_BIN_SHIFT bases by
+	 * Y_BIN_WIDTH
+	 */
+	private static class ChromosomeGrid {
+
+		private final int rows;
+		private final BitSet cells;
+		private long minPosition;
+		private long maxPosition;
+
+		private ChromosomeGrid(double thresholdLog) {
+			this.rows = (int) Math.ceil(Math.max(thresholdLog, 0) / Y_BIN_WIDTH) + 1;
+			this.cells = new BitSet();
+			this.minPosition = Long.MAX_VALUE;
+			this.maxPosition = Long.MIN_VALUE;
+		}
+
+		private void add(long position, double log) {
+			int row = Math.max(0, Math.min(this.rows - 1, (int) (log / Y_BIN_WIDTH)));
+			long column = Math.max(0, position >> X_BIN_SHIFT);
+			this.cells.set((int) (column * this.rows + row));
+		}
+	}
+
+	private static class ManhattanPoint {
+
+		private final int chr;
+		private final long position;
+		private final double log;
+
+		private ManhattanPoint(int chr, long position, double log) {
+			this.chr = chr;
+			this.position = position;
+			this.log = log;
+		}
+	}
+
+	/**
+	 * Region of the canvas where the data is drawn, and its axes
+	 */
+	private static class PlotArea {
+
+		private final PlotCanvas canvas;
+		private final double left;
+		private final double right;
+		private final double top;
+		private final double bottom;
+		private final double xMin;
+		private final double xMax;
+		private final double yMin;
+		private final double yMax;
+
+		private PlotArea(PlotCanvas canvas, double leftMargin, double topMargin, double rightMargin,
+				double bottomMargin, double xMin, double xMax, double yMin, double yMax) {
+			this.canvas = canvas;
+			this.left = leftMargin;
+			this.right = canvas.getWidth() - rightMargin;
+			this.top = topMargin;
+			this.bottom = canvas.getHeight() - bottomMargin;
+			this.xMin = xMin;
+			this.xMax = xMax;
+			this.yMin = yMin;
+			this.yMax = yMax;
+		}
+
+		private double x(double value) {
+			return this.left + (value - this.xMin) / (this.xMax - this.xMin) * (this.right - this.left);
+		}
+
+		private double y(double value) {
+			return this.bottom - (value - this.yMin) / (this.yMax - this.yMin) * (this.bottom - this.top);
+		}
+
+		private void drawAxes(boolean lShaped) {
+			drawAxes(lShaped, true);
+		}
+
+		/**
+		 * Draws the y axis and the x axis, with ticks if xTicks. The box is open
+		 * (only the bottom and left sides) if lShaped
+		 */
+		private void drawAxes(boolean lShaped, boolean xTicks) {
+			this.canvas.drawLine(this.left, this.bottom, this.right, this.bottom);
+			this.canvas.drawLine(this.left, this.bottom, this.left, this.top);
+			if (!lShaped) {
+				this.canvas.drawLine(this.right, this.bottom, this.right, this.top);
+				this.canvas.drawLine(this.left, this.top, this.right, this.top);
+			}
+
+			double tickLength = 0.5 * LINE_HEIGHT;
+			double size = FONT_SIZE * 0.9;
+			for (double tick : getTicks(Math.max(this.yMin, 0), this.yMax)) {
+				double y = y(tick);
+				this.canvas.drawLine(this.left - tickLength, y, this.left, y);
+				this.canvas.drawText(format(tick), this.left - tickLength - 2, y + size / 3, size,
+						PlotCanvas.ALIGN_RIGHT, false);
+			}
+			if (xTicks) {
+				for (double tick : getTicks(Math.max(this.xMin, 0), this.xMax)) {
+					double x = x(tick);
+					this.canvas.drawLine(x, this.bottom, x, this.bottom + tickLength);
+					this.canvas.drawText(format(tick), x, this.bottom + tickLength + size, size,
+							PlotCanvas.ALIGN_CENTER, false);
+				}
+			}
+		}
+
+		private void drawXLabel(String label) {
+			this.canvas.drawText(label, (this.left + this.right) / 2, this.bottom + 3 * LINE_HEIGHT, FONT_SIZE,
+					PlotCanvas.ALIGN_CENTER, false);
+		}
+
+		private void drawYLabel(String label) {
+			this.canvas.drawText(label, this.left - 2.5 * LINE_HEIGHT, (this.top + this.bottom) / 2, FONT_SIZE,
+					PlotCanvas.ALIGN_CENTER, true);
+		}
+
+		/**
+		 * Round tick values between min and max, as the R pretty function
+		 */
+		private static List<Double> getTicks(double min, double max) {
+			List<Double> ticks = new ArrayList<>();
+			if (!(max > min)) {
+				return ticks;
+			}
+			double rough = (max - min) / 5;
+			double magnitude = Math.pow(10, Math.floor(Math.log10(rough)));
+			double step = magnitude;
+			for (double factor : new double[] { 2, 5, 10 }) {
+				if (rough / step > 1.5) {
+					step = factor * magnitude;
+				}
+			}
+			for (double tick = Math.ceil(min / step) * step; tick <= max + step * 1e-9; tick += step) {
+				ticks.add(Math.abs(tick) < step * 1e-9 ? 0 : tick);
+			}
+			return ticks;
+		}
+
+		private static String format(double value) {
+			if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+				return Long.toString((long) value);
+			}
+			return String.format(Locale.US, "%.2g", value);
+		}
+	}
+
+}
@@ -0,0 +1,316 @@
+package guidance.plots;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Canvas that draws with Java2D on an image and writes it as PNG, or as a
+ * deflate compressed TIFF when the file name ends with .tif or .tiff
+ */
+public class RasterCanvas implements PlotCanvas {
+
+	private static final double POINTS_PER_INCH = 72;
+
+	private final String fileName;
+	private final double width;
+	private final double height;
+	private final int dpi;
+
+	private final BufferedImage image;
+	private final Graphics2D graphics;
+
+	/**
+	 * Creates a white canvas of the given size in inches
+	 *
+	 * @param fileName
+	 * @param widthInches
+	 * @param heightInches
+	 * @param dpi
+	 */
+	public RasterCanvas(String fileName, double widthInches, double heightInches, int dpi) {
+		System.setProperty("java.awt.headless", "true");
+
+		this.fileName = fileName;
+		this.width = widthInches * POINTS_PER_INCH;
+		this.height = heightInches * POINTS_PER_INCH;
+		this.dpi = dpi;
+
+		this.image = new BufferedImage((int) Math.round(widthInches * dpi), (int) Math.round(heightInches * dpi),
+				BufferedImage.TYPE_INT_RGB);
+		this.graphics = this.image.createGraphics();
+		this.graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		this.graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		this.graphics.setColor(Color.WHITE);
+		this.graphics.fillRect(0, 0, this.image.getWidth(), this.image.getHeight());
+		this.graphics.scale(dpi / POINTS_PER_INCH, dpi / POINTS_PER_INCH);
+		this.graphics.setColor(Color.BLACK);
+		this.graphics.setStroke(new BasicStroke(1));
+	}
+
+	@Override
+	public double getWidth() {
+		return this.width;
+	}
+
+	@Override
+	public double getHeight() {
+		return this.height;
+	}
+
+	@Override
+	public double getPixelSize() {
+		return POINTS_PER_INCH / this.dpi;
+	}
+
+	@Override
+	public void setColor(Color color) {
+		this.graphics.setColor(color);
+	}
+
+	@Override
+	public void setLineWidth(double width, boolean dashed) {
+		float w = (float) width;
+		if (dashed) {
+			this.graphics.setStroke(new BasicStroke(w, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10,
+					new float[] { 4 * w, 4 * w }, 0));
+		} else {
+			this.graphics.setStroke(new BasicStroke(w));
+		}
+	}
+
+	@Override
+	public void drawLine(double x1, double y1, double x2, double y2) {
+		this.graphics.draw(new Line2D.Double(x1, y1, x2, y2));
+	}
+
+	@Override
+	public void drawPolyline(double[] xs, double[] ys, int n) {
+		this.graphics.draw(createPath(xs, ys, n, false));
+	}
+
+	@Override
+	public void fillPolygon(double[] xs, double[] ys, int n) {
+		this.graphics.fill(createPath(xs, ys, n, true));
+	}
+
+	@Override
+	public void fillRect(double x, double y, double width, double height) {
+		this.graphics.fill(new Rectangle2D.Double(x, y, width, height));
+	}
+
+	@Override
+	public void fillCircle(double x, double y, double radius) {
+		this.graphics.fill(new Ellipse2D.Double(x - radius, y - radius, 2 * radius, 2 * radius));
+	}
+
+	@Override
+	public void fillDiamond(double x, double y, double radius) {
+		double[] xs = new double[] { x, x + radius, x, x - radius };
+		double[] ys = new double[] { y - radius, y, y + radius, y };
+		this.graphics.fill(createPath(xs, ys, 4, true));
+	}
+
+	@Override
+	public void drawText(String text, double x, double y, double size, int align, boolean vertical) {
+		Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 1).deriveFont((float) size);
+		this.graphics.setFont(font);
+		double textWidth = this.graphics.getFontMetrics().getStringBounds(text, this.graphics).getWidth();
+		double shift = (align == ALIGN_CENTER) ? textWidth / 2 : (align == ALIGN_RIGHT) ? textWidth : 0;
+
+		AffineTransform transform = this.graphics.getTransform();
+		this.graphics.translate(x, y);
+		if (vertical) {
+			this.graphics.rotate(-Math.PI / 2);
+		}
+		this.graphics.drawString(text, (float) -shift, 0f);
+		this.graphics.setTransform(transform);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.graphics.dispose();
+		String lowerName = this.fileName.toLowerCase();
+		if (lowerName.endsWith(".tif") || lowerName.endsWith(".tiff")) {
+			writeTiff(this.image, this.dpi, this.fileName);
+		} else {
+			ImageIO.write(this.image, "png", new File(this.fileName));
+		}
+	}
+
+	private static Path2D createPath(double[] xs, double[] ys, int n, boolean close) {
+		Path2D.Double path = new Path2D.Double();
+		for (int i = 0; i < n; ++i) {
+			if (i == 0) {
+				path.moveTo(xs[i], ys[i]);
+			} else {
+				path.lineTo(xs[i], ys[i]);
+			}
+		}
+		if (close) {
+			path.closePath();
+		}
+		return path;
+	}
+
+	/**
+	 * Writes an RGB baseline TIFF with a single deflate (Adobe) compressed strip
+	 */
+	private static void writeTiff(BufferedImage image, int dpi, String fileName) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		try (RandomAccessFile raf = new RandomAccessFile(fileName, "rw")) {
+			raf.setLength(0);
+
+			// Header: little endian and the offset of the IFD, written at the end
+			byte[] header = new byte[] { 'I', 'I', 42, 0, 0, 0, 0, 0 };
+			raf.write(header);
+
+			long stripOffset = raf.getFilePointer();
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+			byte[] row = new byte[3 * width];
+			int[] rgb = new int[width];
+			byte[] buffer = new byte[64 * 1024];
+			try {
+				for (int y = 0; y < height; ++y) {
+					image.getRGB(0, y, width, 1, rgb, 0, width);
+					for (int x = 0; x < width; ++x) {
+						row[3 * x] = (byte) (rgb[x] >> 16);
+						row[3 * x + 1] = (byte) (rgb[x] >> 8);
+						row[3 * x + 2] = (byte) rgb[x];
+					}
+					deflater.setInput(row);
+					while (!deflater.needsInput()) {
+						int n = deflater.deflate(buffer);
+						raf.write(buffer, 0, n);
+					}
+				}
+				deflater.finish();
+				while (!deflater.finished()) {
+					int n = deflater.deflate(buffer);
+					raf.write(buffer, 0, n);
+				}
+			} finally {
+				deflater.end();
+			}
+			long stripBytes = raf.getFilePointer() - stripOffset;
+
+			// Word alignment of the IFD
+			if (raf.getFilePointer() % 2 != 0) {
+				raf.write(0);
+			}
+			long ifdOffset = raf.getFilePointer();
+			int numEntries = 13;
+			long extraOffset = ifdOffset + 2 + 12 * numEntries + 4;
+			long bitsOffset = extraOffset;
+			long resolutionOffset = bitsOffset + 6;
+
+			TiffIfd ifd = new TiffIfd();
+			ifd.add(256, TiffIfd.LONG, 1, width); // ImageWidth
+			ifd.add(257, TiffIfd.LONG, 1, height); // ImageLength
+			ifd.add(258, TiffIfd.SHORT, 3, bitsOffset); // BitsPerSample
+			ifd.add(259, TiffIfd.SHORT, 1, 8); // Compression: deflate
+			ifd.add(262, TiffIfd.SHORT, 1, 2); // PhotometricInterpretation: RGB
+			ifd.add(273, TiffIfd.LONG, 1, stripOffset); // StripOffsets
+			ifd.add(277, TiffIfd.SHORT, 1, 3); // SamplesPerPixel
+			ifd.add(278, TiffIfd.LONG, 1, height); // RowsPerStrip
+			ifd.add(279, TiffIfd.LONG, 1, stripBytes); // StripByteCounts
+			ifd.add(282, TiffIfd.RATIONAL, 1, resolutionOffset); // XResolution
+			ifd.add(283, TiffIfd.RATIONAL, 1, resolutionOffset + 8); // YResolution
+			ifd.add(284, TiffIfd.SHORT, 1, 1); // PlanarConfiguration: chunky
+			ifd.add(296, TiffIfd.SHORT, 1, 2); // ResolutionUnit: inch
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			ifd.write(out);
+			writeShortLE(out, 8);
+			writeShortLE(out, 8);
+			writeShortLE(out, 8);
+			for (int i = 0; i < 2; ++i) {
+				writeIntLE(out, dpi);
+				writeIntLE(out, 1);
+			}
+			out.flush();
+			raf.write(bytes.toByteArray());
+
+			raf.seek(4);
+			writeIntLE(raf, ifdOffset);
+		}
+	}
+
+	private static void writeShortLE(DataOutputStream out, int value) throws IOException {
+		out.write(value & 0xFF);
+		out.write((value >> 8) & 0xFF);
+	}
+
+	private static void writeIntLE(DataOutputStream out, long value) throws IOException {
+		for (int i = 0; i < 4; ++i) {
+			out.write((int) (value >> (8 * i)) & 0xFF);
+		}
+	}
+
+	private static void writeIntLE(RandomAccessFile raf, long value) throws IOException {
+		for (int i = 0; i < 4; ++i) {
+			raf.write((int) (value >> (8 * i)) & 0xFF);
+		}
+	}
+
+	/**
+	 * Entries of a TIFF image file directory, written in tag order
+	 */
+	private static class TiffIfd {
+
+		private static final int SHORT = 3;
+		private static final int LONG = 4;
+		private static final int RATIONAL = 5;
+
+		private final int[] tags = new int[16];
+		private final int[] types = new int[16];
+		private final int[] counts = new int[16];
+		private final long[] values = new long[16];
+		private int size = 0;
+
+		private void add(int tag, int type, int count, long value) {
+			this.tags[this.size] = tag;
+			this.types[this.size] = type;
+			this.counts[this.size] = count;
+			this.values[this.size] = value;
+			this.size++;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			writeShortLE(out, this.size);
+			for (int i = 0; i < this.size; ++i) {
+				writeShortLE(out, this.tags[i]);
+				writeShortLE(out, this.types[i]);
+				writeIntLE(out, this.counts[i]);
+				if (this.types[i] == SHORT && this.counts[i] == 1) {
+					writeShortLE(out, (int) this.values[i]);
+					writeShortLE(out, 0);
+				} else {
+					writeIntLE(out, this.values[i]);
+				}
+			}
+			// No more IFDs
+			writeIntLE(out, 0);
+		}
+	}
+
+}
@@ -0,0 +1,402 @@
+package guidance.processes;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import guidance.files.FileUtils;
+
+
+/**
+ * Model of the memory and cores of the tasks learned from the telemetry of previous runs (see TelemetryLog).
+ *
+ * The telemetry has the resources measured for each task (task type, chromosome, chunk and panel) and the features
+ * of the task written by the worker that ran it: the variants imputed in its chunk and the samples of the cohort. For
+ * each task type and panel the peak memory is fitted by least squares as a linear function of variants x samples.
+ * The prediction of a task already measured with the same samples is its measured peak. The variants of a chunk that
+ * has not run are estimated from the density of the variants of the chunks of the same chromosome that have run, so
+ * the master does not read the reference panels.
+ *
+ * The memory classes of the tasks with Low, Medium and High variants are given by the environment variables of their
+ * constraints (e.g. imputeWithImputeLowMem, in GB), the same ones that fill the resources of the runtime.
+ */
+public class ConstraintModel {
+
+    /**
+     * Memory classes of the tasks with Low, Medium and High variants
+     */
+    public static final String[] MEMORY_CLASSES = { "LOW", "MEDIUM", "HIGH" };
+
+    // Margin over the predicted memory
+    private static final double MEMORY_MARGIN = 1.25;
+    private static final double KB_PER_GB = 1024.0 * 1024.0;
+
+    // Fields of the JSON lines of the telemetry
+    private static final Pattern JSON_FIELD = Pattern.compile("\"(\\w+)\":(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^,}]*))");
+
+    // Measured peak memory (kB), CPU and wall time (ms) of each task
+    private final Map<String, long[]> measures;
+    // Variants and samples of each task
+    private final Map<String, long[]> features;
+    // Fit of the memory of each task type and panel: intercept and slope in kB
+    private final Map<String, double[]> fits;
+
+
+    private ConstraintModel() {
+        this.measures = new HashMap<>();
+        this.features = new HashMap<>();
+        this.fits = new HashMap<>();
+    }
+
+    /**
+     * Loads the model from a telemetry file. The model is empty if the file does not exist or cannot be read
+     *
+     * @param telemetryFile
+     * @return
+     */
+    public static ConstraintModel load(String telemetryFile) {
+        ConstraintModel model = new ConstraintModel();
+        if (telemetryFile == null || !new File(telemetryFile).isFile()) {
+            return model;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(telemetryFile), StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                model.addLine(line);
+            }
+        } catch (IOException ioe) {
+            System.err.println("[ConstraintModel] Cannot read the telemetry " + telemetryFile + ": " + ioe.getMessage());
+        }
+        model.fit();
+        return model;
+    }
+
+    /**
+     * Returns the number of measured tasks
+     *
+     * @return
+     */
+    public int size() {
+        return this.measures.size();
+    }
+
+    /**
+     * Returns the predicted memory of a task in GB, margin included, or NaN if there is no data of its task type and
+     * panel
+     *
+     * @param taskType
+     * @param chromosome
+     * @param chunk
+     * @param panel
+     * @param variants
+     * @param samples
+     * @return
+     */
+    public double predictMemoryGb(String taskType, String chromosome, String chunk, String panel, long variants,
+            long samples) {
+
+        String key = getKey(taskType, chromosome, chunk, panel);
+        long[] measure = this.measures.get(key);
+        long[] feature = this.features.get(key);
+        if (measure != null && (feature == null || feature[1] == samples)) {
+            return measure[0] * MEMORY_MARGIN / KB_PER_GB;
+        }
+
+        double[] fit = this.fits.get(getKey(taskType, panel));
+        if (fit == null || variants < 0 || samples < 0) {
+            return Double.NaN;
+        }
+        double predictedKb = Math.max(0, fit[0] + fit[1] * variants * (double) samples);
+        return predictedKb * MEMORY_MARGIN / KB_PER_GB;
+    }
+
+    /**
+     * Returns the cores used by the tasks of a type and panel (the highest CPU time over wall time, rounded up), or
+     * -1 if there is no data
+     *
+     * @param taskType
+     * @param panel
+     * @return
+     */
+    public int predictCores(String taskType, String panel) {
+        String prefix = getKey(taskType, panel) + '\t';
+        double cores = -1;
+        for (Map.Entry<String, long[]> entry : this.measures.entrySet()) {
+            long[] measure = entry.getValue();
+            if (entry.getKey().startsWith(prefix) && measure[2] > 0 && measure[1] >= 0) {
+                cores = Math.max(cores, (double) measure[1] / measure[2]);
+            }
+        }
+        return (cores < 0) ? -1 : Math.max(1, (int) Math.ceil(cores - 0.05));
+    }
+
+    /**
+     * Returns the smallest memory class of the task type that fits the given memory, HIGH if none fits, or the
+     * default class if the memory is not known or the memory of the classes is not defined in the environment
+     *
+     * @param taskType
+     * @param memoryGb
+     * @param defaultClass
+     * @return
+     */
+    public static String selectMemoryClass(String taskType, double memoryGb, String defaultClass) {
+        if (Double.isNaN(memoryGb)) {
+            return defaultClass;
+        }
+        for (String memoryClass : MEMORY_CLASSES) {
+            double classMemoryGb = getClassMemoryGb(taskType, memoryClass);
+            if (Double.isNaN(classMemoryGb)) {
+                return defaultClass;
+            }
+            if (memoryGb <= classMemoryGb) {
+                return memoryClass;
+            }
+        }
+        return MEMORY_CLASSES[MEMORY_CLASSES.length - 1];
+    }
+
+    /**
+     * Returns whether there are measures of the task type and panel
+     *
+     * @param taskType
+     * @param panel
+     * @return
+     */
+    public boolean hasHistory(String taskType, String panel) {
+        String prefix = getKey(taskType, panel) + '\t';
+        for (String key : this.measures.keySet()) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the variants of a chunk: the ones recorded when it ran, or the ones of its length at the density of the
+     * chunks of the chromosome (or else of the panel) that have run. Returns -1 if there are none
+     *
+     * @param taskType
+     * @param chromosome
+     * @param chunk
+     * @param panel
+     * @param start
+     * @param end
+     * @return
+     */
+    public long estimateVariants(String taskType, String chromosome, String chunk, String panel, int start, int end) {
+        long[] feature = this.features.get(getKey(taskType, chromosome, chunk, panel));
+        if (feature != null) {
+            return feature[0];
+        }
+
+        String panelPrefix = getKey(taskType, panel) + '\t';
+        String chromosomePrefix = panelPrefix + chromosome + '\t';
+        double[] chromosomeTotals = new double[2];
+        double[] panelTotals = new double[2];
+        for (Map.Entry<String, long[]> entry : this.features.entrySet()) {
+            if (!entry.getKey().startsWith(panelPrefix)) {
+                continue;
+            }
+            long length = getChunkLength(entry.getKey().substring(entry.getKey().lastIndexOf('\t') + 1));
+            if (length > 0) {
+                panelTotals[0] += entry.getValue()[0];
+                panelTotals[1] += length;
+                if (entry.getKey().startsWith(chromosomePrefix)) {
+                    chromosomeTotals[0] += entry.getValue()[0];
+                    chromosomeTotals[1] += length;
+                }
+            }
+        }
+        double[] totals = (chromosomeTotals[1] > 0) ? chromosomeTotals : panelTotals;
+        if (totals[1] <= 0 || end < start) {
+            return -1;
+        }
+        return Math.round(totals[0] / totals[1] * (end - start + 1L));
+    }
+
+    /**
+     * Returns the number of samples of a fam file (one per line) or a sample file (two header lines), or -1 if it
+     * cannot be read
+     *
+     * @param file
+     * @param headerLines
+     * @return
+     */
+    public static long countSamples(String file, int headerLines) {
+        return countLines(file, headerLines);
+    }
+
+    /**
+     * Returns the number of samples of a VCF file (plain or compressed), read from its header, or -1 if it cannot be
+     * read
+     *
+     * @param file
+     * @return
+     */
+    public static long countVcfSamples(String file) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openReference(file),
+                StandardCharsets.ISO_8859_1))) {
+
+            String line;
+            while ((line = reader.readLine()) != null && line.startsWith("##")) {
+                // Meta-information lines
+            }
+            if (line == null || !line.startsWith("#CHROM")) {
+                return -1;
+            }
+            // The samples follow the 9 fixed columns
+            return Math.max(0, line.split("\t").length - 9);
+        } catch (IOException ioe) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the number of non-empty lines of a file (plain or compressed) after its header lines, or -1 if it
+     * cannot be read
+     *
+     * @param file
+     * @param headerLines
+     * @return
+     */
+    public static long countLines(String file, int headerLines) {
+        long lines = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openReference(file),
+                StandardCharsets.ISO_8859_1))) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    lines++;
+                }
+            }
+        } catch (IOException ioe) {
+            return -1;
+        }
+        return Math.max(0, lines - headerLines);
+    }
+
+    private void addLine(String line) {
+        Map<String, String> fields = new HashMap<>();
+        Matcher matcher = JSON_FIELD.matcher(line);
+        while (matcher.find()) {
+            fields.put(matcher.group(1), (matcher.group(2) != null) ? matcher.group(2) : matcher.group(3).trim());
+        }
+        String taskType = fields.get("taskType");
+        if (taskType == null || taskType.isEmpty()) {
+            return;
+        }
+        String key = getKey(taskType, fields.get("chromosome"), fields.get("chunk"), fields.get("panel"));
+
+        try {
+            if (fields.containsKey("variants")) {
+                long variants = Long.parseLong(fields.get("variants"));
+                long samples = Long.parseLong(fields.get("samples"));
+                if (variants >= 0 && samples >= 0) {
+                    this.features.put(key, new long[] { variants, samples });
+                }
+            } else if (fields.containsKey("peakRssKb") && "0".equals(fields.get("exitValue"))) {
+                long peakRssKb = Long.parseLong(fields.get("peakRssKb"));
+                long cpuMillis = Long.parseLong(fields.get("userCpuMillis")) + Long.parseLong(fields.get("sysCpuMillis"));
+                long wallMillis = Long.parseLong(fields.get("wallMillis"));
+                if (peakRssKb > 0) {
+                    long[] measure = this.measures.get(key);
+                    if (measure == null || peakRssKb > measure[0]) {
+                        this.measures.put(key, new long[] { peakRssKb, cpuMillis, wallMillis });
+                    }
+                }
+            }
+        } catch (NumberFormatException | NullPointerException e) {
+            // Line of another version of the telemetry
+        }
+    }
+
+    /**
+     * Fits the peak memory of each task type and panel as a + b * variants * samples
+     */
+    private void fit() {
+        Map<String, List<double[]>> points = new HashMap<>();
+        for (Map.Entry<String, long[]> entry : this.measures.entrySet()) {
+            long[] feature = this.features.get(entry.getKey());
+            if (feature != null) {
+                String[] key = entry.getKey().split("\t", -1);
+                points.computeIfAbsent(getKey(key[0], key[1]), k -> new ArrayList<>())
+                        .add(new double[] { feature[0] * (double) feature[1], entry.getValue()[0] });
+            }
+        }
+
+        for (Map.Entry<String, List<double[]>> entry : points.entrySet()) {
+            List<double[]> xy = entry.getValue();
+            double meanX = 0;
+            double meanY = 0;
+            for (double[] point : xy) {
+                meanX += point[0] / xy.size();
+                meanY += point[1] / xy.size();
+            }
+            double sxx = 0;
+            double sxy = 0;
+            for (double[] point : xy) {
+                sxx += (point[0] - meanX) * (point[0] - meanX);
+                sxy += (point[0] - meanX) * (point[1] - meanY);
+            }
+            if (sxx > 0 && sxy > 0) {
+                double slope = sxy / sxx;
+                this.fits.put(entry.getKey(), new double[] { meanY - slope * meanX, slope });
+            } else if (meanX > 0) {
+                // All the tasks have the same features, or the memory does not grow with them: proportional fit
+                this.fits.put(entry.getKey(), new double[] { 0, meanY / meanX });
+            }
+        }
+    }
+
+    private static double getClassMemoryGb(String taskType, String memoryClass) {
+        String envVarName = taskType + memoryClass.charAt(0) + memoryClass.substring(1).toLowerCase() + "Mem";
+        String value = System.getenv(envVarName);
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException nfe) {
+            return Double.NaN;
+        }
+    }
+
+    private static InputStream openReference(String file) throws IOException {
+        return file.endsWith(".gz") ? FileUtils.openGzipInputStream(file) : new FileInputStream(file);
+    }
+
+    /**
+     * Returns the length of a chunk lim1-lim2, or -1 if it has no limits
+     */
+    private static long getChunkLength(String chunk) {
+        int separator = chunk.indexOf('-');
+        try {
+            return Long.parseLong(chunk.substring(separator + 1)) - Long.parseLong(chunk.substring(0, separator)) + 1;
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private static String getKey(String taskType, String chromosome, String chunk, String panel) {
+        return getKey(taskType, panel) + '\t' + chromosome + '\t' + chunk;
+    }
+
+    private static String getKey(String taskType, String panel) {
+        return taskType + '\t' + panel;
+    }
+
+}
@@ -0,0 +1,182 @@
+package guidance.processes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Allocator of the cores of the node to the commands pinned with taskset.
+ *
+ * The tasks of a node run in the same worker, so the allocator of the worker gives disjoint subsets of cores to the
+ * commands that run at the same time. The cores are the ones of the tasksetCpus environment variable (a taskset list,
+ * e.g. 0-23,48-71), or all the cores of the node when it is not defined.
+ */
+public class CoreAllocator {
+
+    /**
+     * Environment variable with the cores of the node that can be allocated
+     */
+    public static final String TASKSET_CPUS_ENV = "tasksetCpus";
+
+    private static CoreAllocator instance = null;
+
+    private final int[] cpus;
+    private final boolean[] used;
+
+
+    /**
+     * Creates an allocator of the given cores
+     *
+     * @param cpus
+     */
+    public CoreAllocator(int[] cpus) {
+        this.cpus = cpus.clone();
+        this.used = new boolean[cpus.length];
+    }
+
+    /**
+     * Returns the allocator of the cores of the node
+     *
+     * @return
+     */
+    public static synchronized CoreAllocator getInstance() {
+        if (instance == null) {
+            int[] cpus = parseCpuList(System.getenv(TASKSET_CPUS_ENV));
+            if (cpus == null) {
+                cpus = new int[Runtime.getRuntime().availableProcessors()];
+                for (int i = 0; i < cpus.length; ++i) {
+                    cpus[i] = i;
+                }
+            }
+            instance = new CoreAllocator(cpus);
+        }
+        return instance;
+    }
+
+    /**
+     * Cores allocated to a command until they are closed
+     */
+    public class Cores implements AutoCloseable {
+
+        private final int[] indexes;
+        private boolean closed;
+
+
+        private Cores(int[] indexes) {
+            this.indexes = indexes;
+            this.closed = false;
+        }
+
+        /**
+         * Returns the cores as a taskset list
+         *
+         * @return
+         */
+        public String getCpuList() {
+            StringBuilder list = new StringBuilder();
+            for (int index : this.indexes) {
+                if (list.length() > 0) {
+                    list.append(',');
+                }
+                list.append(CoreAllocator.this.cpus[index]);
+            }
+            return list.toString();
+        }
+
+        /**
+         * Returns the number of cores
+         *
+         * @return
+         */
+        public int size() {
+            return this.indexes.length;
+        }
+
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                release(this.indexes);
+            }
+        }
+    }
+
+    /**
+     * Allocates the given number of cores, waiting until they are free. Returns null if the node does not have so many
+     * cores
+     *
+     * @param count
+     * @return
+     * @throws InterruptedException
+     */
+    public synchronized Cores acquire(int count) throws InterruptedException {
+        if (count <= 0 || count > this.cpus.length) {
+            return null;
+        }
+        while (countFree() < count) {
+            wait();
+        }
+        int[] indexes = new int[count];
+        int allocated = 0;
+        for (int i = 0; i < this.used.length && allocated < count; ++i) {
+            if (!this.used[i]) {
+                this.used[i] = true;
+                indexes[allocated++] = i;
+            }
+        }
+        return new Cores(indexes);
+    }
+
+    /**
+     * Parses a taskset list of cores (e.g. 0-3,8,10-11). Returns null if the list is not defined or not valid
+     *
+     * @param cpuList
+     * @return
+     */
+    public static int[] parseCpuList(String cpuList) {
+        if (cpuList == null || cpuList.trim().isEmpty()) {
+            return null;
+        }
+        List<Integer> cpus = new ArrayList<>();
+        try {
+            for (String range : cpuList.trim().split(",")) {
+                String[] limits = range.trim().split("-");
+                int first = Integer.parseInt(limits[0].trim());
+                int last = (limits.length > 1) ? Integer.parseInt(limits[1].trim()) : first;
+                if (limits.length > 2 || first < 0 || last < first) {
+                    return null;
+                }
+                for (int cpu = first; cpu <= last; ++cpu) {
+                    if (!cpus.contains(cpu)) {
+                        cpus.add(cpu);
+                    }
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+        int[] values = new int[cpus.size()];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = cpus.get(i);
+        }
+        return values;
+    }
+
+    private int countFree() {
+        int free = 0;
+        for (boolean u : this.used) {
+            if (!u) {
+                free++;
+            }
+        }
+        return free;
+    }
+
+    private synchronized void release(int[] indexes) {
+        for (int index : indexes) {
+            this.used[index] = false;
+        }
+        notifyAll();
+    }
+
+}
@@ -0,0 +1,210 @@
+package guidance.processes;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Sampler of the resources used by a running command and its children, read from /proc/[pid]/stat, status and io.
+ *
+ * Each sample adds the values of the live processes of the tree. The CPU times and the bytes of the children that
+ * have finished are added by the kernel to their parent when it waits for them, so the totals do not decrease
+ * between samples. The peak memory is the highest sum of the resident memory of the tree. The peaks shorter than the
+ * sampling period, and the resources used after the last sample, are missed.
+ */
+class ProcessMonitor {
+
+    private static final String PROC_DIR = "/proc";
+    private static final long SAMPLE_PERIOD_MILLIS = 500;
+
+    // USER_HZ of the times of /proc/[pid]/stat, 100 in all the Linux architectures
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    // Fields of /proc/[pid]/stat after the command name, starting at the state (field 3)
+    private static final int STAT_FIRST_FIELD = 3;
+    private static final int STAT_UTIME = 14 - STAT_FIRST_FIELD;
+    private static final int STAT_STIME = 15 - STAT_FIRST_FIELD;
+    private static final int STAT_CUTIME = 16 - STAT_FIRST_FIELD;
+    private static final int STAT_CSTIME = 17 - STAT_FIRST_FIELD;
+
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ProcessMonitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long pid;
+    private final ScheduledFuture<?> sampling;
+
+    private boolean sampled;
+    private long peakRssKb;
+    private long userCpuTicks;
+    private long sysCpuTicks;
+    private long readBytes;
+    private long writeBytes;
+
+
+    private ProcessMonitor(long pid) {
+        this.pid = pid;
+        this.sampled = false;
+        this.peakRssKb = 0;
+        this.userCpuTicks = 0;
+        this.sysCpuTicks = 0;
+        this.readBytes = 0;
+        this.writeBytes = 0;
+        this.sampling = SAMPLER.scheduleAtFixedRate(this::sample, 0, SAMPLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the sampling of the given process, or returns null if it cannot be monitored
+     *
+     * @param p
+     * @return
+     */
+    static ProcessMonitor start(Process p) {
+        long pid = getPid(p);
+        if (pid <= 0 || !new File(PROC_DIR, String.valueOf(pid)).isDirectory()) {
+            return null;
+        }
+        return new ProcessMonitor(pid);
+    }
+
+    /**
+     * Stops the sampling and returns the usage of the process
+     *
+     * @return
+     */
+    ProcessUsage stop() {
+        this.sampling.cancel(false);
+        synchronized (this) {
+            if (!this.sampled) {
+                return ProcessUsage.UNKNOWN;
+            }
+            long ticksToMillis = 1_000 / CLOCK_TICKS_PER_SECOND;
+            return new ProcessUsage(this.peakRssKb, this.userCpuTicks * ticksToMillis,
+                    this.sysCpuTicks * ticksToMillis, this.readBytes, this.writeBytes);
+        }
+    }
+
+    private synchronized void sample() {
+        long rssKb = 0;
+        long userTicks = 0;
+        long sysTicks = 0;
+        long read = 0;
+        long written = 0;
+        boolean any = false;
+
+        List<Long> tree = new ArrayList<>();
+        tree.add(this.pid);
+        for (int i = 0; i < tree.size(); ++i) {
+            long current = tree.get(i);
+            File dir = new File(PROC_DIR, String.valueOf(current));
+            try {
+                String stat = readFile(new File(dir, "stat"));
+                String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                userTicks += Long.parseLong(fields[STAT_UTIME]) + Long.parseLong(fields[STAT_CUTIME]);
+                sysTicks += Long.parseLong(fields[STAT_STIME]) + Long.parseLong(fields[STAT_CSTIME]);
+                String status = readFile(new File(dir, "status"));
+                rssKb += getStatusValue(status, "VmRSS:");
+                if (current == this.pid) {
+                    // Peak of the main process, that can be higher than the sampled ones
+                    this.peakRssKb = Math.max(this.peakRssKb, getStatusValue(status, "VmHWM:"));
+                }
+                String io = readIo(new File(dir, "io"));
+                read += getIoValue(io, "rchar:");
+                written += getIoValue(io, "wchar:");
+                any = true;
+
+                File children = new File(dir, "task" + File.separator + current + File.separator + "children");
+                if (children.exists()) {
+                    for (String child : readFile(children).trim().split(" ")) {
+                        if (!child.isEmpty()) {
+                            tree.add(Long.parseLong(child));
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // The process has finished between the reads
+            }
+        }
+
+        if (any) {
+            this.sampled = true;
+            this.peakRssKb = Math.max(this.peakRssKb, rssKb);
+            this.userCpuTicks = Math.max(this.userCpuTicks, userTicks);
+            this.sysCpuTicks = Math.max(this.sysCpuTicks, sysTicks);
+            this.readBytes = Math.max(this.readBytes, read);
+            this.writeBytes = Math.max(this.writeBytes, written);
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the value in kB of a line of /proc/[pid]/status, or 0 if it is not there (e.g. kernel threads)
+     */
+    private static long getStatusValue(String status, String key) {
+        for (String line : status.split("\n")) {
+            if (line.startsWith(key)) {
+                String value = line.substring(key.length()).trim();
+                return Long.parseLong(value.substring(0, value.indexOf(' ')));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the content of /proc/[pid]/io, or an empty one if it cannot be read (it is only readable by the owner)
+     */
+    private static String readIo(File io) {
+        try {
+            return readFile(io);
+        } catch (IOException ioe) {
+            return "";
+        }
+    }
+
+    /**
+     * Returns a value of /proc/[pid]/io, or 0 if it is not there
+     */
+    private static long getIoValue(String io, String key) {
+        for (String line : io.split("\n")) {
+            if (line.startsWith(key)) {
+                return Long.parseLong(line.substring(key.length()).trim());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the pid of the process: Process.pid from Java 9, the pid field of the UNIXProcess of Java 8
+     */
+    private static long getPid(Process p) {
+        try {
+            Method pidMethod = Process.class.getMethod("pid");
+            return (Long) pidMethod.invoke(p);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8
+        }
+        try {
+            Field pidField = p.getClass().getDeclaredField("pid");
+            pidField.setAccessible(true);
+            return pidField.getLong(p);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package guidance.processes;
+
+/**
+ * Result of the execution of an external command: its exit value, its
+ * duration, the bytes written to its output and error files, whether it
+ * has been stopped by a time limit and the resources it has used
+ */
+public class ProcessResult {
+
+    private final int exitValue;
+    private final long durationMillis;
+    private final long outputBytes;
+    private final long errorBytes;
+    private final boolean wallTimeExceeded;
+    private final boolean cpuTimeExceeded;
+    private final ProcessUsage usage;
+
+
+    /**
+     * Creates the result of a command
+     *
+     * @param exitValue
+     * @param durationMillis
+     * @param outputBytes
+     * @param errorBytes
+     * @param wallTimeExceeded
+     * @param cpuTimeExceeded
+     * @param usage
+     */
+    public ProcessResult(int exitValue, long durationMillis, long outputBytes, long errorBytes, boolean wallTimeExceeded,
+            boolean cpuTimeExceeded, ProcessUsage usage) {
+
+        this.exitValue = exitValue;
+        this.durationMillis = durationMillis;
+        this.outputBytes = outputBytes;
+        this.errorBytes = errorBytes;
+        this.wallTimeExceeded = wallTimeExceeded;
+        this.cpuTimeExceeded = cpuTimeExceeded;
+        this.usage = usage;
+    }
+
+    /**
+     * Returns the exit value of the command, or -1 if it has not finished
+     *
+     * @return
+     */
+    public int getExitValue() {
+        return this.exitValue;
+    }
+
+    /**
+     * Returns the elapsed time of the command in milliseconds
+     *
+     * @return
+     */
+    public long getDurationMillis() {
+        return this.durationMillis;
+    }
+
+    /**
+     * Returns the bytes written to the output file (0 if the output is discarded)
+     *
+     * @return
+     */
+    public long getOutputBytes() {
+        return this.outputBytes;
+    }
+
+    /**
+     * Returns the bytes written to the error file (0 if the error is discarded)
+     *
+     * @return
+     */
+    public long getErrorBytes() {
+        return this.errorBytes;
+    }
+
+    /**
+     * Returns whether the command has been killed for exceeding its wall time
+     *
+     * @return
+     */
+    public boolean isWallTimeExceeded() {
+        return this.wallTimeExceeded;
+    }
+
+    /**
+     * Returns whether the command has been killed for exceeding its CPU time
+     *
+     * @return
+     */
+    public boolean isCpuTimeExceeded() {
+        return this.cpuTimeExceeded;
+    }
+
+    /**
+     * Returns the resources used by the command
+     *
+     * @return
+     */
+    public ProcessUsage getUsage() {
+        return this.usage;
+    }
+
+    @Override
+    public String toString() {
+        return "exitValue=" + this.exitValue + " duration=" + this.durationMillis + "ms outputBytes=" + this.outputBytes
+                + " errorBytes=" + this.errorBytes + (this.wallTimeExceeded ? " wallTimeExceeded" : "")
+                + (this.cpuTimeExceeded ? " cpuTimeExceeded" : "") + " " + this.usage;
+    }
+
+}
@@ -0,0 +1,89 @@
+package guidance.processes;
+
+/**
+ * Resources used by an external command and its children: peak resident memory, user and system CPU time and bytes
+ * read and written. The values are -1 when they cannot be measured (e.g. there is no /proc file system)
+ */
+public class ProcessUsage {
+
+    /**
+     * Usage of the commands that cannot be measured
+     */
+    public static final ProcessUsage UNKNOWN = new ProcessUsage(-1, -1, -1, -1, -1);
+
+    private final long peakRssKb;
+    private final long userCpuMillis;
+    private final long sysCpuMillis;
+    private final long readBytes;
+    private final long writeBytes;
+
+
+    /**
+     * Creates the usage of a command
+     *
+     * @param peakRssKb
+     * @param userCpuMillis
+     * @param sysCpuMillis
+     * @param readBytes
+     * @param writeBytes
+     */
+    public ProcessUsage(long peakRssKb, long userCpuMillis, long sysCpuMillis, long readBytes, long writeBytes) {
+        this.peakRssKb = peakRssKb;
+        this.userCpuMillis = userCpuMillis;
+        this.sysCpuMillis = sysCpuMillis;
+        this.readBytes = readBytes;
+        this.writeBytes = writeBytes;
+    }
+
+    /**
+     * Returns the peak resident memory in kB
+     *
+     * @return
+     */
+    public long getPeakRssKb() {
+        return this.peakRssKb;
+    }
+
+    /**
+     * Returns the user CPU time in milliseconds
+     *
+     * @return
+     */
+    public long getUserCpuMillis() {
+        return this.userCpuMillis;
+    }
+
+    /**
+     * Returns the system CPU time in milliseconds
+     *
+     * @return
+     */
+    public long getSysCpuMillis() {
+        return this.sysCpuMillis;
+    }
+
+    /**
+     * Returns the bytes read
+     *
+     * @return
+     */
+    public long getReadBytes() {
+        return this.readBytes;
+    }
+
+    /**
+     * Returns the bytes written
+     *
+     * @return
+     */
+    public long getWriteBytes() {
+        return this.writeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "peakRss=" + this.peakRssKb + "kB userCpu=" + this.userCpuMillis + "ms sysCpu=" + this.sysCpuMillis
+                + "ms readBytes=" + this.readBytes + " writeBytes=" + this.writeBytes;
+    }
+
+}
@@ -1,20 +1,43 @@
 package guidance.processes;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Execution of the external commands. The standard output and error of the commands are redirected by the operating
+ * system to their files (or to the null device when they are discarded), so no thread of the JVM reads them.
+ *
+ * The commands can be limited in wall and CPU time, in seconds, through the environment variables processWallTimeout
+ * and processCpuTimeout (no limit when they are not defined or are 0).
+ *
+ * The resources used by each command are sampled from /proc and appended to the TelemetryLog.
+ */
+public class ProcessUtils {
 
+    // Environment variables of the time limits, in seconds
+    static final String WALL_TIMEOUT_ENV = "processWallTimeout";
+    static final String CPU_TIMEOUT_ENV = "processCpuTimeout";
+
+    // Java 8 has no Redirect.DISCARD
+    private static final File NULL_FILE = new File(
+            System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null");
+
+    // Time given to a command to finish after being asked to stop
+    private static final long DESTROY_GRACE_MILLIS = 5_000;
+
+    // Exit value of the commands killed by SIGXCPU
+    private static final int CPU_LIMIT_EXIT_VALUE = 128 + 24;
 
-public class ProcessUtils {
 
     /**
      * Executes the given cmd and retrieves the STDOUT and STDERR to the given files. At the end of the command
      * execution returns the exitValue
-     * 
+     *
      * @param cmd
      * @param outputFile
      * @param errorFile
@@ -22,166 +45,95 @@ public class ProcessUtils {
      * @throws IOException
      */
     public static int execute(String cmd, String outputFile, String errorFile) throws IOException {
-        // Create the process
-        ProcessBuilder pb = new ProcessBuilder(cmd.split(" "));
-
-        // Remove unnecessary environment
-        pb.environment().remove("LD_PRELOAD");
-
-        // Start the process
-        Process p = pb.start();
-
-        // Handle the output and the error
-        readOutputAndError(p.getInputStream(), outputFile, p.getErrorStream(), errorFile);
-
-        // Retrieve the exit value
-        int exitValue = -1;
-        try {
-            exitValue = p.waitFor();
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-        }
-
-        // Return the exit value
-        return exitValue;
+        return execute(cmd, outputFile, errorFile, null);
     }
-    
+
+    /**
+     * Executes the given cmd without the given environment variable and retrieves the STDOUT and STDERR to the given
+     * files. At the end of the command execution returns the exitValue
+     *
+     * @param cmd
+     * @param outputFile
+     * @param errorFile
+     * @param variableToErase
+     * @return
+     * @throws IOException
+     */
     public static int execute(String cmd, String outputFile, String errorFile, String variableToErase) throws IOException {
         // Create the process
         ProcessBuilder pb = new ProcessBuilder(cmd.split(" "));
 
         // Remove unnecessary environment
         pb.environment().remove("LD_PRELOAD");
-        pb.environment().remove(variableToErase);
-
-        // Start the process
-        Process p = pb.start();
-
-        // Handle the output and the error
-        readOutputAndError(p.getInputStream(), outputFile, p.getErrorStream(), errorFile);
-
-        // Retrieve the exit value
-        int exitValue = -1;
-        try {
-            exitValue = p.waitFor();
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
+        if (variableToErase != null) {
+            pb.environment().remove(variableToErase);
         }
 
-        // Return the exit value
-        return exitValue;
+        return run(pb, outputFile, errorFile).getExitValue();
     }
-    
+
     /**
      * Executes the given cmd. At the end of the command execution returns the exitValue
-     * 
+     *
      * @param cmd
      * @return
      * @throws IOException
      */
     public static int executeWithoutOutputsSNP(String cmd) throws IOException {
-
-        //String[] commandArray = { "bash", "-c", cmd };
-
         // Create the process
-        //ProcessBuilder pb = new ProcessBuilder(commandArray);
         ProcessBuilder pb = new ProcessBuilder(cmd.split(" "));
 
         // Remove unnecessary environment
         pb.environment().remove("LD_PRELOAD");
 
-        // Start the process
-        Process p = pb.start();
-        
-        readOutputAndError(p.getInputStream(), p.getErrorStream());
-
-        // Retrieve the exit value
-        int exitValue = -1;
-        try {
-            exitValue = p.waitFor();
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-        }
-
-        // Return the exit value
-        return exitValue;
+        return run(pb, null, null).getExitValue();
     }
 
     /**
      * Executes the given cmd. At the end of the command execution returns the exitValue
-     * 
+     *
      * @param cmd
      * @return
      * @throws IOException
      */
     public static int executeWithoutOutputs(String cmd) throws IOException {
-
-        String[] commandArray = { "bash", "-c", cmd };
-
-        // Create the process
-        ProcessBuilder pb = new ProcessBuilder(commandArray);
-        //ProcessBuilder pb = new ProcessBuilder(cmd.split(" "));
-
-        // Remove unnecessary environment
-        pb.environment().remove("LD_PRELOAD");
-
-        // Start the process
-        Process p = pb.start();
-        
-        readOutputAndError(p.getInputStream(), p.getErrorStream());
-
-        // Retrieve the exit value
-        int exitValue = -1;
-        try {
-            exitValue = p.waitFor();
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-            throw new IOException();
-        }
-
-        // Return the exit value
-        return exitValue;
+        return executeWithOutputs(cmd, null, null);
     }
-    
-    public static int executeWithOutputs(String cmd, String outputFile, String errorFile) throws IOException {
 
+    /**
+     * Executes the given cmd with bash and retrieves the STDOUT and STDERR to the given files. At the end of the
+     * command execution returns the exitValue
+     *
+     * @param cmd
+     * @param outputFile
+     * @param errorFile
+     * @return
+     * @throws IOException
+     */
+    public static int executeWithOutputs(String cmd, String outputFile, String errorFile) throws IOException {
         String[] commandArray = { "bash", "-c", cmd };
 
         // Create the process
         ProcessBuilder pb = new ProcessBuilder(commandArray);
-        //ProcessBuilder pb = new ProcessBuilder(cmd.split(" "));
 
         // Remove unnecessary environment
         pb.environment().remove("LD_PRELOAD");
 
-        // Start the process
-        Process p = pb.start();
-        
-        readOutputAndError(p.getInputStream(), outputFile, p.getErrorStream(), errorFile);
-
-        // Retrieve the exit value
-        int exitValue = -1;
-        try {
-            exitValue = p.waitFor();
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-            throw new IOException();
+        ProcessResult result = run(pb, outputFile, errorFile);
+        if (Thread.currentThread().isInterrupted()) {
+            throw new IOException("Interrupted while executing " + cmd);
         }
-
-        // Return the exit value
-        return exitValue;
+        return result.getExitValue();
     }
 
     /**
      * Execute a bash command. We can handle complex bash commands including multiple executions (; | && ||), quotes,
      * expansions ($), escapes (\), e.g.: "cd /abc/def; mv ghi 'older ghi '$(whoami)"
-     * 
+     *
      * @param command
      * @return true if bash got started, but your command may have failed.
      */
     public static int executeBashCommand(String command, String outputFile, String errorFile) throws IOException {
-
-        Runtime r = Runtime.getRuntime();
         // Use bash -c so we can handle things like multi commands separated by ; and
         // things like quotes, $, |, and \. My tests show that command comes as
         // one argument to bash, so we do not need to quote it to make it one thing.
@@ -189,31 +141,17 @@ public class ProcessUtils {
         // so having bash here makes it happy provided bash is installed and in path.
         String[] commands = { "bash", "-c", command };
 
-        Process p = r.exec(commands);
-
-        readOutputAndError(p.getInputStream(), outputFile, p.getErrorStream(), errorFile);
-        
-        int exitValue = -1;
-        try {
-            exitValue = p.waitFor();
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-        }
-
-        return exitValue;
-
+        return run(new ProcessBuilder(commands), outputFile, errorFile).getExitValue();
     }
 
     /**
      * Execute a bash command. We can handle complex bash commands including multiple executions (; | && ||), quotes,
      * expansions ($), escapes (\), e.g.: "cd /abc/def; mv ghi 'older ghi '$(whoami)"
-     * 
+     *
      * @param command
      * @return true if bash got started, but your command may have failed.
      */
     public static int executeBashCommandWithoutOutput(String command) throws IOException, InterruptedException {
-
-        Runtime r = Runtime.getRuntime();
         // Use bash -c so we can handle things like multi commands separated by ; and
         // things like quotes, $, |, and \. My tests show that command comes as
         // one argument to bash, so we do not need to quote it to make it one thing.
@@ -223,75 +161,138 @@ public class ProcessUtils {
 
         System.out.println("[DEBUG] Executed command: " + command);
 
-        Process p = r.exec(commands);
-        
-        readOutputAndError(p.getInputStream(), p.getErrorStream());
+        return run(new ProcessBuilder(commands), null, null).getExitValue();
+    }
 
+    /**
+     * Executes the command of the given process builder with the time limits of the environment. The STDOUT and
+     * STDERR are redirected to the given files, or discarded when they are null
+     *
+     * @param pb
+     * @param outputFile
+     * @param errorFile
+     * @return
+     * @throws IOException
+     */
+    public static ProcessResult run(ProcessBuilder pb, String outputFile, String errorFile) throws IOException {
+        return run(pb, outputFile, errorFile, getTimeLimit(WALL_TIMEOUT_ENV), getTimeLimit(CPU_TIMEOUT_ENV));
+    }
+
+    /**
+     * Executes the command of the given process builder with the given limits of wall and CPU time, in seconds (0 for
+     * no limit). The STDOUT and STDERR are redirected to the given files, or discarded when they are null. If the
+     * thread is interrupted the command is killed and its exit value is -1
+     *
+     * @param pb
+     * @param outputFile
+     * @param errorFile
+     * @param wallTimeout
+     * @param cpuTimeout
+     * @return
+     * @throws IOException
+     */
+    public static ProcessResult run(ProcessBuilder pb, String outputFile, String errorFile, long wallTimeout,
+            long cpuTimeout) throws IOException {
+
+        File output = (outputFile == null) ? NULL_FILE : new File(outputFile);
+        File error = (errorFile == null) ? NULL_FILE : new File(errorFile);
+        pb.redirectInput(Redirect.from(NULL_FILE));
+        pb.redirectOutput(Redirect.to(output));
+        pb.redirectError(Redirect.to(error));
+        String tool = getToolName(pb.command());
+        if (cpuTimeout > 0) {
+            pb.command(limitCpuTime(pb.command(), cpuTimeout));
+        }
+
+        long startTime = System.currentTimeMillis();
+        Process p = pb.start();
+        ProcessMonitor monitor = ProcessMonitor.start(p);
+
+        // Retrieve the exit value
         int exitValue = -1;
+        boolean wallTimeExceeded = false;
         try {
-            exitValue = p.waitFor();
+            if (wallTimeout > 0 && !p.waitFor(wallTimeout, TimeUnit.SECONDS)) {
+                wallTimeExceeded = true;
+                exitValue = destroy(p);
+            } else {
+                exitValue = p.waitFor();
+            }
         } catch (InterruptedException ie) {
+            p.destroyForcibly();
             Thread.currentThread().interrupt();
         }
+        long duration = System.currentTimeMillis() - startTime;
+        ProcessUsage usage = (monitor == null) ? ProcessUsage.UNKNOWN : monitor.stop();
+
+        boolean cpuTimeExceeded = cpuTimeout > 0 && exitValue == CPU_LIMIT_EXIT_VALUE;
+        ProcessResult result = new ProcessResult(exitValue, duration, (outputFile == null) ? 0 : output.length(),
+                (errorFile == null) ? 0 : error.length(), wallTimeExceeded, cpuTimeExceeded, usage);
+        TelemetryLog.append(tool, result);
+        return result;
+    }
 
-        return exitValue;
-
+    /**
+     * Returns the time limit of the given environment variable, or 0 if it is not defined or valid
+     *
+     * @param envVarName
+     * @return
+     */
+    static long getTimeLimit(String envVarName) {
+        String value = System.getenv(envVarName);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
     }
 
     /**
-     * Processes the input streams to their given output and error files
-     * 
-     * @param in
-     * @param outputPath
-     * @param error
-     * @param errorPath
-     * @throws IOException
+     * Returns the name of the binary of a command (pinned with taskset or not), or of the first command of a bash
+     * script
      */
-    private static void readOutputAndError(InputStream in, String outputPath, InputStream error, String errorPath) throws IOException {
-    	
-        try (BufferedInputStream bisInp = new BufferedInputStream(in);
-             BufferedOutputStream bosInp = new BufferedOutputStream(new FileOutputStream(outputPath));
-				BufferedInputStream bisErr = new BufferedInputStream(error);
-				BufferedOutputStream bosErr = new BufferedOutputStream(new FileOutputStream(errorPath))
-        		) {
-
-            byte[] bOut = new byte[1024];
-            byte[] bErr = new byte[1024];
-            int readOut = -1;
-            int readErr = -1;
-            while ((readOut = bisInp.read(bOut)) >= 0 || (readErr = bisErr.read(bErr)) >= 0) {
-                if(readOut >= 0) {
-                	bosInp.write(bOut, 0, readOut);
-                	bosInp.flush();
-                	readOut = -1;
-                }
-                if(readErr >= 0) {
-                	bosErr.write(bErr, 0, readErr);
-                	bosErr.flush();
-                	readErr = -1;
-                }
-            }
+    private static String getToolName(List<String> command) {
+        int first = 0;
+        while (first < command.size() - 1 && (command.get(first).equals("env") || command.get(first).startsWith("-"))) {
+            first++;
+        }
+        if (first + 3 < command.size() && command.get(first).equals("taskset")) {
+            // Command pinned to a list of cores
+            first += 3;
         }
+        String binary = command.isEmpty() ? "" : command.get(first);
+        if (binary.equals("bash") && first + 2 < command.size() && command.get(first + 1).equals("-c")) {
+            binary = command.get(first + 2).trim().split("[\\s;|&]+")[0];
+        }
+        return new File(binary).getName();
     }
-    
+
     /**
-     * Processes the input streams and discards the content
-     * 
-     * @param in
-     * @param error
-     * @throws IOException
+     * Runs the command through bash with the CPU time limited by ulimit. The command replaces bash, so its exit value
+     * is the one of the command
      */
-    private static void readOutputAndError(InputStream in, InputStream error) throws IOException {
-        
-        try (BufferedInputStream bisInp = new BufferedInputStream(in);
-                BufferedInputStream bisErr = new BufferedInputStream(error)
-                ) {
-
-            byte[] bOut = new byte[1024];
-            byte[] bErr = new byte[1024];
-            while ((bisInp.read(bOut)) >= 0 || (bisErr.read(bErr)) >= 0) {
-            }
+    private static List<String> limitCpuTime(List<String> command, long cpuTimeout) {
+        List<String> limited = new ArrayList<>();
+        limited.add("bash");
+        limited.add("-c");
+        limited.add("ulimit -S -t " + cpuTimeout + " && exec \"$@\"");
+        limited.add("bash");
+        limited.addAll(command);
+        return limited;
+    }
+
+    /**
+     * Stops the process, killing it if it does not finish in the grace time. Returns its exit value
+     */
+    private static int destroy(Process p) throws InterruptedException {
+        p.destroy();
+        if (!p.waitFor(DESTROY_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+            p.destroyForcibly();
         }
+        return p.waitFor();
     }
 
 }
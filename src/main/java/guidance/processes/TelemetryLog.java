@@ -0,0 +1,208 @@
+package guidance.processes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+
+/**
+ * Log of the resources used by the external commands, as JSON lines keyed by the task type, chromosome, chunk and
+ * panel of the task that runs them.
+ *
+ * The log is written to the file of the telemetryFile environment variable, exported by the environment file like the
+ * constraints of the tasks so the master and the workers get the same path, or of the guidance.telemetryFile system
+ * property, that takes precedence. Several workers can append to the same file of a shared file system: each line is
+ * written under a file lock. There is no log when neither of them is defined.
+ */
+public class TelemetryLog {
+
+    /**
+     * System property with the path of the log
+     */
+    public static final String TELEMETRY_FILE_PROPERTY = "guidance.telemetryFile";
+
+    /**
+     * Environment variable with the path of the log
+     */
+    public static final String TELEMETRY_FILE_ENV = "telemetryFile";
+
+    private static final ThreadLocal<Task> CURRENT_TASK = new ThreadLocal<>();
+
+
+    private TelemetryLog() {
+        // Private constructor to avoid instantiation
+    }
+
+    /**
+     * Task whose commands are logged until it is closed
+     */
+    public static class Task implements AutoCloseable {
+
+        private final String taskType;
+        private final String chromosome;
+        private final String chunk;
+        private final String panel;
+        private final Task previous;
+
+
+        private Task(String taskType, String chromosome, String chunk, String panel, Task previous) {
+            this.taskType = taskType;
+            this.chromosome = chromosome;
+            this.chunk = chunk;
+            this.panel = panel;
+            this.previous = previous;
+        }
+
+        /**
+         * Appends the features of the task (see ConstraintModel): the variants imputed in its chunk and the samples
+         * of the cohort
+         *
+         * @param variants
+         * @param samples
+         */
+        public void appendFeatures(long variants, long samples) {
+            String file = getFile();
+            if (file == null) {
+                return;
+            }
+
+            StringBuilder line = startLine(this.taskType, this.chromosome, this.chunk, this.panel);
+            line.append("\"variants\":").append(variants).append(',');
+            line.append("\"samples\":").append(samples);
+            line.append("}\n");
+            write(file, line);
+        }
+
+        @Override
+        public void close() {
+            if (this.previous == null) {
+                CURRENT_TASK.remove();
+            } else {
+                CURRENT_TASK.set(this.previous);
+            }
+        }
+    }
+
+
+    /**
+     * Sets the task of the commands executed by the current thread until the returned task is closed. The chunk and
+     * panel can be empty when the task has none
+     *
+     * @param taskType
+     * @param chromosome
+     * @param chunk
+     * @param panel
+     * @return
+     */
+    public static Task forTask(String taskType, String chromosome, String chunk, String panel) {
+        Task task = new Task(taskType, chromosome, chunk, panel, CURRENT_TASK.get());
+        CURRENT_TASK.set(task);
+        return task;
+    }
+
+    /**
+     * Returns the path of the log, or null if there is no log
+     *
+     * @return
+     */
+    public static String getFile() {
+        String file = System.getProperty(TELEMETRY_FILE_PROPERTY);
+        if (file == null || file.trim().isEmpty()) {
+            file = System.getenv(TELEMETRY_FILE_ENV);
+        }
+        return (file == null || file.trim().isEmpty()) ? null : file.trim();
+    }
+
+    /**
+     * Appends the line of a command of the current task to the log. The commands executed out of a task (e.g. the
+     * helpers of the master) are not logged, since there is no task to model. The errors writing the log are reported
+     * and ignored
+     *
+     * @param tool
+     * @param result
+     */
+    static void append(String tool, ProcessResult result) {
+        Task task = CURRENT_TASK.get();
+        String file = getFile();
+        if (task == null || file == null) {
+            return;
+        }
+
+        ProcessUsage usage = result.getUsage();
+        StringBuilder line = startLine(task.taskType, task.chromosome, task.chunk, task.panel);
+        appendField(line, "tool", tool).append(',');
+        line.append("\"exitValue\":").append(result.getExitValue()).append(',');
+        line.append("\"wallMillis\":").append(result.getDurationMillis()).append(',');
+        line.append("\"userCpuMillis\":").append(usage.getUserCpuMillis()).append(',');
+        line.append("\"sysCpuMillis\":").append(usage.getSysCpuMillis()).append(',');
+        line.append("\"peakRssKb\":").append(usage.getPeakRssKb()).append(',');
+        line.append("\"readBytes\":").append(usage.getReadBytes()).append(',');
+        line.append("\"writeBytes\":").append(usage.getWriteBytes()).append(',');
+        line.append("\"wallTimeExceeded\":").append(result.isWallTimeExceeded()).append(',');
+        line.append("\"cpuTimeExceeded\":").append(result.isCpuTimeExceeded());
+        line.append("}\n");
+        write(file, line);
+    }
+
+    private static StringBuilder startLine(String taskType, String chromosome, String chunk, String panel) {
+        StringBuilder line = new StringBuilder();
+        line.append('{');
+        appendField(line, "date", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date())).append(',');
+        appendField(line, "host", getHostName()).append(',');
+        appendField(line, "taskType", taskType).append(',');
+        appendField(line, "chromosome", chromosome).append(',');
+        appendField(line, "chunk", chunk).append(',');
+        appendField(line, "panel", panel).append(',');
+        return line;
+    }
+
+    private static void write(String file, StringBuilder line) {
+        try (FileOutputStream out = new FileOutputStream(new File(file), true);
+                FileChannel channel = out.getChannel()) {
+
+            // The workers of the nodes append to the same file
+            FileLock lock = channel.lock();
+            try {
+                channel.write(ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8)));
+            } finally {
+                lock.release();
+            }
+        } catch (IOException ioe) {
+            System.err.println("[TelemetryLog] Cannot write the telemetry to " + file + ": " + ioe.getMessage());
+        }
+    }
+
+    private static StringBuilder appendField(StringBuilder line, String name, String value) {
+        line.append('"').append(name).append("\":\"");
+        if (value == null) {
+            return line.append('"');
+        }
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < ' ') {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        return line.append('"');
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException ioe) {
+            return "";
+        }
+    }
+
+}
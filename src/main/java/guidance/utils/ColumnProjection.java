@@ -0,0 +1,82 @@
+package guidance.utils;
+
+import java.io.Reader;
+import java.util.HashMap;
+
+/**
+ * Set of columns that a stage needs from a delimited file with header. The
+ * indexes come from the header (see Headers.createHashWithHeader) and only the
+ * fields up to the last needed column are split: the rest of each line is not
+ * tokenized and can be written to the output as it is (see LineTokenizer).
+ */
+public class ColumnProjection {
+
+	private final HashMap<String, Integer> headerIndexes;
+	private final int numFields;
+
+	/**
+	 * Creates the projection of the given columns over the header line
+	 *
+	 * @param header
+	 * @param separator
+	 * @param columns
+	 */
+	public ColumnProjection(String header, String separator, String... columns) {
+		this.headerIndexes = Headers.createHashWithHeader(header, separator);
+
+		int lastIndex = -1;
+		for (String column : columns) {
+			Integer index = this.headerIndexes.get(column);
+			if (index != null && index > lastIndex) {
+				lastIndex = index;
+			}
+		}
+		this.numFields = lastIndex + 1;
+	}
+
+	/**
+	 * Returns the index of a column or null if the header does not have it. Columns
+	 * that have not been declared in the constructor may not be split
+	 *
+	 * @param column
+	 * @return
+	 */
+	public Integer getIndex(String column) {
+		return this.headerIndexes.get(column);
+	}
+
+	/**
+	 * Returns the number of fields that have to be split to get all the columns of
+	 * the projection
+	 *
+	 * @return
+	 */
+	public int getNumFields() {
+		return this.numFields;
+	}
+
+	/**
+	 * Limits the given tokenizer to the fields of this projection, but never to
+	 * less than minFields fields
+	 *
+	 * @param tokenizer
+	 * @param minFields
+	 * @return the tokenizer
+	 */
+	public LineTokenizer project(LineTokenizer tokenizer, int minFields) {
+		tokenizer.setMaxFields(Math.max(this.numFields, minFields));
+		return tokenizer;
+	}
+
+	/**
+	 * Creates a tokenizer that only splits the fields of this projection
+	 *
+	 * @param reader
+	 * @param separator
+	 * @return
+	 */
+	public LineTokenizer createTokenizer(Reader reader, char separator) {
+		return project(new LineTokenizer(reader, separator), 0);
+	}
+
+}
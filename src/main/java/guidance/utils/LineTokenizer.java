@@ -0,0 +1,624 @@
+package guidance.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Splits lines of delimited text files into fields without creating a String
+ * per field. The characters of the current line are kept in a reused buffer and
+ * each field is accessed by its offsets, so the hot loops of the tasks only
+ * create Strings for the fields they really need.
+ *
+ * The fields are the same ones that String.split returns for the separator of
+ * the tokenizer: a single character (e.g. TAB or " ") or any run of
+ * whitespaces (the "\\s+" regex). As in String.split, the trailing empty fields
+ * are removed.
+ *
+ * The lines are read from a Reader or, for the uncompressed ASCII files, from a
+ * MappedLineReader, that copies the bytes of each line without decoding them.
+ */
+public class LineTokenizer implements TableRow {
+
+	/**
+	 * Separator value that splits by any run of whitespaces, as "\\s+" does
+	 */
+	public static final char WHITESPACE = '\0';
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int INITIAL_LINE_SIZE = 1024;
+	private static final int INITIAL_FIELDS = 128;
+
+	// Powers of ten that can be represented exactly as a double
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	// Greatest mantissa that can be represented exactly as a double
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private final Reader reader;
+	private final MappedLineReader mappedReader;
+	private final char separator;
+
+	private final char[] readBuffer;
+	private int readPosition;
+	private int readLimit;
+	private boolean skipLineFeed;
+
+	private char[] line;
+	private int lineLength;
+
+	private int[] fieldStart;
+	private int[] fieldEnd;
+	private int numFields;
+
+	// Only the first maxFields fields are split, the rest of the line starts at
+	// restStart (-1 if the whole line has been split)
+	private int maxFields;
+	private int restStart;
+
+	/**
+	 * Creates a tokenizer for lines given with setLine
+	 *
+	 * @param separator
+	 */
+	public LineTokenizer(char separator) {
+		this((Reader) null, separator);
+	}
+
+	/**
+	 * Creates a tokenizer that reads the lines from the given reader. The reader is
+	 * buffered internally, so there is no need to wrap it into a BufferedReader
+	 *
+	 * @param reader
+	 * @param separator
+	 */
+	public LineTokenizer(Reader reader, char separator) {
+		this(reader, null, separator);
+	}
+
+	/**
+	 * Creates a tokenizer that reads the lines of a mapped ASCII file
+	 *
+	 * @param mappedReader
+	 * @param separator
+	 */
+	public LineTokenizer(MappedLineReader mappedReader, char separator) {
+		this(null, mappedReader, separator);
+	}
+
+	private LineTokenizer(Reader reader, MappedLineReader mappedReader, char separator) {
+		this.reader = reader;
+		this.mappedReader = mappedReader;
+		this.separator = separator;
+		this.readBuffer = (reader != null) ? new char[READ_BUFFER_SIZE] : null;
+		this.readPosition = 0;
+		this.readLimit = 0;
+		this.skipLineFeed = false;
+		this.line = new char[INITIAL_LINE_SIZE];
+		this.lineLength = 0;
+		this.fieldStart = new int[INITIAL_FIELDS];
+		this.fieldEnd = new int[INITIAL_FIELDS];
+		this.numFields = 0;
+		this.maxFields = Integer.MAX_VALUE;
+		this.restStart = -1;
+	}
+
+	/**
+	 * Limits the number of fields that are split in each line. The rest of the line
+	 * is kept as it is and can only be written with writeRest. Useful when only the
+	 * first columns of a wide file are needed
+	 *
+	 * @param maxFields
+	 */
+	public void setMaxFields(int maxFields) {
+		this.maxFields = Math.max(1, maxFields);
+	}
+
+	/**
+	 * Reads the next line of the reader and splits it. The line terminators are the
+	 * same ones of BufferedReader.readLine
+	 *
+	 * @return false if the end of the stream has been reached
+	 * @throws IOException
+	 */
+	@Override
+	public boolean next() throws IOException {
+		this.lineLength = 0;
+		if (this.mappedReader != null) {
+			if (!this.mappedReader.nextLine()) {
+				return false;
+			}
+			int length = this.mappedReader.getLineLength();
+			ensureLineCapacity(length);
+			this.mappedReader.getLine(this.line);
+			this.lineLength = length;
+			tokenize();
+			return true;
+		}
+
+		boolean readSomething = false;
+		while (true) {
+			if (this.readPosition >= this.readLimit) {
+				this.readLimit = this.reader.read(this.readBuffer, 0, this.readBuffer.length);
+				this.readPosition = 0;
+				if (this.readLimit <= 0) {
+					this.readLimit = 0;
+					if (!readSomething) {
+						return false;
+					}
+					break;
+				}
+			}
+
+			if (this.skipLineFeed) {
+				this.skipLineFeed = false;
+				if (this.readBuffer[this.readPosition] == '\n') {
+					this.readPosition++;
+					continue;
+				}
+			}
+
+			readSomething = true;
+			int start = this.readPosition;
+			int end = start;
+			char c = 0;
+			while (end < this.readLimit) {
+				c = this.readBuffer[end];
+				if (c == '\n' || c == '\r') {
+					break;
+				}
+				end++;
+			}
+			append(this.readBuffer, start, end - start);
+			if (end < this.readLimit) {
+				this.readPosition = end + 1;
+				this.skipLineFeed = (c == '\r');
+				break;
+			}
+			this.readPosition = end;
+		}
+
+		tokenize();
+		return true;
+	}
+
+	/**
+	 * Splits the given line
+	 *
+	 * @param newLine
+	 */
+	public void setLine(String newLine) {
+		this.lineLength = 0;
+		int length = newLine.length();
+		ensureLineCapacity(length);
+		newLine.getChars(0, length, this.line, 0);
+		this.lineLength = length;
+		tokenize();
+	}
+
+	/**
+	 * Returns the number of fields of the current line
+	 *
+	 * @return
+	 */
+	@Override
+	public int size() {
+		return this.numFields;
+	}
+
+	/**
+	 * Returns the length of the field i
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int length(int i) {
+		checkIndex(i);
+		return this.fieldEnd[i] - this.fieldStart[i];
+	}
+
+	/**
+	 * Returns the character pos of the field i
+	 *
+	 * @param i
+	 * @param pos
+	 * @return
+	 */
+	public char charAt(int i, int pos) {
+		checkIndex(i);
+		if (pos < 0 || pos >= this.fieldEnd[i] - this.fieldStart[i]) {
+			throw new StringIndexOutOfBoundsException(pos);
+		}
+		return this.line[this.fieldStart[i] + pos];
+	}
+
+	/**
+	 * Returns the position of the first occurrence of c in the field i, starting at
+	 * position from
+	 *
+	 * @param i
+	 * @param c
+	 * @param from
+	 * @return the position inside the field or -1 if not found
+	 */
+	public int indexOf(int i, char c, int from) {
+		checkIndex(i);
+		for (int pos = this.fieldStart[i] + from; pos < this.fieldEnd[i]; pos++) {
+			if (this.line[pos] == c) {
+				return pos - this.fieldStart[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the length of the current line
+	 *
+	 * @return
+	 */
+	public int lineLength() {
+		return this.lineLength;
+	}
+
+	/**
+	 * Returns the character pos of the current line
+	 *
+	 * @param pos
+	 * @return
+	 */
+	public char lineCharAt(int pos) {
+		if (pos < 0 || pos >= this.lineLength) {
+			throw new StringIndexOutOfBoundsException(pos);
+		}
+		return this.line[pos];
+	}
+
+	/**
+	 * Returns the field i as a new String
+	 *
+	 * @param i
+	 * @return
+	 */
+	@Override
+	public String get(int i) {
+		checkIndex(i);
+		return new String(this.line, this.fieldStart[i], this.fieldEnd[i] - this.fieldStart[i]);
+	}
+
+	/**
+	 * Returns the whole current line as a new String
+	 *
+	 * @return
+	 */
+	public String getLine() {
+		return new String(this.line, 0, this.lineLength);
+	}
+
+	/**
+	 * Returns true if the field i is equal to the given literal
+	 *
+	 * @param i
+	 * @param literal
+	 * @return
+	 */
+	@Override
+	public boolean equals(int i, String literal) {
+		checkIndex(i);
+		int start = this.fieldStart[i];
+		int length = this.fieldEnd[i] - start;
+		if (length != literal.length()) {
+			return false;
+		}
+		for (int j = 0; j < length; j++) {
+			if (this.line[start + j] != literal.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses the field i as Double.parseDouble would do. Plain decimal numbers are
+	 * parsed in place, the rest of cases fall back to Double.parseDouble
+	 *
+	 * @param i
+	 * @return
+	 * @throws NumberFormatException
+	 */
+	@Override
+	public double getDouble(int i) {
+		checkIndex(i);
+		int pos = this.fieldStart[i];
+		int end = this.fieldEnd[i];
+
+		boolean negative = false;
+		if (pos < end && (this.line[pos] == '-' || this.line[pos] == '+')) {
+			negative = this.line[pos] == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int significantDigits = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean fastPath = true;
+
+		// Integer part
+		while (pos < end && this.line[pos] >= '0' && this.line[pos] <= '9') {
+			mantissa = mantissa * 10 + (this.line[pos] - '0');
+			if (mantissa != 0) {
+				significantDigits++;
+			}
+			digits++;
+			pos++;
+		}
+		// Decimal part
+		if (pos < end && this.line[pos] == '.') {
+			pos++;
+			while (pos < end && this.line[pos] >= '0' && this.line[pos] <= '9') {
+				mantissa = mantissa * 10 + (this.line[pos] - '0');
+				if (mantissa != 0) {
+					significantDigits++;
+				}
+				exponent--;
+				digits++;
+				pos++;
+			}
+		}
+		// Exponent
+		if (digits > 0 && pos < end && (this.line[pos] == 'e' || this.line[pos] == 'E')) {
+			pos++;
+			boolean negativeExponent = false;
+			if (pos < end && (this.line[pos] == '-' || this.line[pos] == '+')) {
+				negativeExponent = this.line[pos] == '-';
+				pos++;
+			}
+			int exponentDigits = 0;
+			int explicitExponent = 0;
+			while (pos < end && this.line[pos] >= '0' && this.line[pos] <= '9' && exponentDigits < 4) {
+				explicitExponent = explicitExponent * 10 + (this.line[pos] - '0');
+				exponentDigits++;
+				pos++;
+			}
+			if (exponentDigits == 0) {
+				fastPath = false;
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+
+		if (!fastPath || digits == 0 || pos != end || significantDigits > 15 || mantissa > MAX_EXACT_MANTISSA
+				|| exponent < -22 || exponent > 22) {
+			// Anything else (NaN, Infinity, hexadecimal, big exponents, etc.) is parsed by
+			// the JDK
+			return Double.parseDouble(get(i));
+		}
+
+		double value = (double) mantissa;
+		if (exponent < 0) {
+			value = value / POWERS_OF_TEN[-exponent];
+		} else if (exponent > 0) {
+			value = value * POWERS_OF_TEN[exponent];
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Appends the field i to the given builder
+	 *
+	 * @param i
+	 * @param sb
+	 * @return the builder
+	 */
+	public StringBuilder appendTo(int i, StringBuilder sb) {
+		checkIndex(i);
+		return sb.append(this.line, this.fieldStart[i], this.fieldEnd[i] - this.fieldStart[i]);
+	}
+
+	/**
+	 * Appends the characters from position from (included) to position to
+	 * (excluded) of the field i to the given builder
+	 *
+	 * @param i
+	 * @param from
+	 * @param to
+	 * @param sb
+	 * @return the builder
+	 */
+	public StringBuilder appendTo(int i, int from, int to, StringBuilder sb) {
+		checkRange(i, from, to);
+		return sb.append(this.line, this.fieldStart[i] + from, to - from);
+	}
+
+	/**
+	 * Writes the characters from position from (included) to position to
+	 * (excluded) of the field i to the given writer
+	 *
+	 * @param i
+	 * @param from
+	 * @param to
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void write(int i, int from, int to, Writer writer) throws IOException {
+		checkRange(i, from, to);
+		writer.write(this.line, this.fieldStart[i] + from, to - from);
+	}
+
+	/**
+	 * Writes the field i to the given writer
+	 *
+	 * @param i
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void write(int i, Writer writer) throws IOException {
+		checkIndex(i);
+		writer.write(this.line, this.fieldStart[i], this.fieldEnd[i] - this.fieldStart[i]);
+	}
+
+	/**
+	 * Writes the whole current line (without line terminator) to the given writer
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	@Override
+	public void writeLine(Writer writer) throws IOException {
+		writer.write(this.line, 0, this.lineLength);
+	}
+
+	/**
+	 * Returns true if the current line has more fields than the ones that have been
+	 * split (see setMaxFields)
+	 *
+	 * @return
+	 */
+	public boolean hasRest() {
+		return this.restStart >= 0;
+	}
+
+	/**
+	 * Writes the part of the current line that has not been split, as it is
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeRest(Writer writer) throws IOException {
+		if (this.restStart >= 0) {
+			writer.write(this.line, this.restStart, this.lineLength - this.restStart);
+		}
+	}
+
+	/**
+	 * Writes the fields of the part of the current line that has not been split,
+	 * using the given character as separator. The trailing empty fields are not
+	 * written, as String.split does
+	 *
+	 * @param writer
+	 * @param newSeparator
+	 * @throws IOException
+	 */
+	public void writeRest(Writer writer, char newSeparator) throws IOException {
+		if (this.restStart < 0) {
+			return;
+		}
+		int last = lastNonSeparator(this.restStart);
+		int start = this.restStart;
+		int pos = this.restStart;
+		while (pos <= last) {
+			if (isSeparator(this.line[pos])) {
+				writer.write(this.line, start, pos - start);
+				writer.write(newSeparator);
+				pos++;
+				if (this.separator == WHITESPACE) {
+					while (pos <= last && isWhitespace(this.line[pos])) {
+						pos++;
+					}
+				}
+				start = pos;
+			} else {
+				pos++;
+			}
+		}
+		writer.write(this.line, start, last + 1 - start);
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= this.numFields) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+	}
+
+	private void checkRange(int i, int from, int to) {
+		checkIndex(i);
+		if (from < 0 || to > this.fieldEnd[i] - this.fieldStart[i] || from > to) {
+			throw new StringIndexOutOfBoundsException("from " + from + " to " + to);
+		}
+	}
+
+	private void append(char[] src, int offset, int length) {
+		ensureLineCapacity(this.lineLength + length);
+		System.arraycopy(src, offset, this.line, this.lineLength, length);
+		this.lineLength += length;
+	}
+
+	private void ensureLineCapacity(int capacity) {
+		if (capacity > this.line.length) {
+			char[] newLine = new char[Math.max(capacity, this.line.length * 2)];
+			System.arraycopy(this.line, 0, newLine, 0, this.lineLength);
+			this.line = newLine;
+		}
+	}
+
+	private void addField(int start, int end) {
+		if (this.numFields == this.fieldStart.length) {
+			int[] newStart = new int[this.numFields * 2];
+			int[] newEnd = new int[this.numFields * 2];
+			System.arraycopy(this.fieldStart, 0, newStart, 0, this.numFields);
+			System.arraycopy(this.fieldEnd, 0, newEnd, 0, this.numFields);
+			this.fieldStart = newStart;
+			this.fieldEnd = newEnd;
+		}
+		this.fieldStart[this.numFields] = start;
+		this.fieldEnd[this.numFields] = end;
+		this.numFields++;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private boolean isSeparator(char c) {
+		return (this.separator == WHITESPACE) ? isWhitespace(c) : c == this.separator;
+	}
+
+	private int lastNonSeparator(int from) {
+		for (int pos = this.lineLength - 1; pos >= from; pos--) {
+			if (!isSeparator(this.line[pos])) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	private void tokenize() {
+		this.numFields = 0;
+		this.restStart = -1;
+		if (this.lineLength == 0) {
+			// As String.split, an empty line has one empty field
+			addField(0, 0);
+			return;
+		}
+
+		int start = 0;
+		int pos = 0;
+		while (pos < this.lineLength) {
+			if (isSeparator(this.line[pos])) {
+				addField(start, pos);
+				pos++;
+				if (this.separator == WHITESPACE) {
+					while (pos < this.lineLength && isWhitespace(this.line[pos])) {
+						pos++;
+					}
+				}
+				start = pos;
+
+				// The rest of the line is not split unless it only has separators, so the
+				// trailing empty fields are removed as String.split does
+				if (this.numFields == this.maxFields && lastNonSeparator(start) >= 0) {
+					this.restStart = start;
+					return;
+				}
+			} else {
+				pos++;
+			}
+		}
+		addField(start, this.lineLength);
+
+		// As String.split, remove the trailing empty fields
+		while (this.numFields > 0 && this.fieldEnd[this.numFields - 1] == this.fieldStart[this.numFields - 1]) {
+			this.numFields--;
+		}
+	}
+
+}
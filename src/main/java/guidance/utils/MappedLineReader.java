@@ -0,0 +1,159 @@
+package guidance.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader of the lines of an uncompressed ASCII file (e.g. the .info and .sample
+ * files of the imputation) that maps the file in memory and looks for the line
+ * terminators in the mapped bytes. There is no charset decoding: each byte is a
+ * character.
+ *
+ * The file is mapped in segments of up to 2 GB. When a line does not end in its
+ * segment, the next segment is mapped from the start of the line. The line
+ * terminators are "\n" and "\r\n".
+ */
+public class MappedLineReader implements Closeable {
+
+	private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+	private final String fileName;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final long segmentSize;
+
+	private MappedByteBuffer segment;
+	private long segmentStart;
+	private int position;
+
+	// Current line in the segment
+	private int lineStart;
+	private int lineEnd;
+
+	/**
+	 * Opens a file to read its lines
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public MappedLineReader(String fileName) throws IOException {
+		this(fileName, MAX_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens a file to read its lines mapping segments of the given size
+	 *
+	 * @param fileName
+	 * @param segmentSize
+	 * @throws IOException
+	 */
+	MappedLineReader(String fileName, long segmentSize) throws IOException {
+		this.fileName = fileName;
+		this.file = new RandomAccessFile(fileName, "r");
+		this.channel = this.file.getChannel();
+		this.segmentSize = Math.min(Math.max(1, segmentSize), MAX_SEGMENT_SIZE);
+		try {
+			this.fileSize = this.channel.size();
+			map(0);
+		} catch (IOException ioe) {
+			this.file.close();
+			throw ioe;
+		}
+		this.lineStart = 0;
+		this.lineEnd = 0;
+	}
+
+	/**
+	 * Moves to the next line
+	 *
+	 * @return false at the end of the file
+	 * @throws IOException
+	 */
+	public boolean nextLine() throws IOException {
+		while (true) {
+			int limit = this.segment.limit();
+			if (this.position >= limit && this.segmentStart + limit >= this.fileSize) {
+				return false;
+			}
+
+			int end = this.position;
+			while (end < limit && this.segment.get(end) != '\n') {
+				end++;
+			}
+			if (end < limit || this.segmentStart + limit >= this.fileSize) {
+				this.lineStart = this.position;
+				this.lineEnd = end;
+				if (this.lineEnd > this.lineStart && this.segment.get(this.lineEnd - 1) == '\r') {
+					this.lineEnd--;
+				}
+				this.position = Math.min(end + 1, limit);
+				return true;
+			}
+
+			// The line continues after the segment
+			if (this.position == 0) {
+				throw new IOException("Line longer than " + this.segmentSize + " bytes in " + this.fileName);
+			}
+			map(this.segmentStart + this.position);
+		}
+	}
+
+	/**
+	 * Returns the length of the current line, without its terminator
+	 *
+	 * @return
+	 */
+	public int getLineLength() {
+		return this.lineEnd - this.lineStart;
+	}
+
+	/**
+	 * Copies the characters of the current line to the given array, that must
+	 * have room for getLineLength characters
+	 *
+	 * @param dst
+	 */
+	public void getLine(char[] dst) {
+		for (int i = this.lineStart, j = 0; i < this.lineEnd; ++i, ++j) {
+			dst[j] = (char) (this.segment.get(i) & 0xFF);
+		}
+	}
+
+	/**
+	 * Reads the next line, or returns null at the end of the file
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public String readLine() throws IOException {
+		if (!nextLine()) {
+			return null;
+		}
+		byte[] bytes = new byte[getLineLength()];
+		for (int i = this.lineStart, j = 0; i < this.lineEnd; ++i, ++j) {
+			bytes[j] = this.segment.get(i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Closes the file. The mapped segment is released when it is garbage collected
+	 */
+	@Override
+	public void close() throws IOException {
+		this.file.close();
+	}
+
+	private void map(long start) throws IOException {
+		long size = Math.min(this.segmentSize, this.fileSize - start);
+		this.segment = this.channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		this.segmentStart = start;
+		this.position = 0;
+	}
+
+}
@@ -0,0 +1,62 @@
+package guidance.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Current row of a table that is read row by row, either from delimited text
+ * (LineTokenizer) or from a binary columnar file (ColumnarTableReader)
+ */
+public interface TableRow {
+
+	/**
+	 * Moves to the next row
+	 *
+	 * @return false if there are no more rows
+	 * @throws IOException
+	 */
+	boolean next() throws IOException;
+
+	/**
+	 * Returns the number of fields of the current row
+	 *
+	 * @return
+	 */
+	int size();
+
+	/**
+	 * Returns the field i as a new String
+	 *
+	 * @param i
+	 * @return
+	 */
+	String get(int i);
+
+	/**
+	 * Returns true if the field i is equal to the given literal
+	 *
+	 * @param i
+	 * @param literal
+	 * @return
+	 */
+	boolean equals(int i, String literal);
+
+	/**
+	 * Returns the field i as a double
+	 *
+	 * @param i
+	 * @return
+	 * @throws NumberFormatException
+	 */
+	double getDouble(int i);
+
+	/**
+	 * Writes the current row as a line of delimited text (without line
+	 * terminator) to the given writer
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	void writeLine(Writer writer) throws IOException;
+
+}
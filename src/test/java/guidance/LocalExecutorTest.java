@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import guidance.exceptions.GuidanceTaskException;
+
+public class LocalExecutorTest {
+
+    private static final String[] FILES = { "localExecutorTest.a", "localExecutorTest.b", "localExecutorTest.c" };
+
+
+    @After
+    public void tearDown() {
+        for (String file : FILES) {
+            new File(file).delete();
+        }
+    }
+
+    @Test
+    public void testFileDependencies() throws Exception {
+        Files.write(new File(FILES[0]).toPath(), "chunk\n".getBytes(StandardCharsets.UTF_8));
+
+        LocalExecutor executor = LocalExecutor.start();
+        try {
+            // The second copy reads the output of the first one, that is deleted once it has been read
+            GuidanceImpl.copyFile(FILES[0], FILES[1]);
+            GuidanceImpl.copyFile(FILES[1], FILES[2]);
+            executor.deleteFiles(FILES[1]);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(null, LocalExecutor.getInstance());
+
+        assertFalse(new File(FILES[1]).exists());
+        assertTrue(new File(FILES[2]).exists());
+        assertEquals("chunk\n", read(FILES[2]));
+    }
+
+    @Test
+    public void testDeletionIsTheLastWriter() throws Exception {
+        Files.write(new File(FILES[0]).toPath(), "chunk\n".getBytes(StandardCharsets.UTF_8));
+
+        LocalExecutor executor = LocalExecutor.start();
+        try {
+            // The last copy writes again the deleted file, so it waits for the deletion
+            GuidanceImpl.copyFile(FILES[0], FILES[1]);
+            GuidanceImpl.copyFile(FILES[1], FILES[2]);
+            executor.deleteFiles(FILES[1]);
+            GuidanceImpl.copyFile(FILES[2], FILES[1]);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(new File(FILES[1]).exists());
+        assertEquals("chunk\n", read(FILES[1]));
+    }
+
+    @Test
+    public void testComputingUnitsOfTheNode() throws Exception {
+        // 2 CU tasks in 5 CU: only two of them run at the same time
+        assertEquals(2, runConcurrently(new LocalExecutor(5, 100), 2, 0));
+    }
+
+    @Test
+    public void testMemoryOfTheNode() throws Exception {
+        // 1 GB tasks in 3.5 GB: only three of them run at the same time
+        assertEquals(3, runConcurrently(new LocalExecutor(8, 3.5), 1, 1.0));
+    }
+
+    @Test
+    public void testFailedTaskFailsTheBarrier() throws Exception {
+        LocalExecutor executor = new LocalExecutor(2, 1);
+        AtomicInteger done = new AtomicInteger();
+        executor.submitAction("ok", 1, 0, () -> done.incrementAndGet());
+        executor.submitAction("failing", 1, 0, () -> {
+            throw new IllegalStateException("failing task");
+        });
+        try {
+            executor.shutdown();
+            fail("The barrier does not report the failed task");
+        } catch (GuidanceTaskException gte) {
+            assertTrue(gte.getMessage().contains("failing"));
+        }
+        assertEquals(1, done.get());
+    }
+
+    @Test
+    public void testTasksAreResolvedByTheirParameters() {
+        // No task is overloaded, so all of them can be found by name
+        for (Method method : GuidanceItf.class.getMethods()) {
+            Class<?>[] types = method.getParameterTypes();
+            Object[] args = new Object[types.length];
+            for (int i = 0; i < types.length; ++i) {
+                // The default value of the type: null, or 0 or false boxed
+                args[i] = Array.get(Array.newInstance(types[i], 1), 0);
+            }
+            assertEquals(method, LocalExecutor.getItfMethod(method.getName(), args));
+        }
+
+        try {
+            LocalExecutor.getItfMethod("copyFile", new Object[] { FILES[0] });
+            fail("A call with missing arguments is submitted");
+        } catch (IllegalArgumentException iae) {
+            assertTrue(iae.getMessage().contains("copyFile"));
+        }
+
+        LocalExecutor executor = LocalExecutor.start();
+        try {
+            // Only the method of the task submits it
+            LocalExecutor.submit("copyFile", FILES[0], FILES[1]);
+            fail("A task submitted by another method is accepted");
+        } catch (IllegalArgumentException iae) {
+            assertTrue(iae.getMessage().contains("LocalExecutorTest"));
+        } finally {
+            try {
+                executor.shutdown();
+            } catch (GuidanceTaskException gte) {
+                fail(gte.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs eight tasks with the given constraints and returns how many of them have run at the same time
+     */
+    private static int runConcurrently(LocalExecutor executor, int cores, double memoryGb) throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < 8; ++i) {
+            executor.submitAction("task" + i, cores, memoryGb, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            });
+        }
+        executor.shutdown();
+        return maxRunning.get();
+    }
+
+    private static String read(String file) throws IOException {
+        return new String(Files.readAllBytes(new File(file).toPath()), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ChunkMergerTest {
+
+    private static final String HEADER = "chr\tposition\trs_id_all\tinfo_all";
+
+    private List<File> files;
+
+
+    @Before
+    public void createFileList() {
+        this.files = new ArrayList<>();
+    }
+
+    @After
+    public void deleteFiles() {
+        for (File file : this.files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void concatenatesBgzfChunks() throws IOException {
+        // Enough rows to fill several blocks
+        List<String> rowsA = createRows("22", 0, 20_000);
+        List<String> rowsB = createRows("22", 20_000, 30_000);
+        File a = writeBgzf(rowsA);
+        File b = writeBgzf(rowsB);
+        File c = newFile();
+
+        assertTrue(ChunkMerger.concatenate(a.getPath(), b.getPath(), c.getPath()));
+
+        List<String> expected = new ArrayList<>();
+        expected.add(HEADER);
+        expected.addAll(rowsA);
+        expected.addAll(rowsB);
+        assertEquals(expected, readLines(c));
+
+        // The output is a chunk that can be concatenated again
+        File d = newFile();
+        assertTrue(ChunkMerger.concatenate(c.getPath(), b.getPath(), d.getPath()));
+        expected.addAll(rowsB);
+        assertEquals(expected, readLines(d));
+    }
+
+    @Test
+    public void mergesGzipChunksByLines() throws IOException {
+        List<String> rowsA = createRows("1", 0, 100);
+        List<String> rowsB = createRows("2", 0, 50);
+        File a = writeGzip(rowsA);
+        File b = writeBgzf(rowsB);
+        File c = newFile();
+
+        assertFalse(ChunkMerger.concatenate(a.getPath(), b.getPath(), c.getPath()));
+        assertFalse(c.exists());
+
+        ChunkMerger.merge(a.getPath(), b.getPath(), c.getPath());
+
+        List<String> expected = new ArrayList<>();
+        expected.add(HEADER);
+        expected.addAll(rowsA);
+        expected.addAll(rowsB);
+        assertEquals(expected, readLines(c));
+
+        // The merged file has its header in its own block
+        File d = newFile();
+        assertTrue(ChunkMerger.concatenate(b.getPath(), c.getPath(), d.getPath()));
+    }
+
+    @Test
+    public void mergesTheIndexesOfTheChunks() throws IOException {
+        List<String> rowsA = createRows("21", 0, 20_000);
+        List<String> rowsB = createRows("22", 20_000, 30_000);
+        File a = writeIndexedBgzf(rowsA);
+        File b = writeIndexedBgzf(rowsB);
+        File c = newFile();
+        this.files.add(new File(TabixIndex.getIndexFile(c.getPath())));
+
+        assertNull(ChunkMerger.mergeIndexed(a.getPath(), b.getPath(), c.getPath()));
+
+        // The rows of both chunks are found with the index of C
+        for (String region : new String[] { "21:50000-60000", "22:150000-150100", "22:1-200000", "X:1-1000" }) {
+            RegionQuery query = new RegionQuery(region);
+            StringWriter writer = new StringWriter();
+            query.run(c.getPath(), writer);
+            assertTrue(query.isIndexed());
+
+            StringBuilder expected = new StringBuilder(HEADER).append('\n');
+            String chr = region.substring(0, region.indexOf(':'));
+            String[] range = region.substring(region.indexOf(':') + 1).split("-");
+            for (String row : chr.equals("21") ? rowsA : rowsB) {
+                String[] fields = row.split("\t");
+                int position = Integer.parseInt(fields[1]);
+                if (fields[0].equals(chr) && position >= Integer.parseInt(range[0])
+                        && position <= Integer.parseInt(range[1])) {
+                    expected.append(row).append('\n');
+                }
+            }
+            assertEquals(expected.toString(), writer.toString());
+        }
+    }
+
+    private static List<String> createRows(String chr, int from, int to) {
+        List<String> rows = new ArrayList<>();
+        for (int i = from; i < to; ++i) {
+            rows.add(chr + "\t" + (1000 + 7 * i) + "\trs" + i + "\t" + (i % 1000) / 1000.0);
+        }
+        return rows;
+    }
+
+    private File newFile() throws IOException {
+        File file = File.createTempFile("chunk", ".txt.gz");
+        file.delete();
+        this.files.add(file);
+        return file;
+    }
+
+    private File writeBgzf(List<String> rows) throws IOException {
+        File file = newFile();
+        try (CompressedFileWriter writer = CompressedFileWriter.bgzf(file.getPath())) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.endHeader();
+            for (String row : rows) {
+                writer.write(row);
+                writer.newLine();
+            }
+            writer.commit();
+        }
+        return file;
+    }
+
+    private File writeIndexedBgzf(List<String> rows) throws IOException {
+        File file = newFile();
+        this.files.add(new File(TabixIndex.getIndexFile(file.getPath())));
+        try (CompressedFileWriter writer = CompressedFileWriter.bgzf(file.getPath())) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.endHeader();
+            writer.setIndex(TabixIndex.forTable(HEADER));
+            for (String row : rows) {
+                writer.writeLine(row);
+            }
+            writer.commit();
+        }
+        return file;
+    }
+
+    private File writeGzip(List<String> rows) throws IOException {
+        File file = newFile();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write((HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+            for (String row : rows) {
+                out.write((row + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return file;
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+}
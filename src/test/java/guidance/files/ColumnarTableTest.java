@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ColumnarTableTest {
+
+    private static final String HEADER = "chr\tposition\trs_id_all\talleleA\tinfo_all\tfrequentist_add_pvalue\tcomment";
+
+    private File file;
+
+
+    @Before
+    public void createFile() throws IOException {
+        this.file = File.createTempFile("table", ".col");
+        this.file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        this.file.delete();
+    }
+
+    @Test
+    public void readsTheWrittenText() throws IOException {
+        // Several blocks with values that cannot be stored as numbers
+        Random random = new Random(16);
+        List<String> lines = new ArrayList<>();
+        String[] pvalues = new String[] { "NA", "1.0E-5", "1.23e-05", "0.500", "-0", "1", "0.0194621" };
+        for (int i = 0; i < 10_000; ++i) {
+            String allele = (random.nextInt(10) == 0) ? "ACGT" + i : "A";
+            String info = (i % 1000 == 0) ? "-" : Double.toString(random.nextDouble());
+            lines.add("22\t" + (16_000_000 + 13 * i) + "\trs" + i + "\t" + allele + "\t" + info + "\t"
+                    + pvalues[i % pvalues.length] + "\t" + ((i % 3 == 0) ? "" : "x"));
+        }
+        // Rows with less and more fields
+        lines.add("X\t1");
+        lines.add("X\t2\trs\tA\t0.5\tNA\t\textra");
+
+        try (ColumnarTableWriter writer = new ColumnarTableWriter(this.file.getPath())) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+            writer.commit();
+        }
+        assertTrue(ColumnarTableReader.isColumnar(this.file.getPath()));
+
+        try (ColumnarTableReader reader = new ColumnarTableReader(this.file.getPath())) {
+            assertEquals(HEADER, reader.getHeader());
+            for (String line : lines) {
+                assertTrue(reader.next());
+                assertEquals(line, reader.getLine());
+
+                StringWriter written = new StringWriter();
+                reader.writeLine(written);
+                assertEquals(line, written.toString());
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void returnsTheNumbers() throws IOException {
+        try (ColumnarTableWriter writer = new ColumnarTableWriter(this.file.getPath())) {
+            writer.write(HEADER + "\n");
+            writer.write("22\t16050075\trs1\tA\t0.25\tNA\tc\n");
+            writer.write("22\t16050115\trs2\tG\t0.75\t1.0E-8\tc\n");
+            writer.commit();
+        }
+
+        try (ColumnarTableReader reader = new ColumnarTableReader(this.file.getPath())) {
+            assertTrue(reader.next());
+            assertEquals(16050075.0, reader.getDouble(1), 0.0);
+            assertEquals(0.25, reader.getDouble(4), 0.0);
+            assertTrue(reader.equals(5, "NA"));
+            assertEquals(7, reader.size());
+
+            assertTrue(reader.next());
+            assertTrue(reader.equals(1, "16050115"));
+            assertEquals(1.0E-8, reader.getDouble(5), 0.0);
+            assertFalse(reader.equals(5, "NA"));
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void skipsTheBlocksOutOfTheRequiredRange() throws IOException {
+        // The rows of the second block have a low info, and the third block has an NA
+        int blockRows = 4096;
+        try (ColumnarTableWriter writer = new ColumnarTableWriter(this.file.getPath())) {
+            writer.write(HEADER + "\n");
+            for (int i = 0; i < 3 * blockRows; ++i) {
+                String info = (i / blockRows == 1) ? "0.1" : "0.9";
+                String pvalue = (i == 2 * blockRows) ? "NA" : "0.5";
+                writer.write("22\t" + (1000 + i) + "\trs" + i + "\tA\t" + info + "\t" + pvalue + "\tc\n");
+            }
+            writer.commit();
+        }
+
+        try (ColumnarTableReader reader = new ColumnarTableReader(this.file.getPath())) {
+            reader.require(4, 0.3, Double.POSITIVE_INFINITY);
+            reader.require(5, Double.NEGATIVE_INFINITY, 0.6);
+            int rows = 0;
+            while (reader.next()) {
+                assertTrue(reader.getDouble(4) >= 0.3);
+                rows++;
+            }
+            assertEquals(2 * blockRows, rows);
+            assertEquals(1, reader.getSkippedBlocks());
+        }
+    }
+
+    @Test
+    public void skipsTheBlocksWithoutValues() throws IOException {
+        // The p-values of the second block are all NA
+        int blockRows = 4096;
+        try (ColumnarTableWriter writer = new ColumnarTableWriter(this.file.getPath())) {
+            writer.write(HEADER + "\n");
+            for (int i = 0; i < 3 * blockRows; ++i) {
+                String pvalue = (i / blockRows == 1) ? "NA" : "0.5";
+                writer.write("22\t" + (1000 + i) + "\trs" + i + "\tA\t0.9\t" + pvalue + "\tc\n");
+            }
+            writer.commit();
+        }
+
+        try (ColumnarTableReader reader = new ColumnarTableReader(this.file.getPath())) {
+            reader.requireValues(5);
+            int rows = 0;
+            while (reader.next()) {
+                assertEquals(0.5, reader.getDouble(5), 0);
+                rows++;
+            }
+            assertEquals(2 * blockRows, rows);
+            assertEquals(1, reader.getSkippedBlocks());
+        }
+    }
+
+    @Test
+    public void discardsTheFileWithoutCommit() throws IOException {
+        try (ColumnarTableWriter writer = new ColumnarTableWriter(this.file.getPath())) {
+            writer.write(HEADER + "\n");
+        }
+        assertFalse(this.file.exists());
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class CompressedFileWriterTest {
+
+    private File tmpDir;
+    private File outputFile;
+
+
+    @Before
+    public void createTmpDir() throws IOException {
+        this.tmpDir = File.createTempFile("compressed", "");
+        this.tmpDir.delete();
+        this.tmpDir.mkdir();
+        this.outputFile = new File(this.tmpDir, "output.txt.gz");
+    }
+
+    @After
+    public void deleteTmpDir() {
+        for (File f : this.tmpDir.listFiles()) {
+            f.delete();
+        }
+        this.tmpDir.delete();
+    }
+
+    @Test
+    public void commitRenamesTheOutput() throws IOException {
+        for (CompressedFileWriter.Format format : CompressedFileWriter.Format.values()) {
+            this.outputFile.delete();
+            try (CompressedFileWriter writer = new CompressedFileWriter(this.outputFile.getPath(), format,
+                    Deflater.DEFAULT_COMPRESSION, 2)) {
+                writer.write("chr\tposition");
+                writer.newLine();
+                writer.endHeader();
+                writer.writeLine("1\t100");
+
+                // Only the temporary file exists until the commit
+                assertFalse(this.outputFile.exists());
+                assertEquals(1, this.tmpDir.list().length);
+
+                writer.commit();
+                assertTrue(writer.isCommitted());
+            }
+
+            assertEquals(Arrays.asList("chr\tposition", "1\t100"), read(this.outputFile));
+            assertEquals(Arrays.asList("output.txt.gz"), Arrays.asList(this.tmpDir.list()));
+        }
+    }
+
+    @Test
+    public void closeWithoutCommitKeepsTheFormerOutput() throws IOException {
+        try (CompressedFileWriter writer = CompressedFileWriter.gzip(this.outputFile.getPath())) {
+            writer.writeLine("former");
+            writer.commit();
+        }
+
+        try (CompressedFileWriter writer = CompressedFileWriter.gzip(this.outputFile.getPath())) {
+            writer.writeLine("aborted");
+            throw new IllegalStateException("failed task");
+        } catch (IllegalStateException ise) {
+            // The writer is closed without commit
+        }
+
+        assertEquals(Arrays.asList("former"), read(this.outputFile));
+        assertEquals(Arrays.asList("output.txt.gz"), Arrays.asList(this.tmpDir.list()));
+    }
+
+    @Test
+    public void commitTwiceFails() throws IOException {
+        CompressedFileWriter writer = CompressedFileWriter.gzip(this.outputFile.getPath());
+        writer.commit();
+        try {
+            writer.commit();
+            fail("The second commit should fail");
+        } catch (IOException ioe) {
+            // Expected
+        }
+        writer.close();
+        assertTrue(writer.isCommitted());
+        assertTrue(this.outputFile.exists());
+    }
+
+    @Test
+    public void commitFileReplacesTheOutput() throws IOException {
+        File tmpFile = CompressedFileWriter.createTmpFile(this.outputFile);
+        assertEquals(this.tmpDir, tmpFile.getParentFile());
+        assertTrue(tmpFile.getName().startsWith(".output.txt.gz."));
+
+        try (FileOutputStream out = new FileOutputStream(this.outputFile)) {
+            out.write("old".getBytes(StandardCharsets.UTF_8));
+        }
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            out.write("new".getBytes(StandardCharsets.UTF_8));
+        }
+        CompressedFileWriter.commitFile(tmpFile, this.outputFile);
+
+        assertFalse(tmpFile.exists());
+        assertEquals(3, this.outputFile.length());
+        try (FileInputStream in = new FileInputStream(this.outputFile)) {
+            byte[] bytes = new byte[3];
+            assertEquals(3, in.read(bytes));
+            assertEquals("new", new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void indexIsWrittenOnCommit() throws IOException {
+        File indexFile = new File(TabixIndex.getIndexFile(this.outputFile.getPath()));
+        try (CompressedFileWriter writer = CompressedFileWriter.bgzf(this.outputFile.getPath())) {
+            writer.write("chr\tposition\n");
+            writer.endHeader();
+            writer.setIndex(TabixIndex.forTable("chr\tposition"));
+            writer.writeLine("1\t100");
+            writer.writeLine("1\t200");
+            writer.writeLine("2\t50");
+            assertFalse(indexFile.exists());
+            writer.commit();
+            assertEquals(null, writer.getIndexError());
+        }
+        assertTrue(indexFile.exists());
+        assertEquals(2, this.tmpDir.list().length);
+
+        // Unsorted lines drop the index, and the one of the former output is removed
+        try (CompressedFileWriter writer = CompressedFileWriter.bgzf(this.outputFile.getPath())) {
+            writer.write("chr\tposition\n");
+            writer.endHeader();
+            writer.setIndex(TabixIndex.forTable("chr\tposition"));
+            writer.writeLine("1\t200");
+            writer.writeLine("1\t100");
+            writer.commit();
+            assertNotNull(writer.getIndexError());
+        }
+        assertFalse(indexFile.exists());
+        assertEquals(Arrays.asList("chr\tposition", "1\t200", "1\t100"), read(this.outputFile));
+    }
+
+    @Test
+    public void gzipFilesCannotBeIndexed() throws IOException {
+        try (CompressedFileWriter writer = CompressedFileWriter.gzip(this.outputFile.getPath())) {
+            writer.setIndex(TabixIndex.forTable("chr\tposition"));
+            fail("A gzip file should not be indexed");
+        } catch (IOException ioe) {
+            // Expected
+        }
+        assertEquals(0, this.tmpDir.list().length);
+    }
+
+    private static List<String> read(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class CondensedTopHitsWriterTest {
+
+    private static final String HEADER = "chr position rs_id_all info_all certainty_all alleleA alleleB all_maf "
+            + "frequentist_add_pvalue frequentist_add_beta_1 frequentist_add_se_1 "
+            + "frequentist_rec_pvalue frequentist_rec_beta_1 frequentist_rec_se_1 refpanel";
+
+    private File tmpDir;
+
+
+    @Before
+    public void createTmpDir() throws IOException {
+        this.tmpDir = File.createTempFile("condensed", "");
+        this.tmpDir.delete();
+        this.tmpDir.mkdir();
+    }
+
+    @After
+    public void deleteTmpDir() {
+        for (File f : this.tmpDir.listFiles()) {
+            f.delete();
+        }
+        this.tmpDir.delete();
+    }
+
+
+    @Test
+    public void makeNames() {
+        String[] names = CondensedTopHitsWriter.makeNames(
+                new String[] { "chr", "frequentist_add_beta_1:genotype/sex=1", "1st", "chr" });
+        assertEquals(Arrays.asList("chr", "frequentist_add_beta_1.genotype.sex.1", "X1st", "chr.1"), Arrays.asList(names));
+    }
+
+    @Test
+    public void autosomes() throws IOException {
+        String filtered = write("filtered.txt.gz", HEADER,
+                "1 1000 rs1 0.9 1 A G 0.1 0.5 0.1 0.01 1e-4 0.2 0.02 ref",
+                "1 2000 rs2 0.9 1 C T 0.2 1e-6 0.3 0.03 1e-5 0.4 - ref",
+                "1 900000 rs3 0.9 1 A C 0.3 1e-3 0.5 0.05 0.6 0.6 0.06 ref",
+                "2 500 rs4 0.9 1 G T 0.4 0.9 0.7 0.07 0.8 0.8 0.08 ref");
+
+        String condensed = new File(this.tmpDir, "condensed.txt.gz").getPath();
+        String topHits = new File(this.tmpDir, "tophits.txt.gz").getPath();
+        String ranges = new File(this.tmpDir, "ranges.txt.gz").getPath();
+        CondensedTopHitsWriter writer = new CondensedTopHitsWriter(1e-3, new String[] { "add", "rec" });
+        writer.generate(filtered, filtered, filtered, filtered, condensed, topHits, ranges);
+
+        List<String> condensedLines = read(condensed);
+        assertEquals(5, condensedLines.size());
+        assertEquals("chr\tposition\trs_id_all\tinfo_all\talleleA\talleleB\tall_maf\trefpanel\t"
+                + "frequentist_add_pvalue\tfrequentist_add_beta_1\tfrequentist_add_se_1\t"
+                + "frequentist_rec_pvalue\tfrequentist_rec_beta_1\tfrequentist_rec_se_1", condensedLines.get(0));
+        assertEquals("1\t2000\trs2\t0.9\tC\tT\t0.2\tref\t1e-6\t0.3\t0.03\t1e-5\t0.4\tNA", condensedLines.get(2));
+
+        // First the top hits of add, then the new ones of rec
+        List<String> topHitsLines = read(topHits);
+        assertEquals(4, topHitsLines.size());
+        assertEquals("rs2", topHitsLines.get(1).split("\t")[2]);
+        assertEquals("add", topHitsLines.get(1).split("\t")[14]);
+        assertEquals("rs3", topHitsLines.get(2).split("\t")[2]);
+        assertEquals("rs1", topHitsLines.get(3).split("\t")[2]);
+        assertEquals("rec", topHitsLines.get(3).split("\t")[14]);
+
+        List<String> rangesLines = read(ranges);
+        assertEquals(3, rangesLines.size());
+        assertEquals("-249000\t251999\t501000\t1\tadd,rec\t2\t2000\trs2", prefix(rangesLines.get(1), 8));
+        assertEquals("650000\t1149999\t500000\t1\tadd\t1\t900000\trs3", prefix(rangesLines.get(2), 8));
+
+        // The sketch of the QQ plots keeps exactly the p-values under the threshold
+        assertEquals(4, writer.getSketch().getRows());
+        assertEquals(Arrays.asList("add", "rec"), writer.getSketch().getModels());
+        assertEquals(4, writer.getSketch().getDistribution("add").getCount());
+        assertEquals(1e-3, writer.getSketch().getDistribution("add").getThreshold(), 0);
+        assertEquals(2, writer.getSketch().getDistribution("add").getSignificantLogs().length);
+    }
+
+    @Test
+    public void spilledTopHitsGiveTheSameOutputs() throws IOException {
+        String filtered = write("filtered.txt.gz", HEADER,
+                "2 500 rs4 0.9 1 G T 0.4 1e-4 0.7 0.07 0.8 0.8 0.08 ref",
+                "1 2000 rs2 0.9 1 C T 0.2 1e-6 0.3 0.03 1e-5 0.4 - ref",
+                "1 1000 rs1 0.9 1 A G 0.1 0.5 0.1 0.01 1e-4 0.2 0.02 ref",
+                "1 900000 rs3 0.9 1 A C 0.3 1e-3 0.5 0.05 0.6 0.6 0.06 ref",
+                "1 900000 rs3 0.9 1 A T 0.3 1e-3 0.5 0.05 0.6 0.6 0.06 ref");
+
+        CondensedTopHitsWriter inMemory = new CondensedTopHitsWriter(1e-3, new String[] { "add", "rec" });
+        inMemory.generate(filtered, filtered, filtered, filtered, new File(this.tmpDir, "condensed1.txt.gz").getPath(),
+                new File(this.tmpDir, "tophits1.txt.gz").getPath(), new File(this.tmpDir, "ranges1.txt.gz").getPath());
+
+        // A budget of one byte spills each top hit to its own run
+        CondensedTopHitsWriter spilled = new CondensedTopHitsWriter(1e-3, new String[] { "add", "rec" });
+        spilled.setMemoryBudget(1);
+        spilled.generate(filtered, filtered, filtered, filtered, new File(this.tmpDir, "condensed2.txt.gz").getPath(),
+                new File(this.tmpDir, "tophits2.txt.gz").getPath(), new File(this.tmpDir, "ranges2.txt.gz").getPath());
+
+        assertEquals(5, spilled.getNumberOfTopHits());
+        assertEquals(read(new File(this.tmpDir, "tophits1.txt.gz").getPath()),
+                read(new File(this.tmpDir, "tophits2.txt.gz").getPath()));
+        List<String> rangesLines = read(new File(this.tmpDir, "ranges2.txt.gz").getPath());
+        assertEquals(read(new File(this.tmpDir, "ranges1.txt.gz").getPath()), rangesLines);
+
+        // The ranges are in genomic order, and the repeated rsId is kept apart
+        assertEquals(4, rangesLines.size());
+        assertEquals("-249000\t251999\t501000\t1\tadd,rec\t2\t2000\trs2", prefix(rangesLines.get(1), 8));
+        assertEquals("650000\t1149999\t500000\t1\tadd\t2\t900000\trs3", prefix(rangesLines.get(2), 8));
+        assertEquals("-249500\t250499\t500000\t2\tadd\t1\t500\trs4", prefix(rangesLines.get(3), 8));
+
+        // The temporary files and runs are deleted
+        for (String name : this.tmpDir.list()) {
+            assertFalse(name.endsWith(".tmp"));
+        }
+    }
+
+    private String write(String name, String... lines) throws IOException {
+        File file = new File(this.tmpDir, name);
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file))))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return file.getPath();
+    }
+
+    private static List<String> read(String file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new GZIPInputStream(new FileInputStream(file))))) {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static String prefix(String line, int fields) {
+        String[] tokens = line.split("\t");
+        StringBuilder sb = new StringBuilder(tokens[0]);
+        for (int i = 1; i < fields; ++i) {
+            sb.append('\t').append(tokens[i]);
+        }
+        return sb.toString();
+    }
+
+}
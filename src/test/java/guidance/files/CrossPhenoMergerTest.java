@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.files;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class CrossPhenoMergerTest {
+
+    private static final String HEADER = "chr\tposition\trs_id_all\talleleA\talleleB\tall_maf\trefpanel\tbest_model\t"
+            + "info_all\tfrequentist_add_pvalue_%1$s\tfrequentist_add_se_1_%1$s";
+
+    private File tmpDir;
+
+
+    @Before
+    public void createTmpDir() throws IOException {
+        this.tmpDir = File.createTempFile("crosspheno", "");
+        this.tmpDir.delete();
+        this.tmpDir.mkdir();
+    }
+
+    @After
+    public void deleteTmpDir() {
+        for (File f : this.tmpDir.listFiles()) {
+            f.delete();
+        }
+        this.tmpDir.delete();
+    }
+
+
+    @Test
+    public void mergeAndSelectByRange() throws IOException {
+        String asthma = write("tophits_merge_ASTHMA.txt", String.format(HEADER, "ASTHMA"),
+                "1\t1000\trs1\tA\tG\t0.1\tref\tadd\t0.9\t1e-08\t0.1",
+                "1\t2000\trs2\tC\tT\t0.2\tref\tadd\t0.9\t1e-09\t0.1",
+                "1\t900000\trs3\tA\tC\t0.3\tref\tadd\t0.9\t1e-10\t0.1",
+                "2\t500\trs4\tG\tT\t0.4\tref\tadd\t0.9\t0.03\t0.1");
+        // Not sorted
+        String rhinitis = write("tophits_merge_RHINITIS.txt", String.format(HEADER, "RHINITIS"),
+                "2\t500\trs4\tG\tT\t0.4\tref\tadd\t0.9\t1e-09\t0.1",
+                "1\t900000\trs3\tA\tC\t0.3\tref\tadd\t0.9\t0.5\t0.1",
+                "1\t1000\trs1\tA\tG\t0.1\tref\tadd\t0.9\t0.01\t0.1",
+                "1\t2000\trs2\tC\tT\t0.2\tref\tadd\t0.9\t0.04\t0.1",
+                "3\t700\trs5\tA\tT\t0.2\tref\tadd\t0.9\t1e-09\t0.1");
+
+        String output = new File(this.tmpDir, "cross_pheno_all.txt").getPath();
+        CrossPhenoMerger merger = new CrossPhenoMerger(5e-8, new String[] { "add" });
+        merger.merge(Arrays.asList(asthma, rhinitis), output);
+
+        assertEquals(5, merger.getNumberOfRows());
+        List<String> lines = read(output);
+        assertEquals(Arrays.asList(String.join("\t", CrossPhenoMerger.OUTPUT_COLUMNS),
+                "chr1:-249000-251999\trs2\tASTHMA\t1e-09\tRHINITIS\t0.04\tASTHMA-RHINITIS\tadd",
+                "chr2:-249500-250499\trs4\tRHINITIS\t1e-09\tASTHMA\t0.03\tRHINITIS-ASTHMA\tadd"), lines);
+    }
+
+    private String write(String name, String... lines) throws IOException {
+        File file = new File(this.tmpDir, name);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return file.getPath();
+    }
+
+    private static List<String> read(String file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.files;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ImputeOutputRewriterTest {
+
+    private static String rewrite(String input, String chr, int headerLines) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImputeOutputRewriter.rewrite(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)), out, chr,
+                headerLines);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void rewritesTheSecondColumnOfTheGenLines() throws IOException {
+        String gen = "--- rs1 1000 A G 0.9 0.1 0\n" + "--- rs2 2000 C T 0 1 0";
+
+        assertEquals("--- 22:1000_A_G 1000 A G 0.9 0.1 0\n" + "--- 22:2000_C_T 2000 C T 0 1 0\n",
+                rewrite(gen, "22", 0));
+    }
+
+    @Test
+    public void keepsTheHeaderAndRewritesTheShortLinesAsAwk() throws IOException {
+        String info = "snp_id rs_id position\n" + "--- rs1  1000   A\tG 1.0\n" + "--- rs2 3\n" + "\n";
+
+        assertEquals("snp_id rs_id position\n" + "--- X:1000_A_G 1000 A G 1.0\n" + "--- X:3__ 3\n" + " X:__\n",
+                rewrite(info, "X", 1));
+    }
+
+    @Test
+    public void keepsTheLinesWithFiveFieldsApart() throws IOException {
+        String gen = "s1 r1 100 A G\n" + "s2 r2 200 C T 0 1 0\n" + "s3 r3 300 G A";
+
+        assertEquals("s1 22:100_A_G 100 A G\n" + "s2 22:200_C_T 200 C T 0 1 0\n" + "s3 22:300_G_A 300 G A\n",
+                rewrite(gen, "22", 0));
+    }
+
+    @Test
+    public void writesASingleSeparatorAfterTheFifthField() throws IOException {
+        String gen = "s1 r1 100 A G \t\n" + "s2 r2 200 C T\t0 1 0 \n";
+
+        assertEquals("s1 22:100_A_G 100 A G\n" + "s2 22:200_C_T 200 C T 0 1 0 \n", rewrite(gen, "22", 0));
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ParallelBgzfInputStreamTest {
+
+    private File file;
+    private byte[] data;
+
+
+    @Before
+    public void createData() throws IOException {
+        this.file = File.createTempFile("parallel", ".gz");
+
+        // Compressible text of several blocks
+        Random random = new Random(15);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50_000; ++i) {
+            text.append("22\t").append(16_000_000 + 13 * i).append("\trs").append(i).append('\t')
+                    .append(random.nextDouble()).append('\n');
+        }
+        this.data = text.toString().getBytes("UTF-8");
+    }
+
+    @After
+    public void deleteFile() {
+        this.file.delete();
+    }
+
+    @Test
+    public void readsBgzfWithThreads() throws IOException {
+        try (OutputStream out = new BgzfOutputStream(new FileOutputStream(this.file), Deflater.DEFAULT_COMPRESSION, 2)) {
+            out.write(this.data);
+        }
+        assertTrue(BgzfInputStream.isBgzf(this.file.getPath()));
+
+        for (int threads : new int[] { 1, 4 }) {
+            try (InputStream in = new ParallelBgzfInputStream(this.file.getPath(), threads)) {
+                assertTrue(Arrays.equals(this.data, readAll(in)));
+            }
+        }
+    }
+
+    @Test
+    public void readsGzip() throws IOException {
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(this.file))) {
+            out.write(this.data);
+        }
+
+        try (InputStream in = FileUtils.openGzipInputStream(this.file.getPath())) {
+            byte[] read = readAll(in);
+            assertEquals(this.data.length, read.length);
+            assertTrue(Arrays.equals(this.data, read));
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[10_000];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+}
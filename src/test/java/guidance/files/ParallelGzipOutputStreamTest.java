@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+
+public class ParallelGzipOutputStreamTest {
+
+    @Test
+    public void parallelBlocks() throws IOException {
+        byte[] data = createData(1_000_000);
+        byte[] compressed = compress(data, Deflater.DEFAULT_COMPRESSION, 4, 50_000);
+
+        assertTrue(Arrays.equals(data, decompress(compressed)));
+        assertTrue(compressed.length < data.length / 2);
+    }
+
+    @Test
+    public void singleThread() throws IOException {
+        byte[] data = createData(300_000);
+        byte[] parallel = compress(data, Deflater.BEST_SPEED, 3, 40_000);
+        byte[] serial = compress(data, Deflater.BEST_SPEED, 1, 40_000);
+
+        // The blocks and their dictionaries do not depend on the threads
+        assertTrue(Arrays.equals(parallel, serial));
+        assertTrue(Arrays.equals(data, decompress(serial)));
+    }
+
+    @Test
+    public void emptyInput() throws IOException {
+        byte[] compressed = compress(new byte[0], Deflater.DEFAULT_COMPRESSION, 2, 1024);
+
+        assertEquals(0, decompress(compressed).length);
+    }
+
+    private static byte[] createData(int size) {
+        // Lines of a text table, compressible as the pipeline files
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append("chr").append(random.nextInt(23) + 1).append('\t').append(random.nextInt(1_000_000))
+                    .append("\trs").append(random.nextInt(100_000)).append("\tA\tG\t").append(random.nextDouble())
+                    .append('\n');
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    private static byte[] compress(byte[] data, int level, int threads, int blockSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(bytes, level, threads, blockSize)) {
+            // Writes of different sizes across the blocks
+            int offset = 0;
+            int length = 1;
+            while (offset < data.length) {
+                int n = Math.min(length, data.length - offset);
+                out.write(data, offset, n);
+                offset += n;
+                length = (length * 3) % 70_001 + 1;
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.files;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TabixIndexTest {
+
+    private File vcfFile;
+    private File indexFile;
+    private List<String> lines;
+
+
+    @Before
+    public void writeVcf() throws IOException {
+        this.vcfFile = File.createTempFile("tabix", ".vcf.gz");
+        this.indexFile = new File(TabixIndex.getIndexFile(this.vcfFile.getAbsolutePath()));
+
+        // Several blocks of variants of 2 chromosomes, some of them long deletions
+        Random random = new Random(11);
+        this.lines = new ArrayList<>();
+        this.lines.add("##fileformat=VCFv4.1");
+        this.lines.add("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1");
+        for (String chr : new String[] { "22", "X" }) {
+            int position = 1 + random.nextInt(1000);
+            for (int i = 0; i < 20_000; ++i) {
+                position += random.nextInt(200);
+                String ref = (random.nextInt(50) == 0) ? "ACGTACGTACGTACGTACGT" : "A";
+                this.lines.add(chr + "\t" + position + "\trs" + i + "\t" + ref + "\tG\t.\tPASS\t.\tGT:DS\t0|1:"
+                        + random.nextDouble());
+            }
+        }
+
+        TabixIndex index = new TabixIndex();
+        try (BgzfOutputStream bgzf = new BgzfOutputStream(new FileOutputStream(this.vcfFile),
+                Deflater.DEFAULT_COMPRESSION, 3)) {
+            for (String line : this.lines) {
+                FileUtils.writeIndexedLine(bgzf, index, line);
+            }
+            bgzf.finish();
+            index.write(this.indexFile.getAbsolutePath(), bgzf);
+        }
+    }
+
+    @After
+    public void deleteFiles() {
+        this.vcfFile.delete();
+        this.indexFile.delete();
+    }
+
+    @Test
+    public void readAll() throws IOException {
+        List<String> read = new ArrayList<>();
+        try (BgzfInputStream in = new BgzfInputStream(this.vcfFile.getAbsolutePath())) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                read.add(line);
+            }
+        }
+        assertEquals(this.lines, read);
+    }
+
+    @Test
+    public void query() throws IOException {
+        TabixIndex index = TabixIndex.read(this.indexFile.getAbsolutePath());
+        assertEquals(2, index.getChromosomes().size());
+
+        try (BgzfInputStream in = new BgzfInputStream(this.vcfFile.getAbsolutePath())) {
+            int[][] regions = new int[][] { { 1, 100 }, { 5_000, 5_010 }, { 150_000, 400_000 }, { 1_000_000, 3_000_000 },
+                    { 1_990_000, 2_100_000 } };
+            for (String chr : new String[] { "22", "X", "1" }) {
+                for (int[] region : regions) {
+                    assertEquals(expected(chr, region[0], region[1]), readAll(index.query(in, chr, region[0], region[1])));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameIndexFromFile() throws IOException {
+        File rebuilt = File.createTempFile("tabix", ".tbi");
+        try {
+            TabixIndex.build(this.vcfFile.getAbsolutePath(), rebuilt.getAbsolutePath());
+            TabixIndex written = TabixIndex.read(this.indexFile.getAbsolutePath());
+            TabixIndex read = TabixIndex.read(rebuilt.getAbsolutePath());
+            assertEquals(toString(written.getChunks("X", 100_000, 200_000)),
+                    toString(read.getChunks("X", 100_000, 200_000)));
+        } finally {
+            rebuilt.delete();
+        }
+    }
+
+    private List<String> expected(String chr, int start, int end) {
+        List<String> expected = new ArrayList<>();
+        for (String line : this.lines) {
+            String[] fields = line.split("\t");
+            if (fields[0].equals(chr)) {
+                int position = Integer.parseInt(fields[1]);
+                if (position <= end && position + fields[3].length() - 1 >= start) {
+                    expected.add(line);
+                }
+            }
+        }
+        return expected;
+    }
+
+    private static List<String> readAll(TabixIndex.RegionLines lines) throws IOException {
+        List<String> read = new ArrayList<>();
+        String line;
+        while ((line = lines.next()) != null) {
+            read.add(line);
+        }
+        return read;
+    }
+
+    private static String toString(List<long[]> chunks) {
+        StringBuilder sb = new StringBuilder();
+        for (long[] chunk : chunks) {
+            sb.append(chunk[0]).append('-').append(chunk[1]).append(' ');
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TopHitsCollectorTest {
+
+    private File tmpDir;
+
+
+    @Before
+    public void createTmpDir() throws IOException {
+        this.tmpDir = File.createTempFile("tophits", "");
+        this.tmpDir.delete();
+        this.tmpDir.mkdir();
+    }
+
+    @After
+    public void deleteTmpDir() {
+        for (File f : this.tmpDir.listFiles()) {
+            f.delete();
+        }
+        this.tmpDir.delete();
+    }
+
+
+    @Test
+    public void genomicOrder() throws IOException {
+        TopHitsCollector topHits = new TopHitsCollector(this.tmpDir, Long.MAX_VALUE, 0);
+        topHits.add("10", "200", "rs3", 1e-5, "a");
+        topHits.add("2", "1000", "rs2", 1e-5, "b");
+        topHits.add("2", "999", "rs1", 1e-5, "c");
+        topHits.add("X", "5", "rs4", 1e-5, "d");
+        topHits.add("2", "1000", "rs2", 1e-6, "e");
+        topHits.add("2", "1000", "rs0", 1e-5, "f");
+        topHits.sort();
+
+        assertEquals(Arrays.asList("c", "f", "e", "a", "d"), readAll(topHits));
+        topHits.close();
+    }
+
+    @Test
+    public void spilledRunsAreMerged() throws IOException {
+        Random random = new Random(7);
+        TopHitsCollector inMemory = new TopHitsCollector(this.tmpDir, Long.MAX_VALUE, 0);
+        TopHitsCollector spilled = new TopHitsCollector(this.tmpDir, 2_000, 0);
+        for (int i = 0; i < 5_000; ++i) {
+            String chr = Integer.toString(1 + random.nextInt(3));
+            String position = Integer.toString(random.nextInt(2_000));
+            String rsId = "rs" + random.nextInt(3);
+            String row = chr + "\t" + position + "\t" + rsId + "\t" + i;
+            inMemory.add(chr, position, rsId, 1e-5, row);
+            spilled.add(chr, position, rsId, 1e-5, row);
+        }
+        inMemory.sort();
+        spilled.sort();
+
+        assertEquals(0, inMemory.getNumberOfRuns());
+        assertTrue(spilled.getNumberOfRuns() > 1);
+        assertEquals(readAll(inMemory), readAll(spilled));
+
+        inMemory.close();
+        spilled.close();
+        assertEquals(0, this.tmpDir.list().length);
+    }
+
+    @Test
+    public void keepOnlyTheBestPvalues() throws IOException {
+        TopHitsCollector topHits = new TopHitsCollector(this.tmpDir, Long.MAX_VALUE, 2);
+        topHits.add("1", "300", "rs1", 1e-3, "a");
+        topHits.add("1", "200", "rs2", 1e-8, "b");
+        topHits.add("1", "100", "rs3", 1e-4, "c");
+        topHits.add("1", "50", "rs4", 1e-6, "d");
+        topHits.sort();
+
+        assertEquals(Arrays.asList("d", "b"), readAll(topHits));
+        topHits.close();
+    }
+
+    @Test
+    public void defaultsFromTheEnvironment() {
+        long heapQuarter = Runtime.getRuntime().maxMemory() / 4;
+        assertEquals(512L * 1024 * 1024, TopHitsCollector.parseMemoryBudget(" 512 "));
+        assertEquals(heapQuarter, TopHitsCollector.parseMemoryBudget(null));
+        assertEquals(heapQuarter, TopHitsCollector.parseMemoryBudget("0"));
+        assertEquals(heapQuarter, TopHitsCollector.parseMemoryBudget("1g"));
+
+        assertEquals(100, TopHitsCollector.parseMaxTopHits("100"));
+        assertEquals(0, TopHitsCollector.parseMaxTopHits(null));
+        assertEquals(0, TopHitsCollector.parseMaxTopHits("-5"));
+        assertEquals(0, TopHitsCollector.parseMaxTopHits("all"));
+    }
+
+    private static List<String> readAll(TopHitsCollector topHits) throws IOException {
+        List<String> rows = new ArrayList<>();
+        String row = null;
+        while ((row = topHits.next()) != null) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.plots;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class PvalueDistributionTest {
+
+    @Test
+    public void quantiles() {
+        assertEquals(3.841459, Distributions.chiSquaredQuantileUpper(0.05), 1e-5);
+        assertEquals(28.37399, Distributions.chiSquaredQuantileUpper(1e-7), 1e-3);
+        // qbeta(0.025, 1, 99) and qbeta(0.975, 10, 991)
+        assertEquals(0.0002557, Distributions.betaQuantile(0.025, 1, 99), 1e-6);
+        assertEquals(0.0170158, Distributions.betaQuantile(0.975, 10, 991), 1e-6);
+    }
+
+    @Test
+    public void uniformPvalues() {
+        Random random = new Random(11);
+        PvalueDistribution first = new PvalueDistribution(1e-4);
+        PvalueDistribution second = new PvalueDistribution(1e-4);
+        for (int i = 0; i < 200_000; ++i) {
+            first.add(random.nextDouble());
+            second.add(random.nextDouble());
+        }
+        first.merge(second);
+
+        assertEquals(400_000, first.getCount());
+        assertEquals(0.5, first.getQuantile(0.5), 5e-3);
+        assertEquals(1.0, first.getLambda(), 0.02);
+
+        double[] logs = first.getSignificantLogs();
+        assertEquals(40, logs.length, 20);
+        for (int i = 1; i < logs.length; ++i) {
+            assertEquals(true, logs[i - 1] >= logs[i]);
+        }
+    }
+
+    @Test
+    public void sketchFile() throws IOException {
+        Random random = new Random(7);
+        PvalueSketch sketch = new PvalueSketch();
+        for (int i = 0; i < 50_000; ++i) {
+            sketch.addRow();
+            sketch.add("add", random.nextDouble());
+            sketch.add("rec", Math.pow(random.nextDouble(), 2));
+        }
+        sketch.add("add", 1e-9);
+        sketch.add("add", 0);
+
+        File file = File.createTempFile("pvalues", PvalueSketch.FILE_SUFFIX);
+        try {
+            sketch.write(file.getPath());
+            PvalueSketch read = PvalueSketch.read(file.getPath());
+            read.merge(PvalueSketch.read(file.getPath()));
+
+            assertEquals(100_000, read.getRows());
+            assertEquals(Arrays.asList("add", "rec"), read.getModels());
+            assertEquals(100_002, read.getDistribution("add").getCount());
+            assertEquals(sketch.getLambda("add"), read.getLambda("add"), 1e-3);
+            assertEquals(sketch.getDistribution("rec").getQuantile(0.5),
+                    read.getDistribution("rec").getQuantile(0.5), 1e-4);
+            assertEquals(9.0, read.getDistribution("add").getMaxLog(), 1e-9);
+            assertEquals(2, read.getDistribution("add").getSignificantLogs().length);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void sketchFileKeepsItsThreshold() throws IOException {
+        PvalueSketch sketch = new PvalueSketch(1e-3);
+        sketch.addRow();
+        sketch.add("add", 1e-4);
+
+        File file = File.createTempFile("pvalues", PvalueSketch.FILE_SUFFIX);
+        try {
+            sketch.write(file.getPath());
+            PvalueSketch read = PvalueSketch.read(file.getPath());
+            assertEquals(1e-3, read.getSignificantPvalue(), 0);
+
+            // A new model and a merged sketch get the same threshold
+            read.add("rec", 5e-4);
+            read.merge(sketch);
+            assertEquals(1e-3, read.getDistribution("rec").getThreshold(), 0);
+            assertEquals(2, read.getDistribution("add").getSignificantLogs().length);
+            assertEquals(1, read.getDistribution("rec").getSignificantLogs().length);
+        } finally {
+            file.delete();
+        }
+    }
+
+}
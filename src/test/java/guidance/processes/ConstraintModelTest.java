@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.processes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ConstraintModelTest {
+
+    private static final String TELEMETRY_FILE = "constraintModelTest.telemetry.jsonl";
+    private static final String VCF_FILE = "constraintModelTest.vcf";
+    private static final double KB_PER_GB = 1024.0 * 1024.0;
+
+
+    @After
+    public void tearDown() {
+        new File(TELEMETRY_FILE).delete();
+        new File(VCF_FILE).delete();
+    }
+
+    private static String features(String chunk, long variants, long samples) {
+        return "{\"taskType\":\"imputeWithImpute\",\"chromosome\":\"22\",\"chunk\":\"" + chunk
+                + "\",\"panel\":\"1kg\",\"variants\":" + variants + ",\"samples\":" + samples
+                + ",\"memoryClass\":\"HIGH\"}\n";
+    }
+
+    private static String measure(String chunk, long peakRssKb) {
+        return "{\"taskType\":\"imputeWithImpute\",\"chromosome\":\"22\",\"chunk\":\"" + chunk
+                + "\",\"panel\":\"1kg\",\"tool\":\"impute2\",\"exitValue\":0,\"wallMillis\":1000,"
+                + "\"userCpuMillis\":1800,\"sysCpuMillis\":100,\"peakRssKb\":" + peakRssKb + "}\n";
+    }
+
+    @Test
+    public void predictsTheMemoryFromTheFeaturesOfTheChunks() throws IOException {
+        try (Writer writer = new FileWriter(TELEMETRY_FILE)) {
+            writer.write(features("1-1000", 100, 10));
+            writer.write(measure("1-1000", 2_000));
+            writer.write(features("1001-2000", 300, 10));
+            writer.write(measure("1001-2000", 4_000));
+            writer.write(measure("2001-3000", 9_000));
+        }
+        ConstraintModel model = ConstraintModel.load(TELEMETRY_FILE);
+
+        assertEquals(3, model.size());
+        // Measured chunk
+        assertEquals(9_000 * 1.25 / KB_PER_GB, model.predictMemoryGb("imputeWithImpute", "22", "2001-3000", "1kg", 50, 10),
+                1e-9);
+        // Fit of 1000 + 1 * variants * samples
+        assertEquals(6_000 * 1.25 / KB_PER_GB, model.predictMemoryGb("imputeWithImpute", "22", "3001-4000", "1kg", 500, 10),
+                1e-9);
+        assertTrue(Double.isNaN(model.predictMemoryGb("imputeWithImpute", "22", "1-1000", "other", 100, 10)));
+        assertEquals(2, model.predictCores("imputeWithImpute", "1kg"));
+        assertEquals("MEDIUM", ConstraintModel.selectMemoryClass("imputeWithImpute", Double.NaN, "MEDIUM"));
+    }
+
+    @Test
+    public void estimatesTheVariantsOfTheChunksFromTheOnesThatHaveRun() throws IOException {
+        try (Writer writer = new FileWriter(TELEMETRY_FILE)) {
+            writer.write(features("1-1000", 100, 10));
+            writer.write(measure("1-1000", 2_000));
+            writer.write(features("1001-2000", 300, 10));
+        }
+        ConstraintModel model = ConstraintModel.load(TELEMETRY_FILE);
+
+        assertTrue(model.hasHistory("imputeWithImpute", "1kg"));
+        assertFalse(model.hasHistory("imputeWithImpute", "other"));
+        assertFalse(model.hasHistory("imputeWithMinimac", "1kg"));
+        // Recorded chunk
+        assertEquals(300, model.estimateVariants("imputeWithImpute", "22", "1001-2000", "1kg", 1001, 2000));
+        // 400 variants in 2000 positions of the chromosome, or of the panel for another chromosome
+        assertEquals(100, model.estimateVariants("imputeWithImpute", "22", "2001-2500", "1kg", 2001, 2500));
+        assertEquals(200, model.estimateVariants("imputeWithImpute", "21", "1-1000", "1kg", 1, 1000));
+        assertEquals(-1, model.estimateVariants("imputeWithImpute", "22", "1-1000", "other", 1, 1000));
+    }
+
+    @Test
+    public void countsTheSamplesOfAVcf() throws IOException {
+        try (Writer writer = new FileWriter(VCF_FILE)) {
+            writer.write("##fileformat=VCFv4.2\n");
+            writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\ts3\n");
+            writer.write("22\t100\trs1\tA\tG\t.\tPASS\t.\tGT\t0|1\t1|1\t0|0\n");
+        }
+
+        assertEquals(3, ConstraintModel.countVcfSamples(VCF_FILE));
+        assertEquals(1, ConstraintModel.countLines(VCF_FILE, 2));
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department,
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.processes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CoreAllocatorTest {
+
+    @Test
+    public void testParseCpuList() {
+        assertEquals("[0, 1, 2, 3, 8, 10, 11]", Arrays.toString(CoreAllocator.parseCpuList("0-3,8,10-11")));
+        assertNull(CoreAllocator.parseCpuList(""));
+        assertNull(CoreAllocator.parseCpuList("3-1"));
+        assertNull(CoreAllocator.parseCpuList("a"));
+    }
+
+    @Test
+    public void testDisjointCores() throws Exception {
+        CoreAllocator allocator = new CoreAllocator(new int[] { 4, 5, 6, 7 });
+        assertNull(allocator.acquire(5));
+
+        // The first cores are released in the middle of the test, so they are not a resource of the try
+        CoreAllocator.Cores first = allocator.acquire(2);
+        try (CoreAllocator.Cores second = allocator.acquire(2)) {
+            assertEquals("4,5", first.getCpuList());
+            assertEquals("6,7", second.getCpuList());
+
+            // The third command waits until the first one releases its cores
+            Thread waiting = new Thread(() -> {
+                try (CoreAllocator.Cores third = allocator.acquire(2)) {
+                    assertEquals("4,5", third.getCpuList());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waiting.start();
+            Thread.sleep(100);
+            assertEquals(Thread.State.WAITING, waiting.getState());
+            first.close();
+            waiting.join(5_000);
+            assertEquals(Thread.State.TERMINATED, waiting.getState());
+        } finally {
+            first.close();
+        }
+    }
+
+}
@@ -32,6 +32,8 @@
 package guidance.processes;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -51,7 +53,9 @@ public class ProcessUtilsTest {
 
     private static final String TEST_OUTPUT_FILE_1 = "test1.out";
     private static final String TEST_ERROR_FILE_1 = "test1.err";
-    private static final String[] TEST_FILES = new String[] { TEST_OUTPUT_FILE_1, TEST_ERROR_FILE_1 };
+    private static final String TEST_TELEMETRY_FILE_1 = "test1.telemetry.jsonl";
+    private static final String[] TEST_FILES = new String[] { TEST_OUTPUT_FILE_1, TEST_ERROR_FILE_1,
+            TEST_TELEMETRY_FILE_1 };
 
 
     @BeforeClass
@@ -102,4 +106,64 @@ public class ProcessUtilsTest {
         }
     }
 
+    @Test
+    public void redirectsTheOutputAndErrorToTheirFiles() throws IOException {
+        ProcessBuilder pb = new ProcessBuilder("bash", "-c", "echo hello; echo error message 1>&2");
+        ProcessResult result = ProcessUtils.run(pb, TEST_OUTPUT_FILE_1, TEST_ERROR_FILE_1, 0, 0);
+
+        assertEquals(0, result.getExitValue());
+        assertEquals(6, result.getOutputBytes());
+        assertEquals(14, result.getErrorBytes());
+        assertFalse(result.isWallTimeExceeded());
+        try (BufferedReader br = new BufferedReader(new FileReader(TEST_ERROR_FILE_1))) {
+            assertEquals("error message", br.readLine());
+        }
+    }
+
+    @Test
+    public void killsTheCommandsOverTheTimeLimits() throws IOException {
+        ProcessResult sleep = ProcessUtils.run(new ProcessBuilder("sleep", "30"), null, null, 1, 0);
+        assertTrue(sleep.isWallTimeExceeded());
+        assertTrue(sleep.getDurationMillis() < 30_000);
+
+        ProcessResult loop = ProcessUtils.run(new ProcessBuilder("bash", "-c", "while :; do :; done"), null, null, 30, 1);
+        assertTrue(loop.isCpuTimeExceeded());
+        assertFalse(loop.isWallTimeExceeded());
+    }
+
+    @Test
+    public void logsTheResourcesOfTheCommandsOfATask() throws IOException {
+        if (!new File("/proc/self/stat").exists()) {
+            return;
+        }
+        System.setProperty(TelemetryLog.TELEMETRY_FILE_PROPERTY, TEST_TELEMETRY_FILE_1);
+        ProcessResult result;
+        TelemetryLog.Task task = TelemetryLog.forTask("snptest", "22", "1-5000000", "panel");
+        try {
+            result = ProcessUtils.run(new ProcessBuilder("sleep", "1"), null, null, 0, 0);
+        } finally {
+            task.close();
+            System.clearProperty(TelemetryLog.TELEMETRY_FILE_PROPERTY);
+        }
+
+        assertTrue(result.getUsage().getPeakRssKb() > 0);
+        try (BufferedReader br = new BufferedReader(new FileReader(TEST_TELEMETRY_FILE_1))) {
+            String line = br.readLine();
+            assertTrue(line.contains("\"taskType\":\"snptest\",\"chromosome\":\"22\",\"chunk\":\"1-5000000\""));
+            assertTrue(line.contains("\"tool\":\"sleep\""));
+        }
+    }
+
+    @Test
+    public void doesNotLogTheCommandsOutOfATask() throws IOException {
+        System.setProperty(TelemetryLog.TELEMETRY_FILE_PROPERTY, TEST_TELEMETRY_FILE_1);
+        try {
+            ProcessUtils.run(new ProcessBuilder("true"), null, null, 0, 0);
+        } finally {
+            System.clearProperty(TelemetryLog.TELEMETRY_FILE_PROPERTY);
+        }
+
+        assertFalse(new File(TEST_TELEMETRY_FILE_1).exists());
+    }
+
 }
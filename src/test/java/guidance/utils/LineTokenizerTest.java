@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department, 
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+
+public class LineTokenizerTest {
+
+    private static final String[] LINES = new String[] { "", "a", "a b c", "a  b", " a b", "a b ", "a b  ", " ",
+            "   ", "a\tb\t\tc\t", "\ta", "1.0 NA - 3e-05" };
+
+
+    @Test
+    public void splitAsString() {
+        LineTokenizer space = new LineTokenizer(' ');
+        LineTokenizer tab = new LineTokenizer('\t');
+        LineTokenizer whitespace = new LineTokenizer(LineTokenizer.WHITESPACE);
+        for (String line : LINES) {
+            checkSplit(space, line, line.split(" "));
+            checkSplit(tab, line, line.split("\t"));
+            checkSplit(whitespace, line, line.split("\\s+"));
+        }
+    }
+
+    @Test
+    public void splitOnlyFirstFields() throws IOException {
+        String[] lines = new String[] { "a b c d", "a b", "a b c", "a b  d ", "a b    ", "a b c   d e  " };
+        for (String line : lines) {
+            String[] expected = line.split(" ");
+            LineTokenizer tokenizer = new LineTokenizer(' ');
+            tokenizer.setMaxFields(2);
+            tokenizer.setLine(line);
+
+            int tokenized = Math.min(2, expected.length);
+            assertEquals(tokenized, tokenizer.size());
+            for (int i = 0; i < tokenized; i++) {
+                assertEquals(expected[i], tokenizer.get(i));
+            }
+
+            StringBuilder rest = new StringBuilder();
+            for (int i = 2; i < expected.length; i++) {
+                rest.append(i > 2 ? "\t" : "").append(expected[i]);
+            }
+            StringWriter writer = new StringWriter();
+            tokenizer.writeRest(writer, '\t');
+            assertEquals(rest.toString(), writer.toString());
+            assertEquals(expected.length > 2, tokenizer.hasRest());
+        }
+    }
+
+    @Test
+    public void readLines() throws IOException {
+        LineTokenizer tokenizer = new LineTokenizer(new StringReader("a b\r\nc\rd e f\n\ng"), ' ');
+        String[] expected = new String[] { "a b", "c", "d e f", "", "g" };
+        for (String line : expected) {
+            assertTrue(tokenizer.next());
+            assertEquals(line, tokenizer.getLine());
+            assertEquals(line.split(" ").length, tokenizer.size());
+        }
+        assertFalse(tokenizer.next());
+    }
+
+    @Test
+    public void parseDouble() {
+        String[] values = new String[] { "0", "-0", "1", "0.5", "1.", ".25", "123456.789", "1e-05", "3.5E+10",
+                "0.000123456789012345", "1.23456789012345678901", "5.6e-120", "1e300", "-7.25", "NaN", "Infinity",
+                "+4.5" };
+        LineTokenizer tokenizer = new LineTokenizer('\t');
+        for (String value : values) {
+            tokenizer.setLine(value);
+            assertEquals(Double.doubleToLongBits(Double.parseDouble(value)),
+                    Double.doubleToLongBits(tokenizer.getDouble(0)));
+        }
+
+        tokenizer.setLine("NA");
+        assertTrue(tokenizer.equals(0, "NA"));
+        assertFalse(tokenizer.equals(0, "N"));
+        try {
+            tokenizer.getDouble(0);
+            assertTrue(false);
+        } catch (NumberFormatException nfe) {
+            // Expected, as Double.parseDouble
+        }
+    }
+
+    private static void checkSplit(LineTokenizer tokenizer, String line, String[] expected) {
+        tokenizer.setLine(line);
+        assertEquals(expected.length, tokenizer.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], tokenizer.get(i));
+            assertEquals(expected[i].length(), tokenizer.length(i));
+            assertTrue(tokenizer.equals(i, expected[i]));
+        }
+    }
+
+}
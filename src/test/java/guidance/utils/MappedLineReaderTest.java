@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2002-2017 Barcelona Supercomputing Center (www.bsc.es)
+ *  Life Science Department, 
+ *  Computational Genomics Group (http://www.bsc.es/life-sciences/computational-genomics)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  Guidance web page: http://cg.bsc.es/guidance/
+ *
+ */
+
+package guidance.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class MappedLineReaderTest {
+
+    private File file;
+
+
+    @Before
+    public void createFile() throws IOException {
+        this.file = File.createTempFile("mapped", ".info");
+    }
+
+    @After
+    public void deleteFile() {
+        this.file.delete();
+    }
+
+    @Test
+    public void readsTheLinesAcrossSegments() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("snp_id rs_id position a0 a1 exp_freq_a1 info certainty type");
+        lines.add("");
+        for (int i = 0; i < 500; ++i) {
+            lines.add("--- rs" + i + " " + (1000 + i) + " A G 0." + i + " 0.9" + (i % 10) + " 1 0");
+        }
+        write(String.join("\n", lines) + "\r\n");
+
+        // Segments smaller than some lines, so the lines are read from the next one
+        for (long segmentSize : new long[] { 64, 1000, 1L << 20 }) {
+            try (MappedLineReader reader = new MappedLineReader(this.file.getPath(), segmentSize)) {
+                List<String> read = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    read.add(line);
+                }
+                assertEquals(lines, read);
+            }
+        }
+    }
+
+    @Test
+    public void tokenizesTheLines() throws IOException {
+        write("a b  c\n1.5 NA\nlast line");
+        try (MappedLineReader reader = new MappedLineReader(this.file.getPath())) {
+            LineTokenizer tokenizer = new LineTokenizer(reader, LineTokenizer.WHITESPACE);
+            List<String> fields = new ArrayList<>();
+            while (tokenizer.next()) {
+                for (int i = 0; i < tokenizer.size(); ++i) {
+                    fields.add(tokenizer.get(i));
+                }
+            }
+            assertEquals("[a, b, c, 1.5, NA, last, line]", fields.toString());
+            assertFalse(tokenizer.next());
+        }
+
+        write("");
+        try (MappedLineReader reader = new MappedLineReader(this.file.getPath())) {
+            assertNull(reader.readLine());
+        }
+    }
+
+    private void write(String text) throws IOException {
+        try (OutputStream out = new FileOutputStream(this.file)) {
+            out.write(text.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+}
@@ -1,5 +1,17 @@
 #!/bin/bash
 
+### ALL PHASES ###
+
+# Threads that compress the outputs of the tasks with a single computing unit, and
+# inflate the BGZF files they read
+export gzipCU="1"
+
+# Telemetry of the external commands of the tasks (JSON lines), written by the
+# workers and read by the master to size the next runs. It must be in a shared
+# file system. There is no telemetry when it is not defined
+#export telemetryFile="$(pwd)/guidance.telemetry.jsonl"
+
+
 ### PHASE 1 ###
 
 export phasingMem="4.0"
@@ -8,6 +20,10 @@ export phasingCU="2"
 export phasingBedMem="4.0"
 export phasingBedCU="2"
 
+# Threads of shapeit and eagle, by default the computing units of phasingBed
+#export shapeitThreads="2"
+#export eagleThreads="2"
+
 
 ### PHASE 2 ###
 
@@ -26,6 +42,14 @@ export imputeWithImputeHighMem="4.0"
 export imputeWithMinimacLowMem="1.0"
 export imputeWithMinimacMediumMem="2.0"
 export imputeWithMinimacHighMem="4.0"
+export imputeWithMinimacCU="1"
+
+# Threads of minimac, by default the computing units of imputeWithMinimac
+#export minimacThreads="1"
+# Pin each minimac command to its own cores of the node (YES or NO), taken from
+# tasksetCpus (a taskset list, by default all the cores of the node)
+export minimacTaskset="NO"
+#export tasksetCpus="0-47"
 
 export filterByInfoImputeMem="1.0"
 